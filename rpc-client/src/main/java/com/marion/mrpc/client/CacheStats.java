@@ -0,0 +1,52 @@
+package com.marion.mrpc.client;
+
+/**
+ * 客户端结果缓存的统计, 见RpcClient.getCacheStats
+ *      hits & misses: 可缓存的调用命中和未命中缓存的次数
+ *      evictions: 超过容量被淘汰的结果数
+ *      size: 当前缓存的结果数
+ */
+public final class CacheStats {
+
+    private final long hits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    private final int size;
+
+    CacheStats(long hits, long misses, long evictions, int size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // 命中率, 还没有可缓存的调用时为0
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats(hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size + ")";
+    }
+}
@@ -0,0 +1,125 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.Request;
+import com.marion.mrpc.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端的批量调用, 一个RpcClient的所有代理共用
+ *      1. submit: 把调用放入当前批次, 返回的future在这个调用的响应到达后完成
+ *          a. 批次中的第一个调用开始计时, windowMicros之后整批发送
+ *          b. 批次中的调用达到maxSize时不再等待, 由提交的线程立即整批发送
+ *      2. flush: 把一批调用交给RemoteInvoker.invokeBatch, 合并成一个批量请求发送,
+ *          批量请求的截止时间是批次中最早的截止时间
+ * 所有RemoteInvoker共用同一组selector/encoder/decoder/methodTables, 由批次中任意一个调用的invoker发送即可
+ */
+class CallBatcher {
+
+    private final long windowMicros;
+
+    private final int maxSize;
+
+    private final ScheduledExecutorService timer;
+
+    private final ExecutorService sender;
+
+    private List<Call> pending = new ArrayList<>();
+
+    private ScheduledFuture<?> scheduled;
+
+    CallBatcher(long windowMicros, int maxSize) {
+        this.windowMicros = windowMicros;
+        this.maxSize = Math.max(1, maxSize);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "mrpc-client-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.timer = executor;
+        this.sender = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "mrpc-client-batch-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // 1. 把调用放入当前批次
+    CompletableFuture<Response> submit(RemoteInvoker invoker, Request request, RemoteMethod remoteMethod,
+                                       long deadlineNanos) {
+        Call call = new Call(invoker, request, remoteMethod, deadlineNanos);
+        List<Call> full = null;
+        synchronized (this) {
+            pending.add(call);
+            if (pending.size() >= maxSize) {
+                // b. 达到maxSize, 立即整批发送
+                full = pending;
+                pending = new ArrayList<>();
+                if (scheduled != null) {
+                    scheduled.cancel(false);
+                    scheduled = null;
+                }
+            } else if (pending.size() == 1) {
+                // a. 第一个调用开始计时
+                scheduled = timer.schedule(this::flushScheduled, windowMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        if (full != null) {
+            flush(full);
+        }
+        return call.future;
+    }
+
+    // a. 计时结束, 整批发送. 阻塞式的transportClient会在发送时等待响应, 交给批量调用自己的发送线程, 不占用计时线程
+    private void flushScheduled() {
+        List<Call> calls;
+        synchronized (this) {
+            calls = pending;
+            pending = new ArrayList<>();
+            scheduled = null;
+        }
+        if (!calls.isEmpty()) {
+            sender.execute(() -> flush(calls));
+        }
+    }
+
+    // 2. 把一批调用合并成一个批量请求发送
+    private void flush(List<Call> calls) {
+        calls.get(0).invoker.invokeBatch(calls);
+    }
+
+    /**
+     * 批次中的一个调用
+     */
+    static class Call {
+
+        final RemoteInvoker invoker;
+
+        final Request request;
+
+        final RemoteMethod remoteMethod;
+
+        /**
+         * 调用的截止时间(System.nanoTime), Long.MAX_VALUE表示没有
+         */
+        final long deadlineNanos;
+
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+
+        Call(RemoteInvoker invoker, Request request, RemoteMethod remoteMethod, long deadlineNanos) {
+            this.invoker = invoker;
+            this.request = request;
+            this.remoteMethod = remoteMethod;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.marion.mrpc.client;
+
+import com.marion.common.jfr.CallEvent;
+import com.marion.common.metrics.MethodMetrics;
+import com.marion.mrpc.Peer;
+import com.marion.mrpc.Request;
+import com.marion.mrpc.Response;
+import com.marion.mrpc.codec.Decoder;
+import com.marion.mrpc.codec.Encoder;
+import com.marion.mrpc.transport.PayloadWriter;
+import com.marion.mrpc.transport.TransportClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 一次远程调用在客户端各个阶段的耗时, 记录到方法的指标中
+ *      select: 等待selector选出transportClient(没有空闲连接时的排队)
+ *      encode: 把请求序列化到transportClient提供的输出流
+ *      network: 请求序列化完成到收到响应, 包括发送、服务端处理和传回的时间
+ *      decode: 反序列化响应
+ * 同时是这次发送的JFR事件(见RpcEvents.client): 正在记录时统计请求和响应的字节数, 结束时由finish提交
+ * 编码和收到响应可能在不同的线程上(多路复用连接的IO线程), 编码完成的时间用volatile传递
+ * NONE不记录, 用于批量请求和握手这样不属于某个方法的请求
+ */
+final class CallTimer {
+
+    static final String[] PHASES = {"select", "encode", "network", "decode"};
+    private static final int SELECT = 0;
+    private static final int ENCODE = 1;
+    private static final int NETWORK = 2;
+    private static final int DECODE = 3;
+
+    static final CallTimer NONE = new CallTimer(null, CallEvent.NONE);
+
+    private final MethodMetrics metrics;
+
+    private final CallEvent event;
+
+    private volatile long encodedAt;
+
+    CallTimer(MethodMetrics metrics, CallEvent event) {
+        this.metrics = metrics;
+        this.event = event;
+    }
+
+    // select: 从start开始等待transportClient
+    void selected(long start) {
+        if (metrics != null) {
+            metrics.record(SELECT, System.nanoTime() - start);
+        }
+    }
+
+    // encode: 序列化请求, 记录序列化完成的时间
+    PayloadWriter encode(Encoder encoder, Request request) {
+        if (metrics == null) {
+            return out -> {
+                encoder.encode(request, event.countRequest(out));
+                event.written(out);
+            };
+        }
+        return out -> {
+            long start = System.nanoTime();
+            encoder.encode(request, event.countRequest(out));
+            event.written(out);
+            encodedAt = System.nanoTime();
+            metrics.record(ENCODE, encodedAt - start);
+        };
+    }
+
+    // network & decode: 收到响应后反序列化, 读完后关闭响应流
+    Response decode(Decoder decoder, InputStream body) throws IOException {
+        if (metrics == null) {
+            try (InputStream in = body) {
+                return decoder.decode(event.countResponse(in), Response.class);
+            }
+        }
+        long start = System.nanoTime();
+        if (encodedAt != 0) {
+            metrics.record(NETWORK, start - encodedAt);
+        }
+        try (InputStream in = body) {
+            return decoder.decode(event.countResponse(in), Response.class);
+        } finally {
+            metrics.record(DECODE, System.nanoTime() - start);
+        }
+    }
+
+    // 发送结束, 提交JFR事件, 对端记为 host:port; 没有选出transportClient时对端为空
+    void finish(RemoteMethod remoteMethod, TransportClient transportClient, int code) {
+        Peer peer = transportClient != null ? transportClient.getPeer() : null;
+        event.commit(remoteMethod.getDescriptor().getClazz(), remoteMethod.getDescriptor().getMethod(),
+            peer != null ? peer.getHost() + ":" + peer.getPort() : null, code);
+    }
+}
@@ -0,0 +1,97 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.Peer;
+import com.marion.mrpc.transport.TransportClient;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 路由策略: 按@HashKey参数一致性哈希, 带负载上限
+ *      1. init: 与LeastLoadedTransportSelector相同地建立连接, 再把所有peer放到一致性哈希环上
+ *      2. select(routeKey): 从routeKey在环上的位置顺时针查找第一个负载没有超过上限的peer
+ *          a. 上限 = ceil((所有peer的未完成请求数 + 1) * hashLoadFactor / peer数), 热点key不会压垮一个服务端,
+ *             超出的请求落到环上的下一个peer
+ *          b. 独占的连接没有空闲时、peer被摘除时也顺延到下一个peer, 摘除的peer恢复后它的key再回到它上面
+ *      3. 没有routeKey的调用按LeastLoadedTransportSelector的策略选择
+ * 相同的key总是落在同一个服务端上, 服务端按key缓存的数据不会在每个服务端上都保存一份
+ */
+public class ConsistentHashTransportSelector extends LeastLoadedTransportSelector {
+
+    private int virtualNodes = 160;
+
+    private double loadFactor = 1.25;
+
+    private volatile HashRing<Node> ring;
+
+    @Override
+    public void init(RpcClientConfig config) {
+        this.virtualNodes = config.getHashVirtualNodes();
+        this.loadFactor = Math.max(1, config.getHashLoadFactor());
+        super.init(config);
+    }
+
+    /**
+     * 1. init: 建立连接后重建一致性哈希环
+     */
+    @Override
+    public synchronized void init(List<Peer> rpcServersList, int count, Class<? extends TransportClient> transportClientClazz) {
+        super.init(rpcServersList, count, transportClientClazz);
+        this.ring = new HashRing<>(Arrays.asList(nodes()), node -> node.peer.getHost() + ":" + node.peer.getPort(),
+            virtualNodes);
+    }
+
+    /**
+     * 2. select(routeKey): 从routeKey在环上的位置顺时针查找第一个负载没有超过上限的peer
+     *
+     * @param routeKey 接口方法中标注了@HashKey的参数
+     * @return TransportClient
+     */
+    @Override
+    public TransportClient select(Object routeKey) {
+        if (routeKey == null) {
+            return select();
+        }
+        Node[] all = nodes();
+        HashRing<Node> current = ring;
+        long now = System.nanoTime();
+        int capacity = capacity(all);
+        int position = current.position(String.valueOf(routeKey));
+        Node first = current.get(position);
+        TransportClient client = tryTake(first, capacity, now);
+        if (client != null) {
+            return client;
+        }
+        // 首选的peer负载已满, 沿着环顺时针查看其它peer
+        Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        visited.add(first);
+        for (int i = 1; i < current.size() && visited.size() < all.length; i++) {
+            Node node = current.get(position + i);
+            if (visited.add(node)) {
+                client = tryTake(node, capacity, now);
+                if (client != null) {
+                    return client;
+                }
+            }
+        }
+        // 所有peer都没有可用的连接: 按LeastLoadedTransportSelector的方式查看所有peer, 必要时等待
+        return takeAny(all);
+    }
+
+    // 负载没有超过上限时从node中取一个连接, 被摘除的peer取不到
+    private TransportClient tryTake(Node node, int capacity, long now) {
+        return node.inflight.get() < capacity ? take(node, now) : null;
+    }
+
+    // a. 负载上限, 至少是1
+    private int capacity(Node[] all) {
+        long inflight = 0;
+        for (Node node : all) {
+            inflight += node.inflight.get();
+        }
+        return (int) Math.ceil((inflight + 1) * loadFactor / all.length);
+    }
+}
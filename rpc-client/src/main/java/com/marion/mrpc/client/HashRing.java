@@ -0,0 +1,73 @@
+package com.marion.mrpc.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 一致性哈希环
+ *      1. 每个成员按 名字#i 在环上放virtualNodes个虚拟节点, 成员在环上分布得更均匀
+ *      2. position: key的哈希值顺时针方向的第一个虚拟节点
+ *      3. get: 环上某个位置的虚拟节点所属的成员, 位置超出环的大小时绕回开头
+ * 增加或删除一个成员时, 只有落在它的虚拟节点上的key(约1/N)会换到其它成员上
+ * 环创建后不再修改, 可以被多个线程同时读取
+ */
+final class HashRing<T> {
+
+    private final long[] points;
+
+    private final Object[] owners;
+
+    HashRing(List<T> members, Function<T, String> name, int virtualNodes) {
+        virtualNodes = Math.max(virtualNodes, 1);
+        List<long[]> entries = new ArrayList<>(members.size() * virtualNodes);
+        for (int m = 0; m < members.size(); m++) {
+            String memberName = name.apply(members.get(m));
+            for (int i = 0; i < virtualNodes; i++) {
+                entries.add(new long[] {hash(memberName + "#" + i), m});
+            }
+        }
+        entries.sort((a, b) -> Long.compare(a[0], b[0]));
+        this.points = new long[entries.size()];
+        this.owners = new Object[entries.size()];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = entries.get(i)[0];
+            owners[i] = members.get((int) entries.get(i)[1]);
+        }
+    }
+
+    int size() {
+        return points.length;
+    }
+
+    // 2. key的哈希值顺时针方向的第一个虚拟节点
+    int position(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i == points.length ? 0 : i;
+    }
+
+    // 3. 环上某个位置的虚拟节点所属的成员
+    @SuppressWarnings("unchecked")
+    T get(int position) {
+        return (T) owners[position % owners.length];
+    }
+
+    // FNV-1a 64位哈希, 再用murmur3的fmix64打散, 相近的字符串也能分布到环上不同的位置
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
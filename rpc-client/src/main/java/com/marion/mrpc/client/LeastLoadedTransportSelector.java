@@ -0,0 +1,475 @@
+package com.marion.mrpc.client;
+
+import com.marion.common.utils.ReflectUtils;
+import com.marion.mrpc.Deadline;
+import com.marion.mrpc.Peer;
+import com.marion.mrpc.transport.TransportClient;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 路由策略: 两次随机选择(power of two choices) + 最少未完成请求
+ *      1. init: 与每个rpcServer建立count个连接, 按对端peer分组, 每个peer记录
+ *          a. inflight: 已经选出还没有释放的请求数
+ *          b. cost: 请求耗时的peak EWMA, 新的耗时比cost大时直接取新值, 否则按距上次更新的时间指数衰减到新值,
+ *             慢的服务端很快被识别出来, 恢复后再逐渐回落
+ *      2. select: 随机挑两个peer, 选负载 cost * (inflight + 1) 较小的一个, 只有一个peer时直接使用它
+ *          a. 支持多路复用的transportClient由多个调用方共享, 在peer的连接中轮流选择
+ *          b. 独占的transportClient从peer的空闲队列中取出, 两个peer都没有空闲连接时依次查看其它健康的peer;
+ *             健康peer的连接都在使用时阻塞等待(不占用CPU), 直到有连接释放或者被摘除的peer可以探测,
+ *             最多等待selectTimeoutMillis, 调用方线程上有Deadline时不超过它, 仍然没有连接则抛出异常
+ *      3. release: 把transportClient还给它的peer, 带上耗时时更新这个peer的cost, 并记录这次请求是否成功
+ *      4. close: 关闭所有transportClient
+ *      5. 健康检查: 每个peer有一个PeerHealth, 连续失败healthFailureThreshold次后摘除, 摘除期间select跳过它,
+ *          backoff之后只放一个探测请求过去, 探测失败或超过healthProbeTimeoutMillis没有结束时backoff翻倍.
+ *          耗时超过这个peer上同一个方法平均耗时的healthLatencyFactor倍的请求也算一次失败:
+ *          不同方法的耗时、不同peer的耗时都不能互相比较, 耗时一向较长的方法和较慢的机器不会因此被摘除
+ *          只有所有peer都不能选择(被摘除或者正在探测)时才忽略健康状态, 仍然选择一个peer
+ * select/release都不加锁, 只使用原子变量和无锁队列; 只有需要等待连接时才使用idleLock
+ */
+@Slf4j
+public class LeastLoadedTransportSelector implements TransportSelector {
+
+    /**
+     * cost的衰减时间常数: 距上次更新越久, 旧的cost权重越小
+     */
+    private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 还没有耗时数据的peer按1ms计算
+     */
+    private static final long INITIAL_COST_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private volatile Node[] nodes = new Node[0];
+
+    private volatile Map<TransportClient, Node> owners = new IdentityHashMap<>();
+
+    /**
+     * 没有可用的独占连接时select在这里等待, release时只有存在等待者才加锁通知
+     */
+    private final Object idleLock = new Object();
+
+    private final AtomicInteger idleWaiters = new AtomicInteger();
+
+    // 每次通知等待者时加1, 等待前记录, 避免错过等待之前的释放
+    private volatile long idleVersion;
+
+    private long selectTimeoutMillis = 3000;
+
+    private int failureThreshold = 5;
+
+    private double latencyFactor = 10;
+
+    private long backoffMillis = 1000;
+
+    private long maxBackoffMillis = 30000;
+
+    private long probeTimeoutMillis = 10000;
+
+    @Override
+    public void init(RpcClientConfig config) {
+        this.selectTimeoutMillis = config.getSelectTimeoutMillis();
+        this.failureThreshold = config.getHealthFailureThreshold();
+        this.latencyFactor = config.getHealthLatencyFactor();
+        this.backoffMillis = config.getHealthBackoffMillis();
+        this.maxBackoffMillis = config.getHealthMaxBackoffMillis();
+        this.probeTimeoutMillis = config.getHealthProbeTimeoutMillis();
+        init(config.getRpcServers(), config.getConnectCount(), config.getTransportClass());
+    }
+
+    /**
+     * 1. init: 与每个rpcServer建立count个连接, 按对端peer分组
+     *
+     * @param rpcServersList  可以连接的rpcServers端点列表信息
+     * @param count                每个RpcClient与所有RpcServer之间, 默认建立多少连接
+     * @param transportClientClazz transportClient作为网络通信客户端
+     */
+    @Override
+    public synchronized void init(List<Peer> rpcServersList, int count, Class<? extends TransportClient> transportClientClazz) {
+        count = Math.max(count, 1);
+        List<Node> created = new ArrayList<>();
+        Map<TransportClient, Node> createdOwners = new IdentityHashMap<>(owners);
+        for (Peer rpcServer : rpcServersList) {
+            TransportClient[] clients = new TransportClient[count];
+            for (int i = 0; i < count; i++) {
+                clients[i] = ReflectUtils.newInstance(transportClientClazz);
+                clients[i].connect(rpcServer);
+                log.info("transportClient {}", clients[i]);
+            }
+            Node node = new Node(rpcServer, clients,
+                new PeerHealth(rpcServer, failureThreshold, backoffMillis, maxBackoffMillis, probeTimeoutMillis));
+            for (TransportClient client : clients) {
+                createdOwners.put(client, node);
+                if (!client.isMultiplexed()) {
+                    node.idle.offer(client);
+                }
+            }
+            created.add(node);
+        }
+        List<Node> all = new ArrayList<>();
+        for (Node node : nodes) {
+            all.add(node);
+        }
+        all.addAll(created);
+        // 先发布owners再发布nodes, select选出的连接一定能在release时找到所属的peer
+        this.owners = createdOwners;
+        this.nodes = all.toArray(new Node[0]);
+        signalIdle();
+    }
+
+    /**
+     * 2. select: 随机挑两个可以选择的peer, 选负载较小的一个
+     *
+     * @return TransportClient
+     */
+    @Override
+    public TransportClient select() {
+        Node[] current = nodes();
+        long now = System.nanoTime();
+        Node first = pick(current, now);
+        TransportClient client = first != null ? take(first, now) : null;
+        return client != null ? client : takeAny(current);
+    }
+
+    // 当前所有的peer, 没有peer时抛出异常
+    Node[] nodes() {
+        Node[] current = nodes;
+        if (current.length == 0) {
+            throw new IllegalStateException("no rpc server to select");
+        }
+        return current;
+    }
+
+
+    /**
+     * 从node中取一个连接, 取不到时返回null
+     *      1. 多路复用的连接轮流使用, 独占的连接从空闲队列中取出
+     *      2. peer被摘除时取不到; 摘除时间已到时, 只有一个调用方能取到, 作为探测请求
+     */
+    TransportClient take(Node node, long now) {
+        TransportClient client;
+        if (node.multiplexed) {
+            client = node.clients[(node.next.getAndIncrement() & Integer.MAX_VALUE) % node.clients.length];
+        } else {
+            client = node.idle.poll();
+            if (client == null) {
+                return null;
+            }
+        }
+        if (!node.health.tryAcquire(now)) {
+            if (!node.multiplexed) {
+                node.idle.offer(client);
+            }
+            return null;
+        }
+        node.inflight.incrementAndGet();
+        return client;
+    }
+
+    /**
+     * 选中的peer取不到连接时, 依次查看所有peer
+     *      1. 先只看健康状态允许选择的peer
+     *      2. 所有peer都不能选择(全部被摘除或者正在探测)时忽略健康状态, 不让调用因为摘除而全部失败或一直等待;
+     *         还有可以选择的peer时不会借用被摘除的peer上的连接
+     *      3. 都取不到时等待连接释放或者被摘除的peer可以探测, 最多等待到selectTimeoutMillis和调用方的Deadline中较早的一个
+     */
+    TransportClient takeAny(Node[] current) {
+        long waitNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(selectTimeoutMillis),
+            Math.max(Deadline.remainingNanos(), 0));
+        long deadline = System.nanoTime() + waitNanos;
+        // 先登记为等待者再查看空闲队列, release看到等待者时一定会通知
+        idleWaiters.incrementAndGet();
+        try {
+            int start = ThreadLocalRandom.current().nextInt(current.length);
+            while (true) {
+                long version = idleVersion;
+                long now = System.nanoTime();
+                boolean selectable = false;
+                for (int i = 0; i < current.length; i++) {
+                    Node node = current[(start + i) % current.length];
+                    TransportClient client = take(node, now);
+                    if (client != null) {
+                        return client;
+                    }
+                    selectable |= node.health.isSelectable(now);
+                }
+                // 2. 所有peer都不能选择时忽略健康状态
+                if (!selectable) {
+                    for (int i = 0; i < current.length; i++) {
+                        TransportClient client = takeIgnoringHealth(current[(start + i) % current.length]);
+                        if (client != null) {
+                            return client;
+                        }
+                    }
+                }
+                long remaining = deadline - now;
+                if (remaining <= 0) {
+                    throw new IllegalStateException("no idle transportClient in "
+                        + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms");
+                }
+                awaitIdle(version, Math.min(remaining, nanosUntilChange(current, now)));
+            }
+        } finally {
+            idleWaiters.decrementAndGet();
+        }
+    }
+
+    // 3. 等到有连接释放, 或者最多nanos纳秒; 等待前已经有连接释放时立即返回
+    private void awaitIdle(long version, long nanos) {
+        synchronized (idleLock) {
+            if (idleVersion != version) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(idleLock, nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for transportClient", e);
+            }
+        }
+    }
+
+    // 通知等待连接的select, 没有等待者时不加锁
+    private void signalIdle() {
+        if (idleWaiters.get() > 0) {
+            synchronized (idleLock) {
+                idleVersion++;
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+    // 最近一个peer的摘除时间到期或者探测超时还有多久, 已经到期的peer要等连接释放, 不计入
+    private static long nanosUntilChange(Node[] current, long now) {
+        long min = Long.MAX_VALUE;
+        for (Node node : current) {
+            long nanos = node.health.nanosUntilChange(now);
+            if (nanos > 0) {
+                min = Math.min(min, nanos);
+            }
+        }
+        return min;
+    }
+
+    private TransportClient takeIgnoringHealth(Node node) {
+        TransportClient client = node.multiplexed
+            ? node.clients[(node.next.getAndIncrement() & Integer.MAX_VALUE) % node.clients.length]
+            : node.idle.poll();
+        if (client != null) {
+            node.inflight.incrementAndGet();
+        }
+        return client;
+    }
+
+    // 随机挑两个不同的peer, 返回负载较小的一个; 被摘除的peer和没有空闲独占连接的peer不参与比较
+    private Node pick(Node[] current, long now) {
+        if (current.length == 1) {
+            return current[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(current.length);
+        int j = random.nextInt(current.length - 1);
+        if (j >= i) {
+            j++;
+        }
+        Node a = current[i];
+        Node b = current[j];
+        boolean useA = a.isAvailable(now);
+        boolean useB = b.isAvailable(now);
+        if (useA && useB) {
+            return a.load() <= b.load() ? a : b;
+        }
+        return useA ? a : useB ? b : null;
+    }
+
+    /**
+     * 3. release: 把transportClient还给它的peer, 不更新cost, 按成功处理
+     *
+     * @param transportClient 网络通信客户端
+     */
+    @Override
+    public void release(TransportClient transportClient) {
+        release(transportClient, -1, true);
+    }
+
+    /**
+     * 3. release: 把transportClient还给它的peer, 并用这次请求的耗时更新peer的cost, 按成功处理
+     *
+     * @param transportClient 网络通信客户端
+     * @param elapsedNanos 从select到release的耗时, 小于0表示没有耗时数据
+     */
+    @Override
+    public void release(TransportClient transportClient, long elapsedNanos) {
+        release(transportClient, elapsedNanos, true);
+    }
+
+    /**
+     * 3. release: 把transportClient还给它的peer, 更新peer的cost和健康状态, 不知道调用的方法
+     *
+     * @param transportClient 网络通信客户端
+     * @param elapsedNanos 从select到release的耗时, 小于0表示没有耗时数据
+     * @param success 这次请求是否拿到了对端的响应
+     */
+    @Override
+    public void release(TransportClient transportClient, long elapsedNanos, boolean success) {
+        release(transportClient, elapsedNanos, success, null);
+    }
+
+    /**
+     * 3. release: 把transportClient还给它的peer, 更新peer的cost、这个方法在peer上的平均耗时和健康状态
+     *
+     * @param transportClient 网络通信客户端
+     * @param elapsedNanos 从select到release的耗时, 小于0表示没有耗时数据
+     * @param success 这次请求是否拿到了对端的响应
+     * @param method 调用的方法, 为null时不判断耗时是否异常
+     */
+    @Override
+    public void release(TransportClient transportClient, long elapsedNanos, boolean success, String method) {
+        Node node = owners.get(transportClient);
+        if (node == null) {
+            return;
+        }
+        node.inflight.decrementAndGet();
+        long now = System.nanoTime();
+        if (success && elapsedNanos >= 0 && isSlow(node, method, elapsedNanos)) {
+            success = false;
+        }
+        if (success) {
+            node.health.onSuccess();
+        } else {
+            node.health.onFailure(now);
+        }
+        if (elapsedNanos >= 0) {
+            node.observe(elapsedNanos);
+            if (method != null) {
+                node.methods.computeIfAbsent(method, key -> new MethodCost()).observe(elapsedNanos);
+            }
+        }
+        if (!transportClient.isMultiplexed()) {
+            node.idle.offer(transportClient);
+        }
+        // 健康状态可能已经变化(例如探测成功), 等待的select需要重新查看
+        signalIdle();
+    }
+
+    // 5. 耗时超过这个peer上同一个方法平均耗时的latencyFactor倍, 这个方法在peer上还没有耗时数据时不判断
+    private boolean isSlow(Node node, String method, long elapsedNanos) {
+        if (latencyFactor <= 0 || method == null) {
+            return false;
+        }
+        MethodCost cost = node.methods.get(method);
+        return cost != null && elapsedNanos > cost.average() * latencyFactor;
+    }
+
+    /**
+     * 4. close: 关闭所有transportClient
+     */
+    @Override
+    public synchronized void close() {
+        for (Node node : nodes) {
+            for (TransportClient client : node.clients) {
+                client.close();
+            }
+        }
+        nodes = new Node[0];
+        owners = new IdentityHashMap<>();
+    }
+
+    /**
+     * 一个对端peer的连接和负载
+     */
+    static final class Node {
+
+        final Peer peer;
+
+        final TransportClient[] clients;
+
+        final boolean multiplexed;
+
+        final Queue<TransportClient> idle = new ConcurrentLinkedQueue<>();
+
+        final AtomicInteger inflight = new AtomicInteger();
+
+        final AtomicInteger next = new AtomicInteger();
+
+        final AtomicLong cost = new AtomicLong(INITIAL_COST_NANOS);
+
+        final AtomicLong lastObserved = new AtomicLong(System.nanoTime());
+
+        final PeerHealth health;
+
+        /**
+         * 每个方法在这个peer上的平均耗时, 用于判断一次调用是否异常地慢
+         */
+        final Map<String, MethodCost> methods = new ConcurrentHashMap<>();
+
+        Node(Peer peer, TransportClient[] clients, PeerHealth health) {
+            this.peer = peer;
+            this.clients = clients;
+            this.multiplexed = clients[0].isMultiplexed();
+            this.health = health;
+        }
+
+        // 现在可以参与选择: 健康状态允许, 独占连接时还要有空闲连接
+        boolean isAvailable(long now) {
+            return health.isSelectable(now) && (multiplexed || !idle.isEmpty());
+        }
+
+        double load() {
+            return (double) cost.get() * (inflight.get() + 1);
+        }
+
+        // b. peak EWMA: 新的耗时更大时直接取新值, 否则按距上次更新的时间衰减
+        void observe(long elapsedNanos) {
+            long now = System.nanoTime();
+            long elapsedSinceLast = Math.max(0, now - lastObserved.getAndSet(now));
+            double weight = Math.exp(-(double) elapsedSinceLast / DECAY_NANOS);
+            long previous;
+            long updated;
+            do {
+                previous = cost.get();
+                updated = elapsedNanos > previous ? elapsedNanos
+                    : (long) (previous * weight + elapsedNanos * (1 - weight));
+            } while (!cost.compareAndSet(previous, updated));
+        }
+    }
+
+    /**
+     * 一个方法在一个peer上的平均耗时: 按距上次更新的时间衰减的EWMA, 与cost不同, 较大的耗时不会直接取代平均值,
+     * 偶尔的慢调用能被识别出来, 持续变慢时平均值会逐渐跟上
+     */
+    static final class MethodCost {
+
+        // 还没有耗时数据时小于0
+        private final AtomicLong average = new AtomicLong(-1);
+
+        private final AtomicLong lastObserved = new AtomicLong(System.nanoTime());
+
+        long average() {
+            return average.get();
+        }
+
+        void observe(long elapsedNanos) {
+            long now = System.nanoTime();
+            long elapsedSinceLast = Math.max(0, now - lastObserved.getAndSet(now));
+            double weight = Math.exp(-(double) elapsedSinceLast / DECAY_NANOS);
+            long previous;
+            long updated;
+            do {
+                previous = average.get();
+                updated = previous < 0 ? elapsedNanos : (long) (previous * weight + elapsedNanos * (1 - weight));
+            } while (!average.compareAndSet(previous, updated));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.MethodTable;
+import com.marion.mrpc.MethodTableService;
+import com.marion.mrpc.Peer;
+import com.marion.mrpc.Request;
+import com.marion.mrpc.Response;
+import com.marion.mrpc.ServiceDescriptor;
+import com.marion.mrpc.codec.Decoder;
+import com.marion.mrpc.codec.Encoder;
+import com.marion.mrpc.transport.TransportClient;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 客户端按对端peer缓存的方法表
+ *      1. get: 返回transportClient所连接的peer的方法表, 第一次访问这个peer时通过握手服务MethodTableService获取
+ *          a. 同一个peer同时只有一次握手, 并发的调用方共享同一个future
+ *          b. 对端不支持握手时缓存空方法表, 之后的请求都按ServiceDescriptor查找
+ *          c. 网络出错或者对端过载时本次使用空方法表, 不缓存, 下次访问时重新握手
+ *      2. invalidate: 服务端返回CODE_STALE_METHOD_TABLE时丢弃缓存的方法表, 下次访问时重新握手
+ */
+@Slf4j
+class MethodTables {
+
+    private static final ServiceDescriptor HANDSHAKE;
+
+    static {
+        try {
+            HANDSHAKE = ServiceDescriptor.from(MethodTableService.class, MethodTableService.class.getMethod("methods"));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final Encoder encoder;
+
+    private final Decoder decoder;
+
+    private final Map<Peer, CompletableFuture<MethodTable>> tables = new ConcurrentHashMap<>();
+
+    MethodTables(Encoder encoder, Decoder decoder) {
+        this.encoder = encoder;
+        this.decoder = decoder;
+    }
+
+    // 1. 返回transportClient所连接的peer的方法表, 必要时在这个transportClient上握手
+    CompletableFuture<MethodTable> get(TransportClient transportClient) {
+        Peer peer = transportClient.getPeer();
+        if (peer == null) {
+            return CompletableFuture.completedFuture(MethodTable.EMPTY);
+        }
+        CompletableFuture<MethodTable> table = tables.get(peer);
+        if (table != null) {
+            return table;
+        }
+        CompletableFuture<MethodTable> created = new CompletableFuture<>();
+        table = tables.putIfAbsent(peer, created);
+        if (table != null) {
+            return table;
+        }
+        handshake(transportClient, peer, created);
+        return created;
+    }
+
+    // 2. 丢弃缓存的方法表
+    void invalidate(Peer peer) {
+        if (peer != null) {
+            tables.remove(peer);
+        }
+    }
+
+    private void handshake(TransportClient transportClient, Peer peer, CompletableFuture<MethodTable> table) {
+        Request request = new Request();
+        request.setServiceDescriptor(HANDSHAKE);
+        try {
+            transportClient.writeAsync(out -> encoder.encode(request, out))
+                .whenComplete((afterSendRequest, error) -> {
+                    if (error != null) {
+                        fail(peer, table, error);
+                        return;
+                    }
+                    try (InputStream in = afterSendRequest) {
+                        Response response = decoder.decode(in, Response.class);
+                        if (response.getCode() == Response.CODE_OVERLOADED) {
+                            fail(peer, table, new IllegalStateException(response.getMessage()));
+                            return;
+                        }
+                        table.complete(toMethodTable(peer, response));
+                    } catch (Exception e) {
+                        fail(peer, table, e);
+                    }
+                });
+        } catch (RuntimeException e) {
+            fail(peer, table, e);
+        }
+    }
+
+    private MethodTable toMethodTable(Peer peer, Response response) {
+        if (response.getCode() != Response.CODE_OK || !(response.getData() instanceof List)) {
+            log.info("peer {} has no method table, {}", peer, response.getMessage());
+            return MethodTable.EMPTY;
+        }
+        List<String> keys = new ArrayList<>();
+        for (Object key : (List<?>) response.getData()) {
+            keys.add(String.valueOf(key));
+        }
+        MethodTable table = new MethodTable(keys);
+        log.info("peer {} method table version {}, {} methods", peer, table.version(), keys.size());
+        return table;
+    }
+
+    // c. 网络出错时本次使用空方法表, 不缓存
+    private void fail(Peer peer, CompletableFuture<MethodTable> table, Throwable error) {
+        log.warn("handshake with {} fail, {}", peer, error.toString());
+        tables.remove(peer, table);
+        table.complete(MethodTable.EMPTY);
+    }
+}
@@ -0,0 +1,143 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.Peer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个对端peer的健康状态
+ *      1. HEALTHY: 正常选择, 连续失败failureThreshold次后摘除, 进入EJECTED,
+ *          失败包括网络出错、到达截止时间和耗时远高于这个方法在这个peer上平均耗时的慢请求, 由selector判断
+ *      2. EJECTED: 摘除backoff时间内不选择, 时间到后允许一个探测请求, 进入PROBING
+ *      3. PROBING: 只有探测请求在使用这个peer
+ *          a. 探测成功: 恢复HEALTHY, backoff回到初始值
+ *          b. 探测失败: 重新摘除, backoff翻倍, 最多maxBackoff
+ *          c. 探测请求超过probeTimeout还没有结束(对端卡住不响应)时按探测失败处理, 不让这个peer一直停留在PROBING
+ * 摘除期间不会把请求发给这个peer, 连接断开的transportClient也不会被反复重连, 重连间隔就是backoff
+ */
+@Slf4j
+final class PeerHealth {
+
+    static final int HEALTHY = 0;
+    static final int EJECTED = 1;
+    static final int PROBING = 2;
+
+    private final Peer peer;
+
+    private final int failureThreshold;
+
+    private final long initialBackoffNanos;
+
+    private final long maxBackoffNanos;
+
+    private final long probeTimeoutNanos;
+
+    private final AtomicInteger state = new AtomicInteger(HEALTHY);
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile long backoffNanos;
+
+    private volatile long ejectedUntil;
+
+    private volatile long probingSince;
+
+    PeerHealth(Peer peer, int failureThreshold, long backoffMillis, long maxBackoffMillis) {
+        this(peer, failureThreshold, backoffMillis, maxBackoffMillis, 0);
+    }
+
+    /**
+     * @param probeTimeoutMillis 探测请求最长的时间, 0表示不限制
+     */
+    PeerHealth(Peer peer, int failureThreshold, long backoffMillis, long maxBackoffMillis, long probeTimeoutMillis) {
+        this.peer = peer;
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(backoffMillis, 1));
+        this.maxBackoffNanos = Math.max(initialBackoffNanos, TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis));
+        this.backoffNanos = initialBackoffNanos;
+        this.probeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(probeTimeoutMillis, 0));
+    }
+
+    int state() {
+        return state.get();
+    }
+
+    // 现在是否可以选择这个peer: 健康, 或者摘除时间已到、可以探测
+    boolean isSelectable(long now) {
+        expireProbe(now);
+        int current = state.get();
+        return current == HEALTHY || (current == EJECTED && now - ejectedUntil >= 0);
+    }
+
+    // 选中这个peer时调用, 摘除时间已到时只有一个调用方能成为探测请求
+    boolean tryAcquire(long now) {
+        expireProbe(now);
+        int current = state.get();
+        if (current == HEALTHY) {
+            return true;
+        }
+        if (current == EJECTED && now - ejectedUntil >= 0 && state.compareAndSet(EJECTED, PROBING)) {
+            probingSince = now;
+            return true;
+        }
+        return false;
+    }
+
+    // c. 探测请求超时, 按探测失败重新摘除; 之后这个探测请求释放时不再改变状态
+    private void expireProbe(long now) {
+        if (probeTimeoutNanos > 0 && state.get() == PROBING && now - probingSince >= probeTimeoutNanos) {
+            onFailure(now, "probe timed out");
+        }
+    }
+
+    /**
+     * 距离状态可能变化(摘除时间到期, 或者探测请求超时)还有多少纳秒, 选择连接时最多等待这么久后重新查看
+     * @return HEALTHY, 或者没有可以等待的变化时返回Long.MAX_VALUE
+     */
+    long nanosUntilChange(long now) {
+        int current = state.get();
+        if (current == EJECTED) {
+            return ejectedUntil - now;
+        }
+        if (current == PROBING && probeTimeoutNanos > 0) {
+            return probingSince + probeTimeoutNanos - now;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    void onSuccess() {
+        consecutiveFailures.set(0);
+        // a. 探测成功, 恢复HEALTHY
+        if (state.get() == PROBING && state.compareAndSet(PROBING, HEALTHY)) {
+            backoffNanos = initialBackoffNanos;
+            log.info("peer {} recovered", peer);
+        }
+    }
+
+    void onFailure(long now) {
+        onFailure(now, "probe failed");
+    }
+
+    private void onFailure(long now, String probeFailure) {
+        int current = state.get();
+        if (current == PROBING) {
+            // b. 探测失败, 重新摘除, backoff翻倍
+            eject(PROBING, now, probeFailure);
+        } else if (current == HEALTHY && consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            eject(HEALTHY, now, consecutiveFailures.get() + " consecutive failures");
+        }
+    }
+
+    // 先写ejectedUntil再改变状态, 其它线程看到EJECTED时一定看到新的摘除时间
+    private void eject(int expected, long now, String reason) {
+        long backoff = expected == PROBING ? Math.min(backoffNanos << 1, maxBackoffNanos) : backoffNanos;
+        ejectedUntil = now + backoff;
+        if (state.compareAndSet(expected, EJECTED)) {
+            backoffNanos = backoff;
+            consecutiveFailures.set(0);
+            log.warn("peer {} ejected for {}ms, {}", peer, TimeUnit.NANOSECONDS.toMillis(backoffNanos), reason);
+        }
+    }
+}
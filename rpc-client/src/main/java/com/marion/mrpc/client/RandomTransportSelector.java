@@ -7,13 +7,14 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 路由策略: 随机策略
  *      1. init: rpcClient初始化建立连接, 传入rpcServersList可用列表, 一一建立连接,
  *              每个连接需要启动一个本地的transportClient作为网络通信客户端
  *      2. select: 从已连接列表中, 按照策略选择一个连接拿来用, 即选择一个TransportClient返回, 同时暂时从transportClientsList中移除
+ *              (支持多路复用的TransportClient不移除, 由多个调用方共享)
  *      3. release: 对于已经处理完用完的连接进行释放, 即将TransportClient重新加入回transportClientsList中
  *      4. close: 对rpcClient进行关闭, 即销毁所有的已连接网络通信客户端, 即关闭每个transportClient并清理transportClientsList
  */
@@ -63,7 +64,15 @@ public class RandomTransportSelector implements TransportSelector {
      */
     @Override
     public synchronized TransportClient select() {
-        int i = new Random().nextInt(transportClientsList.size());
+        if (transportClientsList.isEmpty()) {
+            throw new IllegalStateException("no idle transportClient, all connections are in use");
+        }
+        int i = ThreadLocalRandom.current().nextInt(transportClientsList.size());
+        TransportClient transportClient = transportClientsList.get(i);
+        // 支持多路复用的transportClient可以被多个调用方共享, 不需要从列表中移除
+        if (transportClient.isMultiplexed()) {
+            return transportClient;
+        }
         return transportClientsList.remove(i);
     }
 
@@ -74,7 +83,9 @@ public class RandomTransportSelector implements TransportSelector {
      */
     @Override
     public synchronized void release(TransportClient transportClient) {
-        transportClientsList.add(transportClient);
+        if (!transportClient.isMultiplexed()) {
+            transportClientsList.add(transportClient);
+        }
     }
 
     /**
@@ -1,24 +1,71 @@
 package com.marion.mrpc.client;
 
+import com.marion.common.jfr.RpcEvents;
+import com.marion.common.metrics.MetricsRegistry;
+import com.marion.mrpc.Deadline;
+import com.marion.mrpc.MethodTable;
 import com.marion.mrpc.Request;
 import com.marion.mrpc.Response;
-import com.marion.mrpc.ServiceDescriptor;
 import com.marion.mrpc.codec.*;
+import com.marion.mrpc.transport.Attachment;
+import com.marion.mrpc.transport.PayloadWriter;
+import com.marion.mrpc.transport.StreamReader;
 import com.marion.mrpc.transport.TransportClient;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.StreamSupport;
 
 /**
  * 调用远程服务的前提, 自定义动态代理类的处理.
  * 主要是重写 invoke 方法, 自定义其中的逻辑处理.
+ * 编译时生成的stub类不经过动态代理, 直接调用call方法.
  */
 @Slf4j
 public class RemoteInvoker implements InvocationHandler {
+    /**
+     * 生成请求的关联id, 同一个客户端进程内唯一
+     */
+    private static final AtomicLong REQUEST_ID = new AtomicLong();
+
+    /**
+     * 异步调用和批量调用的超时计时, 所有客户端共用一个计时线程
+     */
+    private static final ScheduledExecutorService DEADLINE_TIMER;
+
+    static {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "mrpc-client-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        DEADLINE_TIMER = executor;
+    }
+
     /**
      * 定义远程服务的所有信息
      */
@@ -27,12 +74,49 @@ public class RemoteInvoker implements InvocationHandler {
     private Decoder decoder;
     private TransportSelector selector;
 
+    private MethodTables methodTables;
+
+    private CallBatcher batcher;               // 批量调用, 为空时每次调用单独发送
+
+    private long callTimeoutMillis;            // 默认超时时间, 0表示不限制
+
+    private int overloadRetries;               // 服务端过载时换一个服务端重试的次数
+
+    private ResultCache cache;                 // 可缓存方法的结果缓存, 为空时不缓存
+
+    private int streamWindow;                  // 流式调用的接收窗口(帧数)
+
+    private MetricsRegistry metrics;           // 按方法统计的调用指标, 各阶段见CallTimer
+
+    private RpcEvents events;                  // 每次发送的JFR事件
+
+    /**
+     * 每个接口方法的服务描述只需要生成一次, 之后的调用直接复用
+     */
+    private final Map<Method, RemoteMethod> methods = new ConcurrentHashMap<>();
+
     // 初始化构造方法, 加载远程服务的所有信息
     public <T> RemoteInvoker(Class<T> clazz,Encoder encoder, Decoder decoder, TransportSelector selector) {
+        this(clazz, encoder, decoder, selector, new MethodTables(encoder, decoder), null, 0, 1, null, 16,
+            new MetricsRegistry(null, CallTimer.PHASES), RpcEvents.client(0));
+    }
+
+    // 初始化构造方法, 多个代理共用同一份按peer缓存的方法表和批量调用
+    <T> RemoteInvoker(Class<T> clazz, Encoder encoder, Decoder decoder, TransportSelector selector,
+                      MethodTables methodTables, CallBatcher batcher, long callTimeoutMillis, int overloadRetries,
+                      ResultCache cache, int streamWindow, MetricsRegistry metrics, RpcEvents events) {
         this.clazz = clazz;
         this.encoder = encoder;
         this.decoder = decoder;
         this.selector = selector;
+        this.methodTables = methodTables;
+        this.batcher = batcher;
+        this.callTimeoutMillis = callTimeoutMillis;
+        this.overloadRetries = Math.max(overloadRetries, 0);
+        this.cache = cache;
+        this.streamWindow = Math.max(streamWindow, 1);
+        this.metrics = metrics;
+        this.events = events;
     }
 
     /**
@@ -44,6 +128,16 @@ public class RemoteInvoker implements InvocationHandler {
      */
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) {
+        return call(methods.computeIfAbsent(method, m -> RemoteMethod.from(clazz, m)), args);
+    }
+
+    /**
+     * 调用远程服务, 动态代理和生成的stub类共用
+     * @param remoteMethod 需要调用的方法
+     * @param args 调用方法使用的参数
+     * @return 远程服务的返回值, 异步方法返回CompletableFuture, 流式方法返回惰性的Iterator或者Stream
+     */
+    public Object call(RemoteMethod remoteMethod, Object[] args) {
 
         /**
          * 1. 构建Request对象
@@ -60,37 +154,166 @@ public class RemoteInvoker implements InvocationHandler {
          *               finally: 最后将网络通信客户端transportClient释放
          *          g. 返回对应的响应response
          * 3. 【调用远程服务进行处理后】判断响应, 从响应当中拿到返回的数据
+         * 如果接口方法的返回值是CompletableFuture, 则走异步调用invokeRemoteAsync, 不阻塞调用方线程
+         * 请求中的服务由选中的对端的方法表决定: 对端方法表中有这个服务时只带methodId, 否则带完整的ServiceDescriptor
+         * 开启了批量调用时, 请求先交给batcher, 与同一时间窗口内的其它调用合并成一个批量请求发送
+         * 调用有截止时间时(见deadline), 剩余时间随请求发给服务端, 到期还没有响应时调用以CODE_DEADLINE_EXCEEDED失败,
+         *      已经到期的调用不再发送
+         * 服务端过载拒绝(CODE_OVERLOADED)的请求没有执行过, 重新选择服务端重试, 最多overloadRetries次
+         * 标注了@Cacheable的方法先查客户端缓存, 命中时不发送请求, 调用成功的结果放入缓存
+         * 返回Iterator/Stream的方法按流接收结果(见invokeStream), 不参与缓存和批量
+         * 有ByteBuffer/byte[]/Path参数或返回值的方法, 二进制数据作为附件直接收发(见sendBinary), 不参与缓存和批量
+         * 发出的调用按方法记录次数、失败次数和耗时, 每次发送再记录各个阶段的耗时(见CallTimer); 命中缓存和流式调用不记录
+         * 开启JFR时每次发送(包括重试)提交一个com.marion.mrpc.ClientCall事件
          */
 
+        // 可缓存的方法先查客户端缓存
+        ResultCache.Key cacheKey = cache != null && remoteMethod.isCacheable() ? cache.key(remoteMethod, args) : null;
+        if (cacheKey != null) {
+            ResultCache.Entry cached = cache.get(cacheKey);
+            if (cached != null) {
+                Object value = cache.value(cached, remoteMethod.resultType());
+                return remoteMethod.isAsync() ? CompletableFuture.completedFuture(value) : value;
+            }
+        }
+
         // 1. 构建Request对象
+        long begin = System.nanoTime();
         Request request = new Request();
-        request.setServiceDescriptor(ServiceDescriptor.from(clazz, method));
+        request.setRequestId(REQUEST_ID.incrementAndGet());
         request.setParameters(args);
 
+        long deadline = deadline(remoteMethod);
+        if (deadline != Long.MAX_VALUE) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                Response expired = recorded(remoteMethod, begin,
+                    deadlineResponse("deadline exceeded before call " + remoteMethod));
+                // 异步调用与其它失败一样返回失败的future, 不在调用方线程上抛出异常
+                return remoteMethod.isAsync()
+                    ? CompletableFuture.completedFuture(expired).thenApply(response -> readResult(request, remoteMethod, response))
+                    : readResult(request, remoteMethod, expired);
+            }
+            // 不足1ms时按1ms发送, 0表示不限制
+            request.setTimeoutMillis(Math.max(TimeUnit.NANOSECONDS.toMillis(remaining), 1));
+        }
+
+        // 流式调用: 收到第一帧后返回, 之后的元素在调用方遍历时读取
+        if (remoteMethod.isStreaming()) {
+            return invokeStream(request, remoteMethod, deadline);
+        }
+
+        // 批量调用: 同步调用等待自己的响应, 异步调用直接返回future
+        // 一个批量请求只发往一个服务端, 需要按@HashKey路由的调用不参与批量
+        if (batcher != null && !remoteMethod.hasRouteKey() && !remoteMethod.isBinary()) {
+            CompletableFuture<Response> future = batcher.submit(this, request, remoteMethod, deadline);
+            // 批量请求不能只取消其中一个, 到期时只让这个调用失败, 服务端按请求自己的timeoutMillis处理
+            expireAt(future, deadline, () -> future.complete(deadlineResponse("deadline exceeded in batch")));
+            if (remoteMethod.isAsync()) {
+                return future.thenApply(response ->
+                    cache(cacheKey, remoteMethod, readResult(request, remoteMethod, recorded(remoteMethod, begin, response))));
+            }
+            return cache(cacheKey, remoteMethod, readResult(request, remoteMethod, recorded(remoteMethod, begin, future.join())));
+        }
+
+        // 异步调用: 立即返回future, 响应到达后在网络通信的IO线程上完成
+        if (remoteMethod.isAsync()) {
+            return invokeRemoteAsync(request, remoteMethod, deadline, overloadRetries).thenApply(response ->
+                cache(cacheKey, remoteMethod, readResult(request, remoteMethod, recorded(remoteMethod, begin, response))));
+        }
+
         // 2. 通过网络把请求对象发送给Server, 等待Server响应【通过网络传输通信去调用】invokeRemote方法
-        Response response = invokeRemote(request);
+        Response response = invokeRemote(request, remoteMethod, deadline);
+        for (int i = 0; i < overloadRetries && retryOverloaded(request, response, deadline); i++) {
+            response = invokeRemote(request, remoteMethod, deadline);
+        }
         // 3. 【调用远程服务进行处理后】判断响应, 从响应当中拿到返回的数据
+        return cache(cacheKey, remoteMethod, readResult(request, remoteMethod, recorded(remoteMethod, begin, response)));
+    }
+
+    // 记录一次调用的耗时, 失败的响应同时计入失败次数
+    private Response recorded(RemoteMethod remoteMethod, long begin, Response response) {
+        metrics.method(remoteMethod.key())
+            .recordCall(System.nanoTime() - begin, response == null || response.getCode() != Response.CODE_OK);
+        return response;
+    }
+
+    // 调用成功的结果放入缓存, cacheKey为空表示不缓存
+    private Object cache(ResultCache.Key cacheKey, RemoteMethod remoteMethod, Object result) {
+        if (cacheKey != null) {
+            cache.put(cacheKey, result, remoteMethod.getCacheTtlMillis());
+        }
+        return result;
+    }
+
+    /**
+     * 调用的截止时间(System.nanoTime), 没有时返回Long.MAX_VALUE
+     *      1. 方法或接口上的@Timeout, 没有时使用默认超时时间callTimeoutMillis
+     *      2. 调用方线程上的Deadline(服务端执行请求时也会设置)更早时以它为准
+     */
+    private long deadline(RemoteMethod remoteMethod) {
+        long now = System.nanoTime();
+        long timeoutMillis = remoteMethod.getTimeoutMillis() > 0 ? remoteMethod.getTimeoutMillis() : callTimeoutMillis;
+        long remaining = Deadline.remainingNanos();
+        if (timeoutMillis > 0) {
+            remaining = Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        }
+        return remaining == Long.MAX_VALUE ? Long.MAX_VALUE : now + remaining;
+    }
+
+    /**
+     * 服务端过载时是否重试: 还没有到达截止时间时重试, 并把请求的timeoutMillis更新为剩余的时间
+     * 重试时重新经过selector选择, 过载的服务端已经按失败计入健康状态, 不会被优先选中
+     */
+    private static boolean retryOverloaded(Request request, Response response, long deadline) {
+        if (response.getCode() != Response.CODE_OVERLOADED) {
+            return false;
+        }
+        if (deadline != Long.MAX_VALUE) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            request.setTimeoutMillis(Math.max(TimeUnit.NANOSECONDS.toMillis(remaining), 1));
+        }
+        log.info("request {} rejected by overloaded server, retry", request.getRequestId());
+        return true;
+    }
+
+    // 3. 【调用远程服务进行处理后】判断响应, 从响应当中拿到返回的数据, 并转换成接口方法声明的类型
+    private static Object readResult(Request request, RemoteMethod remoteMethod, Response response) {
+        return DeclaredTypes.convert(readResult(request, response), remoteMethod.resultType());
+    }
+
+    private static Object readResult(Request request, Response response) {
         // 调用失败
-        if (response == null || response.getCode() != 0) {
+        if (response == null || response.getCode() != Response.CODE_OK) {
             throw new IllegalStateException("fail invoke remote " + response);
         }
+        // 响应中带回的关联id必须与请求一致, 0表示对端没有回填关联id
+        if (response.getRequestId() != 0 && response.getRequestId() != request.getRequestId()) {
+            throw new IllegalStateException("mismatched response " + response.getRequestId()
+                + " for request " + request.getRequestId());
+        }
         // 调用成功
         return response.getData();
     }
 
 
     // 2. 通过网络把请求对象发送给Server, 等待Server响应【通过网络传输通信去调用】invokeRemote方法
-    private Response invokeRemote(Request request) {
+    private Response invokeRemote(Request request, RemoteMethod remoteMethod, long deadline) {
 
         /**
          *  a. 初始化空的响应response & 初始化空的网络通信客户端client
-         *  b. 通过设置的路由策略selector, 选择一个网络通信客户端transportClient[已连接对端rpcServer]
-         *  c. 将request请求序列化成byte[]二进制数组
+         *  b. 通过设置的路由策略selector, 选择一个网络通信客户端transportClient[已连接对端rpcServer],
+         *     并按对端的方法表填写请求中的服务
+         *  c. 将request请求序列化成二进制数据, 直接写入transportClient提供的输出流
          *  d. 并通过网络通信客户端transportClient发送请求, 并获得对应的响应结果afterSendRequest
          *       *. write: client->发送二进制数据data到对端peer, 即发送请求到server, 最终返回得到的InputStream二进制响应信息
          *  +++++++++++++++++++++++++++++++++++ >>> 这中间存在一个RpcServer端的处理过程
-         *  e. 从IO通道中读所有可用的二进制数据, 即获取返回的响应
-         *  f. 反序列化得到response类的对象
+         *  e. 从IO通道中流式读取返回的响应, 一直读到响应体结束
+         *  f. 反序列化得到response类的对象(与e合并, 由decoder直接从IO通道中反序列化)
+         *      对端方法表已经过期时, 丢弃缓存的方法表, 带上完整的ServiceDescriptor在同一个连接上重试一次
          *      catch: 日志输出异常 并处理
          *      finally: 最后将网络通信客户端transportClient释放
          *  g. 返回对应的响应response
@@ -99,37 +322,491 @@ public class RemoteInvoker implements InvocationHandler {
         // a. 初始化空的响应response & 初始化空的网络通信客户端client
         Response response = null;
         TransportClient transportClient = null;
+        CallTimer timer = new CallTimer(metrics.method(remoteMethod.key()), events.begin());
+        long start = System.nanoTime();
+        boolean success = false;
 
         try {
             // b. 通过设置的路由策略selector, 选择一个网络通信客户端transportClient[已连接对端rpcServer]
-            transportClient = selector.select();
-            // c. 将request请求序列化成byte[]二进制数组
-            byte[] bytesRequest = encoder.encode(request);
-            // d. 并通过网络通信客户端transportClient发送请求, 并获得对应的响应结果afterSendRequest
-            //      *. write: client->发送二进制数据data到对端peer, 即发送请求到server, 最终返回得到的InputStream二进制响应信息
-            InputStream afterSendRequest = transportClient.write(new ByteArrayInputStream(bytesRequest));
-            // +++++++++++++++++++++++++++++++++++ >>> 这中间存在一个RpcServer端的处理过程
-            // e. 从IO通道中读所有可用的二进制数据, 即获取返回的响应
-            byte[] bytesResponse = IOUtils.readFully(afterSendRequest, afterSendRequest.available());
-            // f. 反序列化得到response类的对象
-            response = decoder.decode(bytesResponse, Response.class);
+            transportClient = select(request, remoteMethod, deadline);
+            timer.selected(start);
+            start = System.nanoTime();
+            //    并按对端的方法表填写请求中的服务
+            address(request, remoteMethod, methodTable(transportClient, request, deadline).join());
+            response = send(transportClient, request, remoteMethod, deadline, timer);
+            // 对端方法表已经过期: 丢弃缓存的方法表, 带上完整的ServiceDescriptor重试一次
+            if (response.getCode() == Response.CODE_STALE_METHOD_TABLE) {
+                methodTables.invalidate(transportClient.getPeer());
+                address(request, remoteMethod, MethodTable.EMPTY);
+                response = send(transportClient, request, remoteMethod, deadline, timer);
+            }
+            // 过载拒绝的响应很快, 不能当作服务端的正常耗时, 按失败处理
+            success = response.getCode() != Response.CODE_OVERLOADED;
         } catch (Exception e) {
             // catch: 日志输出异常 并处理
-            log.warn("[invokeRemote] e={}, {}", e.getMessage(), e);
-            response = new Response();
-            response.setCode(1);
-            response.setMessage("RpcClient error" + e.getClass() + ":" +e.getMessage());
+            response = errorResponse(e);
         } finally {
-            // finally: 最后将网络通信客户端transportClient释放
+            // finally: 最后将网络通信客户端transportClient释放, 同时把耗时和是否拿到响应告诉selector
             if (transportClient != null) {
-                selector.release(transportClient);
+                selector.release(transportClient, success ? System.nanoTime() - start : -1, success, remoteMethod.key());
             }
         }
+        timer.finish(remoteMethod, transportClient, response.getCode());
         // g. 返回对应的响应response
         return response;
     }
 
+    // c ~ f. 把请求写入transportClient, 并从IO通道中流式读取响应
+    private Response send(TransportClient transportClient, Request request, RemoteMethod remoteMethod, long deadline,
+                          CallTimer timer) throws Exception {
+        if (remoteMethod.isBinary()) {
+            try {
+                return sendBinary(transportClient, request, remoteMethod, deadline, timer).get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+        // c. 将request请求序列化成二进制数据, 直接写入transportClient提供的输出流
+        // d. 并通过网络通信客户端transportClient发送请求, 并获得对应的响应结果afterSendRequest
+        //      *. write: client->发送二进制数据data到对端peer, 即发送请求到server, 最终返回得到的InputStream二进制响应信息
+        InputStream afterSendRequest = deadline == Long.MAX_VALUE
+            ? transportClient.write(timer.encode(encoder, request))
+            : writeBefore(transportClient, request, deadline, timer);
+        // +++++++++++++++++++++++++++++++++++ >>> 这中间存在一个RpcServer端的处理过程
+        // e & f. 从IO通道中流式读取返回的响应, 并反序列化得到response类的对象, 读完后关闭响应流
+        return timer.decode(decoder, afterSendRequest);
+    }
+
+    /**
+     * d. 有截止时间的write, 最多等待到截止时间
+     * 到期或者调用方线程被中断时让transportClient的future失败, 支持取消的transportClient(多路复用的TCP连接)会通知服务端取消请求;
+     * 阻塞式的transportClient在writeAsync中就已经等到了响应, 由服务端按请求的timeoutMillis保证不会等待太久;
+     * writeAsync期间截止时间设置在当前线程的Deadline上, 阻塞式的transportClient等待空闲连接时不超过它
+     */
+    private InputStream writeBefore(TransportClient transportClient, Request request, long deadline, CallTimer timer)
+        throws Exception {
+        CompletableFuture<InputStream> future;
+        try (Deadline.Scope ignored = Deadline.at(deadline)) {
+            future = transportClient.writeAsync(timer.encode(encoder, request));
+        }
+        try {
+            return future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | InterruptedException e) {
+            Exception cause = e;
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            } else {
+                cause = new TimeoutException("request " + request.getRequestId() + " deadline exceeded");
+            }
+            if (future.completeExceptionally(cause)) {
+                throw cause;
+            }
+            // 响应恰好在这时到达
+            return future.join();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * 流式调用: 服务端把Iterator/Stream的元素分批发送, 调用方按需读取, 缓存的元素不超过streamWindow帧
+     *      1. 选择transportClient, 支持流式响应时请求带上接收窗口, 否则服务端一次返回全部元素
+     *      2. 等到第一帧: 结束流的响应帧表示调用已经完成, 与普通调用一样处理方法表过期和过载重试, 失败时直接抛出
+     *      3. 第一帧是数据帧时返回StreamIterator, transportClient在流结束或者调用方关闭时才释放
+     * Stream按Iterator包装, 关闭Stream时关闭StreamIterator
+     */
+    private Object invokeStream(Request request, RemoteMethod remoteMethod, long deadline) {
+        boolean staleRetried = false;
+        for (int retries = overloadRetries; ; ) {
+            Response response = null;
+            TransportClient transportClient = null;
+            StreamReader reader = null;
+            long start = 0;
+            boolean success = false;
+            try {
+                // 1. 选择transportClient, 支持流式响应时请求带上接收窗口
+                transportClient = select(request, remoteMethod, deadline);
+                TransportClient selected = transportClient;
+                start = System.nanoTime();
+                address(request, remoteMethod, methodTable(transportClient, request, deadline).join());
+                request.setStreamWindow(transportClient.supportsStreaming() ? streamWindow : 0);
+                reader = transportClient.writeStream(out -> encoder.encode(request, out), streamWindow);
+                // 流的耗时取决于调用方遍历的快慢, 释放时不计入cost
+                StreamIterator iterator = new StreamIterator(request, reader, decoder, remoteMethod.resultType(), deadline,
+                    () -> selector.release(selected, -1, true));
+                // 2. 等到第一帧
+                response = iterator.open();
+                if (response == null) {
+                    // 3. 流已经开始, 由StreamIterator释放transportClient
+                    transportClient = null;
+                    return remoteMethod.returnsStream() ? stream(iterator) : iterator;
+                }
+                // 过载拒绝的响应很快, 不能当作服务端的正常耗时, 按失败处理
+                success = response.getCode() != Response.CODE_OVERLOADED;
+            } catch (Exception e) {
+                if (reader != null) {
+                    reader.close();
+                }
+                response = errorResponse(e);
+            } finally {
+                if (transportClient != null) {
+                    selector.release(transportClient, success ? System.nanoTime() - start : -1, success, remoteMethod.key());
+                }
+            }
+            // 2. 对端方法表已经过期: 丢弃缓存的方法表, 重新握手后重试一次
+            if (response.getCode() == Response.CODE_STALE_METHOD_TABLE && !staleRetried) {
+                methodTables.invalidate(transportClient.getPeer());
+                staleRetried = true;
+                continue;
+            }
+            if (retries-- > 0 && retryOverloaded(request, response, deadline)) {
+                continue;
+            }
+            // 整个结果在一个响应帧中: 不支持流式响应的transportClient, 或者没有元素
+            Object result = readResult(request, response);
+            List<?> elements = result instanceof List ? (List<?>) result : Collections.emptyList();
+            StreamIterator iterator = StreamIterator.completed(request, elements, remoteMethod.resultType());
+            return remoteMethod.returnsStream() ? stream(iterator) : iterator;
+        }
+    }
+
+    // 把StreamIterator包装成Stream, 关闭Stream时关闭StreamIterator
+    private static Object stream(StreamIterator iterator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+            .onClose(iterator::close);
+    }
+
+    /**
+     * 按路由策略选择transportClient, 等待空闲连接最多到调用的截止时间:
+     * 选择期间把截止时间设置到当前线程的Deadline上, 因为截止时间到期选不到连接时抛出TimeoutException
+     */
+    private TransportClient select(Request request, RemoteMethod remoteMethod, long deadline) throws TimeoutException {
+        return selectRouted(request, remoteMethod.routeKey(request.getParameters()), deadline);
+    }
+
+    private TransportClient selectRouted(Request request, Object routeKey, long deadline) throws TimeoutException {
+        if (deadline == Long.MAX_VALUE) {
+            return selector.select(routeKey);
+        }
+        try (Deadline.Scope ignored = Deadline.at(deadline)) {
+            return selector.select(routeKey);
+        } catch (IllegalStateException e) {
+            if (deadline - System.nanoTime() <= 0) {
+                throw new TimeoutException("request " + request.getRequestId()
+                    + " deadline exceeded while selecting transportClient, " + e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 对端的方法表, 第一次使用这个对端时需要握手(见MethodTables)
+     * 握手最多等待到调用的截止时间, 到期时返回的future以TimeoutException失败, 调用以CODE_DEADLINE_EXCEEDED结束;
+     * 握手本身由所有调用共享, 不会因为一个调用到期而取消
+     */
+    private CompletableFuture<MethodTable> methodTable(TransportClient transportClient, Request request,
+                                                      long deadline) {
+        CompletableFuture<MethodTable> table = methodTables.get(transportClient);
+        if (deadline == Long.MAX_VALUE || table.isDone()) {
+            return table;
+        }
+        CompletableFuture<MethodTable> bounded = table.thenApply(Function.identity());
+        expireAt(bounded, deadline, () -> bounded.completeExceptionally(
+            new TimeoutException("request " + request.getRequestId() + " deadline exceeded in handshake")));
+        return bounded;
+    }
+
+    // 按对端的方法表填写请求中的服务: 方法表中有这个服务时只带methodId, 否则带完整的ServiceDescriptor
+    private void address(Request request, RemoteMethod remoteMethod, MethodTable table) {
+        int methodId = remoteMethod.methodId(table);
+        if (methodId >= 0) {
+            request.setMethodId(methodId);
+            request.setMethodTableVersion(table.version());
+            request.setServiceDescriptor(null);
+        } else {
+            request.setMethodId(-1);
+            request.setMethodTableVersion(0);
+            request.setServiceDescriptor(remoteMethod.getDescriptor());
+        }
+    }
 
+    // 2. 异步版本的invokeRemote, 服务端过载时重新选择服务端重试, 最多retries次
+    private CompletableFuture<Response> invokeRemoteAsync(Request request, RemoteMethod remoteMethod, long deadline,
+                                                         int retries) {
+        return invokeRemoteAsync(request, remoteMethod, deadline).thenCompose(response ->
+            retries > 0 && retryOverloaded(request, response, deadline)
+                ? invokeRemoteAsync(request, remoteMethod, deadline, retries - 1)
+                : CompletableFuture.completedFuture(response));
+    }
 
+    // 2. 异步版本的invokeRemote: 发送请求后立即返回, 响应到达后在IO线程上反序列化并释放transportClient
+    private CompletableFuture<Response> invokeRemoteAsync(Request request, RemoteMethod remoteMethod, long deadline) {
+        TransportClient transportClient = null;
+        CallTimer timer = new CallTimer(metrics.method(remoteMethod.key()), events.begin());
+        try {
+            long selectStart = System.nanoTime();
+            transportClient = select(request, remoteMethod, deadline);
+            timer.selected(selectStart);
+            TransportClient selected = transportClient;
+            long start = System.nanoTime();
+            return methodTable(selected, request, deadline)
+                .thenCompose(table -> {
+                    address(request, remoteMethod, table);
+                    return sendAsync(selected, request, remoteMethod, deadline, timer);
+                })
+                .thenCompose(response -> {
+                    if (response.getCode() != Response.CODE_STALE_METHOD_TABLE) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+                    methodTables.invalidate(selected.getPeer());
+                    address(request, remoteMethod, MethodTable.EMPTY);
+                    return sendAsync(selected, request, remoteMethod, deadline, timer);
+                })
+                .whenComplete((response, error) -> {
+                    boolean success = error == null && response.getCode() != Response.CODE_OVERLOADED;
+                    selector.release(selected, success ? System.nanoTime() - start : -1, success, remoteMethod.key());
+                    timer.finish(remoteMethod, selected, error == null ? response.getCode() : Response.CODE_ERROR);
+                })
+                .exceptionally(this::errorResponse);
+        } catch (Exception e) {
+            if (transportClient != null) {
+                selector.release(transportClient, -1, false);
+            }
+            timer.finish(remoteMethod, transportClient, Response.CODE_ERROR);
+            return CompletableFuture.completedFuture(errorResponse(e));
+        }
+    }
 
+    /**
+     * 批量调用: 把一批调用合并成一个批量请求, 在同一个transportClient上发送
+     *      1. 选择transportClient, 按对端的方法表填写每个请求中的服务
+     *      2. 批量请求有自己的关联id, 批次中的请求保留各自的关联id
+     *      3. 批量响应到达后按顺序完成每个调用:
+     *          a. 某个请求的方法表已经过期时, 丢弃缓存的方法表, 这个调用单独重试一次;
+     *             某个请求被过载的服务端拒绝时, 这个调用单独换一个服务端重试
+     *          b. 整批失败(网络出错, 对端不支持批量请求)时, 每个调用都完成为失败响应
+     *      4. 批量请求的截止时间是批次中最早的截止时间, 选择transportClient、握手和等待响应都不超过它,
+     *          到期时整批以CODE_DEADLINE_EXCEEDED结束
+     * 每个调用的future总是正常完成, 出错时完成为失败响应
+     */
+    void invokeBatch(List<CallBatcher.Call> calls) {
+        if (calls.size() == 1) {
+            CallBatcher.Call call = calls.get(0);
+            invokeRemoteAsync(call.request, call.remoteMethod, call.deadlineNanos, overloadRetries)
+                .thenAccept(call.future::complete);
+            return;
+        }
+        // 4. 批次中最早的截止时间
+        long deadline = Long.MAX_VALUE;
+        for (CallBatcher.Call call : calls) {
+            deadline = Math.min(deadline, call.deadlineNanos);
+        }
+        long batchDeadline = deadline;
+        // 2. 批量请求有自己的关联id
+        Request batch = new Request();
+        batch.setRequestId(REQUEST_ID.incrementAndGet());
+        TransportClient transportClient = null;
+        try {
+            // 1. 选择transportClient, 按对端的方法表填写每个请求中的服务
+            transportClient = selectRouted(batch, null, batchDeadline);
+            TransportClient selected = transportClient;
+            long start = System.nanoTime();
+            methodTable(selected, batch, batchDeadline)
+                .thenCompose(table -> {
+                    Request[] entries = new Request[calls.size()];
+                    for (int i = 0; i < entries.length; i++) {
+                        CallBatcher.Call call = calls.get(i);
+                        address(call.request, call.remoteMethod, table);
+                        entries[i] = call.request;
+                    }
+                    batch.setBatch(entries);
+                    return sendAsync(selected, batch, batchDeadline, CallTimer.NONE);
+                })
+                .whenComplete((response, error) -> {
+                    // 与单个调用相同: 失败时不计入耗时, 按-1释放
+                    boolean success = error == null && response.getCode() != Response.CODE_OVERLOADED;
+                    selector.release(selected, success ? System.nanoTime() - start : -1, success);
+                    // 3. 批量响应到达后按顺序完成每个调用
+                    completeBatch(calls, selected, error != null ? errorResponse(error) : response);
+                });
+        } catch (Exception e) {
+            if (transportClient != null) {
+                selector.release(transportClient, -1, false);
+            }
+            completeBatch(calls, null, errorResponse(e));
+        }
+    }
+
+    // 3. 批量响应到达后按顺序完成每个调用
+    private void completeBatch(List<CallBatcher.Call> calls, TransportClient transportClient, Response response) {
+        Response[] responses = response.getBatch();
+        if (responses == null || responses.length != calls.size()) {
+            // b. 整批失败, 每个调用都完成为失败响应
+            Response failure = response.getCode() != Response.CODE_OK ? response
+                : errorResponse(new IllegalStateException("mismatched batch response " + response));
+            for (CallBatcher.Call call : calls) {
+                call.future.complete(failure);
+            }
+            return;
+        }
+        boolean stale = false;
+        for (int i = 0; i < responses.length; i++) {
+            CallBatcher.Call call = calls.get(i);
+            if (overloadRetries > 0 && retryOverloaded(call.request, responses[i], call.deadlineNanos)) {
+                invokeRemoteAsync(call.request, call.remoteMethod, call.deadlineNanos, overloadRetries - 1)
+                    .thenAccept(call.future::complete);
+                continue;
+            }
+            if (responses[i].getCode() != Response.CODE_STALE_METHOD_TABLE) {
+                call.future.complete(responses[i]);
+                continue;
+            }
+            // a. 方法表已经过期, 丢弃缓存的方法表后这个调用单独重试一次, 重试时重新握手
+            if (!stale) {
+                methodTables.invalidate(transportClient.getPeer());
+                stale = true;
+            }
+            invokeRemoteAsync(call.request, call.remoteMethod, call.deadlineNanos, overloadRetries)
+                .thenAccept(call.future::complete);
+        }
+    }
+
+    // 异步版本的send, 网络出错、到达截止时间或响应无法反序列化时future失败, 由调用方转换成失败响应
+    private CompletableFuture<Response> sendAsync(TransportClient transportClient, Request request,
+                                                  RemoteMethod remoteMethod, long deadline, CallTimer timer) {
+        return remoteMethod.isBinary() ? sendBinary(transportClient, request, remoteMethod, deadline, timer)
+            : sendAsync(transportClient, request, deadline, timer);
+    }
+
+    private CompletableFuture<Response> sendAsync(TransportClient transportClient, Request request, long deadline,
+                                                  CallTimer timer) {
+        CompletableFuture<InputStream> afterSendRequest;
+        // 与writeBefore相同, 阻塞式的transportClient等待空闲连接时不超过截止时间
+        try (Deadline.Scope ignored = deadline == Long.MAX_VALUE ? null : Deadline.at(deadline)) {
+            afterSendRequest = transportClient.writeAsync(timer.encode(encoder, request));
+        } catch (RuntimeException e) {
+            afterSendRequest = new CompletableFuture<>();
+            afterSendRequest.completeExceptionally(e);
+        }
+        return decodeAsync(afterSendRequest, request, deadline, timer);
+    }
+
+    /**
+     * 有二进制参数或者返回值的方法(见RemoteMethod.isBinary)
+     *      1. transportClient支持附件时, 二进制参数在parameters中置空, 作为附件在请求帧之前直接发送(Path通过sendfile),
+     *          请求的attachments记录它们的下标, 同时告诉服务端可以把二进制的返回值作为附件返回
+     *      2. 不支持时, 二进制参数转换成byte[]放在请求中
+     *      3. 收到的附件(直接缓冲区)或者响应中的byte[]按声明的返回值类型转换, 见Attachment.convert
+     * 只在编码时替换请求中的参数, 重试时仍然使用调用方原始的参数
+     */
+    private CompletableFuture<Response> sendBinary(TransportClient transportClient, Request request,
+                                                   RemoteMethod remoteMethod, long deadline, CallTimer timer) {
+        Object[] args = request.getParameters();
+        boolean attaching = transportClient.supportsAttachments();
+        List<Attachment> attachments = new ArrayList<>();
+        List<ByteBuffer> received = new ArrayList<>();
+        CompletableFuture<InputStream> afterSendRequest;
+        try {
+            Object[] parameters = args != null ? args.clone() : null;
+            int[] attached = new int[remoteMethod.binaryParameters().length];
+            int count = 0;
+            for (int index : remoteMethod.binaryParameters()) {
+                if (parameters == null || parameters[index] == null) {
+                    continue;
+                }
+                if (attaching) {
+                    // 1. 作为附件发送
+                    attachments.add(Attachment.of(parameters[index]));
+                    parameters[index] = null;
+                    attached[count++] = index;
+                } else {
+                    // 2. 转换成byte[]放在请求中
+                    parameters[index] = Attachment.inline(parameters[index]);
+                }
+            }
+            int[] indexes = attaching ? Arrays.copyOf(attached, count) : null;
+            PayloadWriter encode = timer.encode(encoder, request);
+            PayloadWriter payload = out -> {
+                request.setParameters(parameters);
+                request.setAttachments(indexes);
+                try {
+                    encode.writeTo(out);
+                } finally {
+                    request.setParameters(args);
+                    request.setAttachments(null);
+                }
+            };
+            afterSendRequest = attaching ? transportClient.writeAsync(payload, attachments, received)
+                : transportClient.writeAsync(payload);
+        } catch (IOException | RuntimeException e) {
+            attachments.forEach(Attachment::close);
+            afterSendRequest = new CompletableFuture<>();
+            afterSendRequest.completeExceptionally(e);
+        }
+        // 3. 按声明的返回值类型转换
+        return decodeAsync(afterSendRequest, request, deadline, timer).thenApply(response -> {
+            Class<?> returnType = remoteMethod.binaryReturnType();
+            if (response.isAttached()) {
+                response.setData(received.isEmpty() ? null : received.get(0));
+            }
+            if (returnType != null && response.getCode() == Response.CODE_OK) {
+                try {
+                    response.setData(Attachment.convert(response.getData(), returnType));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return response;
+        });
+    }
+
+    // 等待transportClient的响应并反序列化
+    private CompletableFuture<Response> decodeAsync(CompletableFuture<InputStream> afterSendRequest, Request request,
+                                                    long deadline, CallTimer timer) {
+        // 到期时让transportClient的future失败, 支持取消的transportClient会通知服务端
+        CompletableFuture<InputStream> pending = afterSendRequest;
+        expireAt(pending, deadline, () -> pending.completeExceptionally(
+            new TimeoutException("request " + request.getRequestId() + " deadline exceeded")));
+        return afterSendRequest.thenApply(body -> {
+            try {
+                return timer.decode(decoder, body);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // 到达截止时间时执行onExpire, future先完成时取消计时
+    private static void expireAt(CompletableFuture<?> future, long deadline, Runnable onExpire) {
+        if (deadline == Long.MAX_VALUE || future.isDone()) {
+            return;
+        }
+        ScheduledFuture<?> timeout = DEADLINE_TIMER.schedule(onExpire, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        future.whenComplete((result, error) -> timeout.cancel(false));
+    }
+
+    // 到达截止时间时生成的本地失败响应
+    private static Response deadlineResponse(String message) {
+        Response response = new Response();
+        response.setCode(Response.CODE_DEADLINE_EXCEEDED);
+        response.setMessage(message);
+        return response;
+    }
+
+    // 调用过程中出现异常时, 生成一个本地的失败响应
+    private Response errorResponse(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof TimeoutException) {
+            log.info("[invokeRemote] {}", e.getMessage());
+            return deadlineResponse("RpcClient " + e.getMessage());
+        }
+        log.warn("[invokeRemote] e={}, {}", e.getMessage(), e);
+        Response response = new Response();
+        response.setCode(Response.CODE_ERROR);
+        response.setMessage("RpcClient error" + e.getClass() + ":" +e.getMessage());
+        return response;
+    }
 }
@@ -0,0 +1,278 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.MethodTable;
+import com.marion.mrpc.ServiceDescriptor;
+import com.marion.mrpc.annotation.Cacheable;
+import com.marion.mrpc.annotation.HashKey;
+import com.marion.mrpc.annotation.Timeout;
+import com.marion.mrpc.transport.Attachment;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * 一个可以远程调用的接口方法, 调用前需要的信息都预先算好
+ *      1. descriptor: 服务描述, 对端没有方法表时放进请求中
+ *      2. key: 服务在方法表中的key, 按它查出methodId
+ *      3. async: 接口方法的返回值是否是CompletableFuture, 是的话走异步调用
+ *      4. methodId: 记住上一次查到的方法表版本和methodId, 方法表不变时不再查表
+ *      5. routeKey: 标注了@HashKey的参数, 交给TransportSelector按它选择服务端
+ *      6. timeoutMillis: 方法上的@Timeout, 没有时取接口上的@Timeout, 都没有时为0, 使用RpcClientConfig.callTimeoutMillis
+ *      7. cacheTtlMillis: 方法上的@Cacheable, 大于0时客户端缓存调用成功的结果
+ *      8. streamType: 接口方法的返回值是Iterator或者Stream时按流接收结果, 调用方遍历时才读取后面的元素
+ *      9. binaryParameters & binaryReturnType: ByteBuffer/byte[]/Path类型的参数下标和返回值类型,
+ *          transportClient支持附件时不经过编码直接发送, 见Attachment
+ *      10. resultType: 调用方拿到的结果类型(含泛型), 异步调用取CompletableFuture的类型参数, 流式调用取元素类型,
+ *          解码出的通用结构按它转换, 不使用对端发来的类名(见DeclaredTypes)
+ * 动态代理按Method缓存它, 生成的stub类把它保存在静态常量中
+ */
+public final class RemoteMethod {
+
+    private final ServiceDescriptor descriptor;
+
+    private final String key;
+
+    private final boolean async;
+
+    private final int hashKeyIndex;
+
+    private final long timeoutMillis;
+
+    private final long cacheTtlMillis;
+
+    private final Class<?> streamType;
+
+    private final int[] binaryParameters;
+
+    private final Class<?> binaryReturnType;
+
+    private final Type resultType;
+
+    private volatile Resolved resolved;
+
+    private RemoteMethod(ServiceDescriptor descriptor, boolean async, int hashKeyIndex, long timeoutMillis,
+                         long cacheTtlMillis, Class<?> streamType, int[] binaryParameters,
+                         Class<?> binaryReturnType, Type resultType) {
+        this.descriptor = descriptor;
+        this.key = descriptor.key();
+        this.async = async;
+        this.hashKeyIndex = hashKeyIndex;
+        this.timeoutMillis = timeoutMillis;
+        this.cacheTtlMillis = cacheTtlMillis;
+        this.streamType = streamType;
+        this.binaryParameters = binaryParameters;
+        this.binaryReturnType = binaryReturnType;
+        this.resultType = resultType;
+    }
+
+    /**
+     * @param serviceClass 服务接口
+     * @param method 接口方法, 可以是从父接口继承的方法
+     */
+    public static RemoteMethod from(Class<?> serviceClass, Method method) {
+        return new RemoteMethod(ServiceDescriptor.from(serviceClass, method),
+            CompletableFuture.class.equals(method.getReturnType()), hashKeyIndex(method),
+            timeoutMillis(serviceClass, method), cacheTtlMillis(method), streamType(method),
+            binaryParameters(method), Attachment.isBinary(method.getReturnType()) ? method.getReturnType() : null,
+            resultType(method));
+    }
+
+    // 10. 异步调用和流式调用取返回值的类型参数, 没有类型参数时为Object
+    private static Type resultType(Method method) {
+        Class<?> returnType = method.getReturnType();
+        Type genericType = method.getGenericReturnType();
+        if (!CompletableFuture.class.equals(returnType) && streamType(method) == null) {
+            return genericType;
+        }
+        if (genericType instanceof ParameterizedType) {
+            Type argument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+            return argument instanceof Class || argument instanceof ParameterizedType ? argument : Object.class;
+        }
+        return Object.class;
+    }
+
+    // 9. 二进制参数的下标
+    private static int[] binaryParameters(Method method) {
+        Class<?>[] types = method.getParameterTypes();
+        int count = 0;
+        for (Class<?> type : types) {
+            if (Attachment.isBinary(type)) {
+                count++;
+            }
+        }
+        int[] indexes = new int[count];
+        for (int i = 0, j = 0; i < types.length; i++) {
+            if (Attachment.isBinary(types[i])) {
+                indexes[j++] = i;
+            }
+        }
+        return indexes;
+    }
+
+    // 8. 返回值是Iterator或者Stream时按流接收结果, 其它类型返回null
+    private static Class<?> streamType(Method method) {
+        Class<?> returnType = method.getReturnType();
+        return Iterator.class.equals(returnType) || Stream.class.equals(returnType) ? returnType : null;
+    }
+
+    // 7. 方法上的@Cacheable
+    private static long cacheTtlMillis(Method method) {
+        Cacheable cacheable = method.getAnnotation(Cacheable.class);
+        return cacheable != null ? Math.max(cacheable.ttlMillis(), 0) : 0;
+    }
+
+    // 6. 方法上的@Timeout优先于接口上的, 继承的方法也查看声明它的接口
+    private static long timeoutMillis(Class<?> serviceClass, Method method) {
+        Timeout timeout = method.getAnnotation(Timeout.class);
+        if (timeout == null) {
+            timeout = serviceClass.getAnnotation(Timeout.class);
+        }
+        if (timeout == null) {
+            timeout = method.getDeclaringClass().getAnnotation(Timeout.class);
+        }
+        return timeout != null ? Math.max(timeout.value(), 0) : 0;
+    }
+
+    // 标注了@HashKey的参数下标, 没有时返回-1
+    private static int hashKeyIndex(Method method) {
+        int index = -1;
+        Annotation[][] annotations = method.getParameterAnnotations();
+        for (int i = 0; i < annotations.length; i++) {
+            for (Annotation annotation : annotations[i]) {
+                if (annotation instanceof HashKey) {
+                    if (index >= 0) {
+                        throw new IllegalStateException("more than one @HashKey on " + method);
+                    }
+                    index = i;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 供生成的stub类使用, 按方法名和参数类型找到接口方法
+     */
+    public static RemoteMethod of(Class<?> serviceClass, String name, Class<?>... parameterTypes) {
+        try {
+            return from(serviceClass, serviceClass.getMethod(name, parameterTypes));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("no method " + name + " in " + serviceClass.getName(), e);
+        }
+    }
+
+    public ServiceDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public boolean hasRouteKey() {
+        return hashKeyIndex >= 0;
+    }
+
+    /**
+     * @return @Timeout指定的超时时间(毫秒), 没有指定时为0
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return 客户端缓存结果的时间(毫秒), 0表示不缓存
+     */
+    public long getCacheTtlMillis() {
+        return cacheTtlMillis;
+    }
+
+    public boolean isCacheable() {
+        return cacheTtlMillis > 0 && streamType == null && !isBinary();
+    }
+
+    /**
+     * @return 接口方法的返回值是否是Iterator或者Stream, 是的话按流接收结果
+     */
+    public boolean isStreaming() {
+        return streamType != null;
+    }
+
+    /**
+     * @return 是否有二进制的参数或者返回值
+     */
+    public boolean isBinary() {
+        return binaryParameters.length > 0 || binaryReturnType != null;
+    }
+
+    // 9. 二进制参数的下标, 没有时为空数组
+    int[] binaryParameters() {
+        return binaryParameters;
+    }
+
+    // 10. 调用方拿到的结果类型, 流式调用时是元素的类型
+    Type resultType() {
+        return resultType;
+    }
+
+    // 9. 二进制的返回值类型, 返回值不是二进制时为null
+    Class<?> binaryReturnType() {
+        return binaryReturnType;
+    }
+
+    /**
+     * @return 接口方法的返回值是否是Stream, 否则是Iterator
+     */
+    boolean returnsStream() {
+        return Stream.class.equals(streamType);
+    }
+
+    /**
+     * @param args 调用的参数
+     * @return 标注了@HashKey的参数, 没有标注时返回null
+     */
+    public Object routeKey(Object[] args) {
+        return hashKeyIndex >= 0 && args != null ? args[hashKeyIndex] : null;
+    }
+
+    /**
+     * @param table 对端的方法表
+     * @return 这个方法在方法表中的methodId, 不在方法表中时返回-1
+     */
+    int methodId(MethodTable table) {
+        Resolved current = resolved;
+        if (current != null && current.version == table.version()) {
+            return current.methodId;
+        }
+        int methodId = table.idOf(key);
+        resolved = new Resolved(table.version(), methodId);
+        return methodId;
+    }
+
+    // 服务在方法表中的key, 调用指标也按它统计
+    String key() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+
+    private static final class Resolved {
+
+        private final long version;
+
+        private final int methodId;
+
+        Resolved(long version, int methodId) {
+            this.version = version;
+            this.methodId = methodId;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.codec.DeclaredTypes;
+import com.marion.mrpc.codec.Decoder;
+import com.marion.mrpc.codec.Encoder;
+
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端的调用结果缓存, 一个RpcClient的所有代理共用, 只缓存标注了@Cacheable的方法
+ *      1. key: 方法的key加上用encoder序列化后的参数, 参数无法序列化时不缓存
+ *      2. get: 查找没有过期的结果, 过期的结果直接删除; value: 取出命中的结果
+ *      3. put: 保存调用成功的结果, 超过容量时淘汰最久没有访问的结果(LRU)
+ *          a. String、基础类型的包装类型、枚举等不可变的结果直接保存
+ *          b. 其它结果保存用encoder序列化后的字节, 每次命中时反序列化出新的对象并转换成声明的类型,
+ *             调用方修改拿到的结果不会影响缓存, 也不会影响其它调用方; 结果无法序列化时不缓存
+ *      4. stats: 命中、未命中和淘汰的次数
+ * 按key的哈希值分成多个段, 每段是一个按访问顺序排列的LinkedHashMap, 各自加锁, 减少并发访问时的锁竞争
+ */
+final class ResultCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Encoder encoder;
+
+    private final Decoder decoder;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    ResultCache(Encoder encoder, Decoder decoder, int maxSize) {
+        this.encoder = encoder;
+        this.decoder = decoder;
+        int segmentSize = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    // 1. 生成缓存的key, 参数无法序列化时返回null
+    Key key(RemoteMethod remoteMethod, Object[] args) {
+        try {
+            return new Key(remoteMethod.toString(), args == null ? new byte[0] : encoder.encode(args));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // 2. 查找没有过期的结果, 没有时返回null
+    Entry get(Key key) {
+        Segment segment = segment(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && System.nanoTime() - entry.expireAt >= 0) {
+                segment.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * 2. 命中的结果, 序列化保存的结果每次反序列化出新的对象
+     * @param type 接口方法声明的结果类型
+     */
+    Object value(Entry entry, Type type) {
+        if (entry.encoded == null) {
+            return entry.value;
+        }
+        return DeclaredTypes.convert(decoder.decode(entry.encoded, Object.class), type);
+    }
+
+    // 3. 保存调用成功的结果
+    void put(Key key, Object value, long ttlMillis) {
+        long expireAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        Entry entry;
+        if (isImmutable(value)) {
+            entry = new Entry(value, null, expireAt);
+        } else {
+            // b. 结果无法序列化时不缓存
+            try {
+                entry = new Entry(null, encoder.encode(value), expireAt);
+            } catch (RuntimeException e) {
+                return;
+            }
+        }
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    // 4. 命中、未命中和淘汰的次数, 以及当前缓存的结果数
+    CacheStats stats() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    // 3. a. 可以直接共享的结果
+    private static boolean isImmutable(Object value) {
+        return value == null || value instanceof String || value instanceof Integer || value instanceof Long
+            || value instanceof Boolean || value instanceof Double || value instanceof Float || value instanceof Short
+            || value instanceof Byte || value instanceof Character || value instanceof BigDecimal
+            || value instanceof BigInteger || value instanceof Enum;
+    }
+
+    private Segment segment(Key key) {
+        int hash = key.hash;
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * 缓存的key, 哈希值预先算好
+     */
+    static final class Key {
+
+        private final String method;
+
+        private final byte[] args;
+
+        private final int hash;
+
+        Key(String method, byte[] args) {
+            this.method = method;
+            this.args = args;
+            this.hash = 31 * method.hashCode() + Arrays.hashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && method.equals(other.method) && Arrays.equals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * 缓存的结果: 不可变的结果保存在value中(可以是null), 其它结果保存序列化后的encoded
+     */
+    static final class Entry {
+
+        private final Object value;
+
+        private final byte[] encoded;
+
+        final long expireAt;
+
+        Entry(Object value, byte[] encoded, long expireAt) {
+            this.value = value;
+            this.encoded = encoded;
+            this.expireAt = expireAt;
+        }
+    }
+
+    // 一段缓存, 按访问顺序排列, 超过容量时淘汰最久没有访问的结果
+    private final class Segment extends LinkedHashMap<Key, Entry> {
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() <= maxSize) {
+                return false;
+            }
+            evictions.increment();
+            return true;
+        }
+    }
+}
@@ -1,17 +1,36 @@
 package com.marion.mrpc.client;
 
+import com.marion.common.jfr.RpcEvents;
+import com.marion.common.metrics.MethodSnapshot;
+import com.marion.common.metrics.MetricsRegistry;
 import com.marion.common.utils.ReflectUtils;
+import com.marion.mrpc.codec.CompressingEncoder;
 import com.marion.mrpc.codec.Decoder;
 import com.marion.mrpc.codec.Encoder;
 
 import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RpcClient {
 
+    /**
+     * 编译时生成的stub类的类名后缀, 与rpc-stub模块中的StubProcessor一致
+     */
+    public static final String STUB_SUFFIX = "$$MrpcStub";
+
+    // 同一个进程中RpcClient的编号, 区分各自的MBean
+    private static final AtomicInteger CLIENT_ID = new AtomicInteger();
+
     private RpcClientConfig config;
     private Encoder encoder;
     private Decoder decoder;
     private TransportSelector selector;
+    private MethodTables methodTables;         // 按服务端缓存的方法表, 所有代理共用
+    private CallBatcher batcher;               // 批量调用, 所有代理共用, 没有开启时为空
+    private ResultCache cache;                 // 可缓存方法的结果缓存, 所有代理共用, 没有开启时为空
+    private MetricsRegistry metrics;           // 按方法统计的调用指标, 所有代理共用
+    private RpcEvents events;                  // 调用的JFR事件, 所有代理共用
 
     // 无参构造方法
     public RpcClient() {
@@ -23,30 +42,79 @@ public class RpcClient {
         this.config = config;
 
         this.encoder = ReflectUtils.newInstance(this.config.getEncoder());
+        if (this.encoder instanceof CompressingEncoder) {
+            ((CompressingEncoder) this.encoder).setThreshold(this.config.getCompressThreshold());
+        }
         this.decoder = ReflectUtils.newInstance(this.config.getDecoder());
 
         this.selector = ReflectUtils.newInstance(this.config.getTransportSelector());
+        this.methodTables = new MethodTables(this.encoder, this.decoder);
+        if (this.config.getBatchWindowMicros() > 0) {
+            this.batcher = new CallBatcher(this.config.getBatchWindowMicros(), this.config.getBatchMaxSize());
+        }
+        if (this.config.getCacheMaxSize() > 0) {
+            this.cache = new ResultCache(this.encoder, this.decoder, this.config.getCacheMaxSize());
+        }
+        this.metrics = new MetricsRegistry(this.config.isJmxEnabled()
+            ? "com.marion.mrpc:type=RpcClient,id=" + CLIENT_ID.incrementAndGet() : null, CallTimer.PHASES);
+        this.events = RpcEvents.client(this.config.getJfrThresholdMillis());
 
-        this.selector.init(
-            this.config.getRpcServers(),
-            this.config.getConnectCount(),
-            this.config.getTransportClass()
-        );
+        this.selector.init(this.config);
     }
 
 
     /**
      * 获取接口的代理对象 需要new定义一个RemoteInvoke对象传入
      * RemoteInvoker: 调用远程服务的前提, 自定义动态代理类的处理.
+     * 接口中返回CompletableFuture的方法会被异步调用, 不阻塞调用方线程
+     * 接口中返回Iterator/Stream的方法按流接收结果, 调用方遍历时才读取后面的元素, 用完后需要关闭
+     * 接口标注了@RpcService并且编译时生成了stub类(接口名 + STUB_SUFFIX)时, 直接返回stub类的对象, 不再使用动态代理
      * @param interfaceClass 需要代理的接口类
      * @param <T> 泛型
      * @return 返回代理对象T
      */
     public <T> T getProxy(Class<T> interfaceClass) {
+        RemoteInvoker invoker = new RemoteInvoker(interfaceClass, encoder, decoder, selector, methodTables, batcher,
+            config.getCallTimeoutMillis(), config.getOverloadRetries(), cache, config.getStreamWindow(), metrics, events);
+        T stub = newStub(interfaceClass, invoker);
+        if (stub != null) {
+            return stub;
+        }
         return (T) Proxy.newProxyInstance(
             getClass().getClassLoader(),
             new Class[]{interfaceClass},
-            new RemoteInvoker(interfaceClass, encoder, decoder, selector)
+            invoker
         );
     }
+
+    /**
+     * 客户端结果缓存的统计, 没有开启缓存时为null
+     */
+    public CacheStats getCacheStats() {
+        return cache != null ? cache.stats() : null;
+    }
+
+    /**
+     * 每个方法的调用指标快照, 按方法的key(见ServiceDescriptor.key)排序
+     *      calls & errors & latency: 发出的调用次数, 失败次数, 整个调用的耗时(包括重试)
+     *      phases: 每次发送的select/encode/network/decode各个阶段的耗时, 见CallTimer
+     */
+    public Map<String, MethodSnapshot> getMetrics() {
+        return metrics.snapshot();
+    }
+
+    // 加载编译时生成的stub类, 没有生成时返回null
+    private <T> T newStub(Class<T> interfaceClass, RemoteInvoker invoker) {
+        Class<?> stubClass;
+        try {
+            stubClass = Class.forName(interfaceClass.getName() + STUB_SUFFIX, true, interfaceClass.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        try {
+            return interfaceClass.cast(stubClass.getConstructor(RemoteInvoker.class).newInstance(invoker));
+        } catch (Exception e) {
+            throw new IllegalStateException("create stub " + stubClass.getName() + " fail", e);
+        }
+    }
 }
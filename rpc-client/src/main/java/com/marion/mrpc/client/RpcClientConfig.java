@@ -1,6 +1,7 @@
 package com.marion.mrpc.client;
 
 import com.marion.mrpc.Peer;
+import com.marion.mrpc.codec.CompressingEncoder;
 import com.marion.mrpc.codec.Decoder;
 import com.marion.mrpc.codec.Encoder;
 import com.marion.mrpc.codec.JSONDecoder;
@@ -15,10 +16,39 @@ import java.util.List;
 /**
  * RPC Client的配置
  *    1. TransportClient: 选择网络通信模块，具体采用什么样的连接
+ *          HttpTransportClient-HTTP/1.1, 按peer复用keep-alive连接(默认), 超时等参数可以在子类的构造方法中设置
+ *          TcpTransportClient-基于TCP长连接
+ *          MultiplexTcpTransportClient-基于TCP长连接的多路复用, 多个线程共享一条连接, connectCount为1即可
+ *          Http2TransportClient-基于HTTP/2明文(h2c)的多路复用, 每个调用是一个流, 需要服务端使用Http2TransportServer, connectCount为1即可
+ *          ByteBuffer/byte[]/Path类型的参数和返回值: TcpTransportClient和MultiplexTcpTransportClient作为附件帧直接收发(文件通过sendfile),
+ *              超过1MB的附件收到后放在临时文件中; 其它transportClient转换成byte[]放在请求和响应中
  *    2. Encoder & Decoder: 选择编码解码序列化模块，序列化采用什么格式
- *    3. TransportSelector：选择路由的策略，默认随机策略
+ *          JSONEncoder & JSONDecoder(默认)  BinaryEncoder & BinaryDecoder-紧凑的二进制格式, 需要与服务端一致
+ *          CompressingEncoder & CompressingDecoder(JSON)  CompressingBinaryEncoder & CompressingBinaryDecoder(二进制)-
+ *              超过compressThreshold字节(默认1KB)的请求压缩后传输, 适合返回大集合的方法, 需要与服务端一致;
+ *              compressThreshold只影响客户端发出的请求, 响应是否压缩由服务端的RpcServerConfig.compressThreshold决定
+ *    3. TransportSelector：选择路由的策略
+ *          LeastLoadedTransportSelector-两次随机选择中未完成请求和耗时较少的一个(默认), 没有空闲的健康连接时最多等待selectTimeoutMillis(不超过调用的截止时间),
+ *              跳过不健康的服务端: 连续失败healthFailureThreshold次后摘除, healthBackoffMillis之后放一个探测请求,
+ *              探测失败时摘除时间翻倍, 最多healthMaxBackoffMillis; 探测请求超过healthProbeTimeoutMillis没有结束按探测失败处理
+ *          RandomTransportSelector-随机选择, 没有空闲连接时直接失败
+ *          ConsistentHashTransportSelector-按接口方法中@HashKey参数一致性哈希, 相同的key发往同一个服务端,
+ *              每个服务端的负载不超过平均负载的hashLoadFactor倍, hashVirtualNodes为每个服务端在哈希环上的虚拟节点数
  *    4. connectCount连接数: 每个RpcClient与所有RpcServer之间, 默认建立多少连接
  *    5. RpcServers: 初始化默认有的服务器 ip & 端口
+ *    6. 批量调用: batchWindowMicros大于0时开启, 这个时间窗口内的调用(最多batchMaxSize个)合并成一个批量请求发送,
+ *          每次调用最多多等待一个时间窗口, 适合大量并发的小请求; 服务端按顺序逐个处理批次中的请求
+ *    7. callTimeoutMillis: 调用的默认超时时间, 接口或方法上的@Timeout优先, 调用方用Deadline设置的更早的截止时间再优先;
+ *          超时时间随请求发给服务端, 服务端不再执行或中断已经超时的请求, 多路复用的连接上还会通知服务端取消
+ *    8. overloadRetries: 服务端过载拒绝请求(没有执行)时, 重新选择服务端重试的次数
+ *    9. cacheMaxSize: 标注了@Cacheable的方法在客户端缓存的结果总数上限, 超过时淘汰最久没有访问的结果, 0表示不缓存
+ *   10. streamWindow: 返回Iterator/Stream的方法按流接收结果时, 服务端最多领先调用方遍历进度的帧数,
+ *          每帧最多RpcServerConfig.streamChunkSize个元素; 只有支持流式响应的transportClient(MultiplexTcpTransportClient)
+ *          才按流接收, 其它transportClient一次收到全部元素
+ *   11. jmxEnabled: 把每个方法的调用指标(见RpcClient.getMetrics)注册为JMX的MBean,
+ *          ObjectName形如 com.marion.mrpc:type=RpcClient,id=RpcClient的编号,method="服务的key"
+ *   12. jfrThresholdMillis: 开启JFR时每次发送提交一个com.marion.mrpc.ClientCall事件(服务、方法、对端、请求和响应的字节数、
+ *          响应码和耗时), 只提交耗时达到这个阈值的调用, 0表示全部提交; JFR配置中的threshold同样生效
  */
 @Data
 public class RpcClientConfig {
@@ -29,11 +59,45 @@ public class RpcClientConfig {
     private Class<? extends Encoder> encoder = JSONEncoder.class;
 
     private Class<? extends Decoder> decoder = JSONDecoder.class;
+    // 使用CompressingEncoder及其子类时, 超过多少字节的请求才压缩
+    private int compressThreshold = CompressingEncoder.DEFAULT_THRESHOLD;
 
-    private Class<? extends TransportSelector> transportSelector = RandomTransportSelector.class;
+    private Class<? extends TransportSelector> transportSelector = LeastLoadedTransportSelector.class;
 
     // 默认建立一个连接
     private int connectCount = 1;
+    // 所有连接都在使用时, 等待空闲连接的最长时间(毫秒)
+    private long selectTimeoutMillis = 3000;
+    // 连续失败多少次后摘除服务端
+    private int healthFailureThreshold = 5;
+    // 耗时超过其它服务端平均耗时多少倍的请求算一次失败, 0表示不按耗时摘除
+    private double healthLatencyFactor = 10;
+    // 第一次摘除的时间(毫秒), 之后探测失败时翻倍
+    private long healthBackoffMillis = 1000;
+    // 最长摘除时间(毫秒)
+    private long healthMaxBackoffMillis = 30000;
+    // 探测请求超过多少毫秒还没有结束时按探测失败处理, 0表示不限制
+    private long healthProbeTimeoutMillis = 10000;
+    // 一致性哈希时每个服务端的虚拟节点数
+    private int hashVirtualNodes = 160;
+    // 一致性哈希时每个服务端的负载上限, 相对于平均负载的倍数, 不小于1
+    private double hashLoadFactor = 1.25;
     // 默认本地3000端口
     private List<Peer> rpcServers = Arrays.asList(new Peer("127.0.0.1", 3000));
+    // 批量调用的时间窗口(微秒), 默认0不开启
+    private long batchWindowMicros = 0;
+    // 一个批量请求最多合并的调用数
+    private int batchMaxSize = 64;
+    // 调用的默认超时时间(毫秒), 默认0不限制
+    private long callTimeoutMillis = 0;
+    // 服务端过载时重试的次数
+    private int overloadRetries = 1;
+    // 客户端缓存的结果总数上限
+    private int cacheMaxSize = 10000;
+    // 流式调用的接收窗口(帧数)
+    private int streamWindow = 16;
+    // 调用指标注册为JMX的MBean
+    private boolean jmxEnabled = true;
+    // 只提交耗时达到阈值(毫秒)的JFR事件
+    private long jfrThresholdMillis = 0;
 }
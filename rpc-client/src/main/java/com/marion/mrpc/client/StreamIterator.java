@@ -0,0 +1,137 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.Request;
+import com.marion.mrpc.Response;
+import com.marion.mrpc.codec.DeclaredTypes;
+import com.marion.mrpc.codec.Decoder;
+import com.marion.mrpc.transport.StreamReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 流式调用返回给调用方的Iterator, 按需从StreamReader中读取后面的帧
+ *      1. 每个数据帧是一个Response, data是服务端一次发送的一批元素, 结束流的响应帧带回调用的结果
+ *      2. hasNext: 当前这批元素用完时才读取下一帧, 最多等待到调用的截止时间
+ *      3. 流结束、出错或者调用方提前close时关闭StreamReader, 并通过onFinish释放transportClient; 提前关闭会通知服务端停止发送
+ *      4. completed: 整个结果已经在一个响应中时(不支持流式响应的transportClient), 直接遍历其中的元素
+ *      5. 每个元素在遍历到时按接口方法声明的元素类型elementType转换, 见DeclaredTypes
+ * 不是线程安全的, 与普通的Iterator一样只在一个线程上遍历
+ */
+final class StreamIterator implements Iterator<Object>, AutoCloseable {
+
+    private final Request request;
+
+    private final StreamReader reader;
+
+    private final Decoder decoder;
+
+    private final Type elementType;
+
+    private final long deadlineNanos;
+
+    private final Runnable onFinish;
+
+    private Iterator<?> chunk = Collections.emptyIterator();
+
+    private boolean done;
+
+    StreamIterator(Request request, StreamReader reader, Decoder decoder, Type elementType, long deadlineNanos,
+                   Runnable onFinish) {
+        this.request = request;
+        this.reader = reader;
+        this.decoder = decoder;
+        this.elementType = elementType;
+        this.deadlineNanos = deadlineNanos;
+        this.onFinish = onFinish;
+    }
+
+    // 4. 已经收到全部元素的Iterator, 不再读取任何帧
+    static StreamIterator completed(Request request, List<?> elements, Type elementType) {
+        StreamIterator iterator = new StreamIterator(request, null, null, elementType, Long.MAX_VALUE, () -> { });
+        iterator.chunk = elements.iterator();
+        iterator.done = true;
+        return iterator;
+    }
+
+    /**
+     * 读取第一帧, 调用失败时立即抛出, 让调用方在发起调用时就知道失败
+     * @return 第一帧就是结束流的响应帧时返回它, 由调用方处理失败和重试; 否则返回null
+     */
+    Response open() throws Exception {
+        Response response = read();
+        if (reader.isFinished()) {
+            return response;
+        }
+        chunk = elements(response);
+        return null;
+    }
+
+    // 2. 当前这批元素用完时才读取下一帧
+    @Override
+    public boolean hasNext() {
+        while (!chunk.hasNext()) {
+            if (done) {
+                return false;
+            }
+            Response response;
+            try {
+                response = read();
+            } catch (Exception e) {
+                close();
+                throw new IllegalStateException("fail read stream of request " + request.getRequestId() + ", " + e, e);
+            }
+            if (reader.isFinished()) {
+                finish();
+                // 1. 结束流的响应帧带回调用的结果
+                if (response.getCode() != Response.CODE_OK) {
+                    throw new IllegalStateException("fail invoke remote " + response);
+                }
+            }
+            chunk = elements(response);
+        }
+        return true;
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return DeclaredTypes.convert(chunk.next(), elementType);
+    }
+
+    // 3. 调用方提前关闭时通知服务端停止发送
+    @Override
+    public void close() {
+        if (!done) {
+            finish();
+        }
+    }
+
+    private Response read() throws IOException, InterruptedException, TimeoutException {
+        try (InputStream in = reader.next(deadlineNanos)) {
+            return decoder.decode(in, Response.class);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private void finish() {
+        done = true;
+        reader.close();
+        onFinish.run();
+    }
+
+    private static Iterator<?> elements(Response response) {
+        Object data = response.getData();
+        return data instanceof List ? ((List<?>) data).iterator() : Collections.emptyIterator();
+    }
+}
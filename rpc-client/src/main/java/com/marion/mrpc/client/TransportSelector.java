@@ -12,6 +12,8 @@ import java.util.List;
  *      2. select: 从已连接列表中, 按照策略选择一个连接拿来用, 即选择一个TransportClient返回, 同时暂时从transportClientsList中移除
  *      3. release: 对于已经处理完用完的连接进行释放, 即将TransportClient重新加入回transportClientsList中
  *      4. close: 对rpcClient进行关闭, 即销毁所有的已连接网络通信客户端, 即关闭每个transportClient并清理transportClientsList
+ * RpcClient通过init(RpcClientConfig)初始化, 通过release(transportClient, elapsedNanos, success, method)归还连接,
+ * 需要其它配置、请求耗时或者跟踪对端健康状态的策略重写这两个方法
  */
 public interface TransportSelector {
 
@@ -27,6 +29,15 @@ public interface TransportSelector {
             int count,
             Class<? extends TransportClient> transportClientClazz);
 
+    /**
+     * 1. init: 按RpcClient的配置初始化, 默认只使用服务器列表、连接数和transportClient类型
+     *
+     * @param config RpcClient的配置
+     */
+    default void init(RpcClientConfig config) {
+        init(config.getRpcServers(), config.getConnectCount(), config.getTransportClass());
+    }
+
     /**
      * 2. select: 从已连接列表中, 按照策略选择一个连接拿来用, 即选择一个TransportClient返回, 同时暂时从transportClientsList中移除
      *
@@ -34,6 +45,16 @@ public interface TransportSelector {
      */
     TransportClient select();
 
+    /**
+     * 2. select: 按路由key选择连接, 默认忽略key
+     *
+     * @param routeKey 接口方法中标注了@HashKey的参数, 没有标注或参数为null时为null
+     * @return TransportClient
+     */
+    default TransportClient select(Object routeKey) {
+        return select();
+    }
+
     /**
      * 3. release: 对于已经处理完用完的连接进行释放, 即将TransportClient重新加入回transportClientsList中
      *
@@ -41,6 +62,39 @@ public interface TransportSelector {
      */
     void release(TransportClient transportClient);
 
+    /**
+     * 3. release: 归还连接, 同时带上这次请求从select到release的耗时, 默认忽略耗时
+     *
+     * @param transportClient 网络通信客户端
+     * @param elapsedNanos 从select到release的耗时(纳秒)
+     */
+    default void release(TransportClient transportClient, long elapsedNanos) {
+        release(transportClient);
+    }
+
+    /**
+     * 3. release: 归还连接, 同时带上这次请求的耗时和是否成功, 默认忽略是否成功
+     *
+     * @param transportClient 网络通信客户端
+     * @param elapsedNanos 从select到release的耗时(纳秒)
+     * @param success 这次请求是否拿到了对端的响应, 网络出错时为false; 服务端返回的失败响应也算成功
+     */
+    default void release(TransportClient transportClient, long elapsedNanos, boolean success) {
+        release(transportClient, elapsedNanos);
+    }
+
+    /**
+     * 3. release: 归还连接, 同时带上这次请求的耗时、是否成功和调用的方法, 默认忽略方法
+     *
+     * @param transportClient 网络通信客户端
+     * @param elapsedNanos 从select到release的耗时(纳秒)
+     * @param success 这次请求是否拿到了对端的响应
+     * @param method 调用的方法(服务类名.方法签名), 不同方法的耗时不能互相比较; 批量请求等不属于单个方法时为null
+     */
+    default void release(TransportClient transportClient, long elapsedNanos, boolean success, String method) {
+        release(transportClient, elapsedNanos, success);
+    }
+
     /**
      * 4. close: 对rpcClient进行关闭, 即销毁所有的已连接网络通信客户端, 即关闭每个transportClient并清理transportClientsList
      */
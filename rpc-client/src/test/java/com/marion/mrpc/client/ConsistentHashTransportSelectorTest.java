@@ -0,0 +1,94 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.Peer;
+import com.marion.mrpc.transport.TransportClient;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ConsistentHashTransportSelectorTest {
+
+    private static List<Peer> peers(int count) {
+        List<Peer> peers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            peers.add(new Peer("10.0.0." + i, 3000));
+        }
+        return peers;
+    }
+
+    private static ConsistentHashTransportSelector selector(List<Peer> peers, Class<? extends TransportClient> transportClass) {
+        RpcClientConfig config = new RpcClientConfig();
+        config.setTransportClass(transportClass);
+        config.setRpcServers(peers);
+        config.setConnectCount(1);
+        config.setSelectTimeoutMillis(100);
+        ConsistentHashTransportSelector selector = new ConsistentHashTransportSelector();
+        selector.init(config);
+        return selector;
+    }
+
+    @Test public void sameKeySamePeer() {
+        ConsistentHashTransportSelector selector = selector(peers(5), FakeTransportClient.Multiplexed.class);
+        for (int key = 0; key < 100; key++) {
+            TransportClient client = selector.select("user-" + key);
+            selector.release(client);
+            for (int i = 0; i < 5; i++) {
+                TransportClient again = selector.select("user-" + key);
+                assertEquals(client.getPeer(), again.getPeer());
+                selector.release(again);
+            }
+        }
+    }
+
+    @Test public void addingPeerMovesAboutOneInN() {
+        HashRing<Peer> four = new HashRing<>(peers(4), Peer::toString, 160);
+        HashRing<Peer> five = new HashRing<>(peers(5), Peer::toString, 160);
+        int keys = 10000;
+        int moved = 0;
+        Map<Peer, Integer> load = new HashMap<>();
+        for (int key = 0; key < keys; key++) {
+            Peer before = four.get(four.position("key-" + key));
+            Peer after = five.get(five.position("key-" + key));
+            if (!before.equals(after)) {
+                moved++;
+                // 移动的key只会移到新加入的peer上
+                assertEquals("10.0.0.4", after.getHost());
+            }
+            load.merge(after, 1, Integer::sum);
+        }
+        // 理想情况下移动1/5的key
+        assertTrue("moved " + moved, moved > keys * 0.15 && moved < keys * 0.25);
+        for (int count : load.values()) {
+            assertTrue("load " + load, count > keys / 5 * 0.75 && count < keys / 5 * 1.25);
+        }
+    }
+
+    @Test public void boundedLoadSpillsHotKey() {
+        ConsistentHashTransportSelector selector = selector(peers(4), FakeTransportClient.Multiplexed.class);
+        // 同一个key的请求都不释放, 超过负载上限后落到其它peer上
+        Map<Peer, Integer> load = new HashMap<>();
+        for (int i = 0; i < 40; i++) {
+            load.merge(selector.select("hot").getPeer(), 1, Integer::sum);
+        }
+        assertEquals(4, load.size());
+        for (int count : load.values()) {
+            assertTrue("load " + load, count <= Math.ceil(40 * 1.25 / 4));
+        }
+    }
+
+    @Test public void exclusiveClientBusyMovesToNextPeer() {
+        ConsistentHashTransportSelector selector = selector(peers(2), FakeTransportClient.class);
+        TransportClient first = selector.select("key");
+        TransportClient second = selector.select("key");
+        // 首选peer唯一的连接正在使用, 顺延到另一个peer
+        assertFalse(first.getPeer().equals(second.getPeer()));
+        selector.release(first);
+        selector.release(second);
+        assertEquals(first.getPeer(), selector.select("key").getPeer());
+    }
+}
@@ -0,0 +1,41 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.Peer;
+import com.marion.mrpc.transport.TransportClient;
+
+import java.io.InputStream;
+
+/**
+ * 只记录对端peer的transportClient, 用来测试路由策略
+ */
+public class FakeTransportClient implements TransportClient {
+
+    private Peer peer;
+
+    @Override
+    public void connect(Peer peer) {
+        this.peer = peer;
+    }
+
+    @Override
+    public InputStream write(InputStream data) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public Peer getPeer() {
+        return peer;
+    }
+
+    public static class Multiplexed extends FakeTransportClient {
+
+        @Override
+        public boolean isMultiplexed() {
+            return true;
+        }
+    }
+}
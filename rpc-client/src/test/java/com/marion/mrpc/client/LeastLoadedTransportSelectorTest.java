@@ -0,0 +1,240 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.Deadline;
+import com.marion.mrpc.Peer;
+import com.marion.mrpc.transport.TransportClient;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LeastLoadedTransportSelectorTest {
+
+    private static final Peer SLOW = new Peer("127.0.0.1", 1);
+
+    private static final Peer FAST = new Peer("127.0.0.1", 2);
+
+    private static RpcClientConfig config(Class<? extends TransportClient> transportClass, long selectTimeoutMillis) {
+        RpcClientConfig config = new RpcClientConfig();
+        config.setTransportClass(transportClass);
+        config.setRpcServers(Arrays.asList(SLOW, FAST));
+        config.setConnectCount(1);
+        config.setSelectTimeoutMillis(selectTimeoutMillis);
+        return config;
+    }
+
+    private static LeastLoadedTransportSelector selector(Class<? extends TransportClient> transportClass,
+                                                         long selectTimeoutMillis) {
+        return selector(config(transportClass, selectTimeoutMillis));
+    }
+
+    private static LeastLoadedTransportSelector selector(RpcClientConfig config) {
+        LeastLoadedTransportSelector selector = new LeastLoadedTransportSelector();
+        selector.init(config);
+        return selector;
+    }
+
+    @Test public void prefersLowerLatency() {
+        LeastLoadedTransportSelector selector = selector(FakeTransportClient.Multiplexed.class, 100);
+        // 让两个peer各有一次耗时数据: SLOW 50ms, FAST 0.1ms
+        TransportClient first = selector.select();
+        TransportClient second = selector.select();
+        assertNotSame(first.getPeer(), second.getPeer());
+        for (TransportClient client : Arrays.asList(first, second)) {
+            long elapsed = client.getPeer().equals(SLOW) ? TimeUnit.MILLISECONDS.toNanos(50) : TimeUnit.MICROSECONDS.toNanos(100);
+            selector.release(client, elapsed);
+        }
+        // 只有两个peer时每次都比较这两个, 选完立即释放, 总是选择耗时少的FAST
+        for (int i = 0; i < 100; i++) {
+            TransportClient client = selector.select();
+            assertEquals(FAST, client.getPeer());
+            selector.release(client);
+        }
+    }
+
+    @Test public void prefersFewerInflight() {
+        LeastLoadedTransportSelector selector = selector(FakeTransportClient.Multiplexed.class, 100);
+        // 耗时相同, 不释放时两个peer轮流被选中
+        int slow = 0;
+        for (int i = 0; i < 100; i++) {
+            if (selector.select().getPeer().equals(SLOW)) {
+                slow++;
+            }
+        }
+        assertEquals(50, slow);
+    }
+
+    @Test public void waitsForIdleClient() throws Exception {
+        LeastLoadedTransportSelector selector = selector(FakeTransportClient.class, 5000);
+        TransportClient first = selector.select();
+        TransportClient second = selector.select();
+        assertNotSame(first, second);
+        // 所有独占连接都在使用时等待, 释放后拿到这个连接
+        CompletableFuture<TransportClient> waiting = CompletableFuture.supplyAsync(selector::select);
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        selector.release(first);
+        assertSame(first, waiting.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void selectTimeout() {
+        LeastLoadedTransportSelector selector = selector(FakeTransportClient.class, 50);
+        selector.select();
+        selector.select();
+        selector.select();
+    }
+
+    @Test public void ejectsFailingPeerAndProbes() throws InterruptedException {
+        RpcClientConfig config = config(FakeTransportClient.Multiplexed.class, 100);
+        config.setHealthFailureThreshold(3);
+        config.setHealthBackoffMillis(50);
+        LeastLoadedTransportSelector selector = selector(config);
+        // 不带耗时, 两个peer的负载相同, 随机选择; SLOW上的请求都失败, 连续失败3次后被摘除
+        int failures = 0;
+        while (failures < 3) {
+            TransportClient client = selector.select();
+            boolean success = !client.getPeer().equals(SLOW);
+            selector.release(client, -1, success);
+            if (!success) {
+                failures++;
+            }
+        }
+        for (int i = 0; i < 50; i++) {
+            TransportClient client = selector.select();
+            assertEquals(FAST, client.getPeer());
+            selector.release(client, -1, true);
+        }
+        // backoff之后只放一个探测请求到SLOW上
+        Thread.sleep(60);
+        TransportClient probe = null;
+        for (int i = 0; i < 100 && probe == null; i++) {
+            TransportClient client = selector.select();
+            if (client.getPeer().equals(SLOW)) {
+                probe = client;
+            } else {
+                selector.release(client, -1, true);
+            }
+        }
+        assertNotNull(probe);
+        for (int i = 0; i < 50; i++) {
+            TransportClient client = selector.select();
+            assertEquals(FAST, client.getPeer());
+            selector.release(client, -1, true);
+        }
+        // 探测成功后恢复
+        selector.release(probe, -1, true);
+        boolean recovered = false;
+        for (int i = 0; i < 100 && !recovered; i++) {
+            TransportClient client = selector.select();
+            recovered = client.getPeer().equals(SLOW);
+            selector.release(client, -1, true);
+        }
+        assertTrue(recovered);
+    }
+
+    @Test public void slowCallsCountAsFailures() {
+        RpcClientConfig config = config(FakeTransportClient.class, 100);
+        config.setHealthFailureThreshold(2);
+        config.setHealthLatencyFactor(5);
+        LeastLoadedTransportSelector selector = selector(config);
+        // 每个peer只有一个独占连接, 连续选两次分别拿到两个peer; 先各有一次1ms的调用,
+        // 之后SLOW的耗时变成自己平均耗时的100倍, 两次之后被摘除
+        for (int round = 0; round < 3; round++) {
+            for (TransportClient client : Arrays.asList(selector.select(), selector.select())) {
+                boolean slow = round > 0 && client.getPeer().equals(SLOW);
+                selector.release(client, TimeUnit.MILLISECONDS.toNanos(slow ? 100 : 1), true, "add");
+            }
+        }
+        for (LeastLoadedTransportSelector.Node node : selector.nodes()) {
+            assertEquals(node.peer.equals(SLOW) ? PeerHealth.EJECTED : PeerHealth.HEALTHY, node.health.state());
+        }
+        // FAST唯一的连接正在使用时, 不借用被摘除的SLOW上空闲的连接, 等待FAST的连接释放
+        TransportClient fast = selector.select();
+        assertEquals(FAST, fast.getPeer());
+        try {
+            selector.select();
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("no idle transportClient"));
+        }
+        CompletableFuture<TransportClient> waiting = CompletableFuture.supplyAsync(selector::select);
+        selector.release(fast, TimeUnit.MILLISECONDS.toNanos(1), true);
+        assertSame(fast, waiting.join());
+    }
+
+    @Test public void slowMethodsAndSlowerPeersAreNotFailures() {
+        RpcClientConfig config = config(FakeTransportClient.class, 100);
+        config.setHealthFailureThreshold(2);
+        config.setHealthLatencyFactor(5);
+        LeastLoadedTransportSelector selector = selector(config);
+        // SLOW上的每次调用都比FAST慢100倍, report比add慢100倍, 但都和自己之前的耗时一致
+        for (int round = 0; round < 5; round++) {
+            for (String method : Arrays.asList("add", "report")) {
+                for (TransportClient client : Arrays.asList(selector.select(), selector.select())) {
+                    long micros = (client.getPeer().equals(SLOW) ? 100 : 1) * ("report".equals(method) ? 100 : 1);
+                    selector.release(client, TimeUnit.MICROSECONDS.toNanos(micros * 10), true, method);
+                }
+            }
+        }
+        // 不知道方法时不判断耗时
+        for (TransportClient client : Arrays.asList(selector.select(), selector.select())) {
+            selector.release(client, TimeUnit.SECONDS.toNanos(1), true);
+        }
+        for (LeastLoadedTransportSelector.Node node : selector.nodes()) {
+            assertEquals(PeerHealth.HEALTHY, node.health.state());
+        }
+    }
+
+    @Test public void waitIsBoundedByDeadline() {
+        LeastLoadedTransportSelector selector = selector(FakeTransportClient.class, 5000);
+        selector.select();
+        selector.select();
+        long start = System.nanoTime();
+        try (Deadline.Scope scope = Deadline.after(50, TimeUnit.MILLISECONDS)) {
+            selector.select();
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        }
+    }
+
+    @Test public void stuckProbeTimesOut() throws InterruptedException {
+        RpcClientConfig config = config(FakeTransportClient.Multiplexed.class, 100);
+        config.setHealthFailureThreshold(1);
+        config.setHealthBackoffMillis(20);
+        config.setHealthProbeTimeoutMillis(50);
+        LeastLoadedTransportSelector selector = selector(config);
+        LeastLoadedTransportSelector.Node slow = null;
+        for (LeastLoadedTransportSelector.Node node : selector.nodes()) {
+            if (node.peer.equals(SLOW)) {
+                slow = node;
+            }
+        }
+        slow.health.onFailure(System.nanoTime());
+        Thread.sleep(30);
+        // 探测请求一直没有释放
+        assertTrue(slow.health.tryAcquire(System.nanoTime()));
+        assertEquals(PeerHealth.PROBING, slow.health.state());
+        Thread.sleep(60);
+        // 探测超时按失败处理, 重新摘除, 之后可以再放一个探测请求
+        assertFalse(slow.health.isSelectable(System.nanoTime()));
+        assertEquals(PeerHealth.EJECTED, slow.health.state());
+        Thread.sleep(60);
+        assertTrue(slow.health.tryAcquire(System.nanoTime()));
+    }
+
+    @Test public void allEjectedStillSelects() {
+        RpcClientConfig config = config(FakeTransportClient.class, 100);
+        config.setHealthFailureThreshold(1);
+        LeastLoadedTransportSelector selector = selector(config);
+        selector.release(selector.select(), 1000, false);
+        selector.release(selector.select(), 1000, false);
+        // 两个peer都被摘除时忽略健康状态
+        TransportClient client = selector.select();
+        assertNotNull(client);
+    }
+}
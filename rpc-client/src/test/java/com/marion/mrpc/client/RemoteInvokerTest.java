@@ -0,0 +1,286 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.Deadline;
+import com.marion.mrpc.MethodTableService;
+import com.marion.mrpc.Peer;
+import com.marion.mrpc.Request;
+import com.marion.mrpc.Response;
+import com.marion.mrpc.annotation.Timeout;
+import com.marion.mrpc.codec.JSONDecoder;
+import com.marion.mrpc.codec.JSONEncoder;
+import com.marion.mrpc.transport.PayloadWriter;
+import com.marion.mrpc.transport.TransportClient;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class RemoteInvokerTest {
+
+    interface Calc {
+
+        CompletableFuture<Integer> add(int a, int b);
+
+        @Timeout(100)
+        int slowAdd(int a, int b);
+
+        @Timeout(100)
+        CompletableFuture<Integer> slowAsyncAdd(int a, int b);
+    }
+
+    /**
+     * 在内存中按脚本响应请求的transportClient, 请求和响应都经过JSON编解码
+     */
+    static class ScriptedClient extends FakeTransportClient {
+
+        private final Function<Request, CompletableFuture<Response>> server;
+
+        ScriptedClient(Function<Request, CompletableFuture<Response>> server) {
+            this.server = server;
+            connect(new Peer("127.0.0.1", 3000));
+        }
+
+        @Override
+        public CompletableFuture<InputStream> writeAsync(PayloadWriter payload) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                payload.writeTo(out);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            Request request = new JSONDecoder().decode(out.toByteArray(), Request.class);
+            return server.apply(request).thenApply(response -> new ByteArrayInputStream(new JSONEncoder().encode(response)));
+        }
+    }
+
+    // 只有一个连接的selector, 记录最后一次归还时的耗时和是否成功
+    static class SingleSelector implements TransportSelector {
+
+        private final TransportClient client;
+
+        volatile long releasedNanos;
+
+        volatile Boolean releasedSuccess;
+
+        SingleSelector(TransportClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public void init(List<Peer> rpcServersList, int count, Class<? extends TransportClient> transportClientClazz) {
+        }
+
+        @Override
+        public TransportClient select() {
+            return client;
+        }
+
+        @Override
+        public void release(TransportClient transportClient) {
+        }
+
+        @Override
+        public void release(TransportClient transportClient, long elapsedNanos, boolean success) {
+            releasedNanos = elapsedNanos;
+            releasedSuccess = success;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static boolean isHandshake(Request request) {
+        return request.getServiceDescriptor() != null
+            && MethodTableService.class.getName().equals(request.getServiceDescriptor().getClazz());
+    }
+
+    private static Response result(Request request, Object data) {
+        Response response = new Response();
+        response.setRequestId(request.getRequestId());
+        response.setData(data);
+        return response;
+    }
+
+    // 对端没有方法表, 其它请求按script响应
+    private static Calc proxy(Function<Request, CompletableFuture<Response>> script) {
+        ScriptedClient client = new ScriptedClient(request -> isHandshake(request)
+            ? CompletableFuture.completedFuture(new Response()) : script.apply(request));
+        return proxy(client);
+    }
+
+    private static Calc proxy(TransportClient client) {
+        RemoteInvoker invoker = new RemoteInvoker(Calc.class, new JSONEncoder(), new JSONDecoder(),
+            new SingleSelector(client));
+        return (Calc) Proxy.newProxyInstance(Calc.class.getClassLoader(), new Class[]{Calc.class}, invoker);
+    }
+
+    private static int sum(Request request) {
+        Object[] parameters = request.getParameters();
+        return ((Number) parameters[0]).intValue() + ((Number) parameters[1]).intValue();
+    }
+
+    @Test public void asyncCallDoesNotBlockAndCompletesWithResult() throws Exception {
+        CompletableFuture<Response> pending = new CompletableFuture<>();
+        Request[] sent = new Request[1];
+        Calc calc = proxy(request -> {
+            sent[0] = request;
+            return pending;
+        });
+        CompletableFuture<Integer> future = calc.add(1, 2);
+        // 响应到达之前调用方已经拿到future
+        assertFalse(future.isDone());
+        pending.complete(result(sent[0], sum(sent[0])));
+        assertEquals(Integer.valueOf(3), future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test public void asyncCallPropagatesErrors() throws Exception {
+        Calc failing = proxy(request -> {
+            Response response = result(request, null);
+            response.setCode(Response.CODE_ERROR);
+            response.setMessage("boom");
+            return CompletableFuture.completedFuture(response);
+        });
+        try {
+            failing.add(1, 2).get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertTrue(e.getCause().getMessage().contains("boom"));
+        }
+        // 网络出错同样以失败结束, 而不是让future一直等待
+        CompletableFuture<Response> broken = new CompletableFuture<>();
+        broken.completeExceptionally(new IOException("connection reset"));
+        try {
+            proxy(request -> broken).add(1, 2).get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test public void handshakeIsBoundedByDeadline() throws Exception {
+        // 对端一直不响应握手
+        Calc calc = proxy(new ScriptedClient(request -> isHandshake(request)
+            ? new CompletableFuture<>() : CompletableFuture.completedFuture(result(request, sum(request)))));
+        long start = System.nanoTime();
+        try {
+            calc.slowAdd(1, 2);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("code=" + Response.CODE_DEADLINE_EXCEEDED));
+        }
+        try {
+            calc.slowAsyncAdd(1, 2).get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("code=" + Response.CODE_DEADLINE_EXCEEDED));
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test public void failedBatchReleasesAsFailure() throws Exception {
+        CompletableFuture<Response> broken = new CompletableFuture<>();
+        broken.completeExceptionally(new IOException("connection reset"));
+        ScriptedClient client = new ScriptedClient(request -> isHandshake(request)
+            ? CompletableFuture.completedFuture(new Response()) : broken);
+        SingleSelector selector = new SingleSelector(client);
+        RemoteInvoker invoker = new RemoteInvoker(Calc.class, new JSONEncoder(), new JSONDecoder(), selector);
+        RemoteMethod add = RemoteMethod.from(Calc.class, Calc.class.getMethod("add", int.class, int.class));
+        List<CallBatcher.Call> calls = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Request request = new Request();
+            request.setRequestId(i + 1);
+            request.setParameters(new Object[] {i, i});
+            calls.add(new CallBatcher.Call(invoker, request, add, Long.MAX_VALUE));
+        }
+        invoker.invokeBatch(calls);
+        for (CallBatcher.Call call : calls) {
+            assertEquals(Response.CODE_ERROR, call.future.get(1, TimeUnit.SECONDS).getCode());
+        }
+        // 与单个调用相同, 失败的批量请求不计入耗时
+        assertEquals(Boolean.FALSE, selector.releasedSuccess);
+        assertEquals(-1, selector.releasedNanos);
+    }
+
+    private static List<CallBatcher.Call> addCalls(RemoteInvoker invoker, long... deadlines) throws Exception {
+        RemoteMethod add = RemoteMethod.from(Calc.class, Calc.class.getMethod("add", int.class, int.class));
+        List<CallBatcher.Call> calls = new ArrayList<>();
+        for (int i = 0; i < deadlines.length; i++) {
+            Request request = new Request();
+            request.setRequestId(i + 1);
+            request.setParameters(new Object[] {i, i});
+            calls.add(new CallBatcher.Call(invoker, request, add, deadlines[i]));
+        }
+        return calls;
+    }
+
+    @Test public void batchIsBoundedByEarliestDeadline() throws Exception {
+        // 对端一直不响应批量请求
+        ScriptedClient client = new ScriptedClient(request -> isHandshake(request)
+            ? CompletableFuture.completedFuture(new Response()) : new CompletableFuture<>());
+        RemoteInvoker invoker = new RemoteInvoker(Calc.class, new JSONEncoder(), new JSONDecoder(),
+            new SingleSelector(client));
+        long start = System.nanoTime();
+        List<CallBatcher.Call> calls = addCalls(invoker, start + TimeUnit.MILLISECONDS.toNanos(100), Long.MAX_VALUE);
+        invoker.invokeBatch(calls);
+        for (CallBatcher.Call call : calls) {
+            assertEquals(Response.CODE_DEADLINE_EXCEEDED, call.future.get(2, TimeUnit.SECONDS).getCode());
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test public void scheduledBatchIsSentByBatcherThread() throws Exception {
+        String[] sender = new String[1];
+        ScriptedClient client = new ScriptedClient(request -> {
+            if (isHandshake(request)) {
+                return CompletableFuture.completedFuture(new Response());
+            }
+            sender[0] = Thread.currentThread().getName();
+            Response[] entries = new Response[request.getBatch().length];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = result(request.getBatch()[i], sum(request.getBatch()[i]));
+            }
+            Response response = result(request, null);
+            response.setBatch(entries);
+            return CompletableFuture.completedFuture(response);
+        });
+        RemoteInvoker invoker = new RemoteInvoker(Calc.class, new JSONEncoder(), new JSONDecoder(),
+            new SingleSelector(client));
+        CallBatcher batcher = new CallBatcher(1000, 16);
+        List<CompletableFuture<Response>> futures = new ArrayList<>();
+        for (CallBatcher.Call call : addCalls(invoker, Long.MAX_VALUE, Long.MAX_VALUE)) {
+            futures.add(batcher.submit(invoker, call.request, call.remoteMethod, call.deadlineNanos));
+        }
+        for (CompletableFuture<Response> future : futures) {
+            assertEquals(Response.CODE_OK, future.get(2, TimeUnit.SECONDS).getCode());
+        }
+        assertEquals("mrpc-client-batch-sender", sender[0]);
+    }
+
+    @Test public void expiredAsyncCallReturnsFailedFuture() throws Exception {
+        Calc calc = proxy(request -> CompletableFuture.completedFuture(result(request, sum(request))));
+        CompletableFuture<Integer> future;
+        try (Deadline.Scope ignored = Deadline.at(System.nanoTime() - 1)) {
+            // 截止时间已经过了, 调用方线程上不抛出异常
+            future = calc.add(1, 2);
+        }
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("code=" + Response.CODE_DEADLINE_EXCEEDED));
+        }
+    }
+}
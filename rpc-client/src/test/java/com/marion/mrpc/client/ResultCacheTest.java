@@ -0,0 +1,90 @@
+package com.marion.mrpc.client;
+
+import com.marion.mrpc.annotation.Cacheable;
+import com.marion.mrpc.codec.JSONDecoder;
+import com.marion.mrpc.codec.JSONEncoder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+
+    interface Calc {
+
+        @Cacheable(ttlMillis = 50)
+        int add(int a, int b);
+
+        int minus(int a, int b);
+
+        @Cacheable
+        List<String> names(int count);
+    }
+
+    private static RemoteMethod add() throws NoSuchMethodException {
+        return RemoteMethod.from(Calc.class, Calc.class.getMethod("add", int.class, int.class));
+    }
+
+    @Test public void cacheableAnnotation() throws NoSuchMethodException {
+        assertTrue(add().isCacheable());
+        assertEquals(50, add().getCacheTtlMillis());
+        assertFalse(RemoteMethod.from(Calc.class, Calc.class.getMethod("minus", int.class, int.class)).isCacheable());
+    }
+
+    @Test public void hitsByArguments() throws NoSuchMethodException {
+        ResultCache cache = new ResultCache(new JSONEncoder(), new JSONDecoder(), 100);
+        RemoteMethod add = add();
+        cache.put(cache.key(add, new Object[]{1, 2}), 3, 60000);
+
+        ResultCache.Entry hit = cache.get(cache.key(add, new Object[]{1, 2}));
+        assertNotNull(hit);
+        assertEquals(3, cache.value(hit, int.class));
+        assertNull(cache.get(cache.key(add, new Object[]{2, 1})));
+
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getSize());
+    }
+
+    @Test public void expiresAfterTtl() throws Exception {
+        ResultCache cache = new ResultCache(new JSONEncoder(), new JSONDecoder(), 100);
+        ResultCache.Key key = cache.key(add(), new Object[]{1, 2});
+        cache.put(key, 3, 20);
+        assertNotNull(cache.get(key));
+        Thread.sleep(40);
+        assertNull(cache.get(key));
+        assertEquals(0, cache.stats().getSize());
+    }
+
+    @Test public void evictsLeastRecentlyUsed() throws NoSuchMethodException {
+        // 每段容量为1
+        ResultCache cache = new ResultCache(new JSONEncoder(), new JSONDecoder(), 16);
+        RemoteMethod add = add();
+        for (int i = 0; i < 1000; i++) {
+            cache.put(cache.key(add, new Object[]{i, i}), i, 60000);
+        }
+        CacheStats stats = cache.stats();
+        assertTrue(stats.getSize() <= 16);
+        assertEquals(1000 - stats.getSize(), stats.getEvictions());
+    }
+
+    @Test public void hitsDoNotShareMutableResults() throws Exception {
+        ResultCache cache = new ResultCache(new JSONEncoder(), new JSONDecoder(), 100);
+        RemoteMethod names = RemoteMethod.from(Calc.class, Calc.class.getMethod("names", int.class));
+        ResultCache.Key key = cache.key(names, new Object[]{2});
+        List<String> result = new ArrayList<>(Arrays.asList("a", "b"));
+        cache.put(key, result, 60000);
+        // 放入之后修改原来的结果, 以及修改命中时拿到的结果, 都不影响缓存
+        result.add("c");
+        @SuppressWarnings("unchecked")
+        List<String> first = (List<String>) cache.value(cache.get(key), names.resultType());
+        assertEquals(Arrays.asList("a", "b"), first);
+        first.clear();
+        assertEquals(Arrays.asList("a", "b"), cache.value(cache.get(key), names.resultType()));
+        assertNotSame(first, cache.value(cache.get(key), names.resultType()));
+    }
+}
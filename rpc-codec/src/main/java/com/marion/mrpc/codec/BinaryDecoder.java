@@ -0,0 +1,237 @@
+package com.marion.mrpc.codec;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.util.TypeUtils;
+import com.marion.common.buffer.BufferPool;
+import com.marion.common.buffer.PooledInputStream;
+import com.marion.mrpc.Request;
+import com.marion.mrpc.Response;
+import com.marion.mrpc.ServiceDescriptor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于紧凑二进制格式的反序列化实现, 与BinaryEncoder对应
+ * 读出的值与clazz类型不一致时(例如int读成long), 借助fastjson的TypeUtils做类型转换
+ */
+public class BinaryDecoder implements Decoder {
+
+    // 可以按类名还原的数组类型, 元素都是不可变的值, 不会触发任意类的创建
+    private static final Map<String, Class<?>> ARRAY_TYPES = new HashMap<>();
+
+    static {
+        for (Class<?> type : new Class<?>[] {int[].class, long[].class, double[].class, float[].class,
+            short[].class, char[].class, boolean[].class, String[].class, Integer[].class, Long[].class,
+            Double[].class, Float[].class, Short[].class, Byte[].class, Character[].class, Boolean[].class}) {
+            ARRAY_TYPES.put(type.getName(), type);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> clazz) {
+        Object value = readValue(new BinaryInput(bytes, 0, bytes.length));
+        return cast(value, clazz);
+    }
+
+    @Override
+    public <T> T decode(InputStream in, Class<T> clazz) throws IOException {
+        // 池化的输入流直接在它的缓冲区上反序列化, 省去一次拷贝
+        if (in instanceof PooledInputStream) {
+            PooledInputStream pooled = (PooledInputStream) in;
+            int length = pooled.available();
+            Object value = readValue(new BinaryInput(pooled.buffer(), pooled.position(), length));
+            pooled.skip(length);
+            return cast(value, clazz);
+        }
+        // 其它输入流先读到池化缓冲区中, 反序列化后归还
+        BufferPool pool = BufferPool.shared();
+        byte[] buffer = pool.acquire(Math.max(in.available(), BufferPool.MIN_SIZE));
+        try {
+            int length = 0;
+            int n;
+            while ((n = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += n;
+                if (length == buffer.length) {
+                    byte[] grown = pool.acquire(buffer.length << 1);
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    pool.release(buffer);
+                    buffer = grown;
+                }
+            }
+            return cast(readValue(new BinaryInput(buffer, 0, length)), clazz);
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T cast(Object value, Class<T> clazz) {
+        if (value == null || clazz.isInstance(value)) {
+            return (T) value;
+        }
+        return TypeUtils.cast(value, clazz, ParserConfig.getGlobalInstance());
+    }
+
+    static Object readValue(BinaryInput in) {
+        byte tag = in.readByte();
+        switch (tag) {
+            case BinaryFormat.NULL:
+                return null;
+            case BinaryFormat.TRUE:
+                return Boolean.TRUE;
+            case BinaryFormat.FALSE:
+                return Boolean.FALSE;
+            case BinaryFormat.INT:
+                return (int) in.readZigZag();
+            case BinaryFormat.LONG:
+                return in.readZigZag();
+            case BinaryFormat.DOUBLE:
+                return Double.longBitsToDouble(in.readFixed64());
+            case BinaryFormat.FLOAT:
+                return Float.intBitsToFloat(in.readFixed32());
+            case BinaryFormat.STRING:
+                return in.readString();
+            case BinaryFormat.BYTES:
+                return in.readByteArray();
+            case BinaryFormat.SHORT:
+                return (short) in.readZigZag();
+            case BinaryFormat.BYTE:
+                return in.readByte();
+            case BinaryFormat.CHAR:
+                return (char) in.readVarint();
+            case BinaryFormat.LIST:
+                int size = in.readLength();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            case BinaryFormat.MAP:
+                int entries = in.readLength();
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < entries; i++) {
+                    map.put(readValue(in), readValue(in));
+                }
+                return map;
+            case BinaryFormat.OBJECT_ARRAY:
+                return readArray(in);
+            case BinaryFormat.JSON:
+                return readJson(in);
+            case BinaryFormat.REQUEST:
+                return readRequest(in);
+            case BinaryFormat.RESPONSE:
+                return readResponse(in);
+            case BinaryFormat.SERVICE_DESCRIPTOR:
+                return readServiceDescriptor(in);
+            default:
+                throw new IllegalStateException("unknown binary tag " + tag);
+        }
+    }
+
+    private static Object[] readArray(BinaryInput in) {
+        Object[] values = new Object[in.readLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readValue(in);
+        }
+        return values;
+    }
+
+    /**
+     * 不按对端发来的类名加载类: 只有JDK自带的基础类型数组按类名还原(ARRAY_TYPES),
+     * 其它对象读成JSONObject等通用结构, 由调用方按自己声明的类型转换(见DeclaredTypes)
+     */
+    private static Object readJson(BinaryInput in) {
+        Class<?> arrayType = ARRAY_TYPES.get(in.readString());
+        byte[] json = in.readByteArray();
+        return arrayType != null ? JSON.parseObject(json, arrayType) : JSON.parse(json);
+    }
+
+    private static Request readRequest(BinaryInput in) {
+        Request request = new Request();
+        long mask = in.readVarint();
+        if ((mask & BinaryFormat.REQUEST_ID) != 0) {
+            request.setRequestId(in.readVarint());
+        }
+        if ((mask & BinaryFormat.REQUEST_SERVICE_DESCRIPTOR) != 0) {
+            request.setServiceDescriptor(readServiceDescriptor(in));
+        }
+        if ((mask & BinaryFormat.REQUEST_PARAMETERS) != 0) {
+            request.setParameters(readArray(in));
+        }
+        if ((mask & BinaryFormat.REQUEST_METHOD_ID) != 0) {
+            request.setMethodId((int) in.readVarint());
+        }
+        if ((mask & BinaryFormat.REQUEST_METHOD_TABLE_VERSION) != 0) {
+            request.setMethodTableVersion(in.readFixed64());
+        }
+        if ((mask & BinaryFormat.REQUEST_BATCH) != 0) {
+            Request[] batch = new Request[in.readLength()];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = readRequest(in);
+            }
+            request.setBatch(batch);
+        }
+        if ((mask & BinaryFormat.REQUEST_TIMEOUT) != 0) {
+            request.setTimeoutMillis(in.readVarint());
+        }
+        if ((mask & BinaryFormat.REQUEST_STREAM_WINDOW) != 0) {
+            request.setStreamWindow((int) in.readVarint());
+        }
+        if ((mask & BinaryFormat.REQUEST_ATTACHMENTS) != 0) {
+            int[] attachments = new int[in.readLength()];
+            for (int i = 0; i < attachments.length; i++) {
+                attachments[i] = (int) in.readVarint();
+            }
+            request.setAttachments(attachments);
+        }
+        return request;
+    }
+
+    private static Response readResponse(BinaryInput in) {
+        Response response = new Response();
+        long mask = in.readVarint();
+        if ((mask & BinaryFormat.RESPONSE_ID) != 0) {
+            response.setRequestId(in.readVarint());
+        }
+        if ((mask & BinaryFormat.RESPONSE_CODE) != 0) {
+            response.setCode((int) in.readZigZag());
+        }
+        if ((mask & BinaryFormat.RESPONSE_MESSAGE) != 0) {
+            response.setMessage((String) readValue(in));
+        }
+        if ((mask & BinaryFormat.RESPONSE_DATA) != 0) {
+            response.setData(readValue(in));
+        }
+        if ((mask & BinaryFormat.RESPONSE_BATCH) != 0) {
+            Response[] batch = new Response[in.readLength()];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = readResponse(in);
+            }
+            response.setBatch(batch);
+        }
+        response.setAttached((mask & BinaryFormat.RESPONSE_ATTACHED) != 0);
+        return response;
+    }
+
+    private static ServiceDescriptor readServiceDescriptor(BinaryInput in) {
+        ServiceDescriptor descriptor = new ServiceDescriptor();
+        descriptor.setClazz((String) readValue(in));
+        descriptor.setMethod((String) readValue(in));
+        if (in.readByte() == BinaryFormat.OBJECT_ARRAY) {
+            String[] parameterTypes = new String[in.readLength()];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                parameterTypes[i] = (String) readValue(in);
+            }
+            descriptor.setParameterTypes(parameterTypes);
+        }
+        descriptor.setReturnType((String) readValue(in));
+        return descriptor;
+    }
+}
@@ -0,0 +1,240 @@
+package com.marion.mrpc.codec;
+
+import com.alibaba.fastjson.JSON;
+import com.marion.common.buffer.BufferPool;
+import com.marion.common.buffer.PooledOutputStream;
+import com.marion.mrpc.Request;
+import com.marion.mrpc.Response;
+import com.marion.mrpc.ServiceDescriptor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于紧凑二进制格式的序列化实现, 格式见BinaryFormat
+ *      1. Request/Response/ServiceDescriptor: 字段掩码 + 非缺省字段
+ *      2. 基础类型/字符串/字节数组/集合: tag + varint或长度前缀的内容
+ *      3. 其它对象: 类名 + JSON字节, 对端读成通用结构后按自己声明的类型转换
+ */
+public class BinaryEncoder implements Encoder {
+
+    @Override
+    public byte[] encode(Object obj) {
+        try (PooledOutputStream buffer = new PooledOutputStream(BufferPool.MIN_SIZE)) {
+            writeValue(new BinaryOutput(buffer), obj);
+            return buffer.toByteArray();
+        }
+    }
+
+    @Override
+    public void encode(Object obj, OutputStream out) throws IOException {
+        // 目标流本身是池化缓冲区时直接写入, 否则先写到临时的池化缓冲区再整体写出
+        if (out instanceof PooledOutputStream) {
+            writeValue(new BinaryOutput((PooledOutputStream) out), obj);
+            return;
+        }
+        try (PooledOutputStream buffer = new PooledOutputStream(BufferPool.MIN_SIZE)) {
+            writeValue(new BinaryOutput(buffer), obj);
+            buffer.writeTo(out);
+        }
+    }
+
+    static void writeValue(BinaryOutput out, Object value) {
+        if (value == null) {
+            out.writeByte(BinaryFormat.NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(BinaryFormat.INT);
+            out.writeZigZag((Integer) value);
+        } else if (value instanceof String) {
+            out.writeByte(BinaryFormat.STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Long) {
+            out.writeByte(BinaryFormat.LONG);
+            out.writeZigZag((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? BinaryFormat.TRUE : BinaryFormat.FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(BinaryFormat.DOUBLE);
+            out.writeFixed64(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Float) {
+            out.writeByte(BinaryFormat.FLOAT);
+            out.writeFixed32(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Short) {
+            out.writeByte(BinaryFormat.SHORT);
+            out.writeZigZag((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BinaryFormat.BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(BinaryFormat.CHAR);
+            out.writeVarint((Character) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(BinaryFormat.BYTES);
+            out.writeByteArray((byte[]) value);
+        } else if (value instanceof Request) {
+            out.writeByte(BinaryFormat.REQUEST);
+            writeRequest(out, (Request) value);
+        } else if (value instanceof Response) {
+            out.writeByte(BinaryFormat.RESPONSE);
+            writeResponse(out, (Response) value);
+        } else if (value instanceof ServiceDescriptor) {
+            out.writeByte(BinaryFormat.SERVICE_DESCRIPTOR);
+            writeServiceDescriptor(out, (ServiceDescriptor) value);
+        } else if (value.getClass() == Object[].class) {
+            out.writeByte(BinaryFormat.OBJECT_ARRAY);
+            writeArray(out, (Object[]) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(BinaryFormat.LIST);
+            out.writeVarint(list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(BinaryFormat.MAP);
+            out.writeVarint(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            // 其它对象退化为 类名 + JSON字节
+            out.writeByte(BinaryFormat.JSON);
+            out.writeString(value.getClass().getName());
+            out.writeByteArray(JSON.toJSONBytes(value));
+        }
+    }
+
+    private static void writeArray(BinaryOutput out, Object[] values) {
+        out.writeVarint(values.length);
+        for (Object element : values) {
+            writeValue(out, element);
+        }
+    }
+
+    private static void writeRequest(BinaryOutput out, Request request) {
+        int mask = 0;
+        if (request.getRequestId() != 0) {
+            mask |= BinaryFormat.REQUEST_ID;
+        }
+        if (request.getServiceDescriptor() != null) {
+            mask |= BinaryFormat.REQUEST_SERVICE_DESCRIPTOR;
+        }
+        if (request.getParameters() != null) {
+            mask |= BinaryFormat.REQUEST_PARAMETERS;
+        }
+        if (request.getMethodId() >= 0) {
+            mask |= BinaryFormat.REQUEST_METHOD_ID;
+        }
+        if (request.getMethodTableVersion() != 0) {
+            mask |= BinaryFormat.REQUEST_METHOD_TABLE_VERSION;
+        }
+        if (request.getBatch() != null) {
+            mask |= BinaryFormat.REQUEST_BATCH;
+        }
+        if (request.getTimeoutMillis() > 0) {
+            mask |= BinaryFormat.REQUEST_TIMEOUT;
+        }
+        if (request.getStreamWindow() > 0) {
+            mask |= BinaryFormat.REQUEST_STREAM_WINDOW;
+        }
+        if (request.getAttachments() != null) {
+            mask |= BinaryFormat.REQUEST_ATTACHMENTS;
+        }
+        out.writeVarint(mask);
+        if ((mask & BinaryFormat.REQUEST_ID) != 0) {
+            out.writeVarint(request.getRequestId());
+        }
+        if ((mask & BinaryFormat.REQUEST_SERVICE_DESCRIPTOR) != 0) {
+            writeServiceDescriptor(out, request.getServiceDescriptor());
+        }
+        if ((mask & BinaryFormat.REQUEST_PARAMETERS) != 0) {
+            writeArray(out, request.getParameters());
+        }
+        if ((mask & BinaryFormat.REQUEST_METHOD_ID) != 0) {
+            out.writeVarint(request.getMethodId());
+        }
+        // 版本号是哈希值, 定长写入比varint更短
+        if ((mask & BinaryFormat.REQUEST_METHOD_TABLE_VERSION) != 0) {
+            out.writeFixed64(request.getMethodTableVersion());
+        }
+        // 批量请求的各项不再写tag, 直接按Request的格式依次写入
+        if ((mask & BinaryFormat.REQUEST_BATCH) != 0) {
+            out.writeVarint(request.getBatch().length);
+            for (Request entry : request.getBatch()) {
+                writeRequest(out, entry);
+            }
+        }
+        if ((mask & BinaryFormat.REQUEST_TIMEOUT) != 0) {
+            out.writeVarint(request.getTimeoutMillis());
+        }
+        if ((mask & BinaryFormat.REQUEST_STREAM_WINDOW) != 0) {
+            out.writeVarint(request.getStreamWindow());
+        }
+        if ((mask & BinaryFormat.REQUEST_ATTACHMENTS) != 0) {
+            out.writeVarint(request.getAttachments().length);
+            for (int index : request.getAttachments()) {
+                out.writeVarint(index);
+            }
+        }
+    }
+
+    private static void writeResponse(BinaryOutput out, Response response) {
+        int mask = 0;
+        if (response.getRequestId() != 0) {
+            mask |= BinaryFormat.RESPONSE_ID;
+        }
+        if (response.getCode() != 0) {
+            mask |= BinaryFormat.RESPONSE_CODE;
+        }
+        // message为默认的"ok"时不写入
+        if (!"ok".equals(response.getMessage())) {
+            mask |= BinaryFormat.RESPONSE_MESSAGE;
+        }
+        if (response.getData() != null) {
+            mask |= BinaryFormat.RESPONSE_DATA;
+        }
+        if (response.getBatch() != null) {
+            mask |= BinaryFormat.RESPONSE_BATCH;
+        }
+        // 只是一个标志位, 没有内容
+        if (response.isAttached()) {
+            mask |= BinaryFormat.RESPONSE_ATTACHED;
+        }
+        out.writeVarint(mask);
+        if ((mask & BinaryFormat.RESPONSE_ID) != 0) {
+            out.writeVarint(response.getRequestId());
+        }
+        if ((mask & BinaryFormat.RESPONSE_CODE) != 0) {
+            out.writeZigZag(response.getCode());
+        }
+        if ((mask & BinaryFormat.RESPONSE_MESSAGE) != 0) {
+            writeValue(out, response.getMessage());
+        }
+        if ((mask & BinaryFormat.RESPONSE_DATA) != 0) {
+            writeValue(out, response.getData());
+        }
+        if ((mask & BinaryFormat.RESPONSE_BATCH) != 0) {
+            out.writeVarint(response.getBatch().length);
+            for (Response entry : response.getBatch()) {
+                writeResponse(out, entry);
+            }
+        }
+    }
+
+    private static void writeServiceDescriptor(BinaryOutput out, ServiceDescriptor descriptor) {
+        writeValue(out, descriptor.getClazz());
+        writeValue(out, descriptor.getMethod());
+        String[] parameterTypes = descriptor.getParameterTypes();
+        if (parameterTypes == null) {
+            out.writeByte(BinaryFormat.NULL);
+        } else {
+            out.writeByte(BinaryFormat.OBJECT_ARRAY);
+            writeArray(out, parameterTypes);
+        }
+        writeValue(out, descriptor.getReturnType());
+    }
+}
@@ -0,0 +1,59 @@
+package com.marion.mrpc.codec;
+
+/**
+ * 二进制序列化格式的约定
+ *      每个值 = tag[1字节, 值的类型] + 值的内容
+ *      1. 整数使用zigzag + varint编码, 小的数只占1~2个字节
+ *      2. 字符串/字节数组 = varint长度 + 内容
+ *      3. Request/Response/ServiceDescriptor使用紧凑编码: varint字段掩码 + 掩码中存在的字段,
+ *         缺省值的字段不写入, 新增字段只需要追加新的掩码位
+ *      4. 其它无法直接表示的对象, 退化为 类名 + JSON字节, 解码时只有基础类型的数组按类名还原, 其它对象不按类名创建
+ */
+final class BinaryFormat {
+
+    static final byte NULL = 0;
+    static final byte TRUE = 1;
+    static final byte FALSE = 2;
+    static final byte INT = 3;
+    static final byte LONG = 4;
+    static final byte DOUBLE = 5;
+    static final byte FLOAT = 6;
+    static final byte STRING = 7;
+    static final byte BYTES = 8;
+    static final byte SHORT = 9;
+    static final byte BYTE = 10;
+    static final byte CHAR = 11;
+    static final byte LIST = 12;
+    static final byte MAP = 13;
+    static final byte OBJECT_ARRAY = 14;
+    static final byte JSON = 15;
+    static final byte REQUEST = 16;
+    static final byte RESPONSE = 17;
+    static final byte SERVICE_DESCRIPTOR = 18;
+
+    /**
+     * Request的字段掩码
+     */
+    static final int REQUEST_ID = 1;
+    static final int REQUEST_SERVICE_DESCRIPTOR = 1 << 1;
+    static final int REQUEST_PARAMETERS = 1 << 2;
+    static final int REQUEST_METHOD_ID = 1 << 3;
+    static final int REQUEST_METHOD_TABLE_VERSION = 1 << 4;
+    static final int REQUEST_BATCH = 1 << 5;
+    static final int REQUEST_TIMEOUT = 1 << 6;
+    static final int REQUEST_STREAM_WINDOW = 1 << 7;
+    static final int REQUEST_ATTACHMENTS = 1 << 8;
+
+    /**
+     * Response的字段掩码
+     */
+    static final int RESPONSE_ID = 1;
+    static final int RESPONSE_CODE = 1 << 1;
+    static final int RESPONSE_MESSAGE = 1 << 2;
+    static final int RESPONSE_DATA = 1 << 3;
+    static final int RESPONSE_BATCH = 1 << 4;
+    static final int RESPONSE_ATTACHED = 1 << 5;
+
+    private BinaryFormat() {
+    }
+}
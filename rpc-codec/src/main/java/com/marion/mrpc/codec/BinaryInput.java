@@ -0,0 +1,84 @@
+package com.marion.mrpc.codec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制反序列化的读取工具, 按照BinaryFormat从字节数组中读出基础类型
+ */
+final class BinaryInput {
+
+    private final byte[] bytes;
+
+    private int position;
+
+    private final int limit;
+
+    BinaryInput(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    byte readByte() {
+        if (position >= limit) {
+            throw new IllegalStateException("unexpected end of binary data");
+        }
+        return bytes[position++];
+    }
+
+    long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    long readZigZag() {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    long readFixed64() {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value |= (long) (readByte() & 0xFF) << (i * 8);
+        }
+        return value;
+    }
+
+    int readFixed32() {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= (readByte() & 0xFF) << (i * 8);
+        }
+        return value;
+    }
+
+    int readLength() {
+        long length = readVarint();
+        if (length < 0 || length > limit - position) {
+            throw new IllegalStateException("illegal length " + length);
+        }
+        return (int) length;
+    }
+
+    byte[] readByteArray() {
+        int length = readLength();
+        byte[] value = new byte[length];
+        System.arraycopy(bytes, position, value, 0, length);
+        position += length;
+        return value;
+    }
+
+    String readString() {
+        int length = readLength();
+        String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+}
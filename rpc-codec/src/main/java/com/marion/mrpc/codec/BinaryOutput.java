@@ -0,0 +1,57 @@
+package com.marion.mrpc.codec;
+
+import com.marion.common.buffer.PooledOutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制序列化的写入工具, 按照BinaryFormat向一个池化的输出流写入基础类型
+ * 目标流本身就是PooledOutputStream时(例如TCP的帧缓冲区)直接写入, 不再经过中间缓冲区
+ */
+final class BinaryOutput {
+
+    private final PooledOutputStream out;
+
+    BinaryOutput(PooledOutputStream out) {
+        this.out = out;
+    }
+
+    void writeByte(int value) {
+        out.write(value);
+    }
+
+    // 无符号varint: 每个字节低7位存数据, 最高位表示后面是否还有字节
+    void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    // zigzag把有符号数映射成无符号数, 让绝对值小的负数也只占很少的字节
+    void writeZigZag(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    void writeFixed64(long value) {
+        for (int i = 0; i < 8; i++) {
+            out.write((int) (value >>> (i * 8)));
+        }
+    }
+
+    void writeFixed32(int value) {
+        for (int i = 0; i < 4; i++) {
+            out.write(value >>> (i * 8));
+        }
+    }
+
+    void writeByteArray(byte[] bytes) {
+        writeVarint(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    void writeString(String value) {
+        writeByteArray(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
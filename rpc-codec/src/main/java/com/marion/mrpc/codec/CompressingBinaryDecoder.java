@@ -0,0 +1,11 @@
+package com.marion.mrpc.codec;
+
+/**
+ * 解压后交给BinaryDecoder, 与CompressingBinaryEncoder对应
+ */
+public class CompressingBinaryDecoder extends CompressingDecoder {
+
+    public CompressingBinaryDecoder() {
+        super(new BinaryDecoder());
+    }
+}
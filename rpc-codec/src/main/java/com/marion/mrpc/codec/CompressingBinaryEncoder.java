@@ -0,0 +1,11 @@
+package com.marion.mrpc.codec;
+
+/**
+ * 压缩BinaryEncoder的序列化结果, 与CompressingBinaryDecoder对应
+ */
+public class CompressingBinaryEncoder extends CompressingEncoder {
+
+    public CompressingBinaryEncoder() {
+        super(new BinaryEncoder(), DEFAULT_THRESHOLD);
+    }
+}
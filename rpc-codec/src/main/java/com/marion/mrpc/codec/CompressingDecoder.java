@@ -0,0 +1,121 @@
+package com.marion.mrpc.codec;
+
+import com.marion.common.buffer.BufferPool;
+import com.marion.common.buffer.PooledInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 解压的装饰器, 与CompressingEncoder对应
+ *      1. 读出1字节标记: RAW时剩下的数据直接交给被装饰的decoder(默认JSONDecoder)流式反序列化
+ *      2. DEFLATE时读出原始长度, 边读边解压到池化缓冲区, 再交给被装饰的decoder
+ * 原始长度超过MAX_LENGTH时拒绝解压, 防止异常数据占满内存;
+ * Inflater与CompressingEncoder的Deflater一样放在共用的池中复用, 池满时用完立即end()
+ */
+public class CompressingDecoder implements Decoder {
+
+    static final int MAX_LENGTH = 64 * 1024 * 1024;
+
+    private static final Queue<Inflater> INFLATERS =
+        new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+    private final Decoder delegate;
+
+    public CompressingDecoder() {
+        this(new JSONDecoder());
+    }
+
+    /**
+     * @param delegate 被装饰的decoder
+     */
+    public CompressingDecoder(Decoder delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> clazz) {
+        try {
+            return decode(new ByteArrayInputStream(bytes), clazz);
+        } catch (IOException e) {
+            throw new IllegalStateException("decompress fail", e);
+        }
+    }
+
+    @Override
+    public <T> T decode(InputStream in, Class<T> clazz) throws IOException {
+        int flag = in.read();
+        // 1. 没有压缩
+        if (flag == CompressingEncoder.RAW) {
+            return delegate.decode(in, clazz);
+        }
+        if (flag != CompressingEncoder.DEFLATE) {
+            throw new IOException("unknown compression flag " + flag);
+        }
+        // 2. 解压到池化缓冲区
+        int length = readInt(in);
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new IOException("illegal uncompressed length " + length);
+        }
+        byte[] buffer = BufferPool.shared().acquire(length);
+        try (PooledInputStream raw = new PooledInputStream(buffer, length)) {
+            inflate(in, buffer, length);
+            return delegate.decode(raw, clazz);
+        }
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("truncated compressed payload");
+            }
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    // 2. 从输入流中边读边解压, 正好得到length字节
+    private static void inflate(InputStream in, byte[] buffer, int length) throws IOException {
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        byte[] input = BufferPool.shared().acquire(8192);
+        try {
+            int n = 0;
+            while (n < length) {
+                if (inflater.needsInput()) {
+                    int read = in.read(input);
+                    if (read < 0) {
+                        throw new EOFException("truncated compressed payload");
+                    }
+                    inflater.setInput(input, 0, read);
+                }
+                int inflated = inflater.inflate(buffer, n, length - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != length) {
+                throw new IOException("uncompressed length " + n + " does not match " + length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed payload", e);
+        } finally {
+            inflater.reset();
+            if (!INFLATERS.offer(inflater)) {
+                inflater.end();
+            }
+            BufferPool.shared().release(input);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.marion.mrpc.codec;
+
+import com.marion.common.buffer.BufferPool;
+import com.marion.common.buffer.PooledOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * 压缩序列化结果的装饰器, 与CompressingDecoder对应, 两端需要一致
+ *      1. 先由被装饰的encoder(默认JSONEncoder)序列化到池化缓冲区
+ *      2. 结果小于threshold字节时不压缩: 1字节标记RAW + 原始数据, 小请求只多1个字节;
+ *          threshold默认DEFAULT_THRESHOLD, 按类名创建时由RpcClientConfig/RpcServerConfig.compressThreshold设置
+ *      3. 否则用Deflater(BEST_SPEED)压缩: 1字节标记DEFLATE + 4字节原始长度 + 压缩数据;
+ *          压缩后没有变小(例如已经压缩过的数据)时仍然按RAW写出
+ * Deflater放在所有线程共用的池中复用, 不必每次分配本地内存; 池满时用完立即end()释放本地内存,
+ * 不会因为线程很多(例如虚拟线程)而留下大量没有释放的zlib状态
+ */
+public class CompressingEncoder implements Encoder {
+
+    static final byte RAW = 0;
+
+    static final byte DEFLATE = 1;
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final Queue<Deflater> DEFLATERS =
+        new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+    private final Encoder delegate;
+
+    private volatile int threshold;
+
+    public CompressingEncoder() {
+        this(new JSONEncoder(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param delegate 被装饰的encoder
+     * @param threshold 超过多少字节才压缩
+     */
+    public CompressingEncoder(Encoder delegate, int threshold) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param threshold 超过多少字节才压缩, 只影响这一端发出的数据, 对端不需要一致
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public byte[] encode(Object obj) {
+        try (PooledOutputStream out = new PooledOutputStream(BufferPool.MIN_SIZE)) {
+            encode(obj, out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("compress fail", e);
+        }
+    }
+
+    @Override
+    public void encode(Object obj, OutputStream out) throws IOException {
+        // 1. 先序列化到池化缓冲区
+        try (Buffer raw = new Buffer(BufferPool.MIN_SIZE)) {
+            delegate.encode(obj, raw);
+            // 2. 小于threshold时不压缩
+            if (raw.size() < threshold) {
+                out.write(RAW);
+                raw.writeTo(out);
+                return;
+            }
+            // 3. 压缩, 没有变小时按RAW写出
+            try (Buffer compressed = new Buffer(raw.size() >>> 1)) {
+                deflate(raw, compressed);
+                if (compressed.size() + 4 >= raw.size()) {
+                    out.write(RAW);
+                    raw.writeTo(out);
+                    return;
+                }
+                int length = raw.size();
+                out.write(DEFLATE);
+                out.write(length >>> 24);
+                out.write(length >>> 16);
+                out.write(length >>> 8);
+                out.write(length);
+                compressed.writeTo(out);
+            }
+        }
+    }
+
+    private static void deflate(Buffer raw, Buffer compressed) {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        deflater.setInput(raw.buffer(), 0, raw.size());
+        deflater.finish();
+        byte[] chunk = BufferPool.shared().acquire(8192);
+        try {
+            while (!deflater.finished()) {
+                compressed.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.reset();
+            if (!DEFLATERS.offer(deflater)) {
+                deflater.end();
+            }
+            BufferPool.shared().release(chunk);
+        }
+    }
+
+    // 可以直接访问内部缓冲区的池化输出流, 压缩时不必再拷贝一次
+    private static final class Buffer extends PooledOutputStream {
+
+        Buffer(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.marion.mrpc.codec;
+
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.util.TypeUtils;
+
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+
+/**
+ * 把解码出的值转换成本地声明的类型(服务方法的参数类型、接口方法的返回值类型)
+ *      1. 解码器只产生基本类型、String、List、Map(JSONObject)等通用结构, 从不按对端发来的类名创建对象
+ *      2. 值已经是声明类型的实例时原样返回, 否则借助fastjson的TypeUtils转换, 例如JSONObject转成POJO、Integer转成long
+ *      3. 类型变量(例如从泛型父接口继承的方法上的T)在运行时无法确定实际类型, 原样返回
+ *      4. 转换时不开启autoType, 值中带有"@type"时只能指向声明类型允许的类, 否则转换失败
+ */
+public final class DeclaredTypes {
+
+    private DeclaredTypes() {
+    }
+
+    /**
+     * @param value 解码出的值
+     * @param type 本地声明的类型, 可以是泛型类型
+     * @return 转换后的值, value为null时返回null
+     */
+    public static Object convert(Object value, Type type) {
+        if (value == null || type == null || type == void.class) {
+            return value;
+        }
+        // 3. 类型变量和通配符
+        if (type instanceof TypeVariable || type instanceof WildcardType) {
+            return value;
+        }
+        // 基本类型按包装类型判断; 泛型类型需要转换其中的元素, 不能只看外层
+        if (type instanceof Class && wrapper((Class<?>) type).isInstance(value)) {
+            return value;
+        }
+        return TypeUtils.cast(value, type, ParserConfig.getGlobalInstance());
+    }
+
+    private static Class<?> wrapper(Class<?> primitive) {
+        if (!primitive.isPrimitive()) {
+            return primitive;
+        } else if (primitive == int.class) {
+            return Integer.class;
+        } else if (primitive == long.class) {
+            return Long.class;
+        } else if (primitive == boolean.class) {
+            return Boolean.class;
+        } else if (primitive == double.class) {
+            return Double.class;
+        } else if (primitive == float.class) {
+            return Float.class;
+        } else if (primitive == short.class) {
+            return Short.class;
+        } else if (primitive == byte.class) {
+            return Byte.class;
+        } else if (primitive == char.class) {
+            return Character.class;
+        }
+        return primitive;
+    }
+}
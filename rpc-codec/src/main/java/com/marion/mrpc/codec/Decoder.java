@@ -1,12 +1,28 @@
 package com.marion.mrpc.codec;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * 反序列化接口
  * 定义decode方法：将传入的二进制byte[]数组对应转化成clazz类型的对象T，通过泛型可以省去强制转化类这么一个步骤，这样比较方便。
+ * 流式版本decode(in, clazz)：直接从网络通信的输入流中反序列化, 一直读到流结束为止.
+ *      默认实现先读出全部字节再调用decode(bytes, clazz), 支持流式的反序列化实现需要重写
  */
 public interface Decoder {
 
 
     <T> T decode(byte[] bytes, Class<T> clazz);
 
+    default <T> T decode(InputStream in, Class<T> clazz) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        return decode(bytes.toByteArray(), clazz);
+    }
+
 }
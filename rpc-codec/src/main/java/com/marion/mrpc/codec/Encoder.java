@@ -1,13 +1,20 @@
 package com.marion.mrpc.codec;
 
-import java.util.IllegalFormatException;
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * 序列化接口
  * 定义encode方法：将传入的任何对象obj转成二进制byte[]数组
+ * 流式版本encode(obj, out)：直接把对象序列化到网络通信的输出流中, 省去中间的byte[]拷贝.
+ *      默认实现先转成byte[]再写出, 支持流式的序列化实现需要重写
  */
 public interface Encoder {
 
     byte[] encode(Object obj);
 
+    default void encode(Object obj, OutputStream out) throws IOException {
+        out.write(encode(obj));
+    }
+
 }
@@ -2,6 +2,9 @@ package com.marion.mrpc.codec;
 
 import com.alibaba.fastjson.JSON;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * 基于JSON的反序列化实现
  */
@@ -11,4 +14,9 @@ public class JSONDecoder implements Decoder {
     public <T> T decode(byte[] bytes, Class<T> clazz) {
         return JSON.parseObject(bytes, clazz);
     }
+
+    @Override
+    public <T> T decode(InputStream in, Class<T> clazz) throws IOException {
+        return JSON.parseObject(in, clazz);
+    }
 }
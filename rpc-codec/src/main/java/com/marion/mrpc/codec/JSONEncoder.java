@@ -2,6 +2,9 @@ package com.marion.mrpc.codec;
 
 import com.alibaba.fastjson.JSON;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 /**
  * 基于JSON的序列化实现
  */
@@ -11,4 +14,9 @@ public class JSONEncoder implements Encoder{
     public byte[] encode(Object obj) {
         return JSON.toJSONBytes(obj);
     }
+
+    @Override
+    public void encode(Object obj, OutputStream out) throws IOException {
+        JSON.writeJSONString(out, obj);
+    }
 }
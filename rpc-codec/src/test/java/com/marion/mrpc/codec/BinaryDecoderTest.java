@@ -0,0 +1,186 @@
+package com.marion.mrpc.codec;
+
+import com.marion.mrpc.Request;
+import com.marion.mrpc.Response;
+import com.marion.mrpc.ServiceDescriptor;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BinaryDecoderTest {
+
+    private final Encoder encoder = new BinaryEncoder();
+
+    private final Decoder decoder = new BinaryDecoder();
+
+    @Test
+    public void decode() {
+        TestBean testBean = new TestBean();
+        testBean.setName("Anthony");
+        testBean.setAge(25);
+        byte[] bytes = encoder.encode(testBean);
+
+        TestBean bean = decoder.decode(bytes, TestBean.class);
+        assertEquals(testBean.getName(), bean.getName());
+        assertEquals(testBean.getAge(), bean.getAge());
+    }
+
+    @Test
+    public void decodeRequest() {
+        ServiceDescriptor descriptor = new ServiceDescriptor("com.marion.Calc", "add",
+            new String[] {"int", "int"}, "int");
+        Request request = new Request();
+        request.setRequestId(42);
+        request.setServiceDescriptor(descriptor);
+        request.setParameters(new Object[] {1, -2L, "three", null, new String[] {"a"}, Arrays.asList(4.0, true)});
+
+        Request decoded = decoder.decode(encoder.encode(request), Request.class);
+        assertEquals(42, decoded.getRequestId());
+        assertEquals(descriptor, decoded.getServiceDescriptor());
+        Object[] parameters = decoded.getParameters();
+        // 基础类型解码后保持原来的类型, 而不是JSON中的通用类型
+        assertEquals(1, parameters[0]);
+        assertEquals(-2L, parameters[1]);
+        assertEquals("three", parameters[2]);
+        assertNull(parameters[3]);
+        assertArrayEquals(new String[] {"a"}, (String[]) parameters[4]);
+        assertEquals(Arrays.asList(4.0, true), parameters[5]);
+    }
+
+    @Test
+    public void decodeRequestWithMethodId() {
+        Request request = new Request();
+        request.setRequestId(43);
+        request.setMethodId(5);
+        request.setMethodTableVersion(-8070450532247928832L);
+        request.setParameters(new Object[] {1, 2});
+        request.setTimeoutMillis(1500);
+        request.setStreamWindow(16);
+        request.setAttachments(new int[] {1});
+
+        Request decoded = decoder.decode(encoder.encode(request), Request.class);
+        assertEquals(5, decoded.getMethodId());
+        assertEquals(-8070450532247928832L, decoded.getMethodTableVersion());
+        assertNull(decoded.getServiceDescriptor());
+        assertEquals(1500, decoded.getTimeoutMillis());
+        assertEquals(16, decoded.getStreamWindow());
+        assertArrayEquals(new int[] {1}, decoded.getAttachments());
+        // 没有设置methodId时保持默认的-1, 没有使用附件时为空
+        assertEquals(-1, decoder.decode(encoder.encode(new Request()), Request.class).getMethodId());
+        assertNull(decoder.decode(encoder.encode(new Request()), Request.class).getAttachments());
+    }
+
+    @Test
+    public void decodeResponse() {
+        Response response = new Response();
+        response.setRequestId(7);
+        response.setData(Collections.singletonMap("k", 1));
+        Response decoded = decoder.decode(encoder.encode(response), Response.class);
+        assertEquals(7, decoded.getRequestId());
+        assertEquals(0, decoded.getCode());
+        assertEquals("ok", decoded.getMessage());
+        assertEquals(Collections.singletonMap("k", 1), decoded.getData());
+
+        response.setCode(1);
+        response.setMessage("error");
+        response.setData(null);
+        decoded = decoder.decode(encoder.encode(response), Response.class);
+        assertEquals(1, decoded.getCode());
+        assertEquals("error", decoded.getMessage());
+        assertNull(decoded.getData());
+        assertFalse(decoded.isAttached());
+
+        response.setAttached(true);
+        assertTrue(decoder.decode(encoder.encode(response), Response.class).isAttached());
+    }
+
+    @Test
+    public void decodeBatch() {
+        Request first = new Request();
+        first.setRequestId(1);
+        first.setMethodId(3);
+        first.setParameters(new Object[] {1, 2});
+        Request second = new Request();
+        second.setRequestId(2);
+        second.setServiceDescriptor(new ServiceDescriptor("com.marion.Calc", "minus", new String[] {"int", "int"}, "int"));
+        Request batch = new Request();
+        batch.setRequestId(3);
+        batch.setBatch(new Request[] {first, second});
+
+        Request decoded = decoder.decode(encoder.encode(batch), Request.class);
+        assertEquals(3, decoded.getRequestId());
+        assertArrayEquals(new Request[] {first, second}, decoded.getBatch());
+
+        Response ok = new Response();
+        ok.setRequestId(1);
+        ok.setData(3);
+        Response error = new Response();
+        error.setRequestId(2);
+        error.setCode(Response.CODE_ERROR);
+        error.setMessage("error");
+        Response responses = new Response();
+        responses.setRequestId(3);
+        responses.setBatch(new Response[] {ok, error});
+
+        Response decodedResponse = decoder.decode(encoder.encode(responses), Response.class);
+        assertEquals(3, decodedResponse.getRequestId());
+        assertArrayEquals(new Response[] {ok, error}, decodedResponse.getBatch());
+    }
+
+    @Test
+    public void decodeStream() throws IOException {
+        Response response = new Response();
+        response.setRequestId(9);
+        response.setData("streaming");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(response, out);
+
+        Response decoded = decoder.decode(new ByteArrayInputStream(out.toByteArray()), Response.class);
+        assertEquals(9, decoded.getRequestId());
+        assertEquals("streaming", decoded.getData());
+    }
+
+    @Test
+    public void decodeCast() {
+        // 类型不一致时做转换, 例如int读成long
+        assertEquals(Long.valueOf(3), decoder.decode(encoder.encode(3), Long.class));
+        List<?> list = decoder.decode(encoder.encode(Arrays.asList(1, 2)), List.class);
+        assertEquals(Arrays.asList(1, 2), list);
+    }
+
+    // 只用于取得泛型的返回值类型
+    private static List<TestBean> beans() {
+        return null;
+    }
+
+    @Test
+    public void decodeObjectWithoutWireClass() throws Exception {
+        TestBean testBean = new TestBean();
+        testBean.setName("Anthony");
+        testBean.setAge(25);
+        Response response = new Response();
+        response.setData(Arrays.asList(testBean));
+
+        // 不按对端发来的类名创建对象, 读成通用结构, 由调用方按声明的类型转换
+        Object data = decoder.decode(encoder.encode(response), Response.class).getData();
+        Object element = ((List<?>) data).get(0);
+        assertTrue(element instanceof Map);
+        assertFalse(element instanceof TestBean);
+        assertEquals(testBean, DeclaredTypes.convert(element, TestBean.class));
+        List<?> converted = (List<?>) DeclaredTypes.convert(data,
+            BinaryDecoderTest.class.getDeclaredMethod("beans").getGenericReturnType());
+        assertEquals(Arrays.asList(testBean), converted);
+        // 基本类型按包装类型转换
+        assertEquals(3L, DeclaredTypes.convert(3, long.class));
+        assertSame(data, DeclaredTypes.convert(data, Object.class));
+    }
+}
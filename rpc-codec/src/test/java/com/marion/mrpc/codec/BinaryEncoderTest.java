@@ -0,0 +1,30 @@
+package com.marion.mrpc.codec;
+
+import com.marion.mrpc.Response;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BinaryEncoderTest {
+
+    @Test
+    public void encode() {
+        Encoder encoder = new BinaryEncoder();
+        TestBean testBean = new TestBean();
+        testBean.setName("Anthony");
+        testBean.setAge(25);
+        byte[] bytes = encoder.encode(testBean);
+        assertNotNull(bytes);
+    }
+
+    @Test
+    public void encodeSmallerThanJson() {
+        Response response = new Response();
+        response.setRequestId(1);
+        response.setData(3);
+        // 小调用的响应, 二进制格式应该比JSON紧凑得多
+        byte[] binary = new BinaryEncoder().encode(response);
+        byte[] json = new JSONEncoder().encode(response);
+        assertTrue(binary.length * 4 < json.length);
+    }
+}
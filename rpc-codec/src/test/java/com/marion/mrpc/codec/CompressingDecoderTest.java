@@ -0,0 +1,121 @@
+package com.marion.mrpc.codec;
+
+import com.marion.mrpc.Response;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CompressingDecoderTest {
+
+    private static Response bulk() {
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            items.add("item-" + i);
+        }
+        Response response = new Response();
+        response.setRequestId(7);
+        response.setData(items);
+        return response;
+    }
+
+    @Test
+    public void smallPayloadIsNotCompressed() {
+        Response response = new Response();
+        response.setData(3);
+        byte[] raw = new JSONEncoder().encode(response);
+        byte[] bytes = new CompressingEncoder().encode(response);
+        // 只多1字节标记
+        assertEquals(raw.length + 1, bytes.length);
+        assertEquals(CompressingEncoder.RAW, bytes[0]);
+        assertEquals(3, new CompressingDecoder().decode(bytes, Response.class).getData());
+    }
+
+    @Test
+    public void largePayloadIsCompressed() {
+        Response response = bulk();
+        byte[] raw = new JSONEncoder().encode(response);
+        byte[] bytes = new CompressingEncoder().encode(response);
+        assertEquals(CompressingEncoder.DEFLATE, bytes[0]);
+        assertTrue(bytes.length * 4 < raw.length);
+
+        Response decoded = new CompressingDecoder().decode(bytes, Response.class);
+        assertEquals(7, decoded.getRequestId());
+        assertEquals(2000, ((List<?>) decoded.getData()).size());
+        assertEquals("item-1999", ((List<?>) decoded.getData()).get(1999));
+    }
+
+    @Test
+    public void thresholdIsAdjustable() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            text.append("item-").append(i % 5);
+        }
+        Response response = new Response();
+        response.setData(text.toString());
+        // 默认不压缩小于1KB的数据
+        CompressingEncoder encoder = new CompressingEncoder();
+        assertEquals(CompressingEncoder.RAW, encoder.encode(response)[0]);
+        encoder.setThreshold(128);
+        byte[] bytes = encoder.encode(response);
+        assertEquals(CompressingEncoder.DEFLATE, bytes[0]);
+        assertEquals(text.toString(), new CompressingDecoder().decode(bytes, Response.class).getData());
+    }
+
+    @Test
+    public void manyThreadsShareDeflaters() throws Exception {
+        // 线程数超过池的大小, 多出来的Deflater/Inflater用完即释放, 结果不受影响
+        int threads = Runtime.getRuntime().availableProcessors() * 4 + 2;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> sizes = new ArrayList<>();
+            for (int i = 0; i < threads * 4; i++) {
+                sizes.add(executor.submit(() -> {
+                    byte[] bytes = new CompressingEncoder().encode(bulk());
+                    return ((List<?>) new CompressingDecoder().decode(bytes, Response.class).getData()).size();
+                }));
+            }
+            for (Future<Integer> size : sizes) {
+                assertEquals(Integer.valueOf(2000), size.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void streamingWithBinaryFormat() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CompressingBinaryEncoder().encode(bulk(), out);
+        Response decoded = new CompressingBinaryDecoder().decode(new ByteArrayInputStream(out.toByteArray()), Response.class);
+        assertEquals(2000, ((List<?>) decoded.getData()).size());
+    }
+
+    @Test
+    public void incompressiblePayloadIsSentRaw() {
+        byte[] random = new byte[8192];
+        new Random(1).nextBytes(random);
+        Encoder encoder = new CompressingEncoder(new BinaryEncoder(), 1024);
+        byte[] bytes = encoder.encode(random);
+        assertEquals(CompressingEncoder.RAW, bytes[0]);
+        assertArrayEquals(random, new CompressingDecoder(new BinaryDecoder()).decode(bytes, byte[].class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void truncatedPayloadFails() {
+        byte[] bytes = new CompressingEncoder().encode(bulk());
+        byte[] truncated = new byte[bytes.length / 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        new CompressingDecoder().decode(truncated, Response.class);
+    }
+}
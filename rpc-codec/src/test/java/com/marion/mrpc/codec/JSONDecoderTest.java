@@ -2,6 +2,10 @@ package com.marion.mrpc.codec;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 import static org.junit.Assert.*;
 
 public class JSONDecoderTest {
@@ -20,4 +24,19 @@ public class JSONDecoderTest {
         assertEquals(testBean.getAge(), bean.getAge());
 
     }
+
+    @Test
+    public void decodeStream() throws IOException {
+        Encoder encoder = new JSONEncoder();
+        TestBean testBean = new TestBean();
+        testBean.setName("Anthony");
+        testBean.setAge(25);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(testBean, out);
+
+        Decoder decoder = new JSONDecoder();
+        TestBean bean = decoder.decode(new ByteArrayInputStream(out.toByteArray()), TestBean.class);
+        assertEquals(testBean.getName(), bean.getName());
+        assertEquals(testBean.getAge(), bean.getAge());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+package com.marion.common.buffer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按大小分级的byte[]缓冲区池, 让请求/响应的热路径在稳定状态下几乎不再分配新的数组
+ *      1. 大小分级: 从MIN_SIZE到MAX_SIZE按2的幂分成若干级, 申请时向上取整到对应级别
+ *      2. acquire: 先从当前线程的本地缓存取, 再从全局共享缓存取, 都没有时才分配新数组(记为一次未命中)
+ *      3. release: 先放回当前线程的本地缓存, 本地缓存满了再放入全局共享缓存, 共享缓存也满了就交给GC
+ *          缓冲区经常在一个线程上申请、在另一个线程上释放(例如IO线程读入, 工作线程处理完后释放),
+ *          共享缓存保证这种情况下缓冲区也能回到池中
+ *      4. 统计: hits/misses记录命中和未命中的次数, hitRate为命中率
+ * 超过MAX_SIZE的大缓冲区不入池, 每次都直接分配.
+ * 缓冲区释放之后调用方不能再使用它, 也不能重复释放.
+ */
+public final class BufferPool {
+
+    public static final int MIN_SIZE = 256;
+
+    public static final int MAX_SIZE = 64 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+    private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+    private static final BufferPool SHARED = new BufferPool(4, 64);
+
+    /**
+     * 每个线程每一级最多缓存的缓冲区个数
+     */
+    private final int threadCacheSize;
+
+    private final ThreadLocal<ThreadCache> threadCache;
+
+    /**
+     * 全局共享缓存, 每一级一个有界队列
+     */
+    private final ArrayBlockingQueue<byte[]>[] sharedCache;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int threadCacheSize, int sharedCacheSize) {
+        this.threadCacheSize = threadCacheSize;
+        this.threadCache = ThreadLocal.withInitial(ThreadCache::new);
+        this.sharedCache = new ArrayBlockingQueue[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            sharedCache[i] = new ArrayBlockingQueue<>(sharedCacheSize);
+        }
+    }
+
+    /**
+     * 进程内共用的缓冲区池, codec和transport都从这里申请和归还
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * 申请一个至少minCapacity大小的缓冲区
+     * @param minCapacity 最小容量
+     * @return 缓冲区, 长度可能大于minCapacity
+     */
+    public byte[] acquire(int minCapacity) {
+        if (minCapacity > MAX_SIZE) {
+            misses.increment();
+            return new byte[minCapacity];
+        }
+        int index = sizeClass(minCapacity);
+        byte[] buffer = threadCache.get().pop(index);
+        if (buffer == null) {
+            buffer = sharedCache[index].poll();
+        }
+        if (buffer != null) {
+            hits.increment();
+            return buffer;
+        }
+        misses.increment();
+        return new byte[MIN_SIZE << index];
+    }
+
+    /**
+     * 归还缓冲区, 不是由池分配的大小会被直接丢弃
+     * @param buffer 缓冲区
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || !isPooledSize(buffer.length)) {
+            return;
+        }
+        int index = sizeClass(buffer.length);
+        if (!threadCache.get().push(index, buffer)) {
+            sharedCache[index].offer(buffer);
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * 命中率, 还没有申请过时为0
+     */
+    public double hitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool(hits=" + hits() + ", misses=" + misses() + ", hitRate=" + hitRate() + ")";
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    private static boolean isPooledSize(int length) {
+        return length >= MIN_SIZE && length <= MAX_SIZE && Integer.bitCount(length) == 1;
+    }
+
+    /**
+     * 线程本地缓存, 每一级是一个定长的栈, 只有所属线程会访问, 不需要同步
+     */
+    private final class ThreadCache {
+
+        private final byte[][][] stacks = new byte[CLASS_COUNT][threadCacheSize][];
+
+        private final int[] depth = new int[CLASS_COUNT];
+
+        byte[] pop(int index) {
+            int top = depth[index];
+            if (top == 0) {
+                return null;
+            }
+            byte[] buffer = stacks[index][--top];
+            stacks[index][top] = null;
+            depth[index] = top;
+            return buffer;
+        }
+
+        boolean push(int index, byte[] buffer) {
+            int top = depth[index];
+            if (top == threadCacheSize) {
+                return false;
+            }
+            stacks[index][top] = buffer;
+            depth[index] = top + 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.marion.common.buffer;
+
+import java.io.InputStream;
+
+/**
+ * 读取池化缓冲区的字节输入流, 用法与ByteArrayInputStream相同
+ *      1. 读取: 从缓冲区的[0, length)中顺序读出数据
+ *      2. close: 把缓冲区还给池, 之后不能再使用这个流
+ * 反序列化实现可以通过buffer/position直接读取缓冲区, 省去一次拷贝
+ */
+public class PooledInputStream extends InputStream {
+
+    private final BufferPool pool;
+
+    private byte[] buf;
+
+    private int pos;
+
+    private final int limit;
+
+    public PooledInputStream(byte[] buf, int length) {
+        this(BufferPool.shared(), buf, length);
+    }
+
+    public PooledInputStream(BufferPool pool, byte[] buf, int length) {
+        this.pool = pool;
+        this.buf = buf;
+        this.limit = length;
+    }
+
+    @Override
+    public int read() {
+        return pos < limit ? (buf[pos++] & 0xFF) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (pos >= limit) {
+            return len == 0 ? 0 : -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, limit - pos));
+        pos += (int) skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return limit - pos;
+    }
+
+    /**
+     * 底层缓冲区, 有效数据为[position, position + available)
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    // 把缓冲区还给池, 重复调用是安全的
+    @Override
+    public void close() {
+        if (buf != null) {
+            pool.release(buf);
+            buf = null;
+            pos = limit;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.marion.common.buffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 缓冲区来自BufferPool的字节输出流, 用法与ByteArrayOutputStream相同
+ *      1. 写入: 容量不够时从池中申请一块更大的缓冲区, 拷贝后把旧缓冲区还给池
+ *      2. close: 把当前缓冲区还给池, 之后不能再使用这个流
+ * 子类可以直接访问buf和count, 在缓冲区上原地回填数据
+ */
+public class PooledOutputStream extends OutputStream {
+
+    private final BufferPool pool;
+
+    protected byte[] buf;
+
+    protected int count;
+
+    public PooledOutputStream(int initialCapacity) {
+        this(BufferPool.shared(), initialCapacity);
+    }
+
+    public PooledOutputStream(BufferPool pool, int initialCapacity) {
+        this.pool = pool;
+        this.buf = pool.acquire(initialCapacity);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void reset() {
+        count = 0;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    // 把缓冲区还给池, 重复调用是安全的
+    @Override
+    public void close() {
+        if (buf != null) {
+            pool.release(buf);
+            buf = null;
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (buf == null) {
+            throw new IllegalStateException("stream already closed");
+        }
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError("buffer too large");
+        }
+        if (minCapacity > buf.length) {
+            byte[] grown = pool.acquire(Math.max(buf.length << 1, minCapacity));
+            System.arraycopy(buf, 0, grown, 0, count);
+            pool.release(buf);
+            buf = grown;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.marion.common.jfr;
+
+import com.marion.common.buffer.PooledInputStream;
+import com.marion.common.buffer.PooledOutputStream;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 一次RPC调用的JFR事件, 由RpcEvents.begin在调用开始时创建
+ *      1. JFR没有在记录这类事件, 或者运行在没有JFR的JVM上时是NONE, 所有方法都是空操作, 不包装流也不分配对象
+ *      2. countRequest & countResponse: 正在记录时统计请求和响应序列化后的字节数
+ *          池化的流不包装(序列化模块直接在它们的缓冲区上读写): 输入流按available统计, 输出流在written时按size的增量统计;
+ *          其它流包装成计数的流. 作为附件直接发送的二进制数据不经过这些流, 不计入
+ *      3. commit: 调用结束时填写服务、方法、对端和响应码, 耗时达到阈值时才提交给JFR
+ * 一个事件只属于一次调用, 可以在一个线程上开始, 在另一个线程(例如IO线程)上提交
+ */
+public abstract class CallEvent {
+
+    public static final CallEvent NONE = new CallEvent() {
+        @Override
+        public void commit(String service, String method, String peer, int code) {
+        }
+    };
+
+    volatile long requestBytes;
+
+    volatile long responseBytes;
+
+    private int pooledStart;
+
+    private boolean pooledRequest;
+
+    // 1. 是否正在记录
+    public boolean isRecording() {
+        return false;
+    }
+
+    // 2. 客户端写出请求, 写完后调用written
+    public OutputStream countRequest(OutputStream out) {
+        return count(out, true);
+    }
+
+    // 2. 服务端读入请求
+    public InputStream countRequest(InputStream in) throws IOException {
+        return count(in, true);
+    }
+
+    // 2. 服务端写出响应, 写完后调用written
+    public OutputStream countResponse(OutputStream out) {
+        return count(out, false);
+    }
+
+    // 2. 客户端读入响应
+    public InputStream countResponse(InputStream in) throws IOException {
+        return count(in, false);
+    }
+
+    // 2. countRequest或countResponse返回的输出流已经写完
+    public void written(OutputStream out) {
+        if (out instanceof PooledOutputStream && isRecording()) {
+            count(pooledRequest, ((PooledOutputStream) out).size() - pooledStart);
+        }
+    }
+
+    /**
+     * 3. 结束这次调用
+     * @param service 服务接口的类名, 不知道时为空
+     * @param method 方法名, 不知道时为空
+     * @param peer 对端地址, 不知道时为空
+     * @param code 响应码
+     */
+    public abstract void commit(String service, String method, String peer, int code);
+
+    private OutputStream count(OutputStream out, boolean request) {
+        if (!isRecording()) {
+            return out;
+        }
+        if (out instanceof PooledOutputStream) {
+            pooledStart = ((PooledOutputStream) out).size();
+            pooledRequest = request;
+            return out;
+        }
+        return new CountingOutputStream(out, request);
+    }
+
+    private InputStream count(InputStream in, boolean request) throws IOException {
+        if (!isRecording()) {
+            return in;
+        }
+        if (in instanceof PooledInputStream) {
+            count(request, in.available());
+            return in;
+        }
+        return new CountingInputStream(in, request);
+    }
+
+    private void count(boolean request, long n) {
+        if (request) {
+            requestBytes += n;
+        } else {
+            responseBytes += n;
+        }
+    }
+
+    private final class CountingOutputStream extends FilterOutputStream {
+
+        private final boolean request;
+
+        CountingOutputStream(OutputStream out, boolean request) {
+            super(out);
+            this.request = request;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count(request, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count(request, len);
+        }
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+
+        private final boolean request;
+
+        CountingInputStream(InputStream in, boolean request) {
+            super(in);
+            this.request = request;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count(request, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count(request, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count(request, skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.marion.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * RpcEvents.Factory的JFR实现, 引用了jdk.jfr, 只能通过反射加载
+ *      1. 每次调用新建一个ClientCall或ServerCall事件并begin, 没有开启时直接返回CallEvent.NONE
+ *      2. commit时end, 同时满足JFR配置的threshold(shouldCommit)和RpcEvents的阈值时才填写字段并提交
+ */
+final class JfrEvents implements RpcEvents.Factory {
+
+    @Override
+    public CallEvent begin(boolean server, long thresholdNanos) {
+        RpcCall event = server ? new ServerCall() : new ClientCall();
+        if (!event.isEnabled()) {
+            return CallEvent.NONE;
+        }
+        event.begin();
+        return new Recording(event, System.nanoTime(), thresholdNanos);
+    }
+
+    private static final class Recording extends CallEvent {
+
+        private final RpcCall event;
+
+        private final long start;
+
+        private final long thresholdNanos;
+
+        Recording(RpcCall event, long start, long thresholdNanos) {
+            this.event = event;
+            this.start = start;
+            this.thresholdNanos = thresholdNanos;
+        }
+
+        @Override
+        public boolean isRecording() {
+            return true;
+        }
+
+        @Override
+        public void commit(String service, String method, String peer, int code) {
+            event.end();
+            if (System.nanoTime() - start < thresholdNanos || !event.shouldCommit()) {
+                return;
+            }
+            event.service = service;
+            event.method = method;
+            event.peer = peer;
+            event.requestBytes = requestBytes;
+            event.responseBytes = responseBytes;
+            event.code = code;
+            event.commit();
+        }
+    }
+
+    // 两类事件共有的字段, 事件的耗时(duration)由begin和end决定
+    abstract static class RpcCall extends Event {
+
+        @Label("Service")
+        String service;
+
+        @Label("Method")
+        String method;
+
+        @Label("Peer")
+        String peer;
+
+        @Label("Request Size")
+        @DataAmount
+        long requestBytes;
+
+        @Label("Response Size")
+        @DataAmount
+        long responseBytes;
+
+        @Label("Status Code")
+        @Description("0-OK 1-ERROR 2-STALE_METHOD_TABLE 3-DEADLINE_EXCEEDED 4-OVERLOADED 5-CANCELLED")
+        int code;
+    }
+
+    @Name("com.marion.mrpc.ClientCall")
+    @Label("RPC Client Call")
+    @Category("MRPC")
+    @Description("One attempt of a remote call, from selecting a connection to decoding the response")
+    static final class ClientCall extends RpcCall {
+    }
+
+    @Name("com.marion.mrpc.ServerCall")
+    @Label("RPC Server Call")
+    @Category("MRPC")
+    @Description("One request handled by RpcServer, from decoding the request to encoding the response")
+    static final class ServerCall extends RpcCall {
+    }
+}
@@ -0,0 +1,62 @@
+package com.marion.common.jfr;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 创建RPC调用的JFR事件, 一个RpcClient或者RpcServer一个
+ *      1. client: 客户端每次发送一个调用的事件 com.marion.mrpc.ClientCall
+ *         server: 服务端处理一个请求的事件 com.marion.mrpc.ServerCall
+ *      2. thresholdMillis: 耗时达到阈值的调用才提交, 生产环境中只记录慢调用; JFR配置中的threshold同样生效
+ *      3. begin: 调用开始时创建事件, JFR没有开启这类事件时返回CallEvent.NONE
+ * 运行在没有JFR(jdk.jfr)的JVM上时, 所有事件都是CallEvent.NONE
+ */
+@Slf4j
+public final class RpcEvents {
+
+    /**
+     * 创建JFR事件的实现, 只有JVM中有jdk.jfr时才加载, 否则为空
+     */
+    interface Factory {
+
+        CallEvent begin(boolean server, long thresholdNanos);
+    }
+
+    private static final Factory FACTORY = load();
+
+    private final boolean server;
+
+    private final long thresholdNanos;
+
+    private RpcEvents(boolean server, long thresholdMillis) {
+        this.server = server;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(thresholdMillis, 0));
+    }
+
+    // 1. 客户端调用的事件
+    public static RpcEvents client(long thresholdMillis) {
+        return new RpcEvents(false, thresholdMillis);
+    }
+
+    // 1. 服务端请求的事件
+    public static RpcEvents server(long thresholdMillis) {
+        return new RpcEvents(true, thresholdMillis);
+    }
+
+    // 3. 调用开始
+    public CallEvent begin() {
+        return FACTORY != null ? FACTORY.begin(server, thresholdNanos) : CallEvent.NONE;
+    }
+
+    private static Factory load() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Factory) Class.forName(RpcEvents.class.getPackage().getName() + ".JfrEvents")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.info("jfr events disabled, {}", e.toString());
+            return null;
+        }
+    }
+}
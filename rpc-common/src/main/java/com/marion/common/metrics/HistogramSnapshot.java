@@ -0,0 +1,92 @@
+package com.marion.common.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LatencyHistogram某一时刻的快照, 不再变化
+ *      count & mean & max: 次数, 平均耗时和最大耗时
+ *      percentile: 分位数, 返回所在桶中最大的值(不超过max), 相对误差不超过1/16
+ * 以Micros结尾的getter以微秒为单位, 作为JMX的属性展示
+ */
+public final class HistogramSnapshot {
+
+    private static final double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private final long[] counts;
+
+    private final long count;
+
+    private final long sum;
+
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // 平均耗时(纳秒), 没有记录时为0
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    // 最大耗时(纳秒)
+    public long max() {
+        return max;
+    }
+
+    /**
+     * 分位数(纳秒), 没有记录时为0
+     * @param percentile 0~100, 例如99.9
+     */
+    public long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(Math.min(percentile, 100) / 100 * count), 1);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highestOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    public double getMeanMicros() {
+        return mean() / NANOS_PER_MICRO;
+    }
+
+    public double getP50Micros() {
+        return percentile(50) / NANOS_PER_MICRO;
+    }
+
+    public double getP90Micros() {
+        return percentile(90) / NANOS_PER_MICRO;
+    }
+
+    public double getP99Micros() {
+        return percentile(99) / NANOS_PER_MICRO;
+    }
+
+    public double getP999Micros() {
+        return percentile(99.9) / NANOS_PER_MICRO;
+    }
+
+    public double getMaxMicros() {
+        return max / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HistogramSnapshot(count=%d, mean=%.1fus, p50=%.1fus, p99=%.1fus, p999=%.1fus, max=%.1fus)",
+            count, getMeanMicros(), getP50Micros(), getP99Micros(), getP999Micros(), getMaxMicros());
+    }
+}
@@ -0,0 +1,69 @@
+package com.marion.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的延迟直方图, 记录纳秒级的耗时, 与HdrHistogram一样按对数-线性分桶
+ *      1. 分桶: 小于32ns时每纳秒一个桶, 之后每个2的幂次区间等分成16个子桶, 相对误差不超过1/16,
+ *          覆盖整个long的范围, 一共960个桶, 不需要预先指定最大值
+ *      2. record: 对一个桶做一次原子加, 再更新总和与最大值, 多个线程同时记录不需要加锁, 也不分配对象
+ *      3. snapshot: 复制当前所有桶的计数, 分位数从快照中计算;
+ *          与并发的record之间不做同步, 快照中可能有个别值只计入了桶而还没有计入总和
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 2. 记录一个耗时, 负数按0记录
+     * @param nanos 纳秒
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(indexOf(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    // 3. 当前计数的快照
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new HistogramSnapshot(copy, count, sum.sum(), max.get());
+    }
+
+    // 1. 值所在的桶
+    static int indexOf(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) - SUB_COUNT);
+    }
+
+    // 1. 桶中最大的值, 最后一个桶为Long.MAX_VALUE
+    static long highestOf(int index) {
+        if (index < 2 * SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long sub = index % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,84 @@
+package com.marion.common.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个方法的调用指标, 由MetricsRegistry按方法名创建
+ *      1. recordCall: 一次调用的耗时, 失败的调用同时计入errors
+ *      2. record: 一次调用中某个阶段的耗时, 阶段是MetricsRegistry指定的阶段名的下标
+ *      3. snapshot: 当前指标的快照; 同时作为MBean注册到JMX, 属性在读取时生成
+ * 所有计数都是LongAdder和LatencyHistogram, 记录时不加锁
+ */
+public final class MethodMetrics implements MethodMetricsMXBean {
+
+    private final String name;
+
+    private final String[] phaseNames;
+
+    private final LongAdder calls = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LatencyHistogram[] phases;
+
+    MethodMetrics(String name, String[] phaseNames) {
+        this.name = name;
+        this.phaseNames = phaseNames;
+        this.phases = new LatencyHistogram[phaseNames.length];
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    // 1. 一次调用的耗时(纳秒)
+    public void recordCall(long nanos, boolean error) {
+        calls.increment();
+        if (error) {
+            errors.increment();
+        }
+        latency.record(nanos);
+    }
+
+    // 2. 一个阶段的耗时(纳秒)
+    public void record(int phase, long nanos) {
+        phases[phase].record(nanos);
+    }
+
+    // 3. 当前指标的快照
+    public MethodSnapshot snapshot() {
+        return new MethodSnapshot(name, calls.sum(), errors.sum(), latency.snapshot(), getPhases());
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public HistogramSnapshot getLatency() {
+        return latency.snapshot();
+    }
+
+    @Override
+    public Map<String, HistogramSnapshot> getPhases() {
+        Map<String, HistogramSnapshot> snapshots = new LinkedHashMap<>();
+        for (int i = 0; i < phases.length; i++) {
+            snapshots.put(phaseNames[i], phases[i].snapshot());
+        }
+        return snapshots;
+    }
+}
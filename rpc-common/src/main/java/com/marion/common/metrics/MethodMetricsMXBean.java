@@ -0,0 +1,20 @@
+package com.marion.common.metrics;
+
+import java.util.Map;
+
+/**
+ * MethodMetrics在JMX中展示的属性, 每次读取时从当前的计数生成
+ *      Latency: 整个调用的耗时, Phases: 各个阶段的耗时, 按阶段名排列
+ */
+public interface MethodMetricsMXBean {
+
+    String getName();
+
+    long getCalls();
+
+    long getErrors();
+
+    HistogramSnapshot getLatency();
+
+    Map<String, HistogramSnapshot> getPhases();
+}
@@ -0,0 +1,62 @@
+package com.marion.common.metrics;
+
+import java.util.Map;
+
+/**
+ * 一个方法的指标快照, 见MethodMetrics.snapshot
+ *      calls & errors: 调用次数和失败次数
+ *      latency: 整个调用的耗时
+ *      phases: 各个阶段的耗时, 按阶段的顺序排列
+ */
+public final class MethodSnapshot {
+
+    private final String name;
+
+    private final long calls;
+
+    private final long errors;
+
+    private final HistogramSnapshot latency;
+
+    private final Map<String, HistogramSnapshot> phases;
+
+    MethodSnapshot(String name, long calls, long errors, HistogramSnapshot latency,
+                   Map<String, HistogramSnapshot> phases) {
+        this.name = name;
+        this.calls = calls;
+        this.errors = errors;
+        this.latency = latency;
+        this.phases = phases;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public HistogramSnapshot getLatency() {
+        return latency;
+    }
+
+    public Map<String, HistogramSnapshot> getPhases() {
+        return phases;
+    }
+
+    // 某个阶段的耗时, 没有这个阶段时为null
+    public HistogramSnapshot getPhase(String phase) {
+        return phases.get(phase);
+    }
+
+    @Override
+    public String toString() {
+        return "MethodSnapshot(name=" + name + ", calls=" + calls + ", errors=" + errors + ", latency=" + latency
+            + ", phases=" + phases + ")";
+    }
+}
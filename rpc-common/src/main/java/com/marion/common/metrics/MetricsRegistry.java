@@ -0,0 +1,92 @@
+package com.marion.common.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按方法名管理MethodMetrics, 一个RpcServer或者RpcClient一个
+ *      1. method: 取出方法的指标, 第一次使用时创建, 并注册为JMX的MBean, ObjectName为 jmxName + ",method=方法名"
+ *          jmxName为空时只在进程内统计, 不注册
+ *      2. snapshot: 所有方法的指标快照, 按方法名排序
+ *      3. close: 注销所有MBean, 之后新建的指标不再注册
+ * 注册失败(例如同一个进程中有两个监听相同端口的RpcServer)时只打印日志, 指标照常统计
+ */
+@Slf4j
+public final class MetricsRegistry implements Closeable {
+
+    private final String jmxName;
+
+    private final String[] phases;
+
+    private final Map<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    /**
+     * @param jmxName MBean的ObjectName前缀, 形如 com.marion.mrpc:type=RpcServer,port=3000, 为空时不注册
+     * @param phases 每个方法记录的阶段名, MethodMetrics.record按下标引用
+     */
+    public MetricsRegistry(String jmxName, String... phases) {
+        this.jmxName = jmxName;
+        this.phases = phases.clone();
+    }
+
+    // 1. 方法的指标, 第一次使用时创建
+    public MethodMetrics method(String name) {
+        MethodMetrics metrics = methods.get(name);
+        return metrics != null ? metrics : methods.computeIfAbsent(name, this::create);
+    }
+
+    // 2. 所有方法的指标快照
+    public Map<String, MethodSnapshot> snapshot() {
+        Map<String, MethodSnapshot> snapshots = new TreeMap<>();
+        for (MethodMetrics metrics : methods.values()) {
+            snapshots.put(metrics.getName(), metrics.snapshot());
+        }
+        return snapshots;
+    }
+
+    // 3. 注销所有MBean
+    @Override
+    public void close() {
+        closed = true;
+        if (jmxName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (String name : methods.keySet()) {
+            try {
+                ObjectName objectName = objectName(name);
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                log.warn("unregister metrics of {} fail, {}", name, e.toString());
+            }
+        }
+    }
+
+    private MethodMetrics create(String name) {
+        MethodMetrics metrics = new MethodMetrics(name, phases);
+        if (jmxName != null && !closed) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName(name));
+            } catch (JMException e) {
+                log.warn("register metrics of {} fail, {}", name, e.toString());
+            }
+        }
+        return metrics;
+    }
+
+    private ObjectName objectName(String name) throws JMException {
+        return new ObjectName(jmxName + ",method=" + ObjectName.quote(name));
+    }
+}
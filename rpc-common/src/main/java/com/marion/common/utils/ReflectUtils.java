@@ -61,8 +61,11 @@ public class ReflectUtils {
 
         try {
             return method.invoke(obj, args);
+        } catch (InvocationTargetException e) {
+            // 保留被调用方法抛出的原始异常
+            throw new IllegalStateException(e.getCause());
         } catch (Exception e) {
-            throw new IllegalStateException();
+            throw new IllegalStateException(e);
         }
 
     }
@@ -0,0 +1,65 @@
+package com.marion.common.buffer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    @Test public void acquireRoundsUpToSizeClass() {
+        BufferPool pool = new BufferPool(4, 16);
+        assertEquals(BufferPool.MIN_SIZE, pool.acquire(1).length);
+        assertEquals(512, pool.acquire(300).length);
+        // 超过MAX_SIZE的不入池, 按实际大小分配
+        assertEquals(BufferPool.MAX_SIZE + 1, pool.acquire(BufferPool.MAX_SIZE + 1).length);
+        assertEquals(0, pool.hits());
+        assertEquals(3, pool.misses());
+    }
+
+    @Test public void releasedBufferIsReused() {
+        BufferPool pool = new BufferPool(4, 16);
+        byte[] buffer = pool.acquire(1000);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(1000));
+        assertEquals(1, pool.hits());
+        assertEquals(0.5, pool.hitRate(), 0.0001);
+    }
+
+    @Test public void releasedOnOtherThreadIsReused() throws InterruptedException {
+        BufferPool pool = new BufferPool(0, 16);
+        byte[] buffer = pool.acquire(1000);
+        Thread thread = new Thread(() -> pool.release(buffer));
+        thread.start();
+        thread.join();
+        // 本地缓存为0时, 归还的缓冲区进入共享缓存, 其它线程也能取到
+        assertSame(buffer, pool.acquire(1000));
+    }
+
+    @Test public void pooledStreams() throws IOException {
+        BufferPool pool = new BufferPool(4, 16);
+        PooledOutputStream out = new PooledOutputStream(pool, 16);
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        out.write(data, 0, data.length);
+        assertArrayEquals(data, out.toByteArray());
+        out.close();
+
+        byte[] buffer = pool.acquire(data.length);
+        System.arraycopy(data, 0, buffer, 0, data.length);
+        PooledInputStream in = new PooledInputStream(pool, buffer, data.length);
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            read.write(b);
+        }
+        assertArrayEquals(data, read.toByteArray());
+        in.close();
+        // close之后缓冲区回到池中
+        assertSame(buffer, pool.acquire(data.length));
+    }
+}
@@ -0,0 +1,66 @@
+package com.marion.common.jfr;
+
+import com.marion.common.buffer.PooledInputStream;
+import com.marion.common.buffer.PooledOutputStream;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RpcEventsTest {
+
+    @Test public void noneWhenNotRecording() throws Exception {
+        CallEvent event = RpcEvents.client(0).begin();
+        assertSame(CallEvent.NONE, event);
+        OutputStream out = new ByteArrayOutputStream();
+        InputStream in = new ByteArrayInputStream(new byte[3]);
+        assertSame(out, event.countRequest(out));
+        assertSame(in, event.countResponse(in));
+        event.commit("Echo", "echo", null, 0);
+    }
+
+    @Test public void commitsSizesAboveThreshold() throws Exception {
+        Path file = Files.createTempFile("mrpc", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.marion.mrpc.ServerCall");
+            recording.start();
+            CallEvent event = RpcEvents.server(0).begin();
+            assertTrue(event.isRecording());
+            // 池化的流不包装, 直接按缓冲区统计
+            try (PooledInputStream request = new PooledInputStream(new byte[16], 5);
+                 PooledOutputStream response = new PooledOutputStream(16)) {
+                response.write(1);
+                assertSame(request, event.countRequest(request));
+                assertSame(response, event.countResponse(response));
+                response.write(new byte[7], 0, 7);
+                event.written(response);
+            }
+            // 其它流包装成计数的流
+            event.countRequest(new ByteArrayInputStream(new byte[4])).read(new byte[8]);
+            event.commit("Echo", "echo", "127.0.0.1:3000", 1);
+            RpcEvents.server(60_000).begin().commit("Echo", "slow", null, 0);
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("Echo", event.getString("service"));
+        assertEquals("echo", event.getString("method"));
+        assertEquals("127.0.0.1:3000", event.getString("peer"));
+        assertEquals(9, event.getLong("requestBytes"));
+        assertEquals(7, event.getLong("responseBytes"));
+        assertEquals(1, event.getInt("code"));
+    }
+}
@@ -0,0 +1,62 @@
+package com.marion.common.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test public void bucketsCoverEveryValue() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index < LatencyHistogram.BUCKETS);
+            assertTrue(value <= LatencyHistogram.highestOf(index));
+            // 相对误差不超过1/16
+            assertTrue(LatencyHistogram.highestOf(index) - value <= value / 16);
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.highestOf(index - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestOf(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500500, snapshot.mean(), 0.001);
+        assertEquals(1000000, snapshot.max());
+        assertEquals(500000, snapshot.percentile(50), 500000 / 16);
+        assertEquals(990000, snapshot.percentile(99), 990000 / 16);
+        assertEquals(1000000, snapshot.percentile(100));
+        assertEquals(1000, snapshot.getMaxMicros(), 0.001);
+    }
+
+    @Test public void emptySnapshot() {
+        HistogramSnapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.percentile(99));
+        assertEquals(0, snapshot.mean(), 0);
+    }
+
+    @Test public void concurrentRecords() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int threads = 4;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(i);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        assertEquals(threads * 10000, histogram.snapshot().getCount());
+    }
+}
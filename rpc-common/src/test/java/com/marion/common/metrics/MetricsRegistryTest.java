@@ -0,0 +1,47 @@
+package com.marion.common.metrics;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Test public void recordsCallsAndPhases() {
+        MetricsRegistry registry = new MetricsRegistry(null, "encode", "decode");
+        MethodMetrics metrics = registry.method("Echo#echo(int):int");
+        assertSame(metrics, registry.method("Echo#echo(int):int"));
+        metrics.recordCall(2000, false);
+        metrics.recordCall(4000, true);
+        metrics.record(1, 500);
+        Map<String, MethodSnapshot> snapshot = registry.snapshot();
+        MethodSnapshot method = snapshot.get("Echo#echo(int):int");
+        assertEquals(2, method.getCalls());
+        assertEquals(1, method.getErrors());
+        assertEquals(3000, method.getLatency().mean(), 0.001);
+        assertEquals(0, method.getPhase("encode").getCount());
+        assertEquals(1, method.getPhase("decode").getCount());
+    }
+
+    @Test public void exposesMBean() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry("com.marion.test:type=Metrics", "invoke");
+        registry.method("Echo#echo(int):int").recordCall(1000, false);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.marion.test:type=Metrics,method=" + ObjectName.quote("Echo#echo(int):int"));
+        try {
+            assertEquals(1L, server.getAttribute(name, "Calls"));
+            CompositeData latency = (CompositeData) server.getAttribute(name, "Latency");
+            assertEquals(1L, latency.get("count"));
+            assertEquals(1, ((TabularData) server.getAttribute(name, "Phases")).size());
+        } finally {
+            registry.close();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -1,9 +1,18 @@
 package com.marion.mrpc.example;
 
+import com.marion.mrpc.annotation.RpcService;
+
+import java.util.concurrent.CompletableFuture;
+
+// 编译时生成stub类CalcInterface$$MrpcStub, 客户端不再使用动态代理
+@RpcService
 public interface CalcInterface {
 
     int add(int a, int b);
 
     int minus(int a, int b);
 
+    // 返回CompletableFuture的方法会被异步调用
+    CompletableFuture<Integer> addAsync(int a, int b);
+
 }
@@ -1,5 +1,7 @@
 package com.marion.mrpc.example;
 
+import java.util.concurrent.CompletableFuture;
+
 public class CalcService implements CalcInterface{
     @Override
     public int add(int a, int b) {
@@ -10,4 +12,9 @@ public class CalcService implements CalcInterface{
     public int minus(int a, int b) {
         return a - b;
     }
+
+    @Override
+    public CompletableFuture<Integer> addAsync(int a, int b) {
+        return CompletableFuture.completedFuture(a + b);
+    }
 }
@@ -10,6 +10,7 @@ public class Client {
         int add = proxy.add(1, 2);
         int minus = proxy.minus(2, 1);
         System.out.println("add="+ add + ", minus=" + minus);
+        proxy.addAsync(3, 4).thenAccept(addAsync -> System.out.println("addAsync=" + addAsync)).join();
     }
 
 }
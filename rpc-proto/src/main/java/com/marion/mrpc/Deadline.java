@@ -0,0 +1,59 @@
+package com.marion.mrpc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 当前线程上远程调用的截止时间
+ *      1. after/at: 设置截止时间, 已经有更早的截止时间时保留更早的, 返回的Scope关闭时恢复原来的截止时间
+ *          try (Deadline.Scope scope = Deadline.after(200, TimeUnit.MILLISECONDS)) {
+ *              proxy.call(...);   // 这个范围内的所有远程调用共用这200ms
+ *          }
+ *      2. remainingNanos: 距离截止时间还剩多少纳秒, 没有截止时间时返回Long.MAX_VALUE
+ * 服务端执行请求时把请求的截止时间设置到执行线程上, 服务方法中再发起的远程调用会继承剩余的时间
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Long> CURRENT = new ThreadLocal<>();
+
+    private Deadline() {
+    }
+
+    // 1. 从现在开始timeout之后截止
+    public static Scope after(long timeout, TimeUnit unit) {
+        return at(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    // 1. 在System.nanoTime()为deadlineNanos时截止
+    public static Scope at(long deadlineNanos) {
+        Long previous = CURRENT.get();
+        CURRENT.set(previous == null || deadlineNanos - previous < 0 ? deadlineNanos : previous);
+        return new Scope(previous);
+    }
+
+    // 2. 距离截止时间还剩多少纳秒, 已经超时时返回0或负数
+    public static long remainingNanos() {
+        Long deadline = CURRENT.get();
+        return deadline == null ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+    /**
+     * 截止时间的作用范围, 关闭时恢复进入范围之前的截止时间
+     */
+    public static final class Scope implements AutoCloseable {
+
+        private final Long previous;
+
+        private Scope(Long previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
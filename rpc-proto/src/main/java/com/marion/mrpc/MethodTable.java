@@ -0,0 +1,71 @@
+package com.marion.mrpc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 方法表: 服务端为每个对外的服务分配一个从0开始的methodId, 握手时发布给客户端
+ *      1. keys: 第i个元素是methodId为i的服务的ServiceDescriptor.key()
+ *      2. version: 由keys计算出的版本号, 双方keys相同则版本号相同
+ *      3. idOf: 客户端按服务的key查出methodId, 请求中只需要带上methodId和version, 不再带完整的ServiceDescriptor
+ */
+public final class MethodTable {
+
+    /**
+     * 空方法表, 表示对端不支持方法表, 所有请求都按ServiceDescriptor查找
+     */
+    public static final MethodTable EMPTY = new MethodTable(Collections.emptyList());
+
+    private final List<String> keys;
+
+    private final long version;
+
+    private final Map<String, Integer> ids;
+
+    public MethodTable(List<String> keys) {
+        this.keys = Collections.unmodifiableList(keys);
+        this.version = version(keys);
+        this.ids = new HashMap<>(keys.size() * 2);
+        for (int i = 0; i < keys.size(); i++) {
+            ids.put(keys.get(i), i);
+        }
+    }
+
+    public List<String> keys() {
+        return keys;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @param key ServiceDescriptor.key()
+     * @return methodId, 方法表中没有这个服务时返回-1
+     */
+    public int idOf(String key) {
+        Integer id = ids.get(key);
+        return id == null ? -1 : id;
+    }
+
+    // FNV-1a 64位哈希, 空方法表的版本号为0
+    private static long version(List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (String key : keys) {
+            for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+            // 分隔符, 避免["ab","c"]与["a","bc"]得到相同的版本号
+            hash ^= 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+}
@@ -0,0 +1,12 @@
+package com.marion.mrpc;
+
+import java.util.List;
+
+/**
+ * 服务端内置的握手服务, 客户端第一次访问某个服务端时调用它获取方法表
+ *      methods: 返回服务端方法表, 第i个元素是methodId为i的服务的ServiceDescriptor.key()
+ */
+public interface MethodTableService {
+
+    List<String> methods();
+}
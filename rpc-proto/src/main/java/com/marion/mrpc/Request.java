@@ -15,9 +15,25 @@ import lombok.NoArgsConstructor;
 public class Request {
 
     /**
-     * @param serviceDescriptor 请求的服务【描述服务：服务即一个对外的方法】
+     * @param requestId 请求的关联id, 服务端原样写回到响应中, 用来把响应与请求对应起来
+     * @param methodId 请求的服务在服务端方法表中的下标, -1表示没有使用方法表, 按serviceDescriptor查找
+     * @param methodTableVersion 客户端缓存的方法表版本, 与服务端不一致时服务端返回Response.CODE_STALE_METHOD_TABLE
+     * @param serviceDescriptor 请求的服务【描述服务：服务即一个对外的方法】, 使用methodId时可以为空
      * @param parameters 请求的参数数组
+     * @param timeoutMillis 调用方还愿意等待的时间(毫秒), 0表示不限制. 使用相对时间, 不受两端时钟不一致的影响,
+     *          服务端从收到请求开始计时, 超时的请求不再执行, 执行中的请求被中断
+     * @param batch 批量请求中的各个请求, 不为空时本请求只是一个容器, 服务端逐个处理并返回同样顺序的批量响应
+     * @param streamWindow 客户端可以接收流式响应时的初始窗口(帧数), 0表示不能接收, 服务端把流式的结果整体放在响应中返回
+     * @param attachments 作为附件单独发送的参数下标, 这些参数在parameters中为空, 按下标顺序在请求帧之前发送;
+     *          不为空(可以没有元素)还表示客户端可以接收附件, 服务端可以把二进制的返回值作为附件返回. 为空表示没有使用附件
      */
+    private long requestId;
+    private int methodId = -1;
+    private long methodTableVersion;
     private ServiceDescriptor serviceDescriptor;
     private Object[] parameters;
+    private long timeoutMillis;
+    private Request[] batch;
+    private int streamWindow;
+    private int[] attachments;
 }
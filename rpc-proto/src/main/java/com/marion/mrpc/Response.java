@@ -15,11 +15,33 @@ import lombok.NoArgsConstructor;
 public class Response {
 
     /**
-     * @param code 服务器响应返回 0-成功 1-失败， 默认为0-成功
+     * 响应码
+     *      CODE_OK: 成功
+     *      CODE_ERROR: 失败
+     *      CODE_STALE_METHOD_TABLE: 请求的methodId与服务端方法表不一致, 客户端需要刷新方法表并按serviceDescriptor重试
+     *      CODE_DEADLINE_EXCEEDED: 请求超过了timeoutMillis, 服务端没有执行或者中断了执行
+     *      CODE_OVERLOADED: 服务端过载, 请求没有执行就被拒绝, 客户端可以换一个服务端重试
+     *      CODE_CANCELLED: 客户端已经取消了请求, 服务端没有执行或者中断了执行, 这个响应不会被缓存, 也不按成功统计
+     */
+    public static final int CODE_OK = 0;
+    public static final int CODE_ERROR = 1;
+    public static final int CODE_STALE_METHOD_TABLE = 2;
+    public static final int CODE_DEADLINE_EXCEEDED = 3;
+    public static final int CODE_OVERLOADED = 4;
+    public static final int CODE_CANCELLED = 5;
+
+    /**
+     * @param requestId 对应请求的关联id, 与Request.requestId一致
+     * @param code 服务器响应返回 0-成功 1-失败 2-方法表不一致 3-超时 4-过载 5-取消， 默认为0-成功
      * @param message 具体的响应返回消息，默认为“ok”，可以用作错误信息
      * @param data 响应返回的数据
+     * @param batch 批量请求的各个响应, 与Request.batch的顺序一一对应
+     * @param attached 返回值作为附件在响应帧之前单独发送, data为空
      */
+    private long requestId;
     private int code = 0;
     private String message = "ok";
     private Object data;
+    private Response[] batch;
+    private boolean attached;
 }
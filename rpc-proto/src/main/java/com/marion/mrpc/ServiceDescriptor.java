@@ -71,7 +71,11 @@ public class ServiceDescriptor {
             return false;
         }
         ServiceDescriptor that = (ServiceDescriptor) obj;
-        return this.toString().equals(that.toString());
+        // 逐个字段比较, 不再拼接两个toString()
+        return Objects.equals(clazz, that.clazz)
+            && Objects.equals(method, that.method)
+            && Objects.equals(returnType, that.returnType)
+            && Arrays.equals(parameterTypes, that.parameterTypes);
 
     }
 
@@ -82,6 +86,23 @@ public class ServiceDescriptor {
         return result;
     }
 
+    /**
+     * 服务在方法表中的唯一标识, 形如 clazz#method(p1,p2):returnType
+     * 客户端和服务端用它来对齐双方的方法表, 见MethodTable
+     */
+    public String key() {
+        StringBuilder key = new StringBuilder(clazz).append('#').append(method).append('(');
+        if (parameterTypes != null) {
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (i > 0) {
+                    key.append(',');
+                }
+                key.append(parameterTypes[i]);
+            }
+        }
+        return key.append(')').append(':').append(returnType).toString();
+    }
+
     @Override
     public String toString() {
         return "ServiceDescriptor{" +
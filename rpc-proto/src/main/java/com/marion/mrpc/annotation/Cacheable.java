@@ -0,0 +1,24 @@
+package com.marion.mrpc.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注结果只由参数决定的接口方法(例如CalcInterface.add), 客户端缓存调用成功的结果
+ * 缓存的key是方法加上序列化后的参数, ttlMillis之后过期; 缓存总大小由RpcClientConfig.cacheMaxSize限制.
+ * String、基础类型的包装类型等不可变的结果直接共享; 其它结果按序列化后的字节缓存, 每次命中时反序列化出新的对象,
+ * 调用方可以修改拿到的结果, 不会影响缓存和其它调用方, 但每次命中都有一次反序列化的开销
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cacheable {
+
+    /**
+     * 结果的缓存时间(毫秒)
+     */
+    long ttlMillis() default 60000;
+}
@@ -0,0 +1,19 @@
+package com.marion.mrpc.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注接口方法中用来路由的参数
+ * 使用ConsistentHashTransportSelector时, 这个参数相同的调用总是发往同一个服务端,
+ * 服务端按key缓存的数据只需要在一个服务端上保存一份.
+ * 一个方法只能标注一个参数, 参数按String.valueOf(参数)计算哈希值
+ */
+@Documented
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface HashKey {
+}
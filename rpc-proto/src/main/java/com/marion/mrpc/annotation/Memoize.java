@@ -0,0 +1,24 @@
+package com.marion.mrpc.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注服务端的只读热点方法, 服务端缓存编码好的响应
+ * 可以标注在接口方法上, 也可以只标注在服务实现类的方法上(只影响这个服务端).
+ * 参数相同的请求在ttlMillis内直接写出缓存的响应, 不调用服务方法也不再序列化;
+ * 数据变化时通过RpcServer.invalidate让缓存失效
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Memoize {
+
+    /**
+     * 响应的缓存时间(毫秒)
+     */
+    long ttlMillis() default 10000;
+}
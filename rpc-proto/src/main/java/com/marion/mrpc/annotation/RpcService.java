@@ -0,0 +1,18 @@
+package com.marion.mrpc.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注一个RPC服务接口
+ * 编译时rpc-stub模块的注解处理器会为它生成一个stub类(接口名 + "$$MrpcStub"),
+ * RpcClient.getProxy优先返回stub类的对象, 不再使用动态代理
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.CLASS)
+public @interface RpcService {
+}
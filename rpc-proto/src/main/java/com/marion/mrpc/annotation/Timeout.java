@@ -0,0 +1,20 @@
+package com.marion.mrpc.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 远程调用的超时时间(毫秒)
+ * 标注在接口方法上只对这个方法生效, 标注在接口上对接口中所有没有标注的方法生效,
+ * 都没有标注时使用RpcClientConfig.callTimeoutMillis. 调用方通过Deadline设置了更早的截止时间时以更早的为准
+ */
+@Documented
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Timeout {
+
+    long value();
+}
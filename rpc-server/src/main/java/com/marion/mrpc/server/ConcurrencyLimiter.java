@@ -0,0 +1,156 @@
+package com.marion.mrpc.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按耗时自动调整上限的并发限制(gradient算法)
+ *      1. acquire: 执行中的请求少于上限时立即放行; 否则进入等待队列, 队列已满或者等待超时时拒绝,
+ *          拒绝很快返回, 客户端可以换一个服务端重试, 比所有请求一起变慢要好
+ *      2. release: 请求执行完成, 用这次的耗时调整上限
+ *          a. longRtt: 耗时的长期平均值, 代表没有排队时的耗时; shortRtt: 耗时的短期平均值, 代表当前的耗时
+ *          b. gradient = longRtt / shortRtt, 限制在[0.5, 1]: 当前耗时上升说明服务端开始排队, 按比例降低上限
+ *          c. 新上限 = 上限 * gradient + sqrt(上限), sqrt部分允许上限在耗时稳定时继续增长, 探测更高的并发
+ *          d. 执行中的请求不到上限的一半时不调整, 这时耗时不能反映上限是否合适
+ *          e. 短期耗时远高于长期耗时(超过2倍)时让长期平均值加速靠近, 负载长期变化后不会一直压低上限
+ */
+final class ConcurrencyLimiter {
+
+    private static final double LONG_WINDOW = 600;
+
+    private static final double SHORT_WINDOW = 10;
+
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final int queueSize;
+
+    private final long queueTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+
+    private int inflight;
+
+    private int waiting;
+
+    private double longRtt;
+
+    private double shortRtt;
+
+    ConcurrencyLimiter(ConcurrencyLimits limits) {
+        this.minLimit = Math.max(limits.getMinLimit(), 1);
+        this.maxLimit = Math.max(limits.getMaxLimit(), minLimit);
+        this.queueSize = Math.max(limits.getQueueSize(), 0);
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(limits.getQueueTimeoutMillis(), 0));
+        this.limit = Math.min(Math.max(limits.getInitialLimit(), minLimit), maxLimit);
+    }
+
+    /**
+     * 1. 申请执行一个请求
+     * @param deadlineNanos 请求的截止时间(System.nanoTime), Long.MAX_VALUE表示没有
+     * @return 是否放行, 放行的请求执行完成后必须调用release
+     * @throws InterruptedException 排队时线程被中断(请求被取消或者到达截止时间)
+     */
+    boolean acquire(long deadlineNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            if (inflight < (int) limit) {
+                inflight++;
+                return true;
+            }
+            if (waiting >= queueSize) {
+                return false;
+            }
+            long remaining = queueTimeoutNanos;
+            if (deadlineNanos != Long.MAX_VALUE) {
+                remaining = Math.min(remaining, deadlineNanos - System.nanoTime());
+            }
+            waiting++;
+            try {
+                while (inflight >= (int) limit) {
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+                inflight++;
+                return true;
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 2. 请求执行完成
+     * @param rttNanos 请求的执行耗时, 小于0表示没有耗时数据(例如请求没有真正执行), 不调整上限
+     */
+    void release(long rttNanos) {
+        lock.lock();
+        try {
+            int before = inflight--;
+            if (rttNanos >= 0) {
+                update(rttNanos, before);
+            }
+            if (waiting > 0 && inflight < (int) limit) {
+                available.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 2. 用一次耗时调整上限, inflight为这个请求完成前执行中的请求数
+    private void update(long rttNanos, int inflight) {
+        double rtt = Math.max(rttNanos, 1);
+        if (longRtt == 0) {
+            longRtt = rtt;
+            shortRtt = rtt;
+        }
+        // a. 长期和短期平均耗时
+        longRtt += (rtt - longRtt) / LONG_WINDOW;
+        shortRtt += (rtt - shortRtt) / SHORT_WINDOW;
+        // e. 负载长期变化时让长期平均值加速靠近
+        if (shortRtt > longRtt * 2) {
+            longRtt += (shortRtt - longRtt) * 0.05;
+        }
+        // d. 执行中的请求不到上限的一半时不调整
+        if (inflight < limit / 2) {
+            return;
+        }
+        // b & c. 按耗时的变化比例调整上限
+        double gradient = Math.max(0.5, Math.min(1.0, longRtt / shortRtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+
+    // 当前的并发上限
+    int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 执行中的请求数
+    int inflight() {
+        lock.lock();
+        try {
+            return inflight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
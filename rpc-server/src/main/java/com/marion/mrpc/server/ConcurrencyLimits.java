@@ -0,0 +1,23 @@
+package com.marion.mrpc.server;
+
+import lombok.Data;
+
+/**
+ * 并发限制的配置, 见ConcurrencyLimiter
+ *      1. initialLimit & minLimit & maxLimit: 并发上限的初始值和调整范围, 上限根据请求的耗时自动调整
+ *      2. queueSize: 达到上限时最多有多少个请求排队等待, 队列已满的请求直接拒绝
+ *      3. queueTimeoutMillis: 排队的最长时间, 请求自己的截止时间更早时以截止时间为准
+ */
+@Data
+public class ConcurrencyLimits {
+
+    private int initialLimit = 20;
+
+    private int minLimit = 1;
+
+    private int maxLimit = 1000;
+
+    private int queueSize = 50;
+
+    private long queueTimeoutMillis = 50;
+}
@@ -0,0 +1,18 @@
+package com.marion.mrpc.server;
+
+/**
+ * RPC服务端处理请求的执行模式
+ *      1. VIRTUAL: 每个请求一个虚拟线程, 需要运行在支持虚拟线程的JDK上, 否则退化为BOUNDED
+ *      2. BOUNDED: 固定大小的平台线程池 + 有界等待队列, 队列满时立即以CODE_OVERLOADED拒绝新的请求,
+ *          网络IO线程只写出拒绝的响应, 不执行请求, 其它连接的读写不受影响
+ *      3. INLINE: 直接在网络IO线程上处理, 适合处理逻辑极短、不会阻塞的服务;
+ *          网络IO线程不能等待客户端的授权, 返回Iterator/Stream的方法按流调用时以CODE_ERROR失败
+ */
+public enum ExecutorMode {
+
+    VIRTUAL,
+
+    BOUNDED,
+
+    INLINE
+}
@@ -0,0 +1,103 @@
+package com.marion.mrpc.server;
+
+import com.marion.mrpc.transport.RequestContext;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 执行一个请求期间的超时和取消保护
+ *      1. start: 在执行请求的线程上调用, 到达截止时间或者客户端取消请求时中断这个线程,
+ *          服务方法在阻塞(sleep/wait/IO等)时会收到InterruptedException, 尽早放弃已经没有意义的工作
+ *      2. close: 请求执行完成后调用, 之后不会再中断这个线程, 并清除执行期间产生的中断标记,
+ *          避免影响线程池中这个线程执行的下一个请求
+ * 所有请求共用一个计时线程, 计时任务在请求完成时取消
+ */
+final class InvocationGuard implements AutoCloseable {
+
+    private static final ScheduledExecutorService TIMER;
+
+    static {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "mrpc-server-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        TIMER = executor;
+    }
+
+    private final Thread worker;
+
+    private final RequestContext context;
+
+    private ScheduledFuture<?> timeout;
+
+    private boolean finished;
+
+    private boolean interrupted;
+
+    private volatile boolean timedOut;
+
+    private InvocationGuard(Thread worker, RequestContext context) {
+        this.worker = worker;
+        this.context = context;
+    }
+
+    /**
+     * 1. 开始保护当前线程
+     * @param deadlineNanos 截止时间(System.nanoTime), Long.MAX_VALUE表示没有截止时间
+     * @param context 请求上下文, 为空表示不能取消
+     */
+    static InvocationGuard start(long deadlineNanos, RequestContext context) {
+        InvocationGuard guard = new InvocationGuard(Thread.currentThread(), context);
+        if (deadlineNanos != Long.MAX_VALUE) {
+            long delay = deadlineNanos - System.nanoTime();
+            synchronized (guard) {
+                guard.timeout = TIMER.schedule(guard::expire, Math.max(delay, 0), TimeUnit.NANOSECONDS);
+            }
+        }
+        if (context != null) {
+            context.setCancelListener(guard::interrupt);
+        }
+        return guard;
+    }
+
+    // 是否因为到达截止时间而中断了执行
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    private synchronized void expire() {
+        if (!finished) {
+            timedOut = true;
+            interrupt();
+        }
+    }
+
+    private synchronized void interrupt() {
+        if (!finished) {
+            interrupted = true;
+            worker.interrupt();
+        }
+    }
+
+    // 2. 结束保护, 必须在start的线程上调用
+    @Override
+    public void close() {
+        if (context != null) {
+            context.setCancelListener(null);
+        }
+        synchronized (this) {
+            finished = true;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (interrupted) {
+                Thread.interrupted();
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.marion.mrpc.server;
+
+/**
+ * 编译好的服务方法调用器, 已经绑定了提供服务的对象
+ * 由MethodInvokers在注册服务时生成, 调用时不再经过Method.invoke的反射和参数检查,
+ * 服务方法抛出的异常原样抛出, 不做任何包装
+ */
+@FunctionalInterface
+public interface MethodInvoker {
+
+    /**
+     * @param args 参数数组, 长度与方法的参数个数一致
+     * @return 方法的返回值, void方法返回null
+     * @throws Throwable 服务方法抛出的原始异常
+     */
+    Object invoke(Object[] args) throws Throwable;
+}
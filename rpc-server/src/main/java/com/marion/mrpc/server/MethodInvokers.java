@@ -0,0 +1,150 @@
+package com.marion.mrpc.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * 把服务方法编译成MethodInvoker
+ *      1. lambda: 参数不超过MAX_LAMBDA_ARITY个且有返回值的方法, 通过LambdaMetafactory生成一个直接调用服务方法的类,
+ *          拆箱/装箱/类型转换都在生成的类里完成, JIT可以一直内联到服务的实现
+ *      2. methodHandle: 其它方法(void方法、参数较多的方法、当前类加载器看不到的类型), 使用绑定了对象并展开参数数组的MethodHandle
+ */
+@Slf4j
+final class MethodInvokers {
+
+    private static final int MAX_LAMBDA_ARITY = 4;
+
+    /**
+     * LambdaMetafactory生成的类实现的接口, 提供服务的对象在生成时已经捕获, 按参数个数区分
+     */
+    interface Call0 {
+        Object call();
+    }
+
+    interface Call1 {
+        Object call(Object a0);
+    }
+
+    interface Call2 {
+        Object call(Object a0, Object a1);
+    }
+
+    interface Call3 {
+        Object call(Object a0, Object a1, Object a2);
+    }
+
+    interface Call4 {
+        Object call(Object a0, Object a1, Object a2, Object a3);
+    }
+
+    private static final Class<?>[] CALLS = {Call0.class, Call1.class, Call2.class, Call3.class, Call4.class};
+
+    private MethodInvokers() {
+    }
+
+    /**
+     * 编译服务方法
+     * @param target 提供服务的对象
+     * @param method 服务方法, 属于target实现的接口
+     * @return 绑定了target的调用器
+     */
+    static MethodInvoker compile(Object target, Method method) {
+        if (method.getReturnType() != void.class
+            && method.getParameterCount() <= MAX_LAMBDA_ARITY
+            && visible(method)) {
+            try {
+                return lambda(target, method);
+            } catch (Throwable e) {
+                log.debug("lambda invoker for {} unavailable, {}", method, e.toString());
+            }
+        }
+        return methodHandle(target, method);
+    }
+
+    // 1. 通过LambdaMetafactory生成直接调用服务方法的类
+    private static MethodInvoker lambda(Object target, Method method) throws Throwable {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle implementation = lookup.unreflect(method);
+        int arity = method.getParameterCount();
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < arity; i++) {
+            parameterTypes[i] = MethodType.methodType(parameterTypes[i]).wrap().returnType();
+        }
+        Class<?> returnType = MethodType.methodType(method.getReturnType()).wrap().returnType();
+        CallSite site = LambdaMetafactory.metafactory(
+            lookup,
+            "call",
+            MethodType.methodType(CALLS[arity], method.getDeclaringClass()),
+            MethodType.genericMethodType(arity),
+            implementation,
+            MethodType.methodType(returnType, parameterTypes));
+        Object call = site.getTarget().invoke(target);
+        switch (arity) {
+            case 0:
+                Call0 call0 = (Call0) call;
+                return args -> call0.call();
+            case 1:
+                Call1 call1 = (Call1) call;
+                return args -> call1.call(args[0]);
+            case 2:
+                Call2 call2 = (Call2) call;
+                return args -> call2.call(args[0], args[1]);
+            case 3:
+                Call3 call3 = (Call3) call;
+                return args -> call3.call(args[0], args[1], args[2]);
+            default:
+                Call4 call4 = (Call4) call;
+                return args -> call4.call(args[0], args[1], args[2], args[3]);
+        }
+    }
+
+    // 2. 绑定对象并展开参数数组的MethodHandle
+    private static MethodInvoker methodHandle(Object target, Method method) {
+        try {
+            method.setAccessible(true);
+        } catch (RuntimeException e) {
+            log.debug("setAccessible {} fail, {}", method, e.toString());
+        }
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.lookup().unreflect(method)
+                .bindTo(target)
+                .asSpreader(Object[].class, method.getParameterCount())
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("can not access " + method, e);
+        }
+        return args -> (Object) handle.invokeExact(args);
+    }
+
+    // 生成的类由当前类的类加载器加载, 方法用到的类型都必须对它可见
+    private static boolean visible(Method method) {
+        ClassLoader loader = MethodInvokers.class.getClassLoader();
+        if (!visible(loader, method.getDeclaringClass()) || !visible(loader, method.getReturnType())) {
+            return false;
+        }
+        for (Class<?> type : method.getParameterTypes()) {
+            if (!visible(loader, type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean visible(ClassLoader loader, Class<?> type) {
+        if (type.isPrimitive()) {
+            return true;
+        }
+        try {
+            return Class.forName(type.getName(), false, loader) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.marion.mrpc.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 根据RpcServerConfig中的executorMode创建处理请求的Executor
+ *      1. VIRTUAL: 通过反射调用Executors.newVirtualThreadPerTaskExecutor, 不支持时退化为BOUNDED
+ *      2. BOUNDED: 固定executorThreads个线程, 等待队列长度executorQueueSize, 队列满时抛出RejectedExecutionException,
+ *          由transportServer调用RequestHandler.onRejected立即返回CODE_OVERLOADED, 请求不会在提交线程(网络IO线程)上执行
+ *      3. INLINE: 直接在提交线程上执行
+ */
+@Slf4j
+public class RequestExecutors {
+
+    private RequestExecutors() {
+    }
+
+    public static Executor create(RpcServerConfig config) {
+        switch (config.getExecutorMode()) {
+            case VIRTUAL:
+                Executor virtual = newVirtualThreadExecutor();
+                if (virtual != null) {
+                    return virtual;
+                }
+                log.warn("virtual threads are not supported by this JDK, fall back to {}", ExecutorMode.BOUNDED);
+                return newBoundedExecutor(config);
+            case INLINE:
+                return Runnable::run;
+            case BOUNDED:
+            default:
+                return newBoundedExecutor(config);
+        }
+    }
+
+    private static Executor newVirtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static Executor newBoundedExecutor(RpcServerConfig config) {
+        int threads = Math.max(config.getExecutorThreads(), 1);
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(config.getExecutorQueueSize(), 1)),
+            new NamedThreadFactory("mrpc-server-worker-"),
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 给工作线程起一个便于排查问题的名字
+     */
+    static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+
+        private final AtomicInteger index = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.marion.mrpc.server;
+
+import com.marion.mrpc.ServiceDescriptor;
+import com.marion.mrpc.codec.Encoder;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务端的响应缓存, 保存标注了@Memoize的方法编码好的响应
+ *      1. key: 服务描述加上用encoder序列化后的参数, 参数无法序列化时不缓存
+ *      2. get: 查找没有过期的响应字节, 过期的直接删除
+ *      3. put: 保存编码好的响应, 每段的总字节数超过上限时淘汰最久没有访问的响应(LRU);
+ *          生成响应期间发生过invalidate时不保存, 避免把失效前的结果放回缓存
+ *      4. invalidate: 删除一个服务(或者服务中一个方法)的所有响应, generation加一
+ * 按key的哈希值分成多个段, 每段是一个按访问顺序排列的LinkedHashMap, 各自加锁
+ */
+final class ResponseCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Encoder encoder;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final AtomicLong generation = new AtomicLong();
+
+    ResponseCache(Encoder encoder, long maxBytes) {
+        this.encoder = encoder;
+        long segmentBytes = Math.max(1, maxBytes / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentBytes);
+        }
+    }
+
+    // 1. 生成缓存的key, 参数无法序列化时返回null
+    Key key(ServiceDescriptor descriptor, Object[] parameters) {
+        try {
+            return new Key(descriptor, parameters == null ? new byte[0] : encoder.encode(parameters));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // 3. 开始生成响应前记下generation, 保存时传回
+    long generation() {
+        return generation.get();
+    }
+
+    // 2. 查找没有过期的响应字节, 没有时返回null
+    byte[] get(Key key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.expireAt >= 0) {
+                segment.removeEntry(key);
+                return null;
+            }
+            return entry.bytes;
+        }
+    }
+
+    // 3. 保存编码好的响应
+    void put(Key key, byte[] bytes, long ttlMillis, long generation) {
+        Entry entry = new Entry(bytes, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+        Segment segment = segment(key);
+        synchronized (segment) {
+            if (this.generation.get() != generation) {
+                return;
+            }
+            segment.putEntry(key, entry);
+        }
+    }
+
+    /**
+     * 4. 删除缓存的响应
+     * @param service 服务接口的类名, 为空时删除所有响应
+     * @param method 方法名, 为空时删除这个服务的所有方法
+     */
+    void invalidate(String service, String method) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                generation.incrementAndGet();
+                Iterator<Map.Entry<Key, Entry>> iterator = segment.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Key, Entry> next = iterator.next();
+                    ServiceDescriptor descriptor = next.getKey().descriptor;
+                    if ((service == null || service.equals(descriptor.getClazz()))
+                        && (method == null || method.equals(descriptor.getMethod()))) {
+                        segment.bytes -= next.getValue().bytes.length;
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    private Segment segment(Key key) {
+        int hash = key.hash;
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * 缓存的key, 哈希值预先算好
+     */
+    static final class Key {
+
+        private final ServiceDescriptor descriptor;
+
+        private final byte[] parameters;
+
+        private final int hash;
+
+        Key(ServiceDescriptor descriptor, byte[] parameters) {
+            this.descriptor = descriptor;
+            this.parameters = parameters;
+            this.hash = 31 * descriptor.hashCode() + Arrays.hashCode(parameters);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && descriptor.equals(other.descriptor)
+                && Arrays.equals(parameters, other.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+
+        final byte[] bytes;
+
+        final long expireAt;
+
+        Entry(byte[] bytes, long expireAt) {
+            this.bytes = bytes;
+            this.expireAt = expireAt;
+        }
+    }
+
+    // 一段缓存, 按访问顺序排列, 总字节数超过上限时淘汰最久没有访问的响应
+    private static final class Segment extends LinkedHashMap<Key, Entry> {
+
+        private final long maxBytes;
+
+        private long bytes;
+
+        Segment(long maxBytes) {
+            super(16, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+
+        void putEntry(Key key, Entry entry) {
+            Entry previous = put(key, entry);
+            bytes += entry.bytes.length - (previous != null ? previous.bytes.length : 0);
+            Iterator<Entry> eldest = values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().bytes.length;
+                eldest.remove();
+            }
+        }
+
+        void removeEntry(Key key) {
+            Entry removed = remove(key);
+            if (removed != null) {
+                bytes -= removed.bytes.length;
+            }
+        }
+    }
+}
@@ -1,17 +1,43 @@
 package com.marion.mrpc.server;
 
+import com.marion.common.jfr.CallEvent;
+import com.marion.common.jfr.RpcEvents;
+import com.marion.common.metrics.MethodMetrics;
+import com.marion.common.metrics.MethodSnapshot;
+import com.marion.common.metrics.MetricsRegistry;
 import com.marion.common.utils.ReflectUtils;
+import com.marion.mrpc.Deadline;
 import com.marion.mrpc.Request;
 import com.marion.mrpc.Response;
+import com.marion.mrpc.ServiceDescriptor;
+import com.marion.mrpc.codec.CompressingEncoder;
 import com.marion.mrpc.codec.Decoder;
 import com.marion.mrpc.codec.Encoder;
+import com.marion.mrpc.transport.Attachment;
+import com.marion.mrpc.transport.RequestContext;
 import com.marion.mrpc.transport.RequestHandler;
+import com.marion.mrpc.transport.StreamWriter;
 import com.marion.mrpc.transport.TransportServer;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 /**
  * RPC服务端
@@ -19,6 +45,18 @@ import java.io.OutputStream;
 @Slf4j
 public class RpcServer {
 
+    /**
+     * 每个方法记录的阶段, 见MethodMetrics.record
+     *      decode: 反序列化请求  lookup: 查找服务实例  invoke: 执行服务方法(包括等待异步结果和发送流式结果)
+     *      encode: 序列化响应  write: 序列化完成到transportServer把响应写回连接
+     */
+    private static final String[] PHASES = {"decode", "lookup", "invoke", "encode", "write"};
+    private static final int DECODE = 0;
+    private static final int LOOKUP = 1;
+    private static final int INVOKE = 2;
+    private static final int ENCODE = 3;
+    private static final int WRITE = 4;
+
     /**
      * 配置信息
      */
@@ -28,6 +66,11 @@ public class RpcServer {
     private Decoder decoder;                    // 序列化模块-反序列化
     private ServiceManager serviceManager;      // 服务管理模块
     private ServiceInvoker serviceInvoker;      // 服务调用模块
+    private Executor executor;                  // 处理请求的执行模块
+    private ConcurrencyLimiter limiter;         // 所有请求共用的并发限制, 没有配置时为空
+    private ResponseCache responseCache;        // @Memoize方法编码好的响应, 没有开启时为空
+    private MetricsRegistry metrics;            // 按方法统计的调用指标
+    private RpcEvents events;                   // 每个请求的JFR事件
 
 
     // 无参构造方法
@@ -39,15 +82,33 @@ public class RpcServer {
     public RpcServer(RpcServerConfig config) {
         // 配置
         this.config = config;
+        // 执行模块 根据配置的executorMode创建
+        this.executor = RequestExecutors.create(config);
         // 网络通信模块 通过反射工具类ReflectUtils 并初始化
         this.transportServer = ReflectUtils.newInstance(config.getTransportServer());
-        this.transportServer.init(config.getPort(), this.handler);
+        this.transportServer.init(config.getPort(), this.handler, this.executor);
         // 序列化模块 通过反射工具类ReflectUtils
         this.encoder = ReflectUtils.newInstance(config.getEncoder());
+        if (this.encoder instanceof CompressingEncoder) {
+            ((CompressingEncoder) this.encoder).setThreshold(config.getCompressThreshold());
+        }
         this.decoder = ReflectUtils.newInstance(config.getDecoder());
         // 初始化服务
         this.serviceManager = new ServiceManager();
         this.serviceInvoker = new ServiceInvoker();
+        // 并发限制
+        if (config.getConcurrencyLimits() != null) {
+            this.limiter = new ConcurrencyLimiter(config.getConcurrencyLimits());
+        }
+        // 响应缓存
+        if (config.getResponseCacheMaxBytes() > 0) {
+            this.responseCache = new ResponseCache(this.encoder, config.getResponseCacheMaxBytes());
+        }
+        // 调用指标, 开启JMX时每个方法注册一个MBean
+        this.metrics = new MetricsRegistry(
+            config.isJmxEnabled() ? "com.marion.mrpc:type=RpcServer,port=" + config.getPort() : null, PHASES);
+        // JFR事件, 耗时达到阈值的请求才提交
+        this.events = RpcEvents.server(config.getJfrThresholdMillis());
     }
 
     // 启动即是网络通信模块启动, 并开启监听
@@ -58,11 +119,52 @@ public class RpcServer {
     // 关闭即是网络通信模块关闭, 并关闭监听
     public void stop() {
         this.transportServer.stop();
+        if (this.executor instanceof ExecutorService) {
+            ((ExecutorService) this.executor).shutdown();
+        }
+        this.metrics.close();
     }
 
-    // 注册服务 其实就是调用ServiceManager中的register方法 需要什么参数就对应传入
+    // 注册服务 其实就是调用ServiceManager中的register方法 需要什么参数就对应传入, 服务单独配置了并发限制时一起注册
     public <T> void register(Class<T> interfaceClass, T bean) {
-        serviceManager.register(interfaceClass, bean);
+        ConcurrencyLimits limits = config.getServiceConcurrencyLimits().get(interfaceClass.getName());
+        serviceManager.register(interfaceClass, bean, limits != null ? new ConcurrencyLimiter(limits) : null);
+    }
+
+    /**
+     * 服务的数据发生变化, 让这个服务所有@Memoize方法缓存的响应失效
+     */
+    public void invalidate(Class<?> interfaceClass) {
+        if (responseCache != null) {
+            responseCache.invalidate(interfaceClass.getName(), null);
+        }
+    }
+
+    /**
+     * 让服务中一个@Memoize方法(同名的所有重载)缓存的响应失效
+     */
+    public void invalidate(Class<?> interfaceClass, String methodName) {
+        if (responseCache != null) {
+            responseCache.invalidate(interfaceClass.getName(), methodName);
+        }
+    }
+
+    /**
+     * 让所有缓存的响应失效
+     */
+    public void invalidateAll() {
+        if (responseCache != null) {
+            responseCache.invalidate(null, null);
+        }
+    }
+
+    /**
+     * 每个方法的调用指标快照, 按方法的key(见ServiceDescriptor.key)排序
+     *      calls & errors & latency: 调用次数, 失败(响应码不是CODE_OK)次数, 从收到请求到响应序列化完成的耗时
+     *      phases: decode/lookup/invoke/encode/write各个阶段的耗时
+     */
+    public Map<String, MethodSnapshot> getMetrics() {
+        return metrics.snapshot();
     }
 
     /**
@@ -70,63 +172,479 @@ public class RpcServer {
      */
     private RequestHandler handler = new RequestHandler() {
 
-        Response response = new Response();
-
         /**
-         * 1. 从IO通道中读所有可用的二进制数据, 即获取收到的请求
-         * 2. 反序列化得到约定协议格式的请求request
+         * 1. 从IO通道中流式读取收到的请求, 一直读到请求体结束
+         * 2. 反序列化得到约定协议格式的请求request(与1合并, 由decoder直接从IO通道中反序列化)
          * 3. 对ServiceManager传入request, 找到对外提供的具体服务实例ServiceInstance
-         * 4. ServiceInstance的invoke方法, 通过反射工具类ReflectUtils调用对应的具体方法, 得到结果invokeResult【Object类-所有可能的数据】
+         * 4. ServiceInstance的invoke方法, 通过注册时编译好的调用器调用对应的具体方法, 得到结果invokeResult【Object类-所有可能的数据】
          * 5. 将结果invokeResult写入约定格式的响应response中去, 【还不是二进制数据】最终需要序列化发送回去
          *      catch: 日志输出异常 并处理
          *      finally:
          *      6. 将【响应请求并处理返回的】response序列化成二进制数据
-         *      7. 往响应返回流中写入二进制数据
+         *      7. 往响应返回流中写入二进制数据(与6合并, 由encoder直接序列化到响应返回流中)
+         * 批量请求(request.batch不为空)中的每个请求分别执行3~5, 返回同样顺序的批量响应
+         * 每个请求只查找一次服务实例(3, 见lookup), 记录指标、@Memoize缓存和执行都使用它
+         * 多个请求会在executor上并发处理, 每个请求都使用自己的response, 互不影响
+         * 请求带有timeoutMillis时从收到请求开始计时: 到期还没有开始执行的请求直接返回CODE_DEADLINE_EXCEEDED,
+         * 执行中到期或者被客户端取消时中断执行线程, 见dispatch
+         * 标注了@Memoize的方法的请求见memoized, 命中缓存时直接写出编码好的响应, 跳过3~6
+         * 返回Iterator/Stream的方法的结果见stream, 可以在响应之前分段发送
+         * 二进制的参数和返回值(ByteBuffer/byte[]/Path)见bind和attach, 支持附件的transportServer不经过编码直接收发
+         * 每个请求按方法记录调用指标(见getMetrics): 1 & 2记为decode, 3记为lookup, 4记为invoke, 6 & 7记为encode,
+         *      transportServer写回响应之后记为write; 批量请求中的请求只记录lookup, invoke和调用次数
+         * 每个请求一个JFR事件(com.marion.mrpc.ServerCall, 见RpcEvents.server): 服务、方法、客户端地址、请求和响应的字节数、
+         *      响应码, 从1开始到7结束的耗时; 批量请求整体一个事件, 服务和方法为空
          * @param receiveRequest 收到的请求
          * @param toResponse 返回的响应
+         * @param context 请求上下文, 提供收到请求的时间和客户端的取消通知
          */
-
-
-
-
         @Override
-        public void onRequest(InputStream receiveRequest, OutputStream toResponse) {
+        public void onRequest(InputStream receiveRequest, OutputStream toResponse, RequestContext context) {
+            long receivedNanos = context != null ? context.receivedNanos() : System.nanoTime();
+            Response response = new Response();
+            byte[] encoded = null;
+            MethodMetrics methodMetrics = null;
+            ServiceInstance instance = null;
+            CallEvent event = events.begin();
             try {
-                // 1. 从IO通道中读所有可用的二进制数据, 即获取收到的请求
-                byte[] bytesReceiveRequest = IOUtils.readFully(receiveRequest, receiveRequest.available());
-                // 2. 反序列化得到约定协议格式的请求request
-                Request request = decoder.decode(bytesReceiveRequest, Request.class);
+                // 1 & 2. 从IO通道中流式读取收到的请求, 并反序列化得到约定协议格式的请求request
+                long decodeStart = System.nanoTime();
+                Request request = decoder.decode(event.countRequest(receiveRequest), Request.class);
+                long decodeNanos = System.nanoTime() - decodeStart;
                 log.info("get request, {}", request);
-                // 3. 对ServiceManager传入request, 找到对外提供的具体服务实例ServiceInstance
-                ServiceInstance serviceInstance = serviceManager.lookup(request);
-                log.info("get service, {}", serviceInstance);
-                // 4. ServiceInstance的invoke方法, 通过反射工具类ReflectUtils调用对应的具体方法, 得到结果invokeResult【Object类-所有可能的数据】
-                Object invokeResult = serviceInvoker.invoke(serviceInstance, request);
-                // 5. 将结果invokeResult写入约定格式的响应response中去, 【还不是二进制数据】最终需要序列化发送回去
-                response.setData(invokeResult);
-
+                // 把请求的关联id原样写回响应
+                response.setRequestId(request.getRequestId());
+                if (request.getBatch() != null) {
+                    // 批量请求: 按顺序逐个处理其中的请求, 各自的结果或错误写入对应位置的响应, 互不影响
+                    Request[] batch = request.getBatch();
+                    Response[] responses = new Response[batch.length];
+                    for (int i = 0; i < batch.length; i++) {
+                        responses[i] = new Response();
+                        responses[i].setRequestId(batch[i].getRequestId());
+                        long start = System.nanoTime();
+                        ServiceInstance entry = lookup(batch[i], responses[i]);
+                        MethodMetrics entryMetrics = entry != null ? metrics.method(entry.getKey()) : null;
+                        if (entryMetrics != null) {
+                            entryMetrics.record(LOOKUP, System.nanoTime() - start);
+                        }
+                        if (responses[i].getCode() == Response.CODE_OK) {
+                            dispatch(batch[i], entry, responses[i], deadline(batch[i], receivedNanos), context,
+                                entryMetrics);
+                        }
+                        if (entryMetrics != null) {
+                            entryMetrics.recordCall(System.nanoTime() - start, responses[i].getCode() != Response.CODE_OK);
+                        }
+                    }
+                    response.setBatch(responses);
+                } else {
+                    long lookupStart = System.nanoTime();
+                    instance = lookup(request, response);
+                    methodMetrics = instance != null ? metrics.method(instance.getKey()) : null;
+                    if (methodMetrics != null) {
+                        methodMetrics.record(DECODE, decodeNanos);
+                        methodMetrics.record(LOOKUP, System.nanoTime() - lookupStart);
+                    }
+                    if (response.getCode() == Response.CODE_OK && (responseCache == null
+                        || (encoded = memoized(request, instance, response, deadline(request, receivedNanos), context,
+                        methodMetrics)) == null)) {
+                        dispatch(request, instance, response, deadline(request, receivedNanos), context, methodMetrics);
+                    }
+                }
             } catch (Exception e) {
-                // catch: 日志输出异常 并处理
+                // 请求无法反序列化
                 log.warn(e.getMessage(), e);
-                // 响应中发返回 1-失败码 并返回对应的错误信息
-                response.setCode(1);
-                response.setMessage("RpcServer get error: " + e.getClass().getName());
+                response.setCode(Response.CODE_ERROR);
+                response.setMessage("RpcServer get error: " + e);
             } finally {
                 // finally:
-                // 二进制数组
-                byte[] byteResponse = new byte[0];
                 try {
-                    // 6. 将【响应请求并处理返回的】response序列化成二进制数据
-                    byteResponse = encoder.encode(response);
-                    // 7. 往响应返回流中写入二进制数据
-                    toResponse.write(byteResponse);
+                    // 6 & 7. 将【响应请求并处理返回的】response序列化成二进制数据, 直接写入响应返回流
+                    long encodeStart = System.nanoTime();
+                    OutputStream out = event.countResponse(toResponse);
+                    if (encoded != null) {
+                        out.write(encoded);
+                    } else {
+                        encoder.encode(response, out);
+                    }
+                    event.written(out);
+                    if (methodMetrics != null) {
+                        record(methodMetrics, receivedNanos, encodeStart, response, context);
+                    }
                     log.info("RpcServer response");
                 } catch (Exception e) {
                     log.warn("onRequest {}, {}", e.getMessage(), e);
                 }
+                ServiceDescriptor descriptor = instance != null ? instance.getDescriptor() : null;
+                event.commit(descriptor != null ? descriptor.getClazz() : null,
+                    descriptor != null ? descriptor.getMethod() : null,
+                    context != null ? context.getRemoteAddress() : null, response.getCode());
+            }
+        }
+
+        @Override
+        public void onRequest(InputStream receiveRequest, OutputStream toResponse) {
+            onRequest(receiveRequest, toResponse, null);
+        }
+
+        /**
+         * executor已满时由transportServer在提交请求的线程上(可能是网络IO线程)调用:
+         * 只反序列化请求, 不查找服务也不执行, 直接返回CODE_OVERLOADED(批量请求中的每个请求都是), 客户端可以换一个服务端重试
+         */
+        @Override
+        public void onRejected(InputStream receiveRequest, OutputStream toResponse, RequestContext context) {
+            Response response = new Response();
+            try {
+                Request request = decoder.decode(receiveRequest, Request.class);
+                response.setRequestId(request.getRequestId());
+                if (request.getBatch() != null) {
+                    Response[] responses = new Response[request.getBatch().length];
+                    for (int i = 0; i < responses.length; i++) {
+                        responses[i] = new Response();
+                        responses[i].setRequestId(request.getBatch()[i].getRequestId());
+                        overloaded(request.getBatch()[i], responses[i]);
+                    }
+                    response.setBatch(responses);
+                } else {
+                    overloaded(request, response);
+                }
+            } catch (Exception e) {
+                log.warn(e.getMessage(), e);
+                response.setCode(Response.CODE_ERROR);
+                response.setMessage("RpcServer get error: " + e);
+            }
+            try {
+                encoder.encode(response, toResponse);
+            } catch (Exception e) {
+                log.warn("onRejected {}, {}", e.getMessage(), e);
             }
         }
     };
 
+    /**
+     * 3. 对ServiceManager传入request, 找到对外提供的具体服务实例ServiceInstance, 每个请求只查找一次
+     *      a. 客户端缓存的方法表已经过期时, 响应CODE_STALE_METHOD_TABLE, 通知它刷新方法表后按ServiceDescriptor重试
+     *      b. 找不到服务时返回null, 由dispatch返回对应的错误
+     */
+    private ServiceInstance lookup(Request request, Response response) {
+        try {
+            ServiceInstance serviceInstance = serviceManager.lookup(request);
+            log.info("get service, {}", serviceInstance);
+            return serviceInstance;
+        } catch (StaleMethodTableException e) {
+            log.info(e.getMessage());
+            response.setCode(Response.CODE_STALE_METHOD_TABLE);
+            response.setMessage(e.getMessage());
+            return null;
+        }
+    }
+
+    // 6 & 7. 记录encode和整个调用的耗时, transportServer写回响应之后记录write
+    private static void record(MethodMetrics methodMetrics, long receivedNanos, long encodeStart, Response response,
+                               RequestContext context) {
+        long encodedAt = System.nanoTime();
+        methodMetrics.record(ENCODE, encodedAt - encodeStart);
+        methodMetrics.recordCall(encodedAt - receivedNanos, response.getCode() != Response.CODE_OK);
+        if (context != null) {
+            context.setWriteListener(() -> methodMetrics.record(WRITE, System.nanoTime() - encodedAt));
+        }
+    }
+
+    /**
+     * 标注了@Memoize的方法的请求, 返回编码好的响应; 不是这样的方法时返回null, 由调用方正常处理
+     *      a. 按服务和参数查找缓存, 命中时直接返回缓存的响应字节, 不调用服务方法也不序列化
+     *      b. 没有命中时正常执行, 成功的响应去掉关联id后编码并缓存, 缓存的响应可以返回给任何请求
+     *          (客户端把关联id为0的响应当作对端没有回填, 多路复用的连接按帧中的requestId对应请求)
+     */
+    private byte[] memoized(Request request, ServiceInstance instance, Response response, long deadlineNanos,
+                            RequestContext context, MethodMetrics methodMetrics) {
+        Class<?> returnType = instance != null ? instance.getMethod().getReturnType() : null;
+        if (instance == null || instance.getMemoTtlMillis() <= 0 || isStream(returnType)
+            || Attachment.isBinary(returnType) || request.getAttachments() != null) {
+            return null;
+        }
+        ResponseCache.Key key = responseCache.key(instance.getDescriptor(), request.getParameters());
+        if (key == null) {
+            return null;
+        }
+        // a. 命中缓存
+        byte[] cached = responseCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        // b. 正常执行, 成功时缓存
+        long generation = responseCache.generation();
+        dispatch(request, instance, response, deadlineNanos, context, methodMetrics);
+        if (response.getCode() != Response.CODE_OK) {
+            return encoder.encode(response);
+        }
+        response.setRequestId(0);
+        byte[] bytes = encoder.encode(response);
+        responseCache.put(key, bytes, instance.getMemoTtlMillis(), generation);
+        return bytes;
+    }
+
+    // 请求的截止时间(System.nanoTime), 没有设置timeoutMillis时返回Long.MAX_VALUE
+    private static long deadline(Request request, long receivedNanos) {
+        if (request.getTimeoutMillis() <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return receivedNanos + TimeUnit.MILLISECONDS.toNanos(request.getTimeoutMillis());
+    }
 
+    /**
+     * 4 ~ 5. 处理一个已经查找到服务实例(见lookup)的请求, 结果或错误写入response
+     *      a. 已经到达截止时间或者已经被客户端取消的请求不再执行, 取消的请求以CODE_CANCELLED结束,
+     *          不会被@Memoize缓存, 调用指标中按失败统计, 也不用来调整并发上限
+     *      b. 执行期间由InvocationGuard在截止时间或者客户端取消时中断执行线程,
+     *          同时把截止时间设置到执行线程上, 服务方法中再发起的远程调用继承剩余的时间
+     *      c. 异步服务方法最多等待到截止时间, 超时后取消返回的future
+     *      d. 执行前先经过全局和服务自己的并发限制, 被拒绝的请求返回CODE_OVERLOADED, 执行耗时用来调整并发上限
+     *      e. 流式的结果(Iterator/Stream)见stream, 发送整个流的耗时取决于客户端的消费速度, 不用来调整并发上限
+     *      f. 二进制的参数按声明的类型转换后再执行(见bind), 二进制的返回值见attach
+     *      g. methodMetrics不为空时记录4的耗时
+     */
+    private void dispatch(Request request, ServiceInstance serviceInstance, Response response, long deadlineNanos,
+                          RequestContext context, MethodMetrics methodMetrics) {
+        // a. 不再执行的请求
+        if (context != null && context.isCancelled()) {
+            cancelled(request, response, "request cancelled before invoke");
+            return;
+        }
+        if (deadlineNanos != Long.MAX_VALUE && deadlineNanos - System.nanoTime() <= 0) {
+            log.info("request {} exceeded deadline before invoke", request.getRequestId());
+            response.setCode(Response.CODE_DEADLINE_EXCEEDED);
+            response.setMessage("deadline exceeded before invoke");
+            return;
+        }
+        // b. 保护执行过程
+        InvocationGuard guard = InvocationGuard.start(deadlineNanos, context);
+        boolean globalAdmitted = false;
+        ConcurrencyLimiter serviceLimiter = null;
+        long admitted = Long.MIN_VALUE;
+        boolean streamed = false;
+        boolean cancelled = false;
+        List<Path> temporary = Collections.emptyList();
+        try (Deadline.Scope scope = deadlineNanos == Long.MAX_VALUE ? null : Deadline.at(deadlineNanos)) {
+            // d. 并发限制, 排队时可以被截止时间和客户端取消中断
+            if (limiter != null) {
+                if (!limiter.acquire(deadlineNanos)) {
+                    overloaded(request, response);
+                    return;
+                }
+                globalAdmitted = true;
+            }
+            ConcurrencyLimiter limiterOfService = serviceInstance != null ? serviceInstance.getLimiter() : null;
+            if (limiterOfService != null) {
+                if (!limiterOfService.acquire(deadlineNanos)) {
+                    overloaded(request, response);
+                    return;
+                }
+                serviceLimiter = limiterOfService;
+            }
+            // f. 二进制的参数
+            if (serviceInstance != null) {
+                temporary = bind(request, serviceInstance, context);
+            }
+            admitted = System.nanoTime();
+            // 4. ServiceInstance的invoke方法, 通过注册时编译好的调用器调用对应的具体方法, 得到结果invokeResult【Object类-所有可能的数据】
+            Object invokeResult = serviceInvoker.invoke(serviceInstance, request);
+            // 异步服务方法返回CompletableFuture, 等待它完成后取出真正的结果, 失败时取出原始异常
+            if (invokeResult instanceof CompletableFuture) {
+                CompletableFuture<?> future = (CompletableFuture<?>) invokeResult;
+                try {
+                    // c. 最多等待到截止时间
+                    invokeResult = deadlineNanos == Long.MAX_VALUE
+                        ? future.get() : future.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                } catch (TimeoutException | InterruptedException e) {
+                    future.cancel(true);
+                    throw e;
+                }
+            }
+            // e. 流式的结果
+            if (invokeResult instanceof Iterator || invokeResult instanceof Stream) {
+                streamed = true;
+                invokeResult = stream(request, invokeResult, context);
+            }
+            // f. 二进制的返回值
+            if (invokeResult != null && Attachment.isBinary(serviceInstance.getMethod().getReturnType())) {
+                invokeResult = attach(request, response, invokeResult, context);
+            }
+            // 5. 将结果invokeResult写入约定格式的响应response中去, 【还不是二进制数据】最终需要序列化发送回去
+            response.setData(invokeResult);
+
+        } catch (Throwable e) {
+            if (guard.isTimedOut() || e instanceof TimeoutException) {
+                // 执行到截止时间被中断, 调用方已经不再等待这个结果
+                log.info("request {} exceeded deadline, {}", request.getRequestId(), e.toString());
+                response.setCode(Response.CODE_DEADLINE_EXCEEDED);
+                response.setMessage("deadline exceeded: " + e);
+                return;
+            }
+            if (context != null && context.isCancelled()) {
+                // 客户端已经取消(例如提前关闭了流), 响应不会再写回
+                cancelled = true;
+                cancelled(request, response, "request cancelled: " + e);
+                return;
+            }
+            // catch: 日志输出异常 并处理, 服务方法抛出的异常不做包装, 原样记录
+            log.warn(e.getMessage(), e);
+            // 响应中发返回 1-失败码 并返回对应的错误信息: 原始异常的类型和消息
+            response.setCode(Response.CODE_ERROR);
+            response.setMessage("RpcServer get error: " + e);
+        } finally {
+            // g. 执行的耗时
+            if (methodMetrics != null && admitted != Long.MIN_VALUE) {
+                methodMetrics.record(INVOKE, System.nanoTime() - admitted);
+            }
+            // 没有真正执行的请求不参与调整并发上限
+            long elapsed = admitted != Long.MIN_VALUE && !streamed && !cancelled ? System.nanoTime() - admitted : -1;
+            if (serviceLimiter != null) {
+                serviceLimiter.release(elapsed);
+            }
+            if (globalAdmitted) {
+                limiter.release(elapsed);
+            }
+            for (Path path : temporary) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.warn("delete {} fail, {}", path, e.toString());
+                }
+            }
+            guard.close();
+        }
+    }
+
+    /**
+     * e. 发送流式的结果, 返回放在最后的响应中的数据
+     *      a. 客户端可以接收流式响应(request.streamWindow大于0), 并且transportServer支持时,
+     *          每streamChunkSize个元素编码成一个响应(data为元素的List), 作为一个流数据帧发送;
+     *          窗口用完时等待客户端处理, 两端同时在内存中的元素不超过窗口大小. 全部发送后返回null, 最后的响应只用来结束流;
+     *          请求在网络IO线程上执行(ExecutorMode.INLINE)时writer.start抛出IOException, 不会把所有元素读入内存
+     *      b. 客户端或者transportServer不支持流式响应(例如HTTP)时, 把所有元素放到一个List中, 整体放在最后的响应中返回
+     * 发送完成或者出错时关闭Stream, 实现了AutoCloseable的Iterator同样关闭
+     */
+    private Object stream(Request request, Object result, RequestContext context) throws Exception {
+        Iterator<?> iterator = result instanceof Stream ? ((Stream<?>) result).iterator() : (Iterator<?>) result;
+        try {
+            StreamWriter writer = context != null && request.getStreamWindow() > 0 ? context.getStreamWriter() : null;
+            if (writer == null) {
+                // b. 整体返回
+                List<Object> elements = new ArrayList<>();
+                iterator.forEachRemaining(elements::add);
+                return elements;
+            }
+            // a. 分段发送
+            int chunkSize = Math.max(config.getStreamChunkSize(), 1);
+            writer.start(request.getStreamWindow());
+            List<Object> chunk = new ArrayList<>(chunkSize);
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() >= chunkSize) {
+                    writeChunk(writer, request, chunk);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writeChunk(writer, request, chunk);
+            }
+            return null;
+        } finally {
+            if (result instanceof AutoCloseable) {
+                ((AutoCloseable) result).close();
+            } else if (iterator instanceof AutoCloseable) {
+                ((AutoCloseable) iterator).close();
+            }
+        }
+    }
+
+    // a. 一段元素作为一个流数据帧发送, 编码完成后清空chunk继续使用
+    private void writeChunk(StreamWriter writer, Request request, List<Object> chunk) throws Exception {
+        Response part = new Response();
+        part.setRequestId(request.getRequestId());
+        part.setData(chunk);
+        writer.write(out -> encoder.encode(part, out));
+        chunk.clear();
+    }
+
+    /**
+     * f. 把二进制的参数(ByteBuffer/byte[]/Path)转换成服务方法声明的类型, 返回为Path参数创建的临时文件, 执行完后删除
+     *      a. request.attachments中的参数作为附件在请求帧之前收到(直接缓冲区, 较大的附件是临时文件的只读映射), 按顺序放回parameters,
+     *          ByteBuffer参数直接使用收到的缓冲区, 不复制到堆中
+     *      b. 其它二进制参数是不支持附件的transport放在请求中的byte[](JSON中是base64字符串)
+     */
+    private static List<Path> bind(Request request, ServiceInstance serviceInstance, RequestContext context)
+        throws IOException {
+        Class<?>[] types = serviceInstance.getMethod().getParameterTypes();
+        Object[] parameters = request.getParameters();
+        int[] attached = request.getAttachments();
+        if (attached != null && attached.length > 0) {
+            // a. 收到的附件放回parameters
+            List<ByteBuffer> received = context != null ? context.getAttachments() : null;
+            if (received == null || received.size() != attached.length) {
+                throw new IllegalStateException("expect " + attached.length + " attachments, got "
+                    + (received == null ? 0 : received.size()));
+            }
+            for (int i = 0; i < attached.length; i++) {
+                if (parameters == null || attached[i] < 0 || attached[i] >= parameters.length) {
+                    throw new IllegalStateException("illegal attachment index " + attached[i]);
+                }
+                parameters[attached[i]] = received.get(i);
+            }
+        }
+        if (parameters == null) {
+            return Collections.emptyList();
+        }
+        List<Path> temporary = Collections.emptyList();
+        for (int i = 0; i < parameters.length && i < types.length; i++) {
+            if (!Attachment.isBinary(types[i]) || parameters[i] == null || types[i].isInstance(parameters[i])) {
+                continue;
+            }
+            parameters[i] = Attachment.convert(parameters[i], types[i]);
+            if (parameters[i] instanceof Path) {
+                if (temporary.isEmpty()) {
+                    temporary = new ArrayList<>();
+                }
+                temporary.add((Path) parameters[i]);
+            }
+        }
+        return temporary;
+    }
+
+    /**
+     * f. 二进制的返回值, 返回放在响应中的数据
+     *      a. 客户端可以接收附件(request.attachments不为空), 并且transportServer支持时, 作为附件在响应帧之前发送:
+     *          ByteBuffer直接写出(直接缓冲区和内存映射的缓冲区不经过堆), Path通过FileChannel.transferTo发送
+     *      b. 否则转换成byte[]放在响应中
+     */
+    private static Object attach(Request request, Response response, Object result, RequestContext context)
+        throws IOException {
+        if (request.getAttachments() != null && context != null && context.getAttachments() != null) {
+            context.attach(Attachment.of(result));
+            response.setAttached(true);
+            return null;
+        }
+        return Attachment.inline(result);
+    }
+
+    // 返回流式结果的方法
+    private static boolean isStream(Class<?> returnType) {
+        return Iterator.class.isAssignableFrom(returnType) || Stream.class.isAssignableFrom(returnType);
+    }
+
+    // 过载拒绝, 请求没有执行
+    private static void overloaded(Request request, Response response) {
+        log.info("request {} rejected, server overloaded", request.getRequestId());
+        response.setCode(Response.CODE_OVERLOADED);
+        response.setMessage("server overloaded");
+    }
+
+    // a. 客户端取消的请求: 不是成功的响应, 不会被缓存
+    private static void cancelled(Request request, Response response, String message) {
+        log.info("request {} cancelled, {}", request.getRequestId(), message);
+        response.setCode(Response.CODE_CANCELLED);
+        response.setMessage(message);
+        response.setData(null);
+    }
 }
@@ -1,5 +1,6 @@
 package com.marion.mrpc.server;
 
+import com.marion.mrpc.codec.CompressingEncoder;
 import com.marion.mrpc.codec.Decoder;
 import com.marion.mrpc.codec.Encoder;
 import com.marion.mrpc.codec.JSONDecoder;
@@ -9,11 +10,31 @@ import com.marion.mrpc.transport.HttpTransportServer;
 import com.marion.mrpc.transport.TransportServer;
 import lombok.Data;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * RPC Server的配置
  *      1. transportServer: 负责连接的网络通信模块
+ *          HttpTransportServer-基于jetty的HTTP服务(默认)  TcpTransportServer-基于NIO的TCP长连接服务
+ *          Http2TransportServer-在HTTP服务的基础上同时支持HTTP/2明文(h2c), 配合Http2TransportClient使用
+ *          需要与客户端的RpcClientConfig.transportClass对应
  *      2. encoder & decoder: 编码解码的序列化模块
+ *          JSONEncoder & JSONDecoder(默认)  BinaryEncoder & BinaryDecoder-紧凑的二进制格式, 需要与客户端一致
+ *          CompressingEncoder & CompressingDecoder  CompressingBinaryEncoder & CompressingBinaryDecoder-超过1KB时压缩, 需要与客户端一致
+ *          compressThreshold: 使用CompressingEncoder及其子类时, 超过多少字节的响应才压缩, 默认1KB
  *      3. port端口：RPC Server启动之后监听什么端口
+ *      4. executorMode: 处理请求的执行模式, 见ExecutorMode
+ *          executorThreads & executorQueueSize: BOUNDED模式下的线程数与等待队列长度
+ *      5. 并发限制: 执行中的请求达到上限时排队, 队列已满或等待超时时以CODE_OVERLOADED拒绝, 上限按请求耗时自动调整
+ *          concurrencyLimits: 所有请求共用的限制, 为空时不限制(默认)
+ *          serviceConcurrencyLimits: 按服务接口的类名单独配置的限制, 与concurrencyLimits同时生效
+ *      6. responseCacheMaxBytes: 标注了@Memoize的方法缓存编码好的响应, 所有响应的总字节数上限, 0表示不缓存
+ *      7. streamChunkSize: 返回Iterator/Stream的方法按流发送结果时, 每个流数据帧最多包含的元素个数
+ *      8. jmxEnabled: 把每个方法的调用指标(见RpcServer.getMetrics)注册为JMX的MBean,
+ *          ObjectName形如 com.marion.mrpc:type=RpcServer,port=3000,method="服务的key"
+ *      9. jfrThresholdMillis: 开启JFR时每个请求提交一个com.marion.mrpc.ServerCall事件(服务、方法、客户端地址、
+ *          请求和响应的字节数、响应码和耗时), 只提交耗时达到这个阈值的请求, 0表示全部提交; JFR配置中的threshold同样生效
  */
 @Data
 public class RpcServerConfig {
@@ -24,7 +45,27 @@ public class RpcServerConfig {
 
     private Class<? extends Decoder> decoder = JSONDecoder.class;
 
+    private int compressThreshold = CompressingEncoder.DEFAULT_THRESHOLD;
+
     private int port = 3000;
 
+    private ExecutorMode executorMode = ExecutorMode.BOUNDED;
+
+    private int executorThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+    private int executorQueueSize = 1024;
+
+    private ConcurrencyLimits concurrencyLimits;
+
+    private Map<String, ConcurrencyLimits> serviceConcurrencyLimits = new HashMap<>();
+
+    private long responseCacheMaxBytes = 64L * 1024 * 1024;
+
+    private int streamChunkSize = 64;
+
+    private boolean jmxEnabled = true;
+
+    private long jfrThresholdMillis = 0;
+
 
 }
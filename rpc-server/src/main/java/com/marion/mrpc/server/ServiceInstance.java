@@ -1,16 +1,23 @@
 package com.marion.mrpc.server;
 
+import com.marion.mrpc.ServiceDescriptor;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 
 /**
  * 对外提供的服务实例
  * 表示一个具体的服务实例。强调【实例】
  *      1. 由哪个对象target提供的
  *      2. 具体暴露哪个方法method作为服务
+ *      3. 注册时编译好的调用器invoker, 调用时不再经过反射
+ *      4. 这个服务单独配置的并发限制limiter, 同一个接口的所有方法共用, 没有配置时为空
+ *      5. 服务描述descriptor, 以及@Memoize指定的响应缓存时间memoTtlMillis, 0表示不缓存
+ *      6. 服务在方法表中的key(见ServiceDescriptor.key), 注册时生成一次, 调用指标按它统计
+ *      7. 方法声明的参数类型parameterTypes(含泛型), 解码出的参数按它转换, 不使用对端发来的类名
  */
 @Data
 @NoArgsConstructor
@@ -21,5 +28,20 @@ public class ServiceInstance {
 
     private Method method;
 
+    private MethodInvoker invoker;
+
+    private ConcurrencyLimiter limiter;
+
+    private ServiceDescriptor descriptor;
+
+    private long memoTtlMillis;
+
+    private String key;
+
+    private Type[] parameterTypes;
+
+    public ServiceInstance(Object target, Method method, MethodInvoker invoker) {
+        this(target, method, invoker, null, null, 0, null, method.getGenericParameterTypes());
+    }
 
 }
@@ -1,29 +1,47 @@
 package com.marion.mrpc.server;
 
-import com.marion.common.utils.ReflectUtils;
 import com.marion.mrpc.Request;
+import com.marion.mrpc.codec.DeclaredTypes;
+
+import java.lang.reflect.Type;
 
 /**
  * 负责对服务进行调用
- * 通过反射工具类ReflectUtils,
- * 传入[服务实例serviceInstance] & [协议约定的请求request],
- * 实现反射调用 并 返回结果Object对象
+ * 通过[服务实例serviceInstance]注册时编译好的调用器MethodInvoker,
+ * 传入[协议约定的请求request]中的参数,
+ * 实现调用 并 返回结果Object对象, 服务方法抛出的异常原样抛出
+ * 解码出的参数只是通用结构(JSONObject等), 调用前按方法声明的参数类型转换, 见DeclaredTypes
  */
 public class ServiceInvoker {
 
+    private static final Object[] NO_ARGS = new Object[0];
+
     /**
-     * 通过反射工具类ReflectUtils，传入对应的属性作为参数，实现反射调用
+     * 通过服务实例的调用器，传入请求中的参数，实现调用
      * @param serviceInstance 具体的服务实例对象，利用其属性
      * @param request 具体的请求，利用其属性
      * @return 返回调用结果 即 Object对象
+     * @throws Throwable 服务方法抛出的原始异常
      */
-    public Object invoke(ServiceInstance serviceInstance, Request request) {
-        return ReflectUtils.invoke(
-            serviceInstance.getTarget(),
-            serviceInstance.getMethod(),
-            request.getParameters()
-        );
-
+    public Object invoke(ServiceInstance serviceInstance, Request request) throws Throwable {
+        if (serviceInstance == null) {
+            throw new IllegalStateException("service not found, " + request.getServiceDescriptor());
+        }
+        Object[] parameters = request.getParameters() == null ? NO_ARGS : request.getParameters();
+        int parameterCount = serviceInstance.getMethod().getParameterCount();
+        if (parameters.length != parameterCount) {
+            throw new IllegalArgumentException("expect " + parameterCount + " parameters for "
+                + serviceInstance.getMethod().getName() + ", got " + parameters.length);
+        }
+        Type[] parameterTypes = serviceInstance.getParameterTypes();
+        if (parameterTypes != null && parameterCount > 0) {
+            Object[] converted = new Object[parameterCount];
+            for (int i = 0; i < parameterCount; i++) {
+                converted[i] = DeclaredTypes.convert(parameters[i], parameterTypes[i]);
+            }
+            parameters = converted;
+        }
+        return serviceInstance.getInvoker().invoke(parameters);
     }
 
 
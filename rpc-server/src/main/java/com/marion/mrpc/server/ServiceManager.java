@@ -1,11 +1,17 @@
 package com.marion.mrpc.server;
 
 import com.marion.common.utils.ReflectUtils;
+import com.marion.mrpc.MethodTable;
+import com.marion.mrpc.MethodTableService;
 import com.marion.mrpc.Request;
 import com.marion.mrpc.ServiceDescriptor;
+import com.marion.mrpc.annotation.Memoize;
 import lombok.extern.slf4j.Slf4j;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -13,8 +19,12 @@ import java.util.concurrent.ConcurrentHashMap;
  * 统一管理RPC对外提供的服务
  *      1. register: 根据[Class类]和[该类的具体对象bean], 通过[反射工具类ReflectUtils]得到所有public方法, 并进行服务注册.
  *      2. lookup: 根据[协议约定的请求request]返回对应的[服务实例ServiceInstance]
+ *          a. 请求带有methodId时, 校验方法表版本后直接按下标从methodTable中取出
+ *          b. 否则按ServiceDescriptor从services中查找
+ *      3. methods: 内置的握手服务MethodTableService, 向客户端发布方法表
  *      services属性: 已注册的服务列表.
  *      services属性数据结构: Map<ServiceDescriptor, ServiceInstance>
+ *      methodTable属性: 按methodId排列的服务实例, 注册时整体替换, 查找时不需要加锁
  */
 @Slf4j
 public class ServiceManager {
@@ -24,12 +34,20 @@ public class ServiceManager {
      * 代表注册服务, < 服务的描述 & 服务具体的实例 >
      */
     private Map<ServiceDescriptor, ServiceInstance> services;
+
+    /**
+     * 方法表及按methodId排列的服务实例, 两者总是一起替换
+     */
+    private volatile Table methodTable = new Table(MethodTable.EMPTY, new ServiceInstance[0]);
+
     /**
      * 无参构造方法
-     * 通过services属性【数据结构：Map】管理服务
+     * 通过services属性【数据结构：Map】管理服务, 并注册内置的握手服务
      */
     public ServiceManager() {
         this.services = new ConcurrentHashMap<>();
+        MethodTableService handshake = () -> methodTable.table.keys();
+        register(MethodTableService.class, handshake);
     }
 
     /**
@@ -44,16 +62,50 @@ public class ServiceManager {
      * @param <T> 泛型
      */
     public <T> void register(Class<T> interfaceClass, T bean) {
+        register(interfaceClass, bean, null);
+    }
+
+    /**
+     * 注册服务, 并为这个服务的所有方法指定同一个并发限制
+     * @param limiter 这个服务的并发限制, 为空时不限制
+     */
+    synchronized <T> void register(Class<T> interfaceClass, T bean, ConcurrencyLimiter limiter) {
         Method[] methods = ReflectUtils.getPublicMethods(interfaceClass);
+        List<String> keys = new ArrayList<>(methodTable.table.keys());
+        List<ServiceInstance> instances = new ArrayList<>(Arrays.asList(methodTable.instances));
         for (Method method : methods) {
             // 获取该方法的ServiceDescriptor作为【服务的说明】
             ServiceDescriptor from = ServiceDescriptor.from(interfaceClass, method);
-            // 获取该方法的ServiceInstance作为【服务的实例】
-            ServiceInstance instance = new ServiceInstance(bean, method);
+            // 获取该方法的ServiceInstance作为【服务的实例】, 同时把方法编译成调用器
+            ServiceInstance instance = new ServiceInstance(bean, method, MethodInvokers.compile(bean, method), limiter,
+                from, memoTtlMillis(bean, method), from.key(), method.getGenericParameterTypes());
             // 对应Map上述二者，放入ServiceManager的services属性中。
             services.put(from, instance);
+            // 同一个服务重复注册时沿用原来的methodId
+            int methodId = keys.indexOf(from.key());
+            if (methodId < 0) {
+                keys.add(from.key());
+                instances.add(instance);
+            } else {
+                instances.set(methodId, instance);
+            }
             log.info("[ServiceManager] register, {}, {}", from.getClazz(), from.getMethod());
         }
+        methodTable = new Table(new MethodTable(keys), instances.toArray(new ServiceInstance[0]));
+    }
+
+    // 接口方法或者实现类方法上的@Memoize, 都没有时返回0
+    private static long memoTtlMillis(Object bean, Method method) {
+        Memoize memoize = method.getAnnotation(Memoize.class);
+        if (memoize == null) {
+            try {
+                memoize = bean.getClass().getMethod(method.getName(), method.getParameterTypes())
+                    .getAnnotation(Memoize.class);
+            } catch (NoSuchMethodException e) {
+                return 0;
+            }
+        }
+        return memoize != null ? Math.max(memoize.ttlMillis(), 0) : 0;
     }
 
     /**
@@ -62,9 +114,40 @@ public class ServiceManager {
      * @return 最终从services属性中【Map<ServiceDescriptor, ServiceInstance>】找到该ServiceDescriptor对应的ServiceInstance
      */
     public ServiceInstance lookup(Request request) {
+        // a. 请求带有methodId时, 校验方法表版本后直接按下标取出
+        int methodId = request.getMethodId();
+        if (methodId >= 0) {
+            Table current = methodTable;
+            if (request.getMethodTableVersion() == current.table.version() && methodId < current.instances.length) {
+                return current.instances[methodId];
+            }
+            if (request.getServiceDescriptor() == null) {
+                throw new StaleMethodTableException(methodId, request.getMethodTableVersion());
+            }
+        }
+        // b. 按ServiceDescriptor查找
         ServiceDescriptor serviceDescriptor = request.getServiceDescriptor();
         log.info("lookup {}", serviceDescriptor);
         return this.services.get(serviceDescriptor);
     }
 
+    /**
+     * 当前的方法表
+     */
+    public MethodTable methodTable() {
+        return methodTable.table;
+    }
+
+    private static final class Table {
+
+        private final MethodTable table;
+
+        private final ServiceInstance[] instances;
+
+        Table(MethodTable table, ServiceInstance[] instances) {
+            this.table = table;
+            this.instances = instances;
+        }
+    }
+
 }
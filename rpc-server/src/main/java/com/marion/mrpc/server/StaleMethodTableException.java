@@ -0,0 +1,12 @@
+package com.marion.mrpc.server;
+
+/**
+ * 请求中的methodId与服务端当前的方法表不一致, 并且请求没有带ServiceDescriptor可以退回查找
+ * RpcServer收到后返回Response.CODE_STALE_METHOD_TABLE, 由客户端刷新方法表后重试
+ */
+public class StaleMethodTableException extends IllegalStateException {
+
+    public StaleMethodTableException(int methodId, long version) {
+        super("stale method table, methodId=" + methodId + ", version=" + version);
+    }
+}
@@ -0,0 +1,86 @@
+package com.marion.mrpc.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimiterTest {
+
+    private static ConcurrencyLimiter limiter(int limit, int queueSize, long queueTimeoutMillis) {
+        ConcurrencyLimits limits = new ConcurrencyLimits();
+        limits.setInitialLimit(limit);
+        limits.setMinLimit(1);
+        limits.setMaxLimit(100);
+        limits.setQueueSize(queueSize);
+        limits.setQueueTimeoutMillis(queueTimeoutMillis);
+        return new ConcurrencyLimiter(limits);
+    }
+
+    @Test public void rejectsWhenQueueIsFull() throws InterruptedException {
+        ConcurrencyLimiter limiter = limiter(2, 0, 1000);
+        assertTrue(limiter.acquire(Long.MAX_VALUE));
+        assertTrue(limiter.acquire(Long.MAX_VALUE));
+        // 没有等待队列, 立即拒绝
+        long start = System.nanoTime();
+        assertFalse(limiter.acquire(Long.MAX_VALUE));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(2, limiter.inflight());
+    }
+
+    @Test public void queuedRequestIsAdmittedOnRelease() throws InterruptedException {
+        ConcurrencyLimiter limiter = limiter(1, 1, 5000);
+        assertTrue(limiter.acquire(Long.MAX_VALUE));
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean admitted = new AtomicBoolean();
+        new Thread(() -> {
+            try {
+                admitted.set(limiter.acquire(Long.MAX_VALUE));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        }).start();
+        Thread.sleep(50);
+        limiter.release(-1);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(admitted.get());
+    }
+
+    @Test public void queueWaitIsBoundedByDeadline() throws InterruptedException {
+        ConcurrencyLimiter limiter = limiter(1, 1, 5000);
+        assertTrue(limiter.acquire(Long.MAX_VALUE));
+        long start = System.nanoTime();
+        assertFalse(limiter.acquire(start + TimeUnit.MILLISECONDS.toNanos(50)));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+    }
+
+    @Test public void limitFollowsLatency() throws InterruptedException {
+        ConcurrencyLimiter limiter = limiter(10, 0, 0);
+        // 耗时稳定并且并发用满时, 上限逐渐增长
+        for (int i = 0; i < 50; i++) {
+            saturate(limiter, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        int grown = limiter.limit();
+        assertTrue("limit " + grown, grown > 10);
+        // 耗时上升说明开始排队, 上限下降
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter, TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertTrue("limit " + limiter.limit(), limiter.limit() < grown);
+    }
+
+    // 用满当前的上限, 然后全部以rtt的耗时完成
+    private static void saturate(ConcurrencyLimiter limiter, long rtt) throws InterruptedException {
+        int admitted = 0;
+        while (limiter.acquire(Long.MAX_VALUE)) {
+            admitted++;
+        }
+        for (int i = 0; i < admitted; i++) {
+            limiter.release(rtt);
+        }
+    }
+}
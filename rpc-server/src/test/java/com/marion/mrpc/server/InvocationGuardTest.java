@@ -0,0 +1,56 @@
+package com.marion.mrpc.server;
+
+import com.marion.mrpc.transport.RequestContext;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InvocationGuardTest {
+
+    @Test public void interruptsAtDeadline() {
+        InvocationGuard guard = InvocationGuard.start(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50), null);
+        try {
+            Thread.sleep(5000);
+            fail("not interrupted");
+        } catch (InterruptedException e) {
+            assertTrue(guard.isTimedOut());
+        } finally {
+            guard.close();
+        }
+        // close之后不影响线程执行下一个请求
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test public void interruptsOnCancel() throws InterruptedException {
+        RequestContext context = new RequestContext();
+        InvocationGuard guard = InvocationGuard.start(Long.MAX_VALUE, context);
+        Thread worker = Thread.currentThread();
+        new Thread(() -> {
+            while (worker.getState() != Thread.State.TIMED_WAITING) {
+                Thread.yield();
+            }
+            context.cancel();
+        }).start();
+        try {
+            Thread.sleep(5000);
+            fail("not interrupted");
+        } catch (InterruptedException e) {
+            assertFalse(guard.isTimedOut());
+        } finally {
+            guard.close();
+        }
+        assertTrue(context.isCancelled());
+    }
+
+    @Test public void noInterruptAfterClose() throws InterruptedException {
+        RequestContext context = new RequestContext();
+        InvocationGuard guard = InvocationGuard.start(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10), context);
+        guard.close();
+        context.cancel();
+        Thread.sleep(50);
+        assertFalse(guard.isTimedOut());
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+}
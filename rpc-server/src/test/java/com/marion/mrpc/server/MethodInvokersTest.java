@@ -0,0 +1,56 @@
+package com.marion.mrpc.server;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.*;
+
+public class MethodInvokersTest {
+
+    public interface Calc {
+        int add(int a, int b);
+
+        String join(String a, long b, boolean c, Object d, char e);
+
+        void fail() throws IOException;
+    }
+
+    private final Calc calc = new Calc() {
+        @Override public int add(int a, int b) {
+            return a + b;
+        }
+
+        @Override public String join(String a, long b, boolean c, Object d, char e) {
+            return a + b + c + d + e;
+        }
+
+        @Override public void fail() throws IOException {
+            throw new IOException("boom");
+        }
+    };
+
+    @Test public void lambdaInvoker() throws Throwable {
+        MethodInvoker invoker = MethodInvokers.compile(calc, Calc.class.getMethod("add", int.class, int.class));
+        // 装箱的参数在生成的类中拆箱
+        assertEquals(3, invoker.invoke(new Object[] {1, 2}));
+    }
+
+    @Test public void methodHandleInvoker() throws Throwable {
+        Method join = Calc.class.getMethod("join", String.class, long.class, boolean.class, Object.class, char.class);
+        MethodInvoker invoker = MethodInvokers.compile(calc, join);
+        assertEquals("a2truenullc", invoker.invoke(new Object[] {"a", 2L, true, null, 'c'}));
+    }
+
+    @Test public void originalException() throws Throwable {
+        MethodInvoker invoker = MethodInvokers.compile(calc, Calc.class.getMethod("fail"));
+        try {
+            invoker.invoke(new Object[0]);
+            fail();
+        } catch (IOException e) {
+            // 服务方法抛出的异常不做包装
+            assertEquals("boom", e.getMessage());
+        }
+    }
+}
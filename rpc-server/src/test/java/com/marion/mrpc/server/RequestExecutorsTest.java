@@ -0,0 +1,52 @@
+package com.marion.mrpc.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RequestExecutorsTest {
+
+    @Test public void inline() {
+        RpcServerConfig config = new RpcServerConfig();
+        config.setExecutorMode(ExecutorMode.INLINE);
+        Executor executor = RequestExecutors.create(config);
+
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        executor.execute(() -> thread.set(Thread.currentThread()));
+        // INLINE模式直接在提交线程上执行
+        assertSame(Thread.currentThread(), thread.get());
+    }
+
+    @Test public void bounded() throws InterruptedException {
+        RpcServerConfig config = new RpcServerConfig();
+        config.setExecutorMode(ExecutorMode.BOUNDED);
+        config.setExecutorThreads(2);
+        Executor executor = RequestExecutors.create(config);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        executor.execute(() -> {
+            thread.set(Thread.currentThread());
+            latch.countDown();
+        });
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        // BOUNDED模式在工作线程上执行
+        assertNotSame(Thread.currentThread(), thread.get());
+        ((ExecutorService) executor).shutdown();
+    }
+
+    @Test public void virtual() {
+        RpcServerConfig config = new RpcServerConfig();
+        config.setExecutorMode(ExecutorMode.VIRTUAL);
+        // 不支持虚拟线程的JDK上退化为线程池, 无论哪种情况都能拿到可用的executor
+        Executor executor = RequestExecutors.create(config);
+        assertNotNull(executor);
+        ((ExecutorService) executor).shutdown();
+    }
+}
@@ -0,0 +1,82 @@
+package com.marion.mrpc.server;
+
+import com.marion.mrpc.ServiceDescriptor;
+import com.marion.mrpc.codec.JSONEncoder;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+
+    private static ServiceDescriptor descriptor(String clazz, String method) {
+        return new ServiceDescriptor(clazz, method, new String[]{"int"}, "int");
+    }
+
+    @Test public void hitsByParameters() {
+        ResponseCache cache = new ResponseCache(new JSONEncoder(), 1 << 20);
+        ServiceDescriptor add = descriptor("Calc", "add");
+        cache.put(cache.key(add, new Object[]{1}), new byte[]{1, 2, 3}, 60000, cache.generation());
+
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get(cache.key(add, new Object[]{1})));
+        assertNull(cache.get(cache.key(add, new Object[]{2})));
+        assertNull(cache.get(cache.key(descriptor("Calc", "minus"), new Object[]{1})));
+    }
+
+    @Test public void expiresAfterTtl() throws InterruptedException {
+        ResponseCache cache = new ResponseCache(new JSONEncoder(), 1 << 20);
+        ResponseCache.Key key = cache.key(descriptor("Calc", "add"), new Object[]{1});
+        cache.put(key, new byte[]{1}, 20, cache.generation());
+        assertNotNull(cache.get(key));
+        Thread.sleep(40);
+        assertNull(cache.get(key));
+    }
+
+    @Test public void evictsBySize() {
+        // 每段最多64字节
+        ResponseCache cache = new ResponseCache(new JSONEncoder(), 16 * 64);
+        ServiceDescriptor add = descriptor("Calc", "add");
+        for (int i = 0; i < 1000; i++) {
+            cache.put(cache.key(add, new Object[]{i}), new byte[32], 60000, cache.generation());
+        }
+        int cached = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (cache.get(cache.key(add, new Object[]{i})) != null) {
+                cached++;
+            }
+        }
+        assertTrue(cached > 0 && cached <= 32);
+        // 最近放入的响应没有被淘汰
+        assertNotNull(cache.get(cache.key(add, new Object[]{999})));
+    }
+
+    @Test public void invalidate() {
+        ResponseCache cache = new ResponseCache(new JSONEncoder(), 1 << 20);
+        ResponseCache.Key add = cache.key(descriptor("Calc", "add"), new Object[]{1});
+        ResponseCache.Key minus = cache.key(descriptor("Calc", "minus"), new Object[]{1});
+        ResponseCache.Key other = cache.key(descriptor("Other", "add"), new Object[]{1});
+        for (ResponseCache.Key key : new ResponseCache.Key[]{add, minus, other}) {
+            cache.put(key, new byte[]{1}, 60000, cache.generation());
+        }
+
+        cache.invalidate("Calc", "add");
+        assertNull(cache.get(add));
+        assertNotNull(cache.get(minus));
+
+        cache.invalidate("Calc", null);
+        assertNull(cache.get(minus));
+        assertNotNull(cache.get(other));
+
+        cache.invalidate(null, null);
+        assertNull(cache.get(other));
+    }
+
+    @Test public void skipsPutAfterInvalidate() {
+        ResponseCache cache = new ResponseCache(new JSONEncoder(), 1 << 20);
+        ResponseCache.Key key = cache.key(descriptor("Calc", "add"), new Object[]{1});
+        // 生成响应期间发生了invalidate, 失效前的结果不放回缓存
+        long generation = cache.generation();
+        cache.invalidate("Calc", null);
+        cache.put(key, new byte[]{1}, 60000, generation);
+        assertNull(cache.get(key));
+    }
+}
@@ -0,0 +1,182 @@
+package com.marion.mrpc.server;
+
+import com.marion.common.metrics.MethodSnapshot;
+import com.marion.mrpc.Request;
+import com.marion.mrpc.Response;
+import com.marion.mrpc.ServiceDescriptor;
+import com.marion.mrpc.annotation.Memoize;
+import com.marion.mrpc.codec.JSONDecoder;
+import com.marion.mrpc.codec.JSONEncoder;
+import com.marion.mrpc.transport.RequestContext;
+import com.marion.mrpc.transport.PayloadWriter;
+import com.marion.mrpc.transport.RequestHandler;
+import com.marion.mrpc.transport.StreamWriter;
+import com.marion.mrpc.transport.TcpTransportServer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RpcServerTest {
+
+    public interface Sleeper {
+
+        @Memoize(ttlMillis = 60000)
+        int sleep(int millis);
+    }
+
+    public static class SleeperImpl implements Sleeper {
+
+        @Override
+        public int sleep(int millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return millis;
+        }
+    }
+
+    public interface Counter {
+
+        Iterator<Integer> count(int n);
+    }
+
+    // 记录调用方一共取走了多少个元素
+    public static class CounterImpl implements Counter {
+
+        final AtomicInteger pulled = new AtomicInteger();
+
+        @Override
+        public Iterator<Integer> count(int n) {
+            return new Iterator<Integer>() {
+                @Override public boolean hasNext() {
+                    return pulled.get() < n;
+                }
+
+                @Override public Integer next() {
+                    return pulled.incrementAndGet();
+                }
+            };
+        }
+    }
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    private RpcServer server;
+
+    @After
+    public void stop() {
+        timer.shutdownNow();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private static Request sleep(int millis) throws Exception {
+        Request request = new Request();
+        request.setRequestId(1);
+        request.setServiceDescriptor(ServiceDescriptor.from(Sleeper.class, Sleeper.class.getMethod("sleep", int.class)));
+        request.setParameters(new Object[] {millis});
+        return request;
+    }
+
+    private RequestHandler handler() throws Exception {
+        Field field = RpcServer.class.getDeclaredField("handler");
+        field.setAccessible(true);
+        return (RequestHandler) field.get(server);
+    }
+
+    // 不启动监听, 直接把请求交给RpcServer的requestHandler
+    private Response call(int millis, RequestContext context) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        handler().onRequest(new ByteArrayInputStream(new JSONEncoder().encode(sleep(millis))), out, context);
+        return new JSONDecoder().decode(out.toByteArray(), Response.class);
+    }
+
+    private RpcServer inlineServer() {
+        RpcServerConfig config = new RpcServerConfig();
+        config.setTransportServer(TcpTransportServer.class);
+        config.setExecutorMode(ExecutorMode.INLINE);
+        config.setJmxEnabled(false);
+        RpcServer rpcServer = new RpcServer(config);
+        rpcServer.register(Sleeper.class, new SleeperImpl());
+        return rpcServer;
+    }
+
+    @Test public void cancelledRequestIsNotCachedOrCountedAsSuccess() throws Exception {
+        server = inlineServer();
+
+        // 客户端在执行期间取消
+        RequestContext context = new RequestContext();
+        timer.schedule(context::cancel, 50, TimeUnit.MILLISECONDS);
+        Response cancelled = call(300, context);
+        assertEquals(Response.CODE_CANCELLED, cancelled.getCode());
+        assertNull(cancelled.getData());
+
+        // 参数相同的请求重新执行, 而不是拿到缓存的取消响应
+        Response response = call(300, new RequestContext());
+        assertEquals(Response.CODE_OK, response.getCode());
+        assertEquals(300, response.getData());
+
+        MethodSnapshot snapshot = server.getMetrics().values().iterator().next();
+        assertEquals(2, snapshot.getCalls());
+        assertEquals(1, snapshot.getErrors());
+    }
+
+    @Test public void rejectedRequestIsOverloadedWithoutRunning() throws Exception {
+        server = inlineServer();
+        Request batch = new Request();
+        batch.setRequestId(9);
+        batch.setBatch(new Request[] {sleep(1000), sleep(2000)});
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        handler().onRejected(new ByteArrayInputStream(new JSONEncoder().encode(batch)), out, new RequestContext());
+        // 不执行服务方法, 立即返回
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+        Response response = new JSONDecoder().decode(out.toByteArray(), Response.class);
+        assertEquals(9, response.getRequestId());
+        assertEquals(2, response.getBatch().length);
+        for (Response entry : response.getBatch()) {
+            assertEquals(Response.CODE_OVERLOADED, entry.getCode());
+        }
+    }
+
+    @Test public void streamThatCannotWaitForCreditsFailsWithoutBuffering() throws Exception {
+        server = inlineServer();
+        CounterImpl counter = new CounterImpl();
+        server.register(Counter.class, counter);
+        Request request = new Request();
+        request.setRequestId(3);
+        request.setServiceDescriptor(ServiceDescriptor.from(Counter.class, Counter.class.getMethod("count", int.class)));
+        request.setParameters(new Object[] {1000});
+        request.setStreamWindow(4);
+        // 与在网络IO线程上执行时的TcpTransportServer相同, start失败
+        RequestContext context = new RequestContext();
+        context.setStreamWriter(new StreamWriter() {
+            @Override public void start(int window) throws IOException {
+                throw new IOException("cannot wait for credits");
+            }
+
+            @Override public void write(PayloadWriter payload) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        handler().onRequest(new ByteArrayInputStream(new JSONEncoder().encode(request)), out, context);
+        Response response = new JSONDecoder().decode(out.toByteArray(), Response.class);
+        assertEquals(Response.CODE_ERROR, response.getCode());
+        assertEquals(0, counter.pulled.get());
+    }
+}
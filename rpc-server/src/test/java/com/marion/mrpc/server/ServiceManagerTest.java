@@ -1,6 +1,8 @@
 package com.marion.mrpc.server;
 
 import com.marion.common.utils.ReflectUtils;
+import com.marion.mrpc.MethodTable;
+import com.marion.mrpc.MethodTableService;
 import com.marion.mrpc.Request;
 import com.marion.mrpc.ServiceDescriptor;
 import org.junit.Before;
@@ -39,4 +41,38 @@ public class ServiceManagerTest {
         ServiceInstance lookup = serviceManager.lookup(request);
         assertNotNull(lookup);
     }
-}
\ No newline at end of file
+
+    @Test public void lookupByMethodId() {
+        Method method = ReflectUtils.getPublicMethods(TestInterface.class)[0];
+        ServiceDescriptor from = ServiceDescriptor.from(TestInterface.class, method);
+        MethodTable table = serviceManager.methodTable();
+        // 重复注册不会改变方法表, 第0个是内置的握手服务
+        serviceManager.register(TestInterface.class, new TestClass());
+        assertEquals(table.version(), serviceManager.methodTable().version());
+        assertEquals(MethodTableService.class.getName() + "#methods():java.util.List", table.keys().get(0));
+
+        Request request = new Request();
+        request.setMethodId(table.idOf(from.key()));
+        request.setMethodTableVersion(table.version());
+        ServiceInstance lookup = serviceManager.lookup(request);
+        assertEquals(method, lookup.getMethod());
+    }
+
+    @Test(expected = StaleMethodTableException.class)
+    public void lookupStaleMethodTable() {
+        Request request = new Request();
+        request.setMethodId(1);
+        request.setMethodTableVersion(serviceManager.methodTable().version() + 1);
+        serviceManager.lookup(request);
+    }
+
+    @Test public void lookupStaleMethodTableFallback() {
+        Method method = ReflectUtils.getPublicMethods(TestInterface.class)[0];
+        Request request = new Request();
+        request.setMethodId(1);
+        request.setMethodTableVersion(serviceManager.methodTable().version() + 1);
+        request.setServiceDescriptor(ServiceDescriptor.from(TestInterface.class, method));
+        // 方法表不一致但带有ServiceDescriptor时, 退回按ServiceDescriptor查找
+        assertEquals(method, serviceManager.lookup(request).getMethod());
+    }
+}
@@ -0,0 +1,195 @@
+package com.marion.mrpc.stub;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 编译时为标注了@RpcService的接口生成stub类, 代替运行时的动态代理
+ *      1. 类名: 接口的二进制类名 + "$$MrpcStub", 与接口在同一个包中, RpcClient.getProxy按这个名字加载
+ *      2. 每个接口方法对应一个RemoteMethod静态常量, 服务描述在类加载时算好一次
+ *      3. 每个方法的实现直接调用RemoteInvoker.call, 不经过InvocationHandler和Method对象,
+ *          基础类型的返回值直接拆箱
+ *      4. 从泛型父接口继承的方法按接口上的类型参数展开(Types.asMemberOf), 例如Svc extends Base<String>时T写成String
+ * 接口的static方法和继承自Object的方法不生成; 泛型接口不生成stub, 仍然使用动态代理.
+ */
+@SupportedAnnotationTypes(StubProcessor.RPC_SERVICE)
+public class StubProcessor extends AbstractProcessor {
+
+    static final String RPC_SERVICE = "com.marion.mrpc.annotation.RpcService";
+
+    static final String STUB_SUFFIX = "$$MrpcStub";
+
+    private static final String REMOTE_INVOKER = "com.marion.mrpc.client.RemoteInvoker";
+
+    private static final String REMOTE_METHOD = "com.marion.mrpc.client.RemoteMethod";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.INTERFACE) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "@RpcService can only be used on interfaces", element);
+                    continue;
+                }
+                TypeElement service = (TypeElement) element;
+                // 泛型接口的类型参数由使用方决定, 无法生成一个通用的stub, 交给动态代理处理
+                if (!service.getTypeParameters().isEmpty()) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        "generic @RpcService interface uses dynamic proxy instead of stub", element);
+                    continue;
+                }
+                generate(service);
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement service) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(service);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(service).toString();
+        String stubName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+            + STUB_SUFFIX;
+        String serviceName = service.getQualifiedName().toString();
+
+        List<ExecutableElement> methods = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(service))) {
+            if (method.getEnclosingElement().getKind() == ElementKind.INTERFACE
+                && !method.getModifiers().contains(Modifier.STATIC)) {
+                methods.add(method);
+            }
+        }
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n * ").append(serviceName).append("的stub类, 由StubProcessor生成, 不要修改\n */\n");
+        source.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        source.append("public final class ").append(stubName).append(" implements ").append(serviceName).append(" {\n\n");
+        for (int i = 0; i < methods.size(); i++) {
+            ExecutableElement method = methods.get(i);
+            source.append("    private static final ").append(REMOTE_METHOD).append(" M").append(i).append(" = ")
+                .append(REMOTE_METHOD).append(".of(").append(serviceName).append(".class, \"")
+                .append(method.getSimpleName()).append('"');
+            for (VariableElement parameter : method.getParameters()) {
+                source.append(", ").append(processingEnv.getTypeUtils().erasure(parameter.asType())).append(".class");
+            }
+            source.append(");\n");
+        }
+        source.append("\n    private final ").append(REMOTE_INVOKER).append(" invoker;\n\n");
+        source.append("    public ").append(stubName).append("(").append(REMOTE_INVOKER).append(" invoker) {\n");
+        source.append("        this.invoker = invoker;\n    }\n");
+        DeclaredType serviceType = (DeclaredType) service.asType();
+        for (int i = 0; i < methods.size(); i++) {
+            writeMethod(source, serviceType, methods.get(i), "M" + i);
+        }
+        source.append("}\n");
+
+        String qualifiedStubName = packageName.isEmpty() ? stubName : packageName + "." + stubName;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedStubName, service);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source.toString());
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                "generate stub " + qualifiedStubName + " fail, " + e.getMessage(), service);
+        }
+    }
+
+    private void writeMethod(StringBuilder source, DeclaredType serviceType, ExecutableElement method,
+                             String remoteMethod) {
+        // 4. 方法在这个接口中看到的签名, 父接口的类型参数已经替换成实际的类型
+        ExecutableType member = (ExecutableType) processingEnv.getTypeUtils().asMemberOf(serviceType, method);
+        source.append("\n    @Override\n    public ");
+        List<? extends TypeParameterElement> typeParameters = method.getTypeParameters();
+        if (!typeParameters.isEmpty()) {
+            source.append('<');
+            for (int i = 0; i < typeParameters.size(); i++) {
+                TypeParameterElement typeParameter = typeParameters.get(i);
+                source.append(i > 0 ? ", " : "").append(typeParameter.getSimpleName());
+                List<? extends TypeMirror> bounds = typeParameter.getBounds();
+                boolean onlyObject = bounds.size() == 1 && "java.lang.Object".equals(bounds.get(0).toString());
+                if (!bounds.isEmpty() && !onlyObject) {
+                    source.append(" extends ");
+                    for (int j = 0; j < bounds.size(); j++) {
+                        source.append(j > 0 ? " & " : "").append(bounds.get(j));
+                    }
+                }
+            }
+            source.append("> ");
+        }
+        TypeMirror returnType = member.getReturnType();
+        source.append(returnType).append(' ').append(method.getSimpleName()).append('(');
+        List<? extends TypeMirror> parameterTypes = member.getParameterTypes();
+        int parameterCount = parameterTypes.size();
+        for (int i = 0; i < parameterCount; i++) {
+            String type = parameterTypes.get(i).toString();
+            // 可变参数: 最后一个数组参数写成...
+            if (method.isVarArgs() && i == parameterCount - 1 && type.endsWith("[]")) {
+                type = type.substring(0, type.length() - 2) + "...";
+            }
+            source.append(i > 0 ? ", " : "").append(type).append(" p").append(i);
+        }
+        source.append(')');
+        List<? extends TypeMirror> thrownTypes = member.getThrownTypes();
+        for (int i = 0; i < thrownTypes.size(); i++) {
+            source.append(i > 0 ? ", " : " throws ").append(thrownTypes.get(i));
+        }
+        source.append(" {\n        ");
+
+        StringBuilder call = new StringBuilder("invoker.call(").append(remoteMethod).append(", ");
+        if (parameterCount == 0) {
+            call.append("null");
+        } else {
+            call.append("new Object[] {");
+            for (int i = 0; i < parameterCount; i++) {
+                call.append(i > 0 ? ", " : "").append('p').append(i);
+            }
+            call.append('}');
+        }
+        call.append(')');
+
+        if (returnType.getKind() == TypeKind.VOID) {
+            source.append(call).append(";\n");
+        } else if (returnType.getKind().isPrimitive()) {
+            // 基础类型的返回值按包装类型拆箱
+            String boxed = processingEnv.getTypeUtils().boxedClass((PrimitiveType) returnType)
+                .getQualifiedName().toString();
+            source.append("return (").append(boxed).append(") ").append(call).append(";\n");
+        } else {
+            source.append("return (").append(returnType).append(") ").append(call).append(";\n");
+        }
+        source.append("    }\n");
+    }
+}
@@ -0,0 +1,124 @@
+package com.marion.mrpc.stub;
+
+import com.alibaba.fastjson.JSON;
+import com.marion.mrpc.Peer;
+import com.marion.mrpc.Request;
+import com.marion.mrpc.Response;
+import com.marion.mrpc.client.RemoteInvoker;
+import com.marion.mrpc.client.TransportSelector;
+import com.marion.mrpc.codec.JSONDecoder;
+import com.marion.mrpc.codec.JSONEncoder;
+import com.marion.mrpc.transport.TransportClient;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class StubProcessorTest {
+
+    private static final String SOURCE = "package demo;\n"
+        + "import java.util.List;\n"
+        + "import java.util.concurrent.CompletableFuture;\n"
+        + "@com.marion.mrpc.annotation.RpcService\n"
+        + "public interface Greeter extends Base<Integer> {\n"
+        + "    int add(int a, int b);\n"
+        + "    String join(String separator, String... parts);\n"
+        + "    void ping() throws java.io.IOException;\n"
+        + "    <T extends Number> List<T> first(List<T> values);\n"
+        + "    CompletableFuture<Integer> addAsync(int a, int b);\n"
+        + "}\n"
+        + "interface Base<T> {\n"
+        + "    T sum(T a, T b);\n"
+        + "}\n";
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void generateStub() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Path source = dir.resolve("demo/Greeter.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, SOURCE.getBytes(StandardCharsets.UTF_8));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        int result = compiler.run(null, null, null,
+            "-processor", StubProcessor.class.getName(),
+            "-classpath", System.getProperty("java.class.path") + File.pathSeparator + classPathOf(RemoteInvoker.class),
+            "-d", dir.toString(), "-s", dir.toString(), source.toString());
+        assertEquals(0, result);
+        assertTrue(Files.exists(dir.resolve("demo/Greeter" + StubProcessor.STUB_SUFFIX + ".java")));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toUri().toURL()}, getClass().getClassLoader())) {
+            Class<?> service = loader.loadClass("demo.Greeter");
+            Class<?> stubClass = loader.loadClass("demo.Greeter" + StubProcessor.STUB_SUFFIX);
+            assertTrue(service.isAssignableFrom(stubClass));
+
+            // 服务端按参数回显: add返回两数之和
+            RemoteInvoker invoker = new RemoteInvoker(service, new JSONEncoder(), new JSONDecoder(), new EchoSelector());
+            Object stub = stubClass.getConstructor(RemoteInvoker.class).newInstance(invoker);
+            assertEquals(3, service.getMethod("add", int.class, int.class).invoke(stub, 1, 2));
+            CompletableFuture<?> async = (CompletableFuture<?>) service.getMethod("addAsync", int.class, int.class)
+                .invoke(stub, 3, 4);
+            assertEquals(7, async.join());
+            // 继承自Base<Integer>的方法按Integer生成
+            Method sum = stubClass.getMethod("sum", Integer.class, Integer.class);
+            assertEquals(Integer.class, sum.getReturnType());
+            assertEquals(11, sum.invoke(stub, 5, 6));
+        }
+    }
+
+    private static String classPathOf(Class<?> clazz) throws Exception {
+        return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+    /**
+     * 不经过网络的假服务端: 没有方法表, 把请求中的两个参数相加后返回
+     */
+    private static class EchoSelector implements TransportSelector, TransportClient {
+
+        @Override public void init(List<Peer> rpcServersList, int count, Class<? extends TransportClient> clazz) {
+        }
+
+        @Override public TransportClient select() {
+            return this;
+        }
+
+        @Override public void release(TransportClient transportClient) {
+        }
+
+        @Override public void close() {
+        }
+
+        @Override public void connect(Peer peer) {
+        }
+
+        @Override public InputStream write(InputStream data) {
+            try {
+                Request request = JSON.parseObject(IOUtils.toByteArray(data), Request.class);
+                Response response = new Response();
+                response.setRequestId(request.getRequestId());
+                Object[] parameters = request.getParameters();
+                response.setData((Integer) parameters[0] + (Integer) parameters[1]);
+                return new ByteArrayInputStream(JSON.toJSONBytes(response));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.marion.mrpc.transport;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+
+/**
+ * 请求参数或者返回值中的二进制数据, 作为附件帧直接写入连接, 不经过编码
+ *      1. of: ByteBuffer发送缓冲区中剩余的数据, 直接缓冲区和内存映射的缓冲区不需要复制到堆中; byte[]包装成堆缓冲区;
+ *          Path通过FileChannel.transferTo发送, 由内核直接从页缓存写入socket(sendfile), 不经过用户态
+ *      2. writeTo: 尽量多地写入通道, 非阻塞的通道写不进去时返回false, 全部写完后关闭文件; writeFully写完为止, 非阻塞的通道写不进去时在Selector上等待可写
+ *      3. isBinary & convert & inline: 二进制参数和返回值的类型转换
+ *          a. 收到的附件是直接缓冲区(较大的附件是临时文件的只读映射), 按声明的类型转换: ByteBuffer直接使用, byte[]复制一次, Path写入临时文件
+ *          b. 不支持附件的transport把二进制数据按byte[]放在请求和响应中(JSON中是base64字符串), 收到后同样按声明的类型转换
+ * 一个附件只发送一次, 发送的线程拥有它
+ */
+public final class Attachment implements Closeable {
+
+    private final ByteBuffer buffer;
+
+    private final FileChannel file;
+
+    private final long length;
+
+    private long position;
+
+    private Attachment(ByteBuffer buffer, FileChannel file, long length) {
+        this.buffer = buffer;
+        this.file = file;
+        this.length = length;
+    }
+
+    /**
+     * 1. 把二进制的参数或者返回值包装成附件
+     * @param value ByteBuffer(发送剩余的数据, 不改变它的position)、byte[]或者Path
+     * @throws IOException 文件无法打开, 或者超过了单个附件的最大长度
+     */
+    public static Attachment of(Object value) throws IOException {
+        Attachment attachment;
+        if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            attachment = new Attachment(buffer, null, buffer.remaining());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            attachment = new Attachment(ByteBuffer.wrap(bytes), null, bytes.length);
+        } else if (value instanceof Path) {
+            FileChannel file = FileChannel.open((Path) value, StandardOpenOption.READ);
+            attachment = new Attachment(null, file, file.size());
+        } else {
+            throw new IllegalArgumentException("not binary " + (value == null ? null : value.getClass()));
+        }
+        if (attachment.length > TcpFrame.MAX_ATTACHMENT_LENGTH) {
+            attachment.close();
+            throw new IOException("attachment of " + attachment.length + " bytes too large");
+        }
+        return attachment;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * 2. 尽量多地写入通道
+     * @return 全部写完时返回true, 非阻塞的通道暂时写不进去时返回false
+     */
+    boolean writeTo(WritableByteChannel channel) throws IOException {
+        if (file == null) {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        while (position < length) {
+            long written = file.transferTo(position, length - position, channel);
+            if (written == 0) {
+                // 文件在发送过程中被截短时不会再有数据
+                if (file.size() < length) {
+                    throw new EOFException("attachment file truncated to " + file.size() + " bytes");
+                }
+                return false;
+            }
+            position += written;
+        }
+        close();
+        return true;
+    }
+
+    // 2. 写入通道, 直到全部写完; 非阻塞的通道写不进去时等待可写
+    void writeFully(WritableByteChannel channel) throws IOException {
+        while (!writeTo(channel)) {
+            TcpFrame.awaitReady(channel, SelectionKey.OP_WRITE);
+        }
+    }
+
+    // 关闭文件, 附件没有发送完时同样需要关闭
+    @Override
+    public void close() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // 只读打开的文件, 关闭出错不影响数据
+            }
+        }
+    }
+
+    /**
+     * 3. 是否按二进制数据处理这个类型的参数或者返回值
+     */
+    public static boolean isBinary(Class<?> type) {
+        return ByteBuffer.class.equals(type) || byte[].class.equals(type) || Path.class.equals(type);
+    }
+
+    /**
+     * 3. 把收到的二进制数据转换成声明的类型
+     * @param value 收到的附件(直接缓冲区), 或者不支持附件时放在请求和响应中的byte[]/base64字符串
+     * @param type 参数或者返回值声明的类型, 不是二进制类型时原样返回
+     * @return 转换后的值, Path指向一个新建的临时文件, 由使用方删除
+     */
+    public static Object convert(Object value, Class<?> type) throws IOException {
+        if (value == null || !isBinary(type) || type.isInstance(value)) {
+            return value;
+        }
+        ByteBuffer buffer;
+        if (value instanceof ByteBuffer) {
+            buffer = ((ByteBuffer) value).duplicate();
+        } else if (value instanceof byte[]) {
+            buffer = ByteBuffer.wrap((byte[]) value);
+        } else if (value instanceof String) {
+            buffer = ByteBuffer.wrap(Base64.getDecoder().decode((String) value));
+        } else {
+            throw new IllegalArgumentException("can not convert " + value.getClass() + " to " + type);
+        }
+        if (ByteBuffer.class.equals(type)) {
+            return buffer;
+        }
+        if (byte[].class.equals(type)) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+        Path path = Files.createTempFile("mrpc-", ".bin");
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                file.write(buffer);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        return path;
+    }
+
+    /**
+     * 3. 不支持附件时, 把二进制的参数或者返回值转换成byte[]放在请求和响应中
+     */
+    public static Object inline(Object value) throws IOException {
+        if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+        if (value instanceof Path) {
+            return Files.readAllBytes((Path) value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,42 @@
+package com.marion.mrpc.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 一个附件帧: 帧头 + 附件的原始数据, 附件的数据直接从它的缓冲区或者文件写入通道, 不复制到帧缓冲区
+ */
+final class AttachmentFrame implements OutboundFrame {
+
+    private final ByteBuffer header;
+
+    private final Attachment attachment;
+
+    AttachmentFrame(long requestId, Attachment attachment) {
+        this.header = TcpFrame.header((int) attachment.length(), requestId, TcpFrame.FLAG_ATTACHMENT);
+        this.attachment = attachment;
+    }
+
+    @Override
+    public boolean writeTo(SocketChannel channel) throws IOException {
+        if (header.hasRemaining()) {
+            channel.write(header);
+            if (header.hasRemaining()) {
+                return false;
+            }
+        }
+        return attachment.writeTo(channel);
+    }
+
+    // 阻塞的通道: 写完整个附件帧
+    void writeFully(SocketChannel channel) throws IOException {
+        TcpFrame.writeFully(channel, header);
+        attachment.writeFully(channel);
+    }
+
+    @Override
+    public void close() {
+        attachment.close();
+    }
+}
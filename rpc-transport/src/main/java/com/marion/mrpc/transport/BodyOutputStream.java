@@ -0,0 +1,53 @@
+package com.marion.mrpc.transport;
+
+import com.marion.common.buffer.BufferPool;
+import com.marion.common.buffer.PooledInputStream;
+import com.marion.common.buffer.PooledOutputStream;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 在内存中收集一个完整HTTP消息体的输出流, 缓冲区来自BufferPool
+ * 收集完成后通过toInputStream把缓冲区直接交给输入流, 不需要再拷贝, 调用方关闭输入流时归还
+ */
+final class BodyOutputStream extends PooledOutputStream {
+
+    BodyOutputStream(int initialCapacity) {
+        super(Math.max(initialCapacity, BufferPool.MIN_SIZE));
+    }
+
+    /**
+     * 把缓冲区交给输入流, 之后不能再使用这个输出流
+     * @return 读取[0, size)的输入流
+     */
+    InputStream toInputStream() {
+        InputStream in = new PooledInputStream(buf, count);
+        buf = null;
+        return in;
+    }
+
+    /**
+     * 当前内容的视图, 不拷贝, 关闭这个输出流之前有效
+     * @return position为0, limit为size
+     */
+    ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    // 写入ByteBuffer中剩余的数据
+    void write(ByteBuffer data) {
+        int length = data.remaining();
+        if (data.hasArray()) {
+            write(data.array(), data.arrayOffset() + data.position(), length);
+            data.position(data.limit());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(length, 8192)];
+        while (data.hasRemaining()) {
+            int n = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, n);
+            write(chunk, 0, n);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.marion.mrpc.transport;
+
+import com.marion.common.buffer.PooledOutputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 直接生成一个TcpFrame的输出流
+ * 缓冲区开头预留帧头的位置, 帧体直接写在后面, 写完后回填帧头, 整个帧不需要再拷贝就可以写入通道
+ * 缓冲区来自BufferPool, 帧写出后调用close归还; 整个帧写完时执行whenWritten设置的回调
+ */
+final class FrameOutputStream extends PooledOutputStream implements OutboundFrame {
+
+    private ByteBuffer frame;
+
+    private Runnable onWritten;
+
+    FrameOutputStream() {
+        super(256);
+        this.count = TcpFrame.HEADER_LENGTH;
+    }
+
+    /**
+     * 回填帧头, 返回可以直接写入通道的完整帧
+     * @param requestId 请求id
+     * @param flags 标志位
+     * @return 完整帧, position为0
+     */
+    ByteBuffer toFrame(long requestId, byte flags) {
+        frame = ByteBuffer.wrap(buf, 0, count);
+        frame.putInt(count - TcpFrame.HEADER_LENGTH).putLong(requestId).put(flags);
+        frame.position(0);
+        return frame;
+    }
+
+    /**
+     * 上一次toFrame生成的完整帧, 写出过程中position会向后移动
+     */
+    ByteBuffer frame() {
+        return frame;
+    }
+
+    // 整个帧写完时的回调, 只执行一次
+    void whenWritten(Runnable onWritten) {
+        this.onWritten = onWritten;
+    }
+
+    @Override
+    public boolean writeTo(SocketChannel channel) throws IOException {
+        channel.write(frame);
+        if (frame.hasRemaining()) {
+            return false;
+        }
+        if (onWritten != null) {
+            Runnable listener = onWritten;
+            onWritten = null;
+            listener.run();
+        }
+        return true;
+    }
+
+    int bodyLength() {
+        return count - TcpFrame.HEADER_LENGTH;
+    }
+}
@@ -0,0 +1,349 @@
+package com.marion.mrpc.transport;
+
+import com.marion.mrpc.Peer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.GoAwayFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.FuturePromise;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 基于HTTP/2明文(h2c)连接的多路复用网络通信客户端
+ *      1. connect: client->与对端peer建立一个h2c会话, 一个peer一个连接, connectCount为1即可
+ *      2. writeAsync: 每个请求是会话上的一个流, 请求头带上Content-Length, 请求体作为一个DATA帧发出;
+ *          响应的DATA帧收集到池化缓冲区, 流结束时完成future. 多个线程同时发送的请求在同一个连接上并发, 响应可以乱序返回
+ *          a. 一个流readTimeout内没有收到任何数据时重置这个流, future以超时失败
+ *          b. 调用方在响应到达前让future失败(例如超时)或者取消future时, 重置这个流, 服务端取消对应的请求
+ *          c. 请求体或者响应体超过maxBodyLength时失败, 默认不限制
+ *      3. write: 同步版本, 最多等待readTimeout
+ *      4. close: 关闭会话, 所有在途请求都以失败结束
+ * 会话断开后在下一次发送时重新建立. 所有Http2TransportClient共用一个HTTP2Client(线程池和选择器), 线程都是daemon线程.
+ * 需要对端使用Http2TransportServer
+ */
+@Slf4j
+public class Http2TransportClient implements TransportClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 3000;
+
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * 请求体和响应体的最大长度, 0表示不限制(只受一个缓冲区能放下的长度限制)
+     */
+    public static final long DEFAULT_MAX_BODY_LENGTH = HttpTransportClient.DEFAULT_MAX_BODY_LENGTH;
+
+    private Peer peer;
+
+    private HttpURI uri;
+
+    private volatile Session session;
+
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    private volatile long maxBodyLength = DEFAULT_MAX_BODY_LENGTH;
+
+    // 1. client: 与对端peer建立一个h2c会话
+    @Override public void connect(Peer peer) {
+        this.peer = peer;
+        this.uri = new HttpURI("http://" + peer.getHost() + ":" + peer.getPort() + "/");
+        try {
+            ensureSession();
+        } catch (IOException e) {
+            // 连接失败时不抛出, 等到第一次write时再重连
+            log.warn("h2c connect {} fail, {}", peer, e.getMessage());
+        }
+    }
+
+    @Override public Peer getPeer() {
+        return peer;
+    }
+
+    @Override public boolean isMultiplexed() {
+        return true;
+    }
+
+    @Override public InputStream write(InputStream data) {
+        return write(out -> IOUtils.copy(data, out));
+    }
+
+    // 3. 同步发送, 最多等待readTimeout
+    @Override public InputStream write(PayloadWriter payload) {
+        CompletableFuture<InputStream> future = writeAsync(payload);
+        try {
+            return future.get(readTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("h2c write to " + peer + " interrupted", e);
+        } catch (TimeoutException e) {
+            future.completeExceptionally(e);
+            throw new IllegalStateException("h2c write to " + peer + " timeout", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("h2c write to " + peer + " fail", e.getCause());
+        }
+    }
+
+    @Override public CompletableFuture<InputStream> writeAsync(InputStream data) {
+        return writeAsync(out -> IOUtils.copy(data, out));
+    }
+
+    // 2. 在会话上新建一个流发送请求, 响应在HTTP2Client的线程上完成future
+    @Override public CompletableFuture<InputStream> writeAsync(PayloadWriter payload) {
+        CompletableFuture<InputStream> future = new CompletableFuture<>();
+        BodyOutputStream body = new BodyOutputStream(256);
+        Session current;
+        try {
+            payload.writeTo(body);
+            HttpConnection.checkBodyLength(body.size(), maxBodyLength);
+            current = ensureSession();
+        } catch (IOException e) {
+            body.close();
+            future.completeExceptionally(e);
+            return future;
+        }
+        HttpFields fields = new HttpFields();
+        fields.put(HttpHeader.CONTENT_TYPE, "application/octet-stream");
+        fields.putLongField(HttpHeader.CONTENT_LENGTH, body.size());
+        MetaData.Request request = new MetaData.Request("POST", uri, HttpVersion.HTTP_2, fields, body.size());
+        current.newStream(new HeadersFrame(request, null, false), new Promise<Stream>() {
+            @Override public void succeeded(Stream stream) {
+                stream.setIdleTimeout(readTimeoutMillis);
+                // b. 调用方放弃了请求, 重置流通知服务端
+                future.whenComplete((response, error) -> {
+                    if (error != null && !stream.isClosed()) {
+                        stream.reset(new ResetFrame(stream.getId(), ErrorCode.CANCEL_STREAM_ERROR.code), Callback.NOOP);
+                    }
+                });
+                // 请求体发送完成后才能归还缓冲区
+                stream.data(new DataFrame(stream.getId(), body.toByteBuffer(), true), new Callback() {
+                    @Override public void succeeded() {
+                        body.close();
+                    }
+
+                    @Override public void failed(Throwable x) {
+                        body.close();
+                        future.completeExceptionally(x);
+                    }
+                });
+            }
+
+            @Override public void failed(Throwable x) {
+                body.close();
+                future.completeExceptionally(x);
+            }
+        }, new ResponseListener(future, maxBodyLength));
+        return future;
+    }
+
+    // 4. 关闭会话
+    @Override public void close() {
+        Session current = session;
+        session = null;
+        if (current != null) {
+            current.close(ErrorCode.NO_ERROR.code, "client closed", Callback.NOOP);
+        }
+    }
+
+    private Session ensureSession() throws IOException {
+        Session current = session;
+        if (current != null && !current.isClosed()) {
+            return current;
+        }
+        synchronized (this) {
+            if (session != null && !session.isClosed()) {
+                return session;
+            }
+            FuturePromise<Session> promise = new FuturePromise<>();
+            SharedClient.CLIENT.connect(new InetSocketAddress(peer.getHost(), peer.getPort()),
+                new SessionListener(), promise);
+            try {
+                session = promise.get(connectTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("h2c connect " + peer + " interrupted", e);
+            } catch (ExecutionException | TimeoutException e) {
+                promise.cancel(true);
+                throw new IOException("h2c connect " + peer + " fail", e);
+            }
+            return session;
+        }
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public long getMaxBodyLength() {
+        return maxBodyLength;
+    }
+
+    public void setMaxBodyLength(long maxBodyLength) {
+        this.maxBodyLength = maxBodyLength;
+    }
+
+    /**
+     * 会话关闭时丢弃它, 下一次发送时重新建立
+     */
+    private final class SessionListener extends Session.Listener.Adapter {
+
+        @Override public void onClose(Session closed, GoAwayFrame frame) {
+            if (session == closed) {
+                session = null;
+            }
+        }
+
+        @Override public void onFailure(Session failed, Throwable failure) {
+            log.warn("h2c session to {} fail, {}", peer, failure.toString());
+            if (session == failed) {
+                session = null;
+            }
+        }
+    }
+
+    /**
+     * 一个流的响应: 检查状态码, 收集DATA帧, 流结束时完成future
+     */
+    private static final class ResponseListener extends Stream.Listener.Adapter {
+
+        private final CompletableFuture<InputStream> future;
+
+        private final BodyOutputStream body = new BodyOutputStream(256);
+
+        private final long maxBodyLength;
+
+        private int status;
+
+        ResponseListener(CompletableFuture<InputStream> future, long maxBodyLength) {
+            this.future = future;
+            this.maxBodyLength = maxBodyLength;
+        }
+
+        @Override public void onHeaders(Stream stream, HeadersFrame frame) {
+            if (frame.getMetaData() instanceof MetaData.Response) {
+                status = ((MetaData.Response) frame.getMetaData()).getStatus();
+            }
+            if (frame.isEndStream()) {
+                finish();
+            }
+        }
+
+        @Override public void onData(Stream stream, DataFrame frame, Callback callback) {
+            try {
+                synchronized (this) {
+                    HttpConnection.checkBodyLength((long) body.size() + frame.remaining(), maxBodyLength);
+                    body.write(frame.getData());
+                }
+                // 归还流量控制窗口
+                callback.succeeded();
+            } catch (IOException | RuntimeException e) {
+                callback.failed(e);
+                fail(e);
+                return;
+            }
+            if (frame.isEndStream()) {
+                finish();
+            }
+        }
+
+        @Override public void onReset(Stream stream, ResetFrame frame) {
+            fail(new IOException("h2c stream reset, " + ErrorCode.toString(frame.getError(), "error " + frame.getError())));
+        }
+
+        // a. readTimeout内没有收到数据, 重置流
+        @Override public boolean onIdleTimeout(Stream stream, Throwable x) {
+            fail(new TimeoutException("h2c stream idle timeout"));
+            return true;
+        }
+
+        @Override public void onFailure(Stream stream, int error, String reason, Throwable failure, Callback callback) {
+            fail(failure != null ? failure : new IOException("h2c stream fail, " + reason));
+            callback.succeeded();
+        }
+
+        private void finish() {
+            InputStream in;
+            synchronized (this) {
+                if (future.isDone()) {
+                    body.close();
+                    return;
+                }
+                if (status != 200) {
+                    body.close();
+                    future.completeExceptionally(new IOException("http status " + status));
+                    return;
+                }
+                in = body.toInputStream();
+            }
+            if (!future.complete(in)) {
+                IOUtils.closeQuietly(in);
+            }
+        }
+
+        private void fail(Throwable error) {
+            synchronized (this) {
+                body.close();
+            }
+            future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * 所有client共用的HTTP2Client, 第一次使用时启动
+     */
+    private static final class SharedClient {
+
+        static final HTTP2Client CLIENT = start();
+
+        private static HTTP2Client start() {
+            HTTP2Client client = new HTTP2Client();
+            QueuedThreadPool executor = new QueuedThreadPool();
+            executor.setName("mrpc-h2c-client");
+            executor.setDaemon(true);
+            client.setExecutor(executor);
+            client.setScheduler(new ScheduledExecutorScheduler("mrpc-h2c-client-scheduler", true));
+            try {
+                client.start();
+            } catch (Exception e) {
+                throw new IllegalStateException("start h2c client fail", e);
+            }
+            return client;
+        }
+    }
+}
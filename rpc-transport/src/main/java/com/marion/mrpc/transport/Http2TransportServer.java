@@ -0,0 +1,29 @@
+package com.marion.mrpc.transport;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+
+/**
+ * 基于HTTP/2明文(h2c)连接的网络通信服务端
+ *      1. 与HttpTransportServer使用同一个端口和同一套请求处理过程, 连接上可以是HTTP/1.1, 也可以是h2c
+ *          (客户端直接发送HTTP/2连接前言, 或者从HTTP/1.1升级)
+ *      2. 一个h2c连接上最多同时有MAX_CONCURRENT_STREAMS个流, 每个流是一次请求, 对应一次RequestHandler.onRequest
+ *      3. 客户端重置一个流时, 异步处理中的请求被取消
+ * 配合Http2TransportClient使用, 仍然可以接受HttpTransportClient的请求
+ */
+public class Http2TransportServer extends HttpTransportServer {
+
+    /**
+     * 一个连接上同时处理的最大流数, 客户端的所有并发调用都在一个连接上
+     */
+    public static final int MAX_CONCURRENT_STREAMS = 1024;
+
+    @Override
+    protected ConnectionFactory[] connectionFactories(HttpConfiguration httpConfiguration) {
+        HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(httpConfiguration);
+        h2c.setMaxConcurrentStreams(MAX_CONCURRENT_STREAMS);
+        return new ConnectionFactory[] {new HttpConnectionFactory(httpConfiguration), h2c};
+    }
+}
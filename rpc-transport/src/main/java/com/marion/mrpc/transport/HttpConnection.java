@@ -0,0 +1,347 @@
+package com.marion.mrpc.transport;
+
+import com.marion.common.buffer.BufferPool;
+import com.marion.common.buffer.PooledOutputStream;
+import com.marion.mrpc.Peer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * 一条HTTP/1.1的keep-alive连接, 同一时刻只有一个请求在途, 由HttpConnectionPool管理
+ *      1. open: 按connectTimeout建立连接, 读响应时按readTimeout超时
+ *      2. send: 发送一个POST请求, 请求体已经在内存中, 带上Content-Length
+ *      3. readResponse: 读取状态行和响应头, 按Content-Length或者chunked读取完整的响应体,
+ *          两者都没有时读到连接关闭为止. 读完之后连接上没有残留数据, 可以继续发送下一个请求
+ *      4. reusable: 对端没有要求关闭连接, 并且响应体已经完整读出时可以还回连接池
+ * 响应体超过maxBodyLength(0表示不限制)时以IOException失败, 连接不再复用
+ */
+final class HttpConnection {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    /**
+     * 状态行或者一个响应头允许的最大长度
+     */
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private static final int COPY_CHUNK_SIZE = 8192;
+
+    /**
+     * 消息体放在一个池化缓冲区中, 没有配置上限时最多是一个数组能放下的长度
+     */
+    static final long MAX_BUFFERED_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final Socket socket;
+
+    private final InputStream in;
+
+    private final OutputStream out;
+
+    private final byte[] requestHead;
+
+    private boolean reusable;
+
+    private boolean used;
+
+    private boolean responseStarted;
+
+    private long idleSince;
+
+    private HttpConnection(Peer peer, Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        this.requestHead = ("POST / HTTP/1.1\r\nHost: " + peer.getHost() + ":" + peer.getPort()
+            + "\r\nContent-Type: application/octet-stream\r\nContent-Length: ").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // 1. 按connectTimeout建立连接, 之后的每次读取最多等待readTimeout
+    static HttpConnection open(Peer peer, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(peer.getHost(), peer.getPort()), connectTimeoutMillis);
+            socket.setSoTimeout(readTimeoutMillis);
+            return new HttpConnection(peer, socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // 2. 发送一个POST请求, 请求头和请求体一起写出后再flush
+    void send(PooledOutputStream body) throws IOException {
+        used = true;
+        reusable = false;
+        responseStarted = false;
+        out.write(requestHead);
+        out.write(Integer.toString(body.size()).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        out.write(CRLF);
+        body.writeTo(out);
+        out.flush();
+    }
+
+    // 3. 读取一个完整的响应, 先确认对端开始响应, 区分出还没有收到任何数据就断开的旧连接
+    HttpResponse readResponse(long maxBodyLength) throws IOException {
+        in.mark(1);
+        if (in.read() < 0) {
+            throw new EOFException("connection closed by peer");
+        }
+        in.reset();
+        responseStarted = true;
+        HttpResponse response = readResponse(in, maxBodyLength);
+        reusable = response.keepAlive;
+        return response;
+    }
+
+    /**
+     * 从输入流中读取一个完整的HTTP响应, 响应体放在池化缓冲区中
+     * @param in 连接的输入流
+     * @param maxBodyLength 响应体的最大长度, 0表示不限制
+     * @return 响应, 调用方读完响应体后关闭它即归还缓冲区
+     * @throws IOException 连接出错, 或者响应格式不合法
+     */
+    static HttpResponse readResponse(InputStream in, long maxBodyLength) throws IOException {
+        // 状态行: HTTP/1.1 200 OK
+        String statusLine = readLine(in);
+        if (statusLine == null) {
+            throw new EOFException("connection closed by peer");
+        }
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/1.")) {
+            throw new IOException("illegal status line " + statusLine);
+        }
+        int status;
+        try {
+            status = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("illegal status line " + statusLine);
+        }
+        // HTTP/1.1默认keep-alive, HTTP/1.0需要对端明确要求
+        boolean keepAlive = !"HTTP/1.0".equals(parts[0]);
+        long contentLength = -1;
+        boolean chunked = false;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("illegal header " + line);
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim().toLowerCase(Locale.ROOT);
+            if ("content-length".equals(name)) {
+                try {
+                    contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("illegal content length " + value);
+                }
+            } else if ("transfer-encoding".equals(name)) {
+                chunked = value.endsWith("chunked");
+            } else if ("connection".equals(name)) {
+                if (value.contains("close")) {
+                    keepAlive = false;
+                } else if (value.contains("keep-alive")) {
+                    keepAlive = true;
+                }
+            }
+        }
+        if (line == null) {
+            throw new EOFException("connection closed while reading headers");
+        }
+        // 响应体: chunked优先于Content-Length, 都没有时读到连接关闭
+        BodyOutputStream body;
+        if (chunked) {
+            body = readChunked(in, maxBodyLength);
+        } else if (contentLength >= 0) {
+            checkBodyLength(contentLength, maxBodyLength);
+            body = readFixed(in, (int) contentLength);
+        } else {
+            keepAlive = false;
+            body = readToEnd(in, maxBodyLength);
+        }
+        return new HttpResponse(status, keepAlive, body.toInputStream());
+    }
+
+    // 4. 是否可以还回连接池
+    boolean isReusable() {
+        return reusable && !socket.isClosed();
+    }
+
+    // 是否已经发送过请求, 复用的旧连接可能已经被对端关闭
+    boolean isUsed() {
+        return used;
+    }
+
+    // 是否已经收到了响应的数据, 没有收到时对端一定还没有处理完这个请求
+    boolean isResponseStarted() {
+        return responseStarted;
+    }
+
+    long idleSince() {
+        return idleSince;
+    }
+
+    void markIdle(long now) {
+        this.idleSince = now;
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 连接已经不可用, 忽略
+        }
+    }
+
+    private static BodyOutputStream readFixed(InputStream in, int length) throws IOException {
+        BodyOutputStream body = new BodyOutputStream(length);
+        try {
+            copy(in, body, length);
+            return body;
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    // chunked: 每块是十六进制长度 + CRLF + 数据 + CRLF, 长度为0的块之后是可选的trailer和一个空行
+    private static BodyOutputStream readChunked(InputStream in, long maxBodyLength) throws IOException {
+        BodyOutputStream body = new BodyOutputStream(BufferPool.MIN_SIZE);
+        try {
+            while (true) {
+                String sizeLine = readLine(in);
+                if (sizeLine == null) {
+                    throw new EOFException("connection closed while reading chunk");
+                }
+                int extension = sizeLine.indexOf(';');
+                String size = (extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim();
+                int length;
+                try {
+                    length = Integer.parseInt(size, 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("illegal chunk size " + sizeLine);
+                }
+                if (length < 0) {
+                    throw new IOException("illegal chunk size " + sizeLine);
+                }
+                if (length == 0) {
+                    String trailer;
+                    while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+                        // 忽略trailer
+                    }
+                    return body;
+                }
+                checkBodyLength((long) body.size() + length, maxBodyLength);
+                copy(in, body, length);
+                if (!"".equals(readLine(in))) {
+                    throw new IOException("illegal chunk end");
+                }
+            }
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    private static BodyOutputStream readToEnd(InputStream in, long maxBodyLength) throws IOException {
+        BodyOutputStream body = new BodyOutputStream(BufferPool.MIN_SIZE);
+        byte[] chunk = BufferPool.shared().acquire(COPY_CHUNK_SIZE);
+        try {
+            int n;
+            while ((n = in.read(chunk)) >= 0) {
+                checkBodyLength((long) body.size() + n, maxBodyLength);
+                body.write(chunk, 0, n);
+            }
+            return body;
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        } finally {
+            BufferPool.shared().release(chunk);
+        }
+    }
+
+    private static void copy(InputStream in, PooledOutputStream body, int length) throws IOException {
+        byte[] chunk = BufferPool.shared().acquire(Math.min(Math.max(length, 1), COPY_CHUNK_SIZE));
+        try {
+            int remaining = length;
+            while (remaining > 0) {
+                int n = in.read(chunk, 0, Math.min(chunk.length, remaining));
+                if (n < 0) {
+                    throw new EOFException("connection closed, " + remaining + " bytes of body missing");
+                }
+                body.write(chunk, 0, n);
+                remaining -= n;
+            }
+        } finally {
+            BufferPool.shared().release(chunk);
+        }
+    }
+
+    // 实际的消息体长度上限: 配置的maxBodyLength, 0表示不限制时是MAX_BUFFERED_LENGTH
+    static long bodyLimit(long maxBodyLength) {
+        return maxBodyLength > 0 ? Math.min(maxBodyLength, MAX_BUFFERED_LENGTH) : MAX_BUFFERED_LENGTH;
+    }
+
+    /**
+     * 校验HTTP消息体的长度
+     * @param length 消息体到目前为止的长度
+     * @param maxBodyLength 配置的上限, 0表示不限制(仍然不能超过MAX_BUFFERED_LENGTH)
+     * @throws IOException 超过上限
+     */
+    static void checkBodyLength(long length, long maxBodyLength) throws IOException {
+        long limit = bodyLimit(maxBodyLength);
+        if (length < 0 || length > limit) {
+            throw new IOException("http body length " + length + " exceeds limit " + limit);
+        }
+    }
+
+    // 读取一行(不含CRLF), 流已经结束并且没有读到任何数据时返回null
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("line too long");
+            }
+            line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * 一个完整读出的HTTP响应
+     */
+    static final class HttpResponse {
+
+        final int status;
+
+        final boolean keepAlive;
+
+        final InputStream body;
+
+        HttpResponse(int status, boolean keepAlive, InputStream body) {
+            this.status = status;
+            this.keepAlive = keepAlive;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.marion.mrpc.transport;
+
+import com.marion.mrpc.Deadline;
+import com.marion.mrpc.Peer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按对端peer共享的HTTP keep-alive连接池, 连接到同一个peer的所有HttpTransportClient共用
+ *      1. acquire: 优先取最近还回的空闲连接, 空闲超过idleTimeout的连接直接关闭丢弃(对端可能已经关闭), 没有可用连接时新建;
+ *          使用中的连接数(active)达到maxActive时等待其它调用还回连接, 最多等待acquireTimeout,
+ *          调用方线程上有Deadline时不超过它, 仍然没有连接则抛出IOException
+ *      2. release: 可以复用的连接还回池中, 空闲连接数达到maxIdle时关闭, 池只保留有限的空闲连接;
+ *          discard: 出错的连接直接关闭; 两者都让出一个active的名额, 唤醒一个等待的acquire
+ *          reopen: 换掉已经被对端关闭的旧连接, 新连接沿用旧连接的名额
+ *      3. retain/unretain: 按peer引用计数, 最后一个使用这个peer的client关闭时关闭所有空闲连接并移除这个池
+ */
+final class HttpConnectionPool {
+
+    private static final Map<Peer, HttpConnectionPool> POOLS = new ConcurrentHashMap<>();
+
+    private final Peer peer;
+
+    private final ArrayDeque<HttpConnection> idle = new ArrayDeque<>();
+
+    private int references;
+
+    // 已经借出(包括正在建立)的连接数
+    private int active;
+
+    private HttpConnectionPool(Peer peer) {
+        this.peer = peer;
+    }
+
+    // 3. 取得peer对应的连接池, 引用计数加一
+    static HttpConnectionPool retain(Peer peer) {
+        while (true) {
+            HttpConnectionPool pool = POOLS.computeIfAbsent(peer, HttpConnectionPool::new);
+            synchronized (pool) {
+                // 池可能刚被最后一个client移除, 重新创建
+                if (pool.references >= 0) {
+                    pool.references++;
+                    return pool;
+                }
+            }
+        }
+    }
+
+    // 3. 引用计数减一, 没有client使用时关闭所有空闲连接
+    void unretain() {
+        synchronized (this) {
+            if (--references > 0) {
+                return;
+            }
+            references = -1;
+            closeIdle();
+        }
+        POOLS.remove(peer, this);
+    }
+
+    // 1. 取一条可用连接, 没有时按connectTimeout新建, 使用中的连接达到maxActive时等待还回
+    HttpConnection acquire(int connectTimeoutMillis, int readTimeoutMillis, long idleTimeoutMillis,
+                           int maxActive, long acquireTimeoutMillis) throws IOException {
+        long waitStart = System.nanoTime();
+        long maxWait = Math.min(TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis), Deadline.remainingNanos());
+        synchronized (this) {
+            while (true) {
+                long now = System.nanoTime();
+                HttpConnection connection;
+                while ((connection = idle.pollFirst()) != null) {
+                    if (now - connection.idleSince() < TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)) {
+                        active++;
+                        return connection;
+                    }
+                    connection.close();
+                }
+                if (maxActive <= 0 || active < maxActive) {
+                    active++;
+                    break;
+                }
+                long remaining = maxWait - (now - waitStart);
+                if (remaining <= 0) {
+                    throw new IOException("no http connection to " + peer + " available, " + active + " in use");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for http connection to " + peer);
+                }
+            }
+        }
+        return open(connectTimeoutMillis, readTimeoutMillis);
+    }
+
+    // 2. 还回连接, 不能复用或者空闲连接已满时关闭
+    void release(HttpConnection connection, int maxIdle) {
+        if (connection.isReusable()) {
+            connection.markIdle(System.nanoTime());
+            synchronized (this) {
+                active--;
+                notify();
+                if (references >= 0 && idle.size() < maxIdle) {
+                    idle.offerFirst(connection);
+                    return;
+                }
+            }
+        } else {
+            free();
+        }
+        connection.close();
+    }
+
+    // 2. 出错的连接不再使用
+    void discard(HttpConnection connection) {
+        connection.close();
+        free();
+    }
+
+    // 2. 关闭旧连接并在它的名额上新建一条
+    HttpConnection reopen(HttpConnection stale, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        stale.close();
+        return open(connectTimeoutMillis, readTimeoutMillis);
+    }
+
+    private HttpConnection open(int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        try {
+            return HttpConnection.open(peer, connectTimeoutMillis, readTimeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            free();
+            throw e;
+        }
+    }
+
+    private synchronized void free() {
+        active--;
+        notify();
+    }
+
+    private void closeIdle() {
+        HttpConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            connection.close();
+        }
+    }
+}
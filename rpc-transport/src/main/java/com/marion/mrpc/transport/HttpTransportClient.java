@@ -1,54 +1,206 @@
 package com.marion.mrpc.transport;
 
 import com.marion.mrpc.Peer;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.SocketException;
 
 /**
- * 基于HTTP连接的网络通信客户端
- *      1. connect: client->创建连接到对端peer, 即连接server
+ * 基于HTTP/1.1 keep-alive连接的网络通信客户端
+ *      1. connect: client->取得对端peer的连接池, 连接到同一个peer的client共用一个池, 连接在第一次write时建立
  *      2. write: client->发送二进制数据data到对端peer, 即发送请求到server, 最终返回得到的InputStream二进制响应信息
- *      3. close: 关闭client
+ *          a. 请求体先写到池化缓冲区, 带着Content-Length一次发出
+ *          b. 按Content-Length或者chunked读出完整的响应体后, 连接还回池中给下一次调用复用
+ *          c. 建立连接最多等待connectTimeout, 每次读取最多等待readTimeout, 超时后关闭连接
+ *          d. 复用的空闲连接可能已经被对端关闭, 对端还没有任何响应时换一条新连接重发一次
+ *          e. 同一个peer使用中的连接最多maxActivePerPeer条, 达到上限时等待其它调用还回连接,
+ *              最多等待acquireTimeout, 调用方线程上有Deadline时不超过它
+ *          f. 请求体或者响应体超过maxBodyLength时失败, 默认不限制
+ *      3. close: 释放连接池, 最后一个使用这个peer的client关闭时关闭所有空闲连接
  */
+@Slf4j
 public class HttpTransportClient implements TransportClient {
 
-    private String url;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 3000;
 
-    // 1. client: 创建连接到对端peer, 即连接server
-    @Override public void connect(Peer peer) {
-        this.url = "http://" + peer.getHost() + ":" + peer.getPort();
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * 空闲连接的保留时间, 要小于服务端的空闲超时, 避免取到对端正在关闭的连接
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 20000;
+
+    public static final int DEFAULT_MAX_IDLE_PER_PEER = 16;
+
+    /**
+     * 同一个peer最多同时使用的连接数, 0表示不限制
+     */
+    public static final int DEFAULT_MAX_ACTIVE_PER_PEER = 64;
+
+    public static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 3000;
+
+    /**
+     * 请求体和响应体的最大长度, 0表示不限制(只受一个缓冲区能放下的长度限制)
+     */
+    public static final long DEFAULT_MAX_BODY_LENGTH = 0;
+
+    private Peer peer;
+
+    private HttpConnectionPool pool;
+
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    private int maxIdlePerPeer = DEFAULT_MAX_IDLE_PER_PEER;
+
+    private int maxActivePerPeer = DEFAULT_MAX_ACTIVE_PER_PEER;
+
+    private long acquireTimeoutMillis = DEFAULT_ACQUIRE_TIMEOUT_MILLIS;
+
+    private long maxBodyLength = DEFAULT_MAX_BODY_LENGTH;
+
+    // 1. client: 取得对端peer的连接池
+    @Override public synchronized void connect(Peer peer) {
+        if (pool != null) {
+            pool.unretain();
+        }
+        this.peer = peer;
+        this.pool = HttpConnectionPool.retain(peer);
+    }
+
+    @Override public Peer getPeer() {
+        return peer;
     }
 
     // 2. client: 发送二进制数据data到对端peer, 即发送请求到server, 最终返回得到InputStream二进制响应
     @Override public InputStream write(InputStream data) {
-        try {
-            // client: 建立与server之间的HTTP连接, 并打开.
-            HttpURLConnection urlConnection = (HttpURLConnection)new URL(url).openConnection();
-            // 对该HTTP连接设置属性: 需要读, 需要写. 不需要cache, 方法为POST
-            urlConnection.setDoInput(true);
-            urlConnection.setDoOutput(true);
-            urlConnection.setUseCaches(false);
-            urlConnection.setRequestMethod("POST");
-            // client: 进行连接, 并发送二进制数据data出去给server
-            urlConnection.connect();
-            IOUtils.copy(data, urlConnection.getOutputStream());
-            // 获取该HTTP连接返回的响应码进行判断, 成功的话getInputStream, 失败的话就getErrorStream
-            int resultCode = urlConnection.getResponseCode();
-            if (resultCode == HttpURLConnection.HTTP_OK) {
-                return urlConnection.getInputStream();
-            } else {
-                return urlConnection.getErrorStream();
+        return write(out -> IOUtils.copy(data, out));
+    }
+
+    // 2. client: 流式版本, 请求写入池化缓冲区后带着Content-Length发出
+    @Override public InputStream write(PayloadWriter payload) {
+        HttpConnectionPool current = pool;
+        if (current == null) {
+            throw new IllegalStateException("http client not connected");
+        }
+        try (BodyOutputStream body = new BodyOutputStream(256)) {
+            payload.writeTo(body);
+            HttpConnection.checkBodyLength(body.size(), maxBodyLength);
+            HttpConnection.HttpResponse response = exchange(current, body);
+            if (response.status != 200) {
+                response.body.close();
+                throw new IOException("http status " + response.status);
             }
+            return response.body;
         } catch (IOException e) {
-            throw new IllegalStateException();
+            throw new IllegalStateException("http write to " + peer + " fail", e);
         }
     }
 
-    @Override public void close() {
+    private HttpConnection.HttpResponse exchange(HttpConnectionPool current, BodyOutputStream body)
+        throws IOException {
+        HttpConnection connection = current.acquire(connectTimeoutMillis, readTimeoutMillis, idleTimeoutMillis,
+            maxActivePerPeer, acquireTimeoutMillis);
+        boolean reused = connection.isUsed();
+        try {
+            return send(current, connection, body);
+        } catch (IOException e) {
+            // d. 复用的连接在对端响应之前就断开了, 对端没有处理这个请求, 换一条新连接重发
+            if (!reused || connection.isResponseStarted() || !(e instanceof SocketException || e instanceof EOFException)) {
+                current.discard(connection);
+                throw e;
+            }
+            log.debug("stale http connection to {}, {}", peer, e.getMessage());
+            HttpConnection fresh = current.reopen(connection, connectTimeoutMillis, readTimeoutMillis);
+            try {
+                return send(current, fresh, body);
+            } catch (IOException | RuntimeException retryError) {
+                current.discard(fresh);
+                throw retryError;
+            }
+        } catch (RuntimeException e) {
+            current.discard(connection);
+            throw e;
+        }
+    }
+
+    private HttpConnection.HttpResponse send(HttpConnectionPool current, HttpConnection connection,
+                                             BodyOutputStream body) throws IOException {
+        connection.send(body);
+        HttpConnection.HttpResponse response = connection.readResponse(maxBodyLength);
+        // b. 响应体已经完整读出, 连接可以还回池中
+        current.release(connection, maxIdlePerPeer);
+        return response;
+    }
+
+    // 3. 释放连接池
+    @Override public synchronized void close() {
+        if (pool != null) {
+            pool.unretain();
+            pool = null;
+        }
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public int getMaxIdlePerPeer() {
+        return maxIdlePerPeer;
+    }
+
+    public void setMaxIdlePerPeer(int maxIdlePerPeer) {
+        this.maxIdlePerPeer = maxIdlePerPeer;
+    }
+
+    public int getMaxActivePerPeer() {
+        return maxActivePerPeer;
+    }
+
+    public void setMaxActivePerPeer(int maxActivePerPeer) {
+        this.maxActivePerPeer = maxActivePerPeer;
+    }
+
+    public long getAcquireTimeoutMillis() {
+        return acquireTimeoutMillis;
+    }
+
+    public void setAcquireTimeoutMillis(long acquireTimeoutMillis) {
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    public long getMaxBodyLength() {
+        return maxBodyLength;
+    }
 
+    public void setMaxBodyLength(long maxBodyLength) {
+        this.maxBodyLength = maxBodyLength;
     }
 }
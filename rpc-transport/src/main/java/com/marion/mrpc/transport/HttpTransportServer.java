@@ -1,10 +1,18 @@
 package com.marion.mrpc.transport;
 
+import com.marion.common.buffer.BufferPool;
 import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -12,33 +20,84 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  *  基于HTTP连接的网络通信服务端
  *      1. init: 在对应端口port建立jettyServer进行监听, 初始化设置好HttpTransportServer对应的requestHandler
+ *              指定了executor时, 请求在executor上异步处理, 不占用jetty的请求线程
  *      2. start: 启动jettyServer, 并等待接收请求, 最终[RequestServlet负责]响应进行处理并返回
+ *              a. 请求体按Content-Length或者chunked完整读到池化缓冲区后再交给requestHandler, 超过maxBodyLength时返回413
+ *              b. 响应先写到池化缓冲区, 带上Content-Length一次写出, 连接保持keep-alive给客户端复用
+ *              c. 异步处理时客户端断开或者重置了请求, 取消RequestContext
+ *              d. executor已满(拒绝了任务)时在jetty的请求线程上调用requestHandler.onRejected, 立即写出拒绝的响应
  *      3. stop: 关闭jettyServer
  */
 @Slf4j public class HttpTransportServer implements TransportServer {
 
+    /**
+     * keep-alive连接的空闲超时, 要大于客户端空闲连接的保留时间
+     */
+    public static final long IDLE_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * 请求体的最大长度, 0表示不限制(只受一个缓冲区能放下的长度限制)
+     */
+    public static final long DEFAULT_MAX_BODY_LENGTH = 0;
+
+    private static final int READ_CHUNK_SIZE = 8192;
+
     private RequestHandler requestHandler;
 
     private Server jettyServer;
 
+    /**
+     * 处理请求的executor, 为空时直接在jetty的请求线程上处理
+     */
+    private Executor executor;
+
+    private volatile long maxBodyLength = DEFAULT_MAX_BODY_LENGTH;
+
+    //  1. 在对应端口port建立jettyServer进行监听, 初始化设置好HttpTransportServer对应的requestHandler
+    @Override public void init(int port, RequestHandler requestHandler, Executor executor) {
+        this.executor = executor;
+        init(port, requestHandler);
+    }
+
     //  1. 在对应端口port建立jettyServer进行监听, 初始化设置好HttpTransportServer对应的requestHandler
     @Override public void init(int port, RequestHandler requestHandler) {
         this.requestHandler = requestHandler;
-        this.jettyServer = new Server(port);
+        this.jettyServer = new Server();
+        // 响应头只保留必要的字段, 连接按IDLE_TIMEOUT_MILLIS保持
+        HttpConfiguration httpConfiguration = new HttpConfiguration();
+        httpConfiguration.setSendServerVersion(false);
+        httpConfiguration.setSendDateHeader(false);
+        ServerConnector connector = new ServerConnector(jettyServer, connectionFactories(httpConfiguration));
+        connector.setPort(port);
+        connector.setIdleTimeout(IDLE_TIMEOUT_MILLIS);
+        jettyServer.addConnector(connector);
 
         // 对jettyServer的一些补充处理, 主要是设置Servlet
         ServletContextHandler handler = new ServletContextHandler();
         // ServletHolder是处理网络请求的抽象 // RequestServlet中处理了请求
         ServletHolder servletHolder = new ServletHolder(new RequestServlet());
+        // 交给executor处理时使用servlet异步模式, 及时释放jetty的请求线程
+        servletHolder.setAsyncSupported(true);
         handler.addServlet(servletHolder, "/*");
         // 将上述放到jettyServer当中
         jettyServer.setHandler(handler);
     }
 
+    /**
+     * 连接支持的协议, 默认只有HTTP/1.1, 子类可以增加其它协议(例如h2c)
+     * @param httpConfiguration 共用的HTTP配置
+     * @return 按优先级排列的连接工厂, 第一个是默认协议
+     */
+    protected ConnectionFactory[] connectionFactories(HttpConfiguration httpConfiguration) {
+        return new ConnectionFactory[] {new HttpConnectionFactory(httpConfiguration)};
+    }
+
     @Override public void start() {
         try {
             jettyServer.start();
@@ -57,21 +116,148 @@ import java.io.OutputStream;
 
     }
 
+    public long getMaxBodyLength() {
+        return maxBodyLength;
+    }
+
+    // 请求体的最大长度, 0表示不限制, 可以在运行中调整
+    public void setMaxBodyLength(long maxBodyLength) {
+        this.maxBodyLength = maxBodyLength;
+    }
+
     /**
      * 对于请求的处理过程
      */
     class RequestServlet extends HttpServlet {
         @Override protected void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
-            // 拿到[接收请求receive]的通道
-            InputStream receive = request.getInputStream();
-            // 拿到[响应返回toResponse]的通道
-            OutputStream toResponse = response.getOutputStream();
+            // a. 完整读出请求体, 之后的处理不再阻塞在网络读取上
+            long contentLength = request.getContentLengthLong();
+            long limit = HttpConnection.bodyLimit(maxBodyLength);
+            if (contentLength > limit) {
+                response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                return;
+            }
+            InputStream receive;
+            try {
+                receive = readBody(request.getInputStream(), (int) contentLength, limit);
+            } catch (IOException e) {
+                log.warn("http request error, {}", e.getMessage());
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+            if (receive == null) {
+                response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                return;
+            }
+            RequestContext context = new RequestContext();
+            context.setRemoteAddress(request.getRemoteAddr() + ":" + request.getRemotePort());
+            if (executor == null) {
+                handle(receive, response, context, false);
+                return;
+            }
+            // 交给executor处理, 处理完成后再结束这次异步请求
+            AsyncContext asyncContext = request.startAsync();
+            asyncContext.setTimeout(0);
+            asyncContext.addListener(new CancelListener(context));
+            try {
+                executor.execute(() -> handleAsync(receive, response, context, asyncContext, false));
+            } catch (RejectedExecutionException e) {
+                // d. executor已满, 直接写出拒绝的响应
+                handleAsync(receive, response, context, asyncContext, true);
+            }
+        }
+
+        private void handleAsync(InputStream receive, HttpServletResponse response, RequestContext context,
+                                 AsyncContext asyncContext, boolean rejected) {
+            try {
+                handle(receive, response, context, rejected);
+            } catch (IOException e) {
+                if (!context.isCancelled()) {
+                    log.warn("http response error, {}", e.getMessage());
+                }
+            } finally {
+                complete(asyncContext, context);
+            }
+        }
+
+        // 请求被客户端取消后jetty已经结束了这次异步请求, 不需要再complete
+        private void complete(AsyncContext asyncContext, RequestContext context) {
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                if (!context.isCancelled()) {
+                    throw e;
+                }
+            }
+        }
+
+        // a. 按Content-Length读取请求体, 长度未知(chunked)时读到结束为止, jetty负责解开chunked编码; 超过limit时返回null
+        private InputStream readBody(InputStream in, int contentLength, long limit) throws IOException {
+            byte[] chunk = BufferPool.shared().acquire(READ_CHUNK_SIZE);
+            try (BodyOutputStream body = new BodyOutputStream(contentLength)) {
+                int n;
+                while ((n = in.read(chunk)) >= 0) {
+                    if ((long) body.size() + n > limit) {
+                        return null;
+                    }
+                    body.write(chunk, 0, n);
+                }
+                if (contentLength >= 0 && body.size() != contentLength) {
+                    throw new IOException("expect " + contentLength + " bytes of body, got " + body.size());
+                }
+                return body.toInputStream();
+            } finally {
+                BufferPool.shared().release(chunk);
+            }
+        }
+
+        private void handle(InputStream receive, HttpServletResponse response, RequestContext context, boolean rejected)
+            throws IOException {
             // RPC服务端从[收到请求receive]到[响应返回toResponse]中间的处理过程
-            if (requestHandler != null) {
-                requestHandler.onRequest(receive, toResponse);
+            try (InputStream in = receive; BodyOutputStream toResponse = new BodyOutputStream(256)) {
+                if (requestHandler != null && rejected) {
+                    requestHandler.onRejected(in, toResponse, context);
+                } else if (requestHandler != null) {
+                    requestHandler.onRequest(in, toResponse, context);
+                }
+                // c. 已经取消的请求不再写回响应
+                if (context.isCancelled()) {
+                    return;
+                }
+                // b. 带上Content-Length一次写出响应
+                response.setContentType("application/octet-stream");
+                response.setContentLength(toResponse.size());
+                OutputStream out = response.getOutputStream();
+                toResponse.writeTo(out);
+                out.flush();
+                context.written();
             }
-            toResponse.flush();
+        }
+    }
+
+    /**
+     * c. 异步请求出错(客户端断开连接或者重置了HTTP/2的流)时取消请求
+     */
+    private static final class CancelListener implements AsyncListener {
+
+        private final RequestContext context;
+
+        CancelListener(RequestContext context) {
+            this.context = context;
+        }
+
+        @Override public void onError(AsyncEvent event) {
+            context.cancel();
+        }
+
+        @Override public void onComplete(AsyncEvent event) {
+        }
+
+        @Override public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override public void onStartAsync(AsyncEvent event) {
         }
     }
 }
@@ -0,0 +1,393 @@
+package com.marion.mrpc.transport;
+
+import com.marion.common.buffer.BufferPool;
+import com.marion.common.buffer.PooledInputStream;
+import com.marion.mrpc.Peer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于TCP长连接的多路复用网络通信客户端
+ *      1. connect: client->与对端peer建立一条长连接, 并启动一个读线程专门读取响应帧
+ *      2. write: client->多个线程可以同时在这条连接上发送请求帧, 每个请求帧带上唯一的requestId,
+ *              读线程收到响应帧后按照requestId找到对应的请求并唤醒它, 响应可以乱序返回
+ *      3. close: 关闭长连接, 所有在途请求都以失败结束
+ *      4. writeAsync: 异步发送请求帧, 响应帧由读线程直接完成future;
+ *              调用方在响应到达前让future失败(例如超时)或者取消future时, 发送取消帧通知服务端不再执行这个请求
+ *      6. writeAsync(payload, attachments, received): 附件帧在请求帧之前发送, 每个附件帧单独持有写锁,
+ *              大附件之间可以穿插其它请求的帧; 响应帧之前的附件帧由读线程直接读入直接缓冲区(超过1MB时读入临时文件)
+ *      7. readTimeoutMillis: 请求发出后最多等待响应的时间, 到期时future以TimeoutException失败并发送取消帧,
+ *              对端没有响应(例如已经宕机但连接没有断开)时调用方不会一直等待; 0表示不限制
+ * 与TcpTransportClient不同, 它可以被TransportSelector共享给多个调用方同时使用
+ */
+@Slf4j
+public class MultiplexTcpTransportClient implements TransportClient {
+
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * 等待响应的超时计时, 所有客户端共用一个计时线程
+     */
+    private static final ScheduledExecutorService TIMER;
+
+    static {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "mrpc-tcp-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        TIMER = executor;
+    }
+
+    private Peer peer;
+
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    private volatile SocketChannel channel;
+
+    private final Object writeLock = new Object();
+
+    private final AtomicLong nextRequestId = new AtomicLong();
+
+    /**
+     * 在途请求: requestId -> 等待响应帧体的future
+     */
+    private final Map<Long, CompletableFuture<InputStream>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 在途的流式响应: requestId -> 接收流数据帧的StreamReader
+     */
+    private final Map<Long, StreamReader> streams = new ConcurrentHashMap<>();
+
+    /**
+     * 在途请求中接收响应附件的列表: requestId -> received
+     */
+    private final Map<Long, List<ByteBuffer>> attachments = new ConcurrentHashMap<>();
+
+    // 1. client: 与对端peer建立一条长连接, 并启动读线程
+    @Override public void connect(Peer peer) {
+        this.peer = peer;
+        try {
+            ensureConnected();
+        } catch (IOException e) {
+            // 连接失败时不抛出, 等到第一次write时再重连
+            log.warn("tcp connect {} fail, {}", peer, e.getMessage());
+        }
+    }
+
+    // 2. client: 发送一个请求帧, 等待读线程按照requestId返回对应的响应帧体
+    @Override public InputStream write(InputStream data) {
+        return write(out -> IOUtils.copy(data, out));
+    }
+
+    // 2. client: 流式版本, 请求直接写入帧缓冲区, 最多等待readTimeout(见send)
+    @Override public InputStream write(PayloadWriter payload) {
+        CompletableFuture<InputStream> future = writeAsync(payload);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("tcp write to " + peer + " interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                throw new IllegalStateException("tcp write to " + peer + " timeout", e.getCause());
+            }
+            throw new IllegalStateException("tcp write to " + peer + " fail", e.getCause());
+        }
+    }
+
+    // 3. 关闭长连接, 所有在途请求都以失败结束
+    @Override public void close() {
+        SocketChannel current = channel;
+        if (current != null) {
+            closeChannel(current, new IOException("client closed"));
+        }
+    }
+
+    @Override public Peer getPeer() {
+        return peer;
+    }
+
+    @Override public boolean isMultiplexed() {
+        return true;
+    }
+
+    // 异步发送: 响应帧到达后由读线程完成future, 调用方线程不会被阻塞
+    @Override public CompletableFuture<InputStream> writeAsync(InputStream data) {
+        return writeAsync(out -> IOUtils.copy(data, out));
+    }
+
+    @Override public CompletableFuture<InputStream> writeAsync(PayloadWriter payload) {
+        return send(payload, Collections.emptyList(), null);
+    }
+
+    @Override public boolean supportsAttachments() {
+        return true;
+    }
+
+    // 6. 带附件的请求
+    @Override public CompletableFuture<InputStream> writeAsync(PayloadWriter payload, List<Attachment> attachments,
+                                                             List<ByteBuffer> received) {
+        return send(payload, attachments, received);
+    }
+
+    @Override public boolean supportsStreaming() {
+        return true;
+    }
+
+    // 5. 发送请求帧, 流数据帧和最后的响应帧由读线程交给返回的StreamReader
+    @Override public StreamReader writeStream(PayloadWriter payload, int window) {
+        long requestId = nextRequestId.incrementAndGet();
+        StreamReader reader = new StreamReader(window, credits -> credit(requestId, credits), () -> {
+            if (streams.remove(requestId) != null) {
+                cancel(requestId);
+            }
+        });
+        SocketChannel current = null;
+        try (FrameOutputStream frame = new FrameOutputStream()) {
+            payload.writeTo(frame);
+            TcpFrame.checkLength(frame.bodyLength());
+            streams.put(requestId, reader);
+            current = ensureConnected();
+            synchronized (writeLock) {
+                TcpFrame.writeFully(current, frame.toFrame(requestId, TcpFrame.FLAG_REQUEST));
+            }
+        } catch (IOException e) {
+            streams.remove(requestId);
+            if (current != null) {
+                closeChannel(current, e);
+            }
+            throw new IllegalStateException("tcp write to " + peer + " fail", e);
+        }
+        return reader;
+    }
+
+    /**
+     * 发送一个请求帧, 返回在读线程上完成的future
+     * @param payload 请求帧体的写出过程, 直接写入帧缓冲区
+     * @param requestAttachments 在请求帧之前发送的附件, 发送后关闭
+     * @param received 接收响应附件的列表, 为空表示不接收
+     * @return 响应帧体, 读完后关闭输入流把缓冲区还给池
+     */
+    CompletableFuture<InputStream> send(PayloadWriter payload, List<Attachment> requestAttachments,
+                                        List<ByteBuffer> received) {
+        CompletableFuture<InputStream> future = new CompletableFuture<>();
+        long requestId = nextRequestId.incrementAndGet();
+        SocketChannel current = null;
+        try (FrameOutputStream frame = new FrameOutputStream()) {
+            payload.writeTo(frame);
+            TcpFrame.checkLength(frame.bodyLength());
+            pending.put(requestId, future);
+            if (received != null) {
+                attachments.put(requestId, received);
+            }
+            current = ensureConnected();
+            // 多个线程共用一条连接, 一个帧必须完整写完才能写下一个
+            for (Attachment attachment : requestAttachments) {
+                synchronized (writeLock) {
+                    new AttachmentFrame(requestId, attachment).writeFully(current);
+                }
+            }
+            synchronized (writeLock) {
+                TcpFrame.writeFully(current, frame.toFrame(requestId, TcpFrame.FLAG_REQUEST));
+            }
+        } catch (IOException e) {
+            pending.remove(requestId);
+            attachments.remove(requestId);
+            future.completeExceptionally(e);
+            if (current != null) {
+                closeChannel(current, e);
+            }
+            return future;
+        } finally {
+            requestAttachments.forEach(Attachment::close);
+        }
+        // 7. 等待响应的超时
+        if (readTimeoutMillis > 0) {
+            ScheduledFuture<?> timeout = TIMER.schedule(() -> future.completeExceptionally(
+                new TimeoutException("no response from " + peer + " in " + readTimeoutMillis + "ms")),
+                readTimeoutMillis, TimeUnit.MILLISECONDS);
+            future.whenComplete((response, error) -> timeout.cancel(false));
+        }
+        // 读线程和closeChannel都会先从pending中移除再完成future, 这里还能移除说明是调用方放弃了请求(包括超时)
+        future.whenComplete((response, error) -> {
+            attachments.remove(requestId);
+            if (error != null && pending.remove(requestId) != null) {
+                cancel(requestId);
+            }
+        });
+        return future;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    // 发送取消帧, 连接已经断开时不需要发送
+    private void cancel(long requestId) {
+        SocketChannel current = channel;
+        if (current == null || !current.isOpen()) {
+            return;
+        }
+        try {
+            synchronized (writeLock) {
+                TcpFrame.writeFully(current, TcpFrame.header(0, requestId, TcpFrame.FLAG_CANCEL));
+            }
+        } catch (IOException e) {
+            closeChannel(current, e);
+        }
+    }
+
+    // 发送授权帧, 服务端可以再发送credits个流数据帧
+    private void credit(long requestId, int credits) {
+        SocketChannel current = channel;
+        if (current == null || !current.isOpen() || !streams.containsKey(requestId)) {
+            return;
+        }
+        ByteBuffer body = ByteBuffer.allocate(4);
+        body.putInt(credits).flip();
+        try {
+            synchronized (writeLock) {
+                TcpFrame.writeFully(current, TcpFrame.header(4, requestId, TcpFrame.FLAG_CREDIT), body);
+            }
+        } catch (IOException e) {
+            closeChannel(current, e);
+        }
+    }
+
+    private SocketChannel ensureConnected() throws IOException {
+        SocketChannel current = channel;
+        if (current != null && current.isOpen()) {
+            return current;
+        }
+        synchronized (this) {
+            if (channel != null && channel.isOpen()) {
+                return channel;
+            }
+            SocketChannel socketChannel = SocketChannel.open();
+            try {
+                socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                socketChannel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                socketChannel.connect(new InetSocketAddress(peer.getHost(), peer.getPort()));
+            } catch (IOException e) {
+                socketChannel.close();
+                throw e;
+            }
+            Thread reader = new Thread(() -> readLoop(socketChannel),
+                "mrpc-tcp-reader-" + peer.getHost() + ":" + peer.getPort());
+            reader.setDaemon(true);
+            reader.start();
+            channel = socketChannel;
+            return socketChannel;
+        }
+    }
+
+    // 读线程: 不断读取响应帧, 按照requestId唤醒对应的请求
+    private void readLoop(SocketChannel socketChannel) {
+        ByteBuffer header = ByteBuffer.allocate(TcpFrame.HEADER_LENGTH);
+        try {
+            while (socketChannel.isOpen()) {
+                header.clear();
+                TcpFrame.readFully(socketChannel, header);
+                header.flip();
+                int length = header.getInt();
+                long requestId = header.getLong();
+                byte flags = header.get();
+                if (flags == TcpFrame.FLAG_ATTACHMENT) {
+                    // 附件直接读入直接缓冲区或者临时文件, 调用方已经放弃的请求直接丢弃
+                    ByteBuffer attachment = TcpFrame.readAttachment(socketChannel, length);
+                    List<ByteBuffer> received = attachments.get(requestId);
+                    if (received != null) {
+                        received.add(attachment);
+                    }
+                    continue;
+                }
+                TcpFrame.checkLength(length);
+                // 响应帧体读到池化缓冲区, 没有人接收时立即归还
+                byte[] body = BufferPool.shared().acquire(length);
+                try {
+                    TcpFrame.readFully(socketChannel, ByteBuffer.wrap(body, 0, length));
+                } catch (IOException e) {
+                    BufferPool.shared().release(body);
+                    throw e;
+                }
+                if (flags == TcpFrame.FLAG_STREAM || streams.containsKey(requestId)) {
+                    stream(requestId, flags, new PooledInputStream(body, length));
+                    continue;
+                }
+                CompletableFuture<InputStream> future = pending.remove(requestId);
+                if (future == null) {
+                    log.warn("tcp response {} has no pending request", requestId);
+                    BufferPool.shared().release(body);
+                } else if (!future.complete(new PooledInputStream(body, length))) {
+                    BufferPool.shared().release(body);
+                }
+            }
+        } catch (IOException e) {
+            closeChannel(socketChannel, e);
+        }
+    }
+
+    // 流数据帧交给对应的StreamReader, 响应帧结束这个流; 流已经被调用方关闭时丢弃
+    private void stream(long requestId, byte flags, PooledInputStream body) {
+        StreamReader reader = flags == TcpFrame.FLAG_STREAM ? streams.get(requestId) : streams.remove(requestId);
+        if (reader == null) {
+            body.close();
+        } else if (flags == TcpFrame.FLAG_STREAM) {
+            reader.onData(body);
+        } else {
+            reader.onEnd(body);
+        }
+    }
+
+    private void closeChannel(SocketChannel socketChannel, IOException cause) {
+        synchronized (this) {
+            if (channel == socketChannel) {
+                channel = null;
+            }
+        }
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            log.warn("tcp close {} fail, {}", peer, e.getMessage());
+        }
+        // 连接断开后, 在这条连接上等待的请求都不会再有响应
+        for (Long requestId : pending.keySet()) {
+            CompletableFuture<InputStream> future = pending.remove(requestId);
+            if (future != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+        for (Long requestId : streams.keySet()) {
+            StreamReader reader = streams.remove(requestId);
+            if (reader != null) {
+                reader.onError(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.marion.mrpc.transport;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TcpTransportServer等待写出的一个完整的帧, 由事件循环线程写入非阻塞的通道
+ *      1. writeTo: 尽量多地写入通道, 全部写完时返回true; 内核发送缓冲区已满时返回false, 等待可写事件后继续
+ *      2. close: 写完或者连接断开后释放帧占用的资源
+ */
+interface OutboundFrame {
+
+    boolean writeTo(SocketChannel channel) throws IOException;
+
+    void close();
+}
@@ -0,0 +1,14 @@
+package com.marion.mrpc.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 待发送的二进制数据的写出过程
+ * 由网络通信客户端提供输出流out, 调用方(例如序列化模块)直接把数据写进去, 省去中间的byte[]拷贝
+ */
+@FunctionalInterface
+public interface PayloadWriter {
+
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,133 @@
+package com.marion.mrpc.transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个请求在服务端的上下文, 由TransportServer创建并传给RequestHandler
+ *      1. receivedNanos: 收到完整请求的时间(System.nanoTime), 请求的超时时间从这里开始计算,
+ *          包含在工作线程池中排队的时间
+ *      2. cancel: 客户端放弃了这个请求(发送了取消帧或者断开了连接), 不需要再执行, 响应也不会再写回
+ *      3. setCancelListener: 请求被取消时的回调, 例如中断正在执行的线程; 设置时已经取消则立即执行
+ *      4. streamWriter: 支持流式响应的TransportServer提供, 用来在响应之前分段发送数据, 为空表示不支持;
+ *          请求在网络IO线程上执行时(例如ExecutorMode.INLINE)start抛出IOException, 因为等待客户端授权会阻塞网络IO
+ *      5. attachments: 支持附件的TransportServer提供, 是请求帧之前收到的附件(直接缓冲区或者临时文件的只读映射), 为空表示不支持;
+ *          attach: 把返回值作为附件, 在响应帧之前发送
+ *      6. setWriteListener: 响应写回连接之后的回调, 在写出的线程上执行(可能是事件循环线程), 只能做很少的工作;
+ *          请求被取消或者连接断开, 响应没有写回时不执行
+ *      7. remoteAddress: 客户端的地址, 形如 ip:port, TransportServer不知道时为空
+ */
+public class RequestContext {
+
+    private final long receivedNanos;
+
+    private volatile boolean cancelled;
+
+    private volatile Runnable cancelListener;
+
+    private StreamWriter streamWriter;
+
+    private List<ByteBuffer> attachments;
+
+    private List<Attachment> responseAttachments = Collections.emptyList();
+
+    private volatile Runnable writeListener;
+
+    private String remoteAddress;
+
+    public RequestContext() {
+        this(System.nanoTime());
+    }
+
+    public RequestContext(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    public long receivedNanos() {
+        return receivedNanos;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // 2. 取消请求, 只有第一次调用会触发回调
+    public void cancel() {
+        Runnable listener;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            listener = cancelListener;
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    // 3. 设置取消回调, 传入null清除
+    public void setCancelListener(Runnable listener) {
+        synchronized (this) {
+            cancelListener = listener;
+            if (!cancelled || listener == null) {
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    // 4. 分段发送流式响应, 为空表示不支持
+    public StreamWriter getStreamWriter() {
+        return streamWriter;
+    }
+
+    public void setStreamWriter(StreamWriter streamWriter) {
+        this.streamWriter = streamWriter;
+    }
+
+    // 5. 请求帧之前收到的附件, 为空表示不支持附件
+    public List<ByteBuffer> getAttachments() {
+        return attachments;
+    }
+
+    public void setAttachments(List<ByteBuffer> attachments) {
+        this.attachments = attachments;
+    }
+
+    // 5. 在响应帧之前发送的附件
+    public void attach(Attachment attachment) {
+        if (responseAttachments.isEmpty()) {
+            responseAttachments = new ArrayList<>();
+        }
+        responseAttachments.add(attachment);
+    }
+
+    public List<Attachment> getResponseAttachments() {
+        return responseAttachments;
+    }
+
+    // 6. 设置写回响应之后的回调, 传入null清除
+    public void setWriteListener(Runnable listener) {
+        this.writeListener = listener;
+    }
+
+    // 6. TransportServer写回响应之后调用
+    public void written() {
+        Runnable listener = writeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    // 7. 客户端的地址, 为空表示不知道
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public void setRemoteAddress(String remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+}
@@ -6,8 +6,19 @@ import java.io.OutputStream;
 /**
  * RPC服务端对于请求的处理过程
  * onRequest: RPC服务端从[收到请求receive]到[响应返回toResponse]中间的处理过程
+ * onRequest(receive, toResponse, context): 带上请求上下文(收到请求的时间, 客户端是否已经取消),
+ *      TransportServer都调用这个版本, 默认忽略上下文
+ * onRejected: 处理请求的executor已满(抛出RejectedExecutionException)时, TransportServer在提交请求的线程上
+ *      (可能是网络IO线程)调用, 立即写出拒绝的响应, 不能执行请求或者阻塞; 默认写出空的响应
  */
 public interface RequestHandler {
 
     void  onRequest(InputStream receive, OutputStream toResponse);
+
+    default void onRequest(InputStream receive, OutputStream toResponse, RequestContext context) {
+        onRequest(receive, toResponse);
+    }
+
+    default void onRejected(InputStream receive, OutputStream toResponse, RequestContext context) {
+    }
 }
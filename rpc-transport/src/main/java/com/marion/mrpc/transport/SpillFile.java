@@ -0,0 +1,91 @@
+package com.marion.mrpc.transport;
+
+import com.marion.common.buffer.BufferPool;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 读入临时文件的附件帧体, 用于较大的附件, 不占用直接内存
+ *      1. create: 新建临时文件, 文件以DELETE_ON_CLOSE打开, 关闭时删除
+ *      2. readFrom: 从通道读取帧体写入文件, 非阻塞的通道暂时没有数据时返回false(调用方等待可读后再读), 读满length字节后返回true
+ *      3. finish: 把文件映射为只读的缓冲区(isReadOnly为true, 收到的其它附件都可写)后关闭(删除)文件,
+ *          映射在缓冲区被回收之前一直有效, 数据在页缓存中
+ */
+final class SpillFile implements Closeable {
+
+    private static final int CHUNK_SIZE = BufferPool.MAX_SIZE;
+
+    private final FileChannel file;
+
+    private final long length;
+
+    private long position;
+
+    private SpillFile(FileChannel file, long length) {
+        this.file = file;
+        this.length = length;
+    }
+
+    // 1. 为length字节的附件新建临时文件
+    static SpillFile create(int length) throws IOException {
+        TcpFrame.checkAttachmentLength(length);
+        Path path = Files.createTempFile("mrpc-attachment-", ".bin");
+        try {
+            return new SpillFile(FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE), length);
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    // 2. 尽量多地读取帧体写入文件
+    boolean readFrom(ReadableByteChannel channel) throws IOException {
+        byte[] chunk = BufferPool.shared().acquire(CHUNK_SIZE);
+        try {
+            while (position < length) {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(CHUNK_SIZE, length - position));
+                int n = channel.read(buffer);
+                if (n < 0) {
+                    throw new EOFException("connection closed by peer");
+                }
+                if (n == 0) {
+                    return false;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += file.write(buffer, position);
+                }
+            }
+            return true;
+        } finally {
+            BufferPool.shared().release(chunk);
+        }
+    }
+
+    // 3. 映射为只读的缓冲区, 删除文件
+    ByteBuffer finish() throws IOException {
+        try {
+            return file.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // 临时文件, 关闭出错不影响已经映射的数据
+        }
+    }
+}
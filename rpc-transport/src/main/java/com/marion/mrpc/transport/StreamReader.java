@@ -0,0 +1,161 @@
+package com.marion.mrpc.transport;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntConsumer;
+
+/**
+ * 客户端接收一个流式响应, 由TransportClient.writeStream返回
+ *      1. next: 按顺序取出下一帧的帧体, 数据帧之后是结束流的响应帧, 取出响应帧后isFinished为true
+ *      2. 每处理完半个窗口的数据帧, 通过grant授权服务端再发送这么多帧, 缓存的帧数不会超过窗口
+ *      3. close: 还没有结束的流通过cancel通知服务端停止发送, 丢弃已经收到的帧
+ * 不支持流式响应的transportClient直接返回只有响应帧的流
+ */
+public final class StreamReader implements Closeable {
+
+    /**
+     * 连接出错时放入队列, 唤醒等待的调用方
+     */
+    private static final Object FAILED = new Object();
+
+    private final LinkedBlockingQueue<Object> frames = new LinkedBlockingQueue<>();
+
+    private final int window;
+
+    private final IntConsumer grant;
+
+    private final Runnable cancel;
+
+    private int consumed;
+
+    private volatile boolean finished;
+
+    private volatile IOException failure;
+
+    private volatile boolean closed;
+
+    StreamReader(int window, IntConsumer grant, Runnable cancel) {
+        this.window = Math.max(window, 1);
+        this.grant = grant;
+        this.cancel = cancel;
+    }
+
+    /**
+     * 只有一个响应帧的流
+     * @param response 响应帧体
+     */
+    public static StreamReader of(InputStream response) {
+        StreamReader reader = new StreamReader(1, credits -> { }, () -> { });
+        reader.onEnd(response);
+        return reader;
+    }
+
+    // 收到一个流数据帧, 在IO线程上调用
+    void onData(InputStream body) {
+        offer(new Data(body));
+    }
+
+    // 收到结束流的响应帧
+    void onEnd(InputStream response) {
+        offer(response);
+    }
+
+    // 连接出错, 流无法再继续
+    void onError(IOException error) {
+        failure = error;
+        frames.add(FAILED);
+    }
+
+    /**
+     * 1. 取出下一帧
+     * @param deadlineNanos 最多等待到的时间(System.nanoTime), Long.MAX_VALUE表示一直等待
+     * @return 帧体, 调用方读完后关闭
+     * @throws IOException 流已经结束或者连接出错
+     * @throws TimeoutException 到达截止时间还没有收到下一帧
+     */
+    public InputStream next(long deadlineNanos) throws IOException, InterruptedException, TimeoutException {
+        if (finished) {
+            throw new EOFException("stream finished");
+        }
+        Object frame = deadlineNanos == Long.MAX_VALUE ? frames.take()
+            : frames.poll(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (frame == null) {
+            throw new TimeoutException("stream frame deadline exceeded");
+        }
+        if (frame == FAILED) {
+            frames.add(FAILED);
+            throw failure;
+        }
+        if (frame instanceof Data) {
+            // 2. 处理完半个窗口后授权
+            if (++consumed >= (window + 1) / 2) {
+                grant.accept(consumed);
+                consumed = 0;
+            }
+            return ((Data) frame).body;
+        }
+        finished = true;
+        return (InputStream) frame;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    // 3. 关闭流, 还没有结束时通知服务端停止发送
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!finished) {
+            cancel.run();
+        }
+        drain();
+    }
+
+    private void offer(Object frame) {
+        frames.add(frame);
+        // 关闭之后到达的帧直接丢弃
+        if (closed) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        Object frame;
+        while ((frame = frames.poll()) != null) {
+            if (frame == FAILED) {
+                frames.add(FAILED);
+                return;
+            }
+            closeQuietly(frame instanceof Data ? ((Data) frame).body : (InputStream) frame);
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // 帧体在内存中, 关闭不会出错
+        }
+    }
+
+    /**
+     * 数据帧, 与结束流的响应帧区分
+     */
+    private static final class Data {
+
+        final InputStream body;
+
+        Data(InputStream body) {
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.marion.mrpc.transport;
+
+import java.io.IOException;
+
+/**
+ * 服务端分段发送一个流式响应, 由支持流式响应的TransportServer通过RequestContext提供
+ *      1. start: 开始流, 客户端在请求中给出的初始窗口就是一开始可以发送的帧数;
+ *          在不能等待客户端授权的线程上(网络IO线程, 例如ExecutorMode.INLINE)抛出IOException, 这次调用以失败结束
+ *      2. write: 发送一个流数据帧, 窗口用完时阻塞, 直到客户端处理完之前的帧并授权;
+ *          等待期间请求被取消(线程被中断)时抛出InterruptedException
+ * 流以这个请求正常的响应结束, 即RequestHandler.onRequest写出的响应, 之后不能再write
+ */
+public interface StreamWriter {
+
+    void start(int window) throws IOException;
+
+    void write(PayloadWriter payload) throws IOException, InterruptedException;
+}
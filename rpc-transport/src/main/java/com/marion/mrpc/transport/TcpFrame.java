@@ -0,0 +1,150 @@
+package com.marion.mrpc.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP传输使用的二进制帧格式
+ *      帧 = 帧头header[13字节] + 帧体body[length字节]
+ *      帧头 = length[int, 帧体长度] + requestId[long, 请求id] + flags[byte, 标志位]
+ *      1. header: 按照约定格式生成帧头
+ *      2. writeFully: 把缓冲区中的数据全部写入通道
+ *      3. readFully: 从通道中读满整个缓冲区
+ *      4. readAttachment: 把附件帧的帧体直接读入直接缓冲区, 不经过堆内存; 超过SPILL_LENGTH的附件读入临时文件(见SpillFile)
+ *      5. awaitReady: 通道暂时不能读写时等待就绪, 不忙等
+ */
+final class TcpFrame {
+
+    /**
+     * 帧头长度: length(4) + requestId(8) + flags(1)
+     */
+    static final int HEADER_LENGTH = 4 + 8 + 1;
+
+    /**
+     * 单个帧体允许的最大长度, 超过则认为是非法帧, 直接断开连接
+     */
+    static final int MAX_BODY_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * 单个附件帧允许的最大长度, 附件不使用BufferPool, 直接读入直接缓冲区
+     */
+    static final int MAX_ATTACHMENT_LENGTH = 1 << 30;
+
+    /**
+     * 超过这个长度的附件读入临时文件后映射为只读的缓冲区, 不分配直接内存
+     */
+    static final int SPILL_LENGTH = 1024 * 1024;
+
+    /**
+     * flags标志位: 0-请求帧 1-响应帧 2-取消帧(客户端放弃了requestId对应的请求, 帧体为空, 不为空时读完丢弃)
+     *      3-流数据帧(流式响应的一段, 之后还有帧, 流以这个请求的响应帧结束)
+     *      4-授权帧(客户端又处理完了若干个流数据帧, 帧体是4字节的帧数, 服务端可以再发送这么多个)
+     *      5-附件帧(请求或响应的一个附件, 帧体是原始的二进制数据, 在同一requestId的请求帧或响应帧之前发送)
+     */
+    static final byte FLAG_REQUEST = 0;
+    static final byte FLAG_RESPONSE = 1;
+    static final byte FLAG_CANCEL = 2;
+    static final byte FLAG_STREAM = 3;
+    static final byte FLAG_CREDIT = 4;
+    static final byte FLAG_ATTACHMENT = 5;
+
+    private TcpFrame() {
+    }
+
+    // 1. 按照约定格式生成帧头, 返回的缓冲区已经flip, 可以直接写入通道
+    static ByteBuffer header(int length, long requestId, byte flags) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(length).putLong(requestId).put(flags);
+        header.flip();
+        return header;
+    }
+
+    // 2. 把缓冲区中的数据全部写入通道, 非阻塞的通道写不进去时等待可写
+    static void writeFully(SocketChannel channel, ByteBuffer... buffers) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    awaitReady(channel, SelectionKey.OP_WRITE);
+                }
+            }
+        }
+    }
+
+    // 3. 从通道中读满整个缓冲区, 非阻塞的通道没有数据时等待可读, 对端关闭连接时抛出EOFException
+    static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer);
+            if (n < 0) {
+                throw new EOFException("connection closed by peer");
+            }
+            if (n == 0) {
+                awaitReady(channel, SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    // 4. 把附件帧的帧体读入直接缓冲区或者临时文件, 返回的缓冲区已经flip
+    static ByteBuffer readAttachment(SocketChannel channel, int length) throws IOException {
+        if (length > SPILL_LENGTH) {
+            SpillFile spill = SpillFile.create(length);
+            try {
+                while (!spill.readFrom(channel)) {
+                    awaitReady(channel, SelectionKey.OP_READ);
+                }
+                return spill.finish();
+            } finally {
+                spill.close();
+            }
+        }
+        ByteBuffer attachment = allocateAttachment(length);
+        readFully(channel, attachment);
+        attachment.flip();
+        return attachment;
+    }
+
+    /**
+     * 5. 通道暂时不能读写(读写返回0)时等待就绪
+     *      非阻塞的通道在临时的Selector上等待ops就绪; 阻塞的通道读写时不会返回0, 出现时说明通道无法再前进, 抛出IOException
+     * @param channel 读写返回了0的通道
+     * @param ops SelectionKey.OP_READ或者SelectionKey.OP_WRITE
+     */
+    static void awaitReady(Channel channel, int ops) throws IOException {
+        if (!(channel instanceof SelectableChannel) || ((SelectableChannel) channel).isBlocking()) {
+            throw new IOException("no progress on blocking channel " + channel);
+        }
+        try (Selector selector = Selector.open()) {
+            ((SelectableChannel) channel).register(selector, ops);
+            selector.select();
+        }
+    }
+
+    // 按附件帧的长度分配直接缓冲区, 直接内存不足时按连接出错处理
+    static ByteBuffer allocateAttachment(int length) throws IOException {
+        checkAttachmentLength(length);
+        try {
+            return ByteBuffer.allocateDirect(length);
+        } catch (OutOfMemoryError e) {
+            throw new IOException("no direct memory for attachment of " + length + " bytes", e);
+        }
+    }
+
+    // 校验附件帧的长度是否合法
+    static void checkAttachmentLength(int length) throws IOException {
+        if (length < 0 || length > MAX_ATTACHMENT_LENGTH) {
+            throw new IOException("illegal attachment length " + length);
+        }
+    }
+
+    // 校验帧体长度是否合法
+    static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_BODY_LENGTH) {
+            throw new IOException("illegal frame length " + length);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.marion.mrpc.transport;
+
+import com.marion.common.buffer.BufferPool;
+import com.marion.common.buffer.PooledInputStream;
+import com.marion.mrpc.Peer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 基于TCP长连接的网络通信客户端
+ *      1. connect: client->与对端peer建立一条长连接, 之后的每次调用都复用这条连接
+ *      2. write: client->把二进制数据data按照TcpFrame格式发送给server, 并读取同一requestId的响应帧返回
+ *      3. close: 关闭长连接
+ *      4. writeAsync(payload, attachments, received): 附件帧在请求帧之前发送, 文件通过FileChannel.transferTo直接写入连接;
+ *              响应帧之前的附件帧直接读入直接缓冲区
+ * 同一时刻一条连接上只有一个请求在途, 由TransportSelector保证独占使用
+ */
+@Slf4j
+public class TcpTransportClient implements TransportClient {
+
+    private Peer peer;
+
+    private SocketChannel channel;
+
+    private long nextRequestId;
+
+    /**
+     * 响应帧头的读缓冲区, write是同步的, 可以复用
+     */
+    private final ByteBuffer header = ByteBuffer.allocate(TcpFrame.HEADER_LENGTH);
+
+    // 1. client: 与对端peer建立一条长连接
+    @Override public synchronized void connect(Peer peer) {
+        this.peer = peer;
+        try {
+            openChannel();
+        } catch (IOException e) {
+            // 连接失败时不抛出, 等到第一次write时再重连
+            log.warn("tcp connect {} fail, {}", peer, e.getMessage());
+        }
+    }
+
+    // 2. client: 发送一个请求帧, 并阻塞读取对应的响应帧
+    @Override public InputStream write(InputStream data) {
+        return write(out -> IOUtils.copy(data, out));
+    }
+
+    // 2. client: 流式版本, 请求直接写入帧缓冲区, 回填帧头后整体写入通道
+    @Override public InputStream write(PayloadWriter payload) {
+        return write(payload, Collections.emptyList(), null);
+    }
+
+    @Override public boolean supportsAttachments() {
+        return true;
+    }
+
+    // 4. 带附件的请求, 同步完成
+    @Override public CompletableFuture<InputStream> writeAsync(PayloadWriter payload, List<Attachment> attachments,
+                                                             List<ByteBuffer> received) {
+        CompletableFuture<InputStream> future = new CompletableFuture<>();
+        try {
+            future.complete(write(payload, attachments, received));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private synchronized InputStream write(PayloadWriter payload, List<Attachment> attachments,
+                                           List<ByteBuffer> received) {
+        try {
+            if (channel == null || !channel.isOpen()) {
+                openChannel();
+            }
+            long requestId = ++nextRequestId;
+            // 发送请求帧: 帧头 + 帧体, 写完后归还帧缓冲区
+            try (FrameOutputStream frame = new FrameOutputStream()) {
+                payload.writeTo(frame);
+                TcpFrame.checkLength(frame.bodyLength());
+                // 附件帧在请求帧之前发送
+                for (Attachment attachment : attachments) {
+                    new AttachmentFrame(requestId, attachment).writeFully(channel);
+                }
+                TcpFrame.writeFully(channel, frame.toFrame(requestId, TcpFrame.FLAG_REQUEST));
+            } finally {
+                attachments.forEach(Attachment::close);
+            }
+            // 读取响应帧头, 并校验requestId; 响应帧之前可能有附件帧
+            int length;
+            while (true) {
+                header.clear();
+                TcpFrame.readFully(channel, header);
+                header.flip();
+                length = header.getInt();
+                long responseId = header.getLong();
+                byte flags = header.get();
+                if (responseId != requestId) {
+                    throw new IOException("unexpected response id " + responseId + ", expect " + requestId);
+                }
+                if (flags != TcpFrame.FLAG_ATTACHMENT) {
+                    break;
+                }
+                ByteBuffer attachment = TcpFrame.readAttachment(channel, length);
+                if (received != null) {
+                    received.add(attachment);
+                }
+            }
+            TcpFrame.checkLength(length);
+            // 读取响应帧体到池化缓冲区, 调用方读完响应后关闭输入流即归还
+            byte[] responseBody = BufferPool.shared().acquire(length);
+            try {
+                TcpFrame.readFully(channel, ByteBuffer.wrap(responseBody, 0, length));
+            } catch (IOException e) {
+                BufferPool.shared().release(responseBody);
+                throw e;
+            }
+            return new PooledInputStream(responseBody, length);
+        } catch (IOException e) {
+            // 连接出错后状态不可信, 直接关闭, 下次调用时重新建立
+            closeChannel();
+            throw new IllegalStateException("tcp write to " + peer + " fail", e);
+        }
+    }
+
+    @Override public Peer getPeer() {
+        return peer;
+    }
+
+    // 3. 关闭长连接
+    @Override public synchronized void close() {
+        closeChannel();
+    }
+
+    private void openChannel() throws IOException {
+        SocketChannel socketChannel = SocketChannel.open();
+        try {
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            socketChannel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            socketChannel.connect(new InetSocketAddress(peer.getHost(), peer.getPort()));
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        }
+        this.channel = socketChannel;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("tcp close {} fail, {}", peer, e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package com.marion.mrpc.transport;
+
+import com.marion.common.buffer.BufferPool;
+import com.marion.common.buffer.PooledInputStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于TCP长连接的网络通信服务端
+ *      1. init: 记录监听端口port和requestHandler, 准备好处理请求的工作线程池(或使用指定的executor)
+ *      2. start: 打开ServerSocketChannel监听端口, 在当前线程上运行NIO事件循环, 直到stop
+ *          a. accept: 接受新连接, 注册读事件
+ *          b. read: 按照TcpFrame格式拆出完整的请求帧, 交给工作线程调用requestHandler,
+ *             工作线程池已满(拒绝了任务)时在事件循环线程上调用requestHandler.onRejected立即写出拒绝的响应;
+ *             收到取消帧时取消对应的请求, 连接断开时取消这条连接上所有未完成的请求;
+ *             收到授权帧时增加对应的流式响应的窗口; 附件帧读入直接缓冲区, 随后面的请求帧一起交给requestHandler
+ *             (附件的上限见Connection的attachment)
+ *          c. write: 把工作线程生成的响应帧写回对应的连接, 响应的附件在响应帧之前直接从缓冲区或者文件写出
+ *          d. 请求在事件循环线程上执行时(executor是Runnable::run), streamWriter.start抛出IOException, 流式调用以失败结束:
+ *             事件循环线程不能等待授权帧, 否则没有线程再读取授权帧
+ *      3. stop: 结束事件循环, 关闭所有连接和工作线程池
+ */
+@Slf4j
+public class TcpTransportServer implements TransportServer {
+
+    /**
+     * 一条连接上收到的附件占用的直接内存上限, 超出时附件读入临时文件
+     */
+    public static final long DEFAULT_ATTACHMENT_MEMORY_PER_CONNECTION = 64L * 1024 * 1024;
+
+    /**
+     * 一条连接上收到的附件(包括临时文件中的)合计的上限, 超出时断开连接
+     */
+    public static final long DEFAULT_MAX_ATTACHMENT_BYTES_PER_CONNECTION = 4L * TcpFrame.MAX_ATTACHMENT_LENGTH;
+
+    /**
+     * 一个请求最多的附件数, 超出时断开连接
+     */
+    public static final int DEFAULT_MAX_ATTACHMENTS_PER_REQUEST = 64;
+
+    private RequestHandler requestHandler;
+
+    private int port;
+
+    private Executor workers;
+
+    /**
+     * 没有指定executor时自己创建的工作线程池, stop时需要关闭
+     */
+    private ExecutorService ownedWorkers;
+
+    private Selector selector;
+
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * 有响应帧等待写出的连接, 由工作线程放入, 由事件循环线程取出处理
+     */
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running;
+
+    /**
+     * 运行事件循环的线程, 在这个线程上执行的请求不能阻塞
+     */
+    private volatile Thread eventLoopThread;
+
+    private long attachmentMemoryPerConnection = DEFAULT_ATTACHMENT_MEMORY_PER_CONNECTION;
+
+    private long maxAttachmentBytesPerConnection = DEFAULT_MAX_ATTACHMENT_BYTES_PER_CONNECTION;
+
+    private int maxAttachmentsPerRequest = DEFAULT_MAX_ATTACHMENTS_PER_REQUEST;
+
+    // 1. 记录监听端口port和requestHandler, 准备好处理请求的工作线程池
+    @Override public void init(int port, RequestHandler requestHandler) {
+        this.ownedWorkers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+        init(port, requestHandler, ownedWorkers);
+    }
+
+    // 1. 记录监听端口port和requestHandler, 请求交给指定的executor处理
+    @Override public void init(int port, RequestHandler requestHandler, Executor executor) {
+        this.port = port;
+        this.requestHandler = requestHandler;
+        this.workers = executor;
+    }
+
+    // 2. 打开ServerSocketChannel监听端口, 在当前线程上运行NIO事件循环, 直到stop
+    @Override public void start() {
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            running = true;
+            eventLoopThread = Thread.currentThread();
+            log.info("tcp server listen on {}", port);
+            eventLoop();
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                log.error("server start error, {}, {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    // 3. 结束事件循环, 关闭所有连接和工作线程池
+    @Override public void stop() {
+        running = false;
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+        } catch (IOException e) {
+            log.error("server stop error, {}, {}", e.getMessage(), e);
+        }
+        if (ownedWorkers != null) {
+            ownedWorkers.shutdown();
+        }
+    }
+
+    public long getAttachmentMemoryPerConnection() {
+        return attachmentMemoryPerConnection;
+    }
+
+    public void setAttachmentMemoryPerConnection(long attachmentMemoryPerConnection) {
+        this.attachmentMemoryPerConnection = attachmentMemoryPerConnection;
+    }
+
+    public long getMaxAttachmentBytesPerConnection() {
+        return maxAttachmentBytesPerConnection;
+    }
+
+    public void setMaxAttachmentBytesPerConnection(long maxAttachmentBytesPerConnection) {
+        this.maxAttachmentBytesPerConnection = maxAttachmentBytesPerConnection;
+    }
+
+    public int getMaxAttachmentsPerRequest() {
+        return maxAttachmentsPerRequest;
+    }
+
+    public void setMaxAttachmentsPerRequest(int maxAttachmentsPerRequest) {
+        this.maxAttachmentsPerRequest = maxAttachmentsPerRequest;
+    }
+
+    private void eventLoop() throws IOException {
+        while (running) {
+            selector.select();
+            // c. 先把工作线程生成的响应帧写出去
+            Connection pending;
+            while ((pending = pendingWrites.poll()) != null) {
+                pending.flush();
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    // a. accept: 接受新连接, 注册读事件
+                    accept();
+                } else {
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        // b. read: 拆出完整的请求帧, 交给工作线程
+                        connection.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    // 客户端的地址 ip:port, 连接已经断开时为空
+    private static String address(SocketAddress address) {
+        if (!(address instanceof InetSocketAddress)) {
+            return null;
+        }
+        InetSocketAddress inet = (InetSocketAddress) address;
+        return inet.getAddress().getHostAddress() + ":" + inet.getPort();
+    }
+
+    /**
+     * 一条客户端连接的读写状态
+     *      read: 先读满帧头, 再按照帧头中的length读满帧体, 得到一个完整的请求帧;
+     *          任何帧的帧体都按length读完, 不认识的flags直接断开连接
+     *      dispatch: 工作线程调用requestHandler处理请求帧, 生成响应帧放入writeQueue
+     *      flush: 事件循环线程把writeQueue中的响应帧写回客户端
+     *      cancel: 取消帧和断开连接时取消inflight中的请求, 已取消的请求不再写回响应
+     *      stream: 请求可以在响应之前发送流数据帧, 每个请求的窗口由客户端的授权帧增加, 见FrameStreamWriter
+     *      attachment: 附件从收到起到请求处理完为止计入这条连接的预算
+     *          a. 不超过TcpFrame.SPILL_LENGTH, 并且直接内存没有超过attachmentMemoryPerConnection的附件读入直接缓冲区,
+     *             其它附件读入临时文件(见SpillFile), 事件循环线程不会一次分配大块的直接内存
+     *          b. 一个请求的附件超过maxAttachmentsPerRequest个或者合计超过TcpFrame.MAX_ATTACHMENT_LENGTH,
+     *             或者整条连接的附件合计超过maxAttachmentBytesPerConnection时, 按非法帧断开连接
+     */
+    class Connection {
+
+        private final SocketChannel channel;
+
+        private final String remoteAddress;
+
+        private SelectionKey key;
+
+        private final ByteBuffer header = ByteBuffer.allocate(TcpFrame.HEADER_LENGTH);
+
+        /**
+         * 正在读取的请求帧体, bodyBuffer来自BufferPool, 请求处理完后归还; 附件帧的帧体是直接缓冲区, bodyBuffer为空
+         */
+        private ByteBuffer body;
+
+        private byte[] bodyBuffer;
+
+        private long requestId;
+
+        private byte flags;
+
+        /**
+         * 已经收到还没有写回响应的请求: requestId -> 请求上下文
+         */
+        private final Map<Long, RequestContext> inflight = new ConcurrentHashMap<>();
+
+        /**
+         * 已经开始的流式响应: requestId -> 流, 请求处理完后移除
+         */
+        private final Map<Long, FrameStreamWriter> streams = new ConcurrentHashMap<>();
+
+        /**
+         * 已经收到还没有等到请求帧的附件: requestId -> 按顺序收到的附件, 只在事件循环线程上访问
+         */
+        private final Map<Long, List<ByteBuffer>> attachments = new HashMap<>();
+
+        /**
+         * 正在读入临时文件的附件帧体
+         */
+        private SpillFile spill;
+
+        /**
+         * 收到的附件中还没有处理完的字节数: 全部的, 以及其中占用直接内存的
+         */
+        private final AtomicLong attachmentBytes = new AtomicLong();
+
+        private final AtomicLong attachmentMemory = new AtomicLong();
+
+        /**
+         * 待写出的响应帧, 每个元素是一个完整的帧, 保证多个工作线程的响应帧不会交错, 写完后归还帧缓冲区
+         */
+        private final Queue<OutboundFrame> writeQueue = new ConcurrentLinkedQueue<>();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.remoteAddress = address(channel.socket().getRemoteSocketAddress());
+        }
+
+        void read() {
+            try {
+                while (true) {
+                    if (spill != null) {
+                        if (!spill.readFrom(channel)) {
+                            return;
+                        }
+                        ByteBuffer attachment = spill.finish();
+                        spill = null;
+                        attachments.computeIfAbsent(requestId, id -> new ArrayList<>()).add(attachment);
+                        continue;
+                    }
+                    if (body == null) {
+                        if (channel.read(header) < 0) {
+                            close();
+                            return;
+                        }
+                        if (header.hasRemaining()) {
+                            return;
+                        }
+                        header.flip();
+                        int length = header.getInt();
+                        requestId = header.getLong();
+                        flags = header.get();
+                        header.clear();
+                        if (flags == TcpFrame.FLAG_ATTACHMENT) {
+                            startAttachment(requestId, length);
+                            continue;
+                        }
+                        TcpFrame.checkLength(length);
+                        if (flags == TcpFrame.FLAG_CANCEL && length == 0) {
+                            cancel(requestId);
+                            continue;
+                        }
+                        // 客户端只会发送请求帧、取消帧、授权帧和附件帧, 其它帧说明两端的帧格式已经不一致
+                        if (flags != TcpFrame.FLAG_REQUEST && flags != TcpFrame.FLAG_CANCEL
+                            && flags != TcpFrame.FLAG_CREDIT) {
+                            throw new IOException("unexpected frame flags " + flags + " from " + remoteAddress);
+                        }
+                        bodyBuffer = BufferPool.shared().acquire(length);
+                        body = ByteBuffer.wrap(bodyBuffer, 0, length);
+                    }
+                    if (body.hasRemaining() && channel.read(body) < 0) {
+                        close();
+                        return;
+                    }
+                    if (body.hasRemaining()) {
+                        return;
+                    }
+                    if (flags == TcpFrame.FLAG_ATTACHMENT) {
+                        body.flip();
+                        attachments.computeIfAbsent(requestId, id -> new ArrayList<>()).add(body);
+                    } else if (flags == TcpFrame.FLAG_CREDIT) {
+                        credit(requestId, body);
+                    } else if (flags == TcpFrame.FLAG_CANCEL) {
+                        // 取消帧的帧体没有意义, 读完丢弃, 保持后续帧的边界
+                        BufferPool.shared().release(bodyBuffer);
+                        cancel(requestId);
+                    } else {
+                        dispatch(requestId, new PooledInputStream(bodyBuffer, body.limit()));
+                    }
+                    body = null;
+                    bodyBuffer = null;
+                }
+            } catch (IOException e) {
+                log.warn("tcp read fail, {}", e.toString());
+                close();
+            }
+        }
+
+        // attachment: 检查附件的上限, 决定读入直接缓冲区还是临时文件
+        private void startAttachment(long id, int length) throws IOException {
+            TcpFrame.checkAttachmentLength(length);
+            List<ByteBuffer> received = attachments.get(id);
+            long requestBytes = length;
+            if (received != null) {
+                for (ByteBuffer attachment : received) {
+                    requestBytes += attachment.capacity();
+                }
+            }
+            if ((received != null && received.size() >= maxAttachmentsPerRequest)
+                || requestBytes > TcpFrame.MAX_ATTACHMENT_LENGTH) {
+                throw new IOException("too many attachments for request " + id + " from " + remoteAddress);
+            }
+            if (attachmentBytes.get() + length > maxAttachmentBytesPerConnection) {
+                throw new IOException("attachments from " + remoteAddress + " exceed "
+                    + maxAttachmentBytesPerConnection + " bytes");
+            }
+            attachmentBytes.addAndGet(length);
+            if (length <= TcpFrame.SPILL_LENGTH && attachmentMemory.get() + length <= attachmentMemoryPerConnection) {
+                attachmentMemory.addAndGet(length);
+                body = TcpFrame.allocateAttachment(length);
+            } else {
+                spill = SpillFile.create(length);
+            }
+        }
+
+        // 请求处理完, 它的附件不再计入这条连接的预算; 只读的是临时文件的映射, 不占用直接内存
+        private void releaseAttachments(List<ByteBuffer> received) {
+            for (ByteBuffer attachment : received) {
+                attachmentBytes.addAndGet(-attachment.capacity());
+                if (!attachment.isReadOnly()) {
+                    attachmentMemory.addAndGet(-attachment.capacity());
+                }
+            }
+        }
+
+        void dispatch(long id, PooledInputStream request) {
+            RequestContext context = new RequestContext();
+            context.setRemoteAddress(remoteAddress);
+            List<ByteBuffer> received = attachments.remove(id);
+            List<ByteBuffer> requestAttachments = received != null ? received : new ArrayList<>();
+            context.setAttachments(requestAttachments);
+            inflight.put(id, context);
+            try {
+                workers.execute(() -> process(id, request, context, requestAttachments, false));
+            } catch (RejectedExecutionException e) {
+                // 工作线程池已满: 在事件循环线程上立即写出拒绝的响应, 不执行请求
+                process(id, request, context, requestAttachments, true);
+            }
+        }
+
+        // 调用requestHandler处理一个请求(rejected时只生成拒绝的响应), 把响应帧交给事件循环线程写出
+        private void process(long id, PooledInputStream request, RequestContext context,
+                             List<ByteBuffer> requestAttachments, boolean rejected) {
+            context.setStreamWriter(new FrameStreamWriter(id, context));
+            // 响应直接写入帧缓冲区, 处理完成后回填帧头; 请求帧体处理完后立即归还
+            FrameOutputStream toResponse = new FrameOutputStream();
+            try (PooledInputStream receiveRequest = request) {
+                // 在队列中等待时已经被取消的请求不再执行
+                if (requestHandler != null && !context.isCancelled()) {
+                    if (rejected) {
+                        requestHandler.onRejected(receiveRequest, toResponse, context);
+                    } else {
+                        requestHandler.onRequest(receiveRequest, toResponse, context);
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("tcp request {} fail, {}", id, e.getMessage());
+            }
+            releaseAttachments(requestAttachments);
+            inflight.remove(id, context);
+            streams.remove(id);
+            if (context.isCancelled()) {
+                toResponse.close();
+                context.getResponseAttachments().forEach(Attachment::close);
+                return;
+            }
+            // 响应的附件在响应帧之前发送, 客户端收到响应帧时已经收齐了附件
+            for (Attachment attachment : context.getResponseAttachments()) {
+                enqueue(new AttachmentFrame(id, attachment));
+            }
+            toResponse.toFrame(id, TcpFrame.FLAG_RESPONSE);
+            toResponse.whenWritten(context::written);
+            enqueue(toResponse);
+        }
+
+        // 把一个完整的帧交给事件循环线程写出
+        void enqueue(OutboundFrame frame) {
+            writeQueue.add(frame);
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        // 授权帧: 帧体是4字节的帧数, 流已经结束时忽略
+        void credit(long id, ByteBuffer body) {
+            body.flip();
+            int credits = body.remaining() >= 4 ? body.getInt() : 0;
+            BufferPool.shared().release(bodyBuffer);
+            FrameStreamWriter stream = streams.get(id);
+            if (stream != null && credits > 0) {
+                stream.grant(credits);
+            }
+        }
+
+        void flush() {
+            try {
+                OutboundFrame response;
+                while ((response = writeQueue.peek()) != null) {
+                    if (!response.writeTo(channel)) {
+                        // 内核发送缓冲区已满, 等待可写事件后继续
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    writeQueue.poll();
+                    response.close();
+                }
+                if (key.isValid()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("tcp write fail, {}", e.toString());
+                close();
+            }
+        }
+
+        // 客户端放弃了这个请求
+        void cancel(long id) {
+            RequestContext context = inflight.remove(id);
+            if (context != null) {
+                context.cancel();
+            }
+        }
+
+        void close() {
+            key.cancel();
+            streams.clear();
+            // 连接断开后响应无法写回, 取消所有未完成的请求
+            for (Long id : inflight.keySet()) {
+                cancel(id);
+            }
+            attachments.clear();
+            if (spill != null) {
+                spill.close();
+                spill = null;
+            }
+            OutboundFrame response;
+            while ((response = writeQueue.poll()) != null) {
+                response.close();
+            }
+            if (bodyBuffer != null) {
+                BufferPool.shared().release(bodyBuffer);
+                body = null;
+                bodyBuffer = null;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("tcp close fail, {}", e.getMessage());
+            }
+        }
+
+        /**
+         * 一个请求的流式响应, 在工作线程上写出流数据帧
+         *      窗口(credits)从客户端请求中的初始窗口开始, 每写出一帧减一, 收到授权帧时增加;
+         *      窗口为0时工作线程等待, 请求被取消时InvocationGuard中断等待;
+         *      授权帧由事件循环线程读取, 在事件循环线程上start时抛出IOException, 见2.d
+         */
+        final class FrameStreamWriter implements StreamWriter {
+
+            private final long id;
+
+            private final RequestContext context;
+
+            private int credits;
+
+            FrameStreamWriter(long id, RequestContext context) {
+                this.id = id;
+                this.context = context;
+            }
+
+            @Override
+            public void start(int window) throws IOException {
+                if (Thread.currentThread() == eventLoopThread) {
+                    throw new IOException("stream " + id + " cannot wait for credits on the event loop thread");
+                }
+                synchronized (this) {
+                    credits = window;
+                }
+                streams.put(id, this);
+            }
+
+            @Override
+            public void write(PayloadWriter payload) throws IOException, InterruptedException {
+                synchronized (this) {
+                    while (credits <= 0) {
+                        if (context.isCancelled()) {
+                            throw new IOException("stream " + id + " cancelled");
+                        }
+                        wait();
+                    }
+                    credits--;
+                }
+                if (context.isCancelled()) {
+                    throw new IOException("stream " + id + " cancelled");
+                }
+                FrameOutputStream frame = new FrameOutputStream();
+                try {
+                    payload.writeTo(frame);
+                    TcpFrame.checkLength(frame.bodyLength());
+                } catch (IOException | RuntimeException e) {
+                    frame.close();
+                    throw e;
+                }
+                frame.toFrame(id, TcpFrame.FLAG_STREAM);
+                enqueue(frame);
+            }
+
+            synchronized void grant(int more) {
+                credits += more;
+                notifyAll();
+            }
+        }
+    }
+}
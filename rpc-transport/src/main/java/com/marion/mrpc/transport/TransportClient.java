@@ -2,13 +2,29 @@ package com.marion.mrpc.transport;
 
 import com.marion.mrpc.Peer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 网络通信客户端接口
  *      1. connect: client->创建连接到对端peer, 即连接server
  *      2. write: client->发送二进制数据data到对端peer, 即发送请求到server, 最终返回得到的InputStream二进制响应信息
  *      3. close: 关闭client
+ *      4. isMultiplexed: 是否支持多个线程同时在一个client上发送请求, 支持的话TransportSelector不必独占它
+ *      5. writeAsync: 异步版本的write, 立即返回future, 响应到达后在网络通信的IO线程上完成.
+ *              默认实现直接调用同步的write, 支持异步的client需要重写
+ *      6. getPeer: 已连接的对端peer, 客户端按peer缓存对端的状态(例如方法表), 未连接时为null
+ *      write(PayloadWriter) & writeAsync(PayloadWriter): 流式版本, 由client提供输出流, 调用方把请求直接写进去.
+ *              默认实现先写到内存再调用write(InputStream), 支持流式的client需要重写
+ *      7. supportsStreaming & writeStream: 发送请求后按帧接收流式响应, window是初始窗口(帧数).
+ *              默认不支持, writeStream直接返回只有响应帧的流, 服务端需要把结果整体放在响应中
+ *      8. supportsAttachments & writeAsync(payload, attachments, received): 请求的附件在请求帧之前直接写入连接, 不经过编码;
+ *              响应的附件读入直接缓冲区后按顺序放入received, 在future完成之前放好. 默认不支持, 二进制数据需要放在请求中
  */
 public interface TransportClient {
 
@@ -17,4 +33,65 @@ public interface TransportClient {
     InputStream write(InputStream data);
 
     void close();
+
+    default Peer getPeer() {
+        return null;
+    }
+
+    default boolean isMultiplexed() {
+        return false;
+    }
+
+    default CompletableFuture<InputStream> writeAsync(InputStream data) {
+        CompletableFuture<InputStream> future = new CompletableFuture<>();
+        try {
+            future.complete(write(data));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    default InputStream write(PayloadWriter payload) {
+        return write(toInputStream(payload));
+    }
+
+    default CompletableFuture<InputStream> writeAsync(PayloadWriter payload) {
+        try {
+            return writeAsync(toInputStream(payload));
+        } catch (RuntimeException e) {
+            CompletableFuture<InputStream> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    default boolean supportsStreaming() {
+        return false;
+    }
+
+    default StreamReader writeStream(PayloadWriter payload, int window) {
+        return StreamReader.of(write(payload));
+    }
+
+    default boolean supportsAttachments() {
+        return false;
+    }
+
+    default CompletableFuture<InputStream> writeAsync(PayloadWriter payload, List<Attachment> attachments,
+                                                      List<ByteBuffer> received) {
+        CompletableFuture<InputStream> future = new CompletableFuture<>();
+        future.completeExceptionally(new UnsupportedOperationException("attachments not supported by " + getClass()));
+        return future;
+    }
+
+    static InputStream toInputStream(PayloadWriter payload) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            payload.writeTo(out);
+            return new ByteArrayInputStream(out.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException("write payload fail", e);
+        }
+    }
 }
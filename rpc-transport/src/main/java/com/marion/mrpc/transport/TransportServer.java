@@ -1,16 +1,24 @@
 package com.marion.mrpc.transport;
 
+import java.util.concurrent.Executor;
+
 /**
  *  网络通信服务端接口
  *      1. init: 在对应端口port建立jettyServer进行监听, 初始化设置好HttpTransportServer对应的requestHandler
  *      2. start: 启动jettyServer, 并等待接收请求, 最终[RequestServlet负责]响应进行处理并返回
  *      3. stop: 关闭jettyServer
+ *      init(port, requestHandler, executor): 指定处理请求的executor, 网络IO线程只负责收发, requestHandler在executor上执行.
+ *              默认实现忽略executor, 由各网络通信服务端自己决定在哪个线程上处理
  */
 public interface TransportServer {
 
 
     void init(int port, RequestHandler requestHandler);
 
+    default void init(int port, RequestHandler requestHandler, Executor executor) {
+        init(port, requestHandler);
+    }
+
     void start();
 
     void stop();
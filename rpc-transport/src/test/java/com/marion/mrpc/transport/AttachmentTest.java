@@ -0,0 +1,143 @@
+package com.marion.mrpc.transport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class AttachmentTest {
+
+    private static final byte[] DATA = {1, 2, 3, 4, 5};
+
+    @Test
+    public void writesFileWithTransferTo() throws Exception {
+        Path path = Files.createTempFile("attachment", ".bin");
+        try {
+            Files.write(path, DATA);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (Attachment attachment = Attachment.of(path); WritableByteChannel channel = Channels.newChannel(out)) {
+                assertEquals(DATA.length, attachment.length());
+                attachment.writeFully(channel);
+            }
+            assertArrayEquals(DATA, out.toByteArray());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void bufferKeepsPosition() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DATA.length);
+        buffer.put(DATA).position(2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Attachment.of(buffer).writeFully(Channels.newChannel(out));
+        assertArrayEquals(new byte[]{3, 4, 5}, out.toByteArray());
+        assertEquals(2, buffer.position());
+    }
+
+    @Test
+    public void convertsToDeclaredType() throws Exception {
+        assertArrayEquals(DATA, (byte[]) Attachment.convert(ByteBuffer.wrap(DATA), byte[].class));
+        // JSON中的byte[]是base64字符串
+        assertEquals(ByteBuffer.wrap(DATA),
+            Attachment.convert(Base64.getEncoder().encodeToString(DATA), ByteBuffer.class));
+        Path path = (Path) Attachment.convert(DATA, Path.class);
+        try {
+            assertArrayEquals(DATA, Files.readAllBytes(path));
+        } finally {
+            Files.delete(path);
+        }
+        assertEquals("text", Attachment.convert("text", String.class));
+        assertNull(Attachment.convert(null, Path.class));
+    }
+
+    @Test
+    public void inlinesAsBytes() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(DATA);
+        buffer.position(3);
+        assertArrayEquals(new byte[]{4, 5}, (byte[]) Attachment.inline(buffer));
+        assertSame(DATA, Attachment.inline(DATA));
+        assertTrue(Attachment.isBinary(Path.class));
+        assertFalse(Attachment.isBinary(Object.class));
+    }
+
+    @Test
+    public void writeFullyWaitsForNonBlockingChannel() throws Exception {
+        byte[] data = new byte[4 * 1024 * 1024];
+        Arrays.fill(data, (byte) 7);
+        Pipe pipe = Pipe.open();
+        pipe.sink().configureBlocking(false);
+        // 读取方先停一会儿, 管道写满后写入方需要等待
+        CompletableFuture<Integer> received = CompletableFuture.supplyAsync(() -> {
+            try {
+                Thread.sleep(300);
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                int total = 0;
+                int n;
+                while ((n = pipe.source().read(buffer)) >= 0) {
+                    total += n;
+                    buffer.clear();
+                }
+                return total;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        Attachment.of(data).writeFully(pipe.sink());
+        long waited = System.nanoTime() - start;
+        pipe.sink().close();
+        assertEquals(data.length, received.get().intValue());
+        pipe.source().close();
+        // 在Selector上等待可写, 而不是忙等
+        if (threads.isCurrentThreadCpuTimeSupported()) {
+            assertTrue(threads.getCurrentThreadCpuTime() - cpuStart < waited / 2);
+        }
+    }
+
+    @Test
+    public void readsSpilledAttachmentFromNonBlockingChannel() throws Exception {
+        int length = TcpFrame.SPILL_LENGTH + 1;
+        try (ServerSocketChannel listener = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+             SocketChannel client = SocketChannel.open(listener.getLocalAddress());
+             SocketChannel accepted = listener.accept()) {
+            accepted.configureBlocking(false);
+            // 数据分两次、间隔一段时间到达, 读取方需要等待可读
+            CompletableFuture<Void> sent = CompletableFuture.runAsync(() -> {
+                try {
+                    byte[] half = new byte[length / 2];
+                    Arrays.fill(half, (byte) 9);
+                    TcpFrame.writeFully(client, ByteBuffer.wrap(half));
+                    Thread.sleep(200);
+                    byte[] rest = new byte[length - half.length];
+                    Arrays.fill(rest, (byte) 9);
+                    TcpFrame.writeFully(client, ByteBuffer.wrap(rest));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            ByteBuffer attachment = TcpFrame.readAttachment(accepted, length);
+            sent.get();
+            assertTrue(attachment.isReadOnly());
+            assertEquals(length, attachment.remaining());
+            assertEquals(9, attachment.get(length - 1));
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.marion.mrpc.transport;
+
+import com.marion.mrpc.Peer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.marion.mrpc.transport.TcpTransportTest.freePort;
+import static com.marion.mrpc.transport.TcpTransportTest.start;
+import static com.marion.mrpc.transport.TcpTransportTest.stream;
+import static com.marion.mrpc.transport.TcpTransportTest.text;
+import static org.junit.Assert.*;
+
+public class Http2TransportTest {
+
+    private TransportServer server;
+
+    private int port;
+
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+
+    // 原样返回请求体
+    private static final RequestHandler ECHO = (receive, toResponse) -> {
+        try {
+            IOUtils.copy(receive, toResponse);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    };
+
+    // 请求体是"毫秒数:内容", 等待这么久后返回内容
+    private static final RequestHandler DELAYED = (receive, toResponse) -> {
+        try {
+            String[] request = IOUtils.toString(receive, StandardCharsets.UTF_8).split(":", 2);
+            Thread.sleep(Long.parseLong(request[0]));
+            toResponse.write(request[1].getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    };
+
+    private void startH2c(RequestHandler handler) throws Exception {
+        port = freePort();
+        server = new Http2TransportServer();
+        // 每个请求一个线程, 慢请求不会让同一个连接上的其它流排队
+        server.init(port, handler, workers);
+        start(server, port);
+    }
+
+    private Http2TransportClient connect() {
+        Http2TransportClient client = new Http2TransportClient();
+        client.connect(new Peer("127.0.0.1", port));
+        return client;
+    }
+
+    @After
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
+        workers.shutdownNow();
+    }
+
+    @Test
+    public void roundTripsOnOneSession() throws Exception {
+        startH2c(ECHO);
+        Http2TransportClient client = connect();
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertEquals("hello " + i, text(client.write(stream("hello " + i))));
+            }
+            // 空的请求体同样是一个完整的流
+            assertEquals("", text(client.write(stream(""))));
+            // 超过一个DATA帧的请求体和响应体
+            char[] large = new char[100_000];
+            Arrays.fill(large, 'x');
+            assertEquals(new String(large), text(client.write(stream(new String(large)))));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void acceptsHttp1Clients() throws Exception {
+        startH2c(ECHO);
+        HttpTransportClient client = new HttpTransportClient();
+        client.connect(new Peer("127.0.0.1", port));
+        try {
+            assertEquals("plain", text(client.write(stream("plain"))));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void bodyLengthIsConfigurable() throws Exception {
+        startH2c(ECHO);
+        HttpTransportClient client = new HttpTransportClient();
+        client.connect(new Peer("127.0.0.1", port));
+        try {
+            // 默认不限制, 超过TCP帧上限的消息体照常收发
+            char[] large = new char[TcpFrame.MAX_BODY_LENGTH + 1];
+            Arrays.fill(large, 'x');
+            assertEquals(large.length, text(client.write(stream(new String(large)))).length());
+            // 服务端的上限: 超过时返回413
+            ((HttpTransportServer) server).setMaxBodyLength(8);
+            try {
+                client.write(stream("123456789"));
+                fail();
+            } catch (IllegalStateException e) {
+                assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("413"));
+            }
+            assertEquals("12345678", text(client.write(stream("12345678"))));
+            // 客户端的上限: 请求体超过时不发送
+            client.setMaxBodyLength(4);
+            try {
+                client.write(stream("12345"));
+                fail();
+            } catch (IllegalStateException e) {
+                assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("exceeds limit 4"));
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void multiplexesOutOfOrderResponses() throws Exception {
+        startH2c(DELAYED);
+        Http2TransportClient client = connect();
+        try {
+            List<String> completed = Collections.synchronizedList(new ArrayList<>());
+            List<CompletableFuture<InputStream>> futures = new ArrayList<>();
+            int[] delays = {600, 300, 0};
+            for (int delay : delays) {
+                CompletableFuture<InputStream> future = client.writeAsync(stream(delay + ":r" + delay));
+                future.thenRun(() -> completed.add("r" + delay));
+                futures.add(future);
+            }
+            // 同一个会话上的响应按完成的先后返回, 并且各自对应自己的请求
+            for (int i = 0; i < delays.length; i++) {
+                assertEquals("r" + delays[i], text(futures.get(i).get(5, TimeUnit.SECONDS)));
+            }
+            assertEquals(Arrays.asList("r0", "r300", "r600"), completed);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void concurrentCallsShareOneSession() throws Exception {
+        startH2c(DELAYED);
+        Http2TransportClient client = connect();
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        try {
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < 64; i++) {
+                String body = "call-" + i;
+                results.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return text(client.write(stream("300:" + body)));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, callers));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("call-" + i, results.get(i).get(10, TimeUnit.SECONDS));
+            }
+            // 16个线程的调用在一个连接上并发, 而不是逐个排队(64 * 300ms)
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(8));
+        } finally {
+            callers.shutdownNow();
+            client.close();
+        }
+    }
+
+    @Test
+    public void timedOutStreamIsResetAndCancelled() throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        startH2c(new RequestHandler() {
+            @Override public void onRequest(InputStream receive, OutputStream toResponse) {
+                throw new UnsupportedOperationException();
+            }
+
+            // 请求体是"wait"时一直等到客户端取消, 其它请求原样返回
+            @Override public void onRequest(InputStream receive, OutputStream toResponse, RequestContext context) {
+                try {
+                    String body = IOUtils.toString(receive, StandardCharsets.UTF_8);
+                    if ("wait".equals(body)) {
+                        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                        while (!context.isCancelled() && System.nanoTime() < deadline) {
+                            Thread.sleep(10);
+                        }
+                        if (context.isCancelled()) {
+                            cancelled.countDown();
+                        }
+                    }
+                    toResponse.write(body.getBytes(StandardCharsets.UTF_8));
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        Http2TransportClient client = new Http2TransportClient();
+        client.setReadTimeoutMillis(200);
+        client.connect(new Peer("127.0.0.1", port));
+        try {
+            long start = System.nanoTime();
+            try {
+                client.write(stream("wait"));
+                fail();
+            } catch (IllegalStateException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            // 客户端重置流后服务端取消了请求, 会话上之后的请求不受影响
+            assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+            assertEquals("next", text(client.write(stream("next"))));
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.marion.mrpc.transport;
+
+import com.marion.mrpc.Deadline;
+import com.marion.mrpc.Peer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HttpConnectionPoolTest {
+
+    // 只监听不读写, 连接停在backlog中即可, 测试只关心连接的借出和归还
+    private ServerSocket listener;
+
+    private HttpConnectionPool pool;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    @Before
+    public void listen() throws IOException {
+        listener = new ServerSocket(0, 16);
+        pool = HttpConnectionPool.retain(new Peer("127.0.0.1", listener.getLocalPort()));
+    }
+
+    @After
+    public void close() throws IOException {
+        timer.shutdownNow();
+        pool.unretain();
+        listener.close();
+    }
+
+    private HttpConnection acquire(int maxActive, long acquireTimeoutMillis) throws IOException {
+        return pool.acquire(1000, 1000, 20000, maxActive, acquireTimeoutMillis);
+    }
+
+    @Test
+    public void waitsForReleasedConnectionAtMaxActive() throws Exception {
+        HttpConnection first = acquire(1, 200);
+        long start = System.nanoTime();
+        try {
+            acquire(1, 200);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("1 in use"));
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+
+        // 其它调用还回连接后, 等待中的acquire拿到名额
+        timer.schedule(() -> pool.release(first, 16), 100, TimeUnit.MILLISECONDS);
+        HttpConnection second = acquire(1, 5000);
+        pool.discard(second);
+        // 出错关闭的连接同样让出名额
+        pool.discard(acquire(1, 200));
+        pool.discard(acquire(1, 200));
+    }
+
+    @Test
+    public void waitIsBoundedByDeadline() throws Exception {
+        HttpConnection first = acquire(1, 200);
+        long start = System.nanoTime();
+        try (Deadline.Scope ignored = Deadline.after(100, TimeUnit.MILLISECONDS)) {
+            acquire(1, 5000);
+            fail();
+        } catch (IOException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        } finally {
+            pool.discard(first);
+        }
+    }
+
+    @Test
+    public void zeroMaxActiveIsUnlimited() throws Exception {
+        HttpConnection[] connections = new HttpConnection[4];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = acquire(0, 0);
+        }
+        for (HttpConnection connection : connections) {
+            pool.discard(connection);
+        }
+    }
+}
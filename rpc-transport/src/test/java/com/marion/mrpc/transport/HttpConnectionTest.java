@@ -0,0 +1,113 @@
+package com.marion.mrpc.transport;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class HttpConnectionTest {
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String body(HttpConnection.HttpResponse response) throws IOException {
+        try (InputStream in = response.body) {
+            return IOUtils.toString(in, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    @Test
+    public void readsContentLengthBodyAndLeavesNextResponse() throws IOException {
+        InputStream in = stream("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello"
+            + "HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\nbye");
+        HttpConnection.HttpResponse first = HttpConnection.readResponse(in, 0);
+        assertEquals(200, first.status);
+        assertTrue(first.keepAlive);
+        assertEquals("hello", body(first));
+        // 第一个响应体之后的数据原样留在流中, 连接可以继续使用
+        assertEquals("bye", body(HttpConnection.readResponse(in, 0)));
+    }
+
+    @Test
+    public void readsChunkedBody() throws IOException {
+        InputStream in = stream("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "4;ext=1\r\nwiki\r\n5\r\npedia\r\n0\r\nX-Trailer: 1\r\n\r\n");
+        HttpConnection.HttpResponse response = HttpConnection.readResponse(in, 0);
+        assertTrue(response.keepAlive);
+        assertEquals("wikipedia", body(response));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void bodyWithoutLengthReadsToEndAndClosesConnection() throws IOException {
+        HttpConnection.HttpResponse response = HttpConnection.readResponse(stream("HTTP/1.1 200 OK\r\n\r\nrest"), 0);
+        assertFalse(response.keepAlive);
+        assertEquals("rest", body(response));
+    }
+
+    @Test
+    public void honoursConnectionHeader() throws IOException {
+        assertFalse(HttpConnection.readResponse(
+            stream("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 0\r\n\r\n"), 0).keepAlive);
+        assertFalse(HttpConnection.readResponse(stream("HTTP/1.0 200 OK\r\nContent-Length: 0\r\n\r\n"), 0).keepAlive);
+        assertTrue(HttpConnection.readResponse(
+            stream("HTTP/1.0 200 OK\r\nConnection: Keep-Alive\r\nContent-Length: 0\r\n\r\n"), 0).keepAlive);
+    }
+
+    @Test
+    public void keepsErrorStatus() throws IOException {
+        HttpConnection.HttpResponse response = HttpConnection.readResponse(
+            stream("HTTP/1.1 500 Server Error\r\nContent-Length: 4\r\n\r\noops"), 0);
+        assertEquals(500, response.status);
+        assertEquals("oops", body(response));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedBodyFails() throws IOException {
+        HttpConnection.readResponse(stream("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nshort"), 0);
+    }
+
+    @Test
+    public void oversizedBodyFails() throws IOException {
+        try {
+            HttpConnection.readResponse(stream("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello"), 4);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exceeds limit 4"));
+        }
+        try {
+            HttpConnection.readResponse(stream("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "3\r\nabc\r\n2\r\nde\r\n0\r\n\r\n"), 4);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exceeds limit 4"));
+        }
+        // 超过缓冲区能放下的长度时, 不配置上限也失败
+        try {
+            HttpConnection.readResponse(stream("HTTP/1.1 200 OK\r\nContent-Length: "
+                + (HttpConnection.MAX_BUFFERED_LENGTH + 1L) + "\r\n\r\n"), 0);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exceeds limit"));
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void bodyIsNotLimitedToFrameLengthByDefault() throws IOException {
+        // 默认不限制, 超过TCP帧上限的Content-Length照常读取, 这里只因为数据不完整而失败
+        HttpConnection.readResponse(stream("HTTP/1.1 200 OK\r\nContent-Length: "
+            + (TcpFrame.MAX_BODY_LENGTH + 1L) + "\r\n\r\nshort"), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void illegalStatusLineFails() throws IOException {
+        HttpConnection.readResponse(stream("SSH-2.0-OpenSSH\r\n\r\n"), 0);
+    }
+}
@@ -0,0 +1,95 @@
+package com.marion.mrpc.transport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StreamReaderTest {
+
+    private static InputStream frame(int value) {
+        return new ByteArrayInputStream(new byte[]{(byte) value});
+    }
+
+    @Test
+    public void grantsAfterHalfWindow() throws Exception {
+        List<Integer> grants = new ArrayList<>();
+        StreamReader reader = new StreamReader(4, grants::add, () -> { });
+        for (int i = 0; i < 5; i++) {
+            reader.onData(frame(i));
+        }
+        reader.onEnd(frame(9));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, reader.next(Long.MAX_VALUE).read());
+        }
+        // 每处理完半个窗口(2帧)授权一次, 第5帧还不够半个窗口
+        assertEquals(2, grants.size());
+        assertEquals(Integer.valueOf(2), grants.get(0));
+        assertFalse(reader.isFinished());
+        assertEquals(9, reader.next(Long.MAX_VALUE).read());
+        assertTrue(reader.isFinished());
+    }
+
+    @Test
+    public void closeCancelsUnfinishedStream() {
+        AtomicInteger cancels = new AtomicInteger();
+        StreamReader reader = new StreamReader(4, credits -> { }, cancels::incrementAndGet);
+        reader.onData(frame(1));
+        reader.close();
+        reader.close();
+        assertEquals(1, cancels.get());
+        // 关闭之后到达的帧直接丢弃
+        reader.onData(frame(2));
+        reader.onEnd(frame(3));
+    }
+
+    @Test
+    public void closeAfterEndDoesNotCancel() throws Exception {
+        AtomicInteger cancels = new AtomicInteger();
+        StreamReader reader = new StreamReader(4, credits -> { }, cancels::incrementAndGet);
+        reader.onEnd(frame(1));
+        reader.next(Long.MAX_VALUE);
+        reader.close();
+        assertEquals(0, cancels.get());
+    }
+
+    @Test
+    public void singleResponse() throws Exception {
+        StreamReader reader = StreamReader.of(frame(7));
+        assertEquals(7, reader.next(Long.MAX_VALUE).read());
+        assertTrue(reader.isFinished());
+        try {
+            reader.next(Long.MAX_VALUE);
+            fail();
+        } catch (EOFException e) {
+            // 流已经结束
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void nextTimesOut() throws Exception {
+        new StreamReader(4, credits -> { }, () -> { }).next(System.nanoTime() + 1000000);
+    }
+
+    @Test
+    public void errorWakesEveryCall() throws Exception {
+        StreamReader reader = new StreamReader(4, credits -> { }, () -> { });
+        reader.onError(new IOException("connection reset"));
+        for (int i = 0; i < 2; i++) {
+            try {
+                reader.next(Long.MAX_VALUE);
+                fail();
+            } catch (IOException e) {
+                assertEquals("connection reset", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.marion.mrpc.transport;
+
+import com.marion.mrpc.Peer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class TcpTransportTest {
+
+    private TransportServer server;
+
+    private int port;
+
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+
+    // 原样返回请求体
+    private static final RequestHandler ECHO = (receive, toResponse) -> {
+        try {
+            IOUtils.copy(receive, toResponse);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    };
+
+    // 请求体是"毫秒数:内容", 等待这么久后返回内容
+    private static final RequestHandler DELAYED = (receive, toResponse) -> {
+        try {
+            String[] request = IOUtils.toString(receive, StandardCharsets.UTF_8).split(":", 2);
+            Thread.sleep(Long.parseLong(request[0]));
+            toResponse.write(request[1].getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    };
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // 在后台线程上启动server, 等到端口可以连接
+    static void start(TransportServer server, int port) throws Exception {
+        Thread thread = new Thread(server::start, "test-server-" + port);
+        thread.setDaemon(true);
+        thread.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try (SocketChannel probe = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    static String text(InputStream in) throws IOException {
+        try (InputStream body = in) {
+            return IOUtils.toString(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void startEcho() throws Exception {
+        startTcp(ECHO);
+    }
+
+    private void startTcp(RequestHandler handler) throws Exception {
+        startTcp(new TcpTransportServer(), handler);
+    }
+
+    private void startTcp(TcpTransportServer tcpServer, RequestHandler handler) throws Exception {
+        port = freePort();
+        server = tcpServer;
+        // 每个请求一个线程, 慢请求不会让后面的请求排队
+        server.init(port, handler, workers);
+        start(server, port);
+    }
+
+    // 按顺序描述收到的附件: 在内存还是临时文件(只读的映射)中, 长度, 最后一个字节
+    private static final RequestHandler DESCRIBE_ATTACHMENTS = new RequestHandler() {
+        @Override public void onRequest(InputStream receive, OutputStream toResponse) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void onRequest(InputStream receive, OutputStream toResponse, RequestContext context) {
+            StringBuilder description = new StringBuilder();
+            for (ByteBuffer attachment : context.getAttachments()) {
+                description.append(attachment.isReadOnly() ? "file" : "memory")
+                    .append(':').append(attachment.remaining())
+                    .append(':').append(attachment.get(attachment.limit() - 1)).append(';');
+            }
+            try {
+                toResponse.write(description.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static void sendAttachment(SocketChannel channel, long id, int length, byte value) throws IOException {
+        byte[] body = new byte[length];
+        Arrays.fill(body, value);
+        TcpFrame.writeFully(channel, TcpFrame.header(length, id, TcpFrame.FLAG_ATTACHMENT), ByteBuffer.wrap(body));
+    }
+
+    private static String call(SocketChannel channel, long id) throws IOException {
+        TcpFrame.writeFully(channel, TcpFrame.header(1, id, TcpFrame.FLAG_REQUEST), ByteBuffer.wrap(new byte[1]));
+        ByteBuffer header = ByteBuffer.allocate(TcpFrame.HEADER_LENGTH);
+        TcpFrame.readFully(channel, header);
+        header.flip();
+        ByteBuffer body = ByteBuffer.allocate(header.getInt());
+        assertEquals(id, header.getLong());
+        assertEquals(TcpFrame.FLAG_RESPONSE, header.get());
+        TcpFrame.readFully(channel, body);
+        return new String(body.array(), StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
+        workers.shutdownNow();
+    }
+
+    @Test
+    public void roundTripsOnOneConnection() throws Exception {
+        startEcho();
+        TcpTransportClient client = new TcpTransportClient();
+        client.connect(new Peer("127.0.0.1", port));
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertEquals("hello " + i, text(client.write(stream("hello " + i))));
+            }
+            // 空的请求体同样是一个完整的帧
+            assertEquals("", text(client.write(stream(""))));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void skipsCancelFrameBody() throws Exception {
+        startEcho();
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+            TcpFrame.writeFully(channel, TcpFrame.header(3, 7, TcpFrame.FLAG_CANCEL), ByteBuffer.wrap(new byte[3]));
+            TcpFrame.writeFully(channel, TcpFrame.header(2, 8, TcpFrame.FLAG_REQUEST), ByteBuffer.wrap("ok".getBytes()));
+            ByteBuffer header = ByteBuffer.allocate(TcpFrame.HEADER_LENGTH);
+            TcpFrame.readFully(channel, header);
+            header.flip();
+            assertEquals(2, header.getInt());
+            assertEquals(8, header.getLong());
+            assertEquals(TcpFrame.FLAG_RESPONSE, header.get());
+            ByteBuffer body = ByteBuffer.allocate(2);
+            TcpFrame.readFully(channel, body);
+            assertEquals("ok", new String(body.array()));
+        }
+    }
+
+    @Test
+    public void closesOnUnknownFlags() throws Exception {
+        startEcho();
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+            TcpFrame.writeFully(channel, TcpFrame.header(0, 1, (byte) 42));
+            channel.socket().setSoTimeout(5000);
+            assertEquals(-1, channel.socket().getInputStream().read());
+        }
+    }
+
+    @Test
+    public void multiplexesOutOfOrderResponses() throws Exception {
+        startTcp(DELAYED);
+        MultiplexTcpTransportClient client = new MultiplexTcpTransportClient();
+        client.connect(new Peer("127.0.0.1", port));
+        try {
+            List<String> completed = Collections.synchronizedList(new ArrayList<>());
+            List<CompletableFuture<InputStream>> futures = new ArrayList<>();
+            int[] delays = {600, 300, 0};
+            for (int delay : delays) {
+                CompletableFuture<InputStream> future = client.writeAsync(stream(delay + ":r" + delay));
+                future.thenRun(() -> completed.add("r" + delay));
+                futures.add(future);
+            }
+            // 同一条连接上的响应按完成的先后返回, 并且各自对应自己的请求
+            for (int i = 0; i < delays.length; i++) {
+                assertEquals("r" + delays[i], text(futures.get(i).get(5, TimeUnit.SECONDS)));
+            }
+            assertEquals(Arrays.asList("r0", "r300", "r600"), completed);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void multiplexedWriteTimesOut() throws Exception {
+        startTcp(DELAYED);
+        MultiplexTcpTransportClient client = new MultiplexTcpTransportClient();
+        client.setReadTimeoutMillis(200);
+        client.connect(new Peer("127.0.0.1", port));
+        try {
+            long start = System.nanoTime();
+            try {
+                client.write(stream("3000:late"));
+                fail();
+            } catch (IllegalStateException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            // 超时的请求不影响这条连接上之后的请求
+            assertEquals("next", text(client.write(stream("0:next"))));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void inlineHandlerDoesNotWaitForCredits() throws Exception {
+        port = freePort();
+        server = new TcpTransportServer();
+        // 直接在事件循环线程上处理请求, 与ExecutorMode.INLINE相同
+        server.init(port, new RequestHandler() {
+            @Override public void onRequest(InputStream receive, OutputStream toResponse) {
+                throw new UnsupportedOperationException();
+            }
+
+            // 能够按流发送时发送比窗口更多的帧; 不能等待授权时start失败, 不把所有结果放进内存
+            @Override public void onRequest(InputStream receive, OutputStream toResponse, RequestContext context) {
+                try {
+                    StreamWriter writer = context.getStreamWriter();
+                    try {
+                        writer.start(1);
+                    } catch (IOException e) {
+                        toResponse.write("rejected".getBytes(StandardCharsets.UTF_8));
+                        return;
+                    }
+                    for (int i = 0; i < 4; i++) {
+                        writer.write(out -> out.write("part".getBytes(StandardCharsets.UTF_8)));
+                    }
+                    toResponse.write("done".getBytes(StandardCharsets.UTF_8));
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }, Runnable::run);
+        start(server, port);
+        MultiplexTcpTransportClient client = new MultiplexTcpTransportClient();
+        client.connect(new Peer("127.0.0.1", port));
+        try {
+            StreamReader reader = client.writeStream(out -> out.write(1), 1);
+            // 事件循环线程没有等待授权帧, 流式调用直接结束
+            assertEquals("rejected", text(reader.next(System.nanoTime() + TimeUnit.SECONDS.toNanos(5))));
+            assertTrue(reader.isFinished());
+            reader.close();
+            assertEquals("rejected", text(client.write(stream("next"))));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void largeAttachmentsAreSpilledToFiles() throws Exception {
+        TcpTransportServer tcpServer = new TcpTransportServer();
+        tcpServer.setAttachmentMemoryPerConnection(8);
+        startTcp(tcpServer, DESCRIBE_ATTACHMENTS);
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+            // 第二个附件超出了内存预算, 第三个超过了SPILL_LENGTH
+            sendAttachment(channel, 1, 5, (byte) 1);
+            sendAttachment(channel, 1, 5, (byte) 2);
+            sendAttachment(channel, 1, TcpFrame.SPILL_LENGTH + 1, (byte) 3);
+            assertEquals("memory:5:1;file:5:2;file:" + (TcpFrame.SPILL_LENGTH + 1) + ":3;", call(channel, 1));
+            // 请求处理完后附件不再占用预算
+            sendAttachment(channel, 2, 5, (byte) 4);
+            assertEquals("memory:5:4;", call(channel, 2));
+        }
+    }
+
+    @Test
+    public void closesOnTooManyAttachments() throws Exception {
+        TcpTransportServer tcpServer = new TcpTransportServer();
+        tcpServer.setMaxAttachmentsPerRequest(2);
+        startTcp(tcpServer, DESCRIBE_ATTACHMENTS);
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+            for (int i = 0; i < 3; i++) {
+                sendAttachment(channel, 1, 5, (byte) i);
+            }
+            channel.socket().setSoTimeout(5000);
+            assertEquals(-1, channel.socket().getInputStream().read());
+        }
+    }
+
+    @Test
+    public void closesWhenConnectionExceedsAttachmentBudget() throws Exception {
+        TcpTransportServer tcpServer = new TcpTransportServer();
+        tcpServer.setMaxAttachmentBytesPerConnection(8);
+        startTcp(tcpServer, DESCRIBE_ATTACHMENTS);
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+            // 附件属于不同的请求, 合计仍然超出了连接的预算
+            sendAttachment(channel, 1, 5, (byte) 1);
+            sendAttachment(channel, 2, 5, (byte) 2);
+            channel.socket().setSoTimeout(5000);
+            assertEquals(-1, channel.socket().getInputStream().read());
+        }
+    }
+
+    @Test
+    public void rejectedRequestsAreAnsweredWithoutRunning() throws Exception {
+        port = freePort();
+        server = new TcpTransportServer();
+        // 工作线程池已满, 拒绝所有任务
+        server.init(port, new RequestHandler() {
+            @Override public void onRequest(InputStream receive, OutputStream toResponse) {
+                throw new IllegalStateException("must not run on the event loop");
+            }
+
+            @Override public void onRejected(InputStream receive, OutputStream toResponse, RequestContext context) {
+                try {
+                    toResponse.write(("busy " + text(receive)).getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }, task -> {
+            throw new RejectedExecutionException("queue full");
+        });
+        start(server, port);
+        MultiplexTcpTransportClient client = new MultiplexTcpTransportClient();
+        client.connect(new Peer("127.0.0.1", port));
+        try {
+            assertEquals("busy a", text(client.write(stream("a"))));
+            assertEquals("busy b", text(client.write(stream("b"))));
+        } finally {
+            client.close();
+        }
+    }
+}